@@ -0,0 +1,98 @@
+/*
+ *    Copyright 2020-2023  Peter Paul Bakker @ perfana.io, Daniel Moll @ perfana.io
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.perfana.client;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import io.perfana.client.domain.ConfigItem;
+import io.perfana.client.domain.PerfanaTest;
+import io.perfana.client.domain.TestRunConfigKeys;
+import io.perfana.client.domain.Variable;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hand written codecs versus databind, for a config upload and the test run status reply.
+ * Run with `-prof gc` to compare the allocation per operation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(2)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class DomainCodecsBenchmark {
+
+    private static final OutputStream NULL_OUTPUT = OutputStream.nullOutputStream();
+
+    private ObjectWriter keysWriter;
+    private ObjectReader testReader;
+
+    private TestRunConfigKeys keys;
+    private String testJson;
+
+    @Setup
+    public void setup() throws IOException {
+        ObjectMapper objectMapper = new ObjectMapper()
+                .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false)
+                .configure(JsonGenerator.Feature.AUTO_CLOSE_TARGET, false);
+        keysWriter = objectMapper.writer().forType(TestRunConfigKeys.class);
+        testReader = objectMapper.reader().forType(PerfanaTest.class);
+
+        TestRunConfigKeys.TestRunConfigKeysBuilder builder = TestRunConfigKeys.builder()
+                .application("afterburner").testEnvironment("acc").testType("load").testRunId("afterburner-load-123")
+                .tag("jvm").tag("k8s");
+        for (int i = 0; i < 50; i++) {
+            builder.configItem(ConfigItem.builder().key("jvm.arg." + i).value("-XX:Option" + i + "=\"value " + i + "\"").build());
+        }
+        keys = builder.build();
+
+        PerfanaTest.PerfanaTestBuilder testBuilder = PerfanaTest.builder()
+                .id("6123").systemUnderTest("afterburner").testRunId("afterburner-load-123").version("1.2.3")
+                .testEnvironment("acc").workload("load").duration(900).plannedDuration(900).rampUp(60)
+                .start("2024-01-01T10:00:00Z").end("2024-01-01T10:15:00Z").completed(true).tag("jvm");
+        for (int i = 0; i < 10; i++) {
+            testBuilder.variable(Variable.builder().placeholder("var" + i).value("value" + i).build());
+        }
+        testJson = objectMapper.writeValueAsString(testBuilder.build());
+    }
+
+    @Benchmark
+    public void writeCodec() throws IOException {
+        PerfanaCodecs.write(DomainCodecs.TEST_RUN_CONFIG_KEYS, keys, NULL_OUTPUT);
+    }
+
+    @Benchmark
+    public void writeDatabind() throws IOException {
+        keysWriter.writeValue(NULL_OUTPUT, keys);
+    }
+
+    @Benchmark
+    public PerfanaTest readCodec() throws IOException {
+        return PerfanaCodecs.read(DomainCodecs.PERFANA_TEST, testJson);
+    }
+
+    @Benchmark
+    public PerfanaTest readDatabind() throws IOException {
+        return testReader.readValue(testJson);
+    }
+}
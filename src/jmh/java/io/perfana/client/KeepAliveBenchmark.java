@@ -0,0 +1,114 @@
+/*
+ *    Copyright 2020-2023  Peter Paul Bakker @ perfana.io, Daniel Moll @ perfana.io
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.perfana.client;
+
+import com.sun.net.httpserver.HttpServer;
+import io.perfana.client.api.PerfanaClientLogger;
+import io.perfana.client.api.PerfanaConnectionSettingsBuilder;
+import io.perfana.client.api.PerfanaTestContext;
+import io.perfana.client.api.TestContextBuilder;
+import io.perfana.client.transport.JdkHttpTransportProvider;
+import io.perfana.client.transport.OkHttpTransportProvider;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A complete keep alive call: encode the PerfanaMessage, post it over a kept alive connection
+ * and read the abort status, against an in-process stub that replies right away.
+ * Note: gc.alloc.rate.norm includes the allocations of the stub.
+ *
+ * The stub needs TCP_NODELAY: otherwise its separate writes of headers and body meet delayed acks,
+ * and each call takes about 40 ms.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(value = 2, jvmArgsAppend = "-Dsun.net.httpserver.nodelay=true")
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class KeepAliveBenchmark {
+
+    private static final byte[] REPLY = "{\"abort\":false}".getBytes(StandardCharsets.UTF_8);
+
+    @Param({ OkHttpTransportProvider.NAME, JdkHttpTransportProvider.NAME })
+    public String transport;
+
+    private HttpServer server;
+    private PerfanaClient client;
+    private PerfanaTestContext context;
+
+    @Setup
+    public void setup() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/", exchange -> {
+            exchange.getRequestBody().transferTo(OutputStream.nullOutputStream());
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, REPLY.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(REPLY);
+            }
+        });
+        server.start();
+
+        Map<String, String> variables = new HashMap<>();
+        for (int i = 0; i < 10; i++) {
+            variables.put("__variable" + i + "__", "value-" + i);
+        }
+        context = new TestContextBuilder()
+                .setTestRunId("afterburner-load-1234")
+                .setSystemUnderTest("afterburner")
+                .setWorkload("load")
+                .setTestEnvironment("acc")
+                .setTags("jmeter,k8s")
+                .setVariables(variables)
+                .build();
+        client = new PerfanaClientBuilder()
+                .setPerfanaConnectionSettings(new PerfanaConnectionSettingsBuilder()
+                        .setPerfanaUrl("http://localhost:" + server.getAddress().getPort())
+                        .setTransport(transport)
+                        .build())
+                .setTestContext(context)
+                .setLogger(new QuietLogger())
+                .build();
+    }
+
+    @TearDown
+    public void tearDown() {
+        client.close();
+        server.stop(0);
+    }
+
+    @Benchmark
+    public void keepAlive() {
+        client.callPerfanaTestEndpoint(context, false);
+    }
+
+    private static final class QuietLogger implements PerfanaClientLogger {
+        @Override public void info(String message) {}
+        @Override public void warn(String message) { System.err.println(message); }
+        @Override public void error(String message) { System.err.println(message); }
+        @Override public void error(String message, Throwable throwable) { System.err.println(message + ": " + throwable); }
+        @Override public void debug(String message) {}
+    }
+}
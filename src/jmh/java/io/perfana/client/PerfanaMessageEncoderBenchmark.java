@@ -0,0 +1,117 @@
+/*
+ *    Copyright 2020-2023  Peter Paul Bakker @ perfana.io, Daniel Moll @ perfana.io
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.perfana.client;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import io.perfana.client.api.PerfanaTestContext;
+import io.perfana.client.api.TestContextBuilder;
+import io.perfana.client.domain.PerfanaMessage;
+import io.perfana.client.domain.Variable;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The PerfanaMessage json of each keep alive call, with a realistic number of variables and tags.
+ * Run with `-prof gc`: gc.alloc.rate.norm should stay close to zero.
+ * The databind benchmark is the baseline: the json via the PerfanaMessage builder and an ObjectWriter.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(2)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class PerfanaMessageEncoderBenchmark {
+
+    private static final OutputStream NULL_OUTPUT = OutputStream.nullOutputStream();
+    private static final ObjectWriter PERFANA_MESSAGE_WRITER = new ObjectMapper().writer().forType(PerfanaMessage.class);
+
+    /** variables of the test context, e.g. from the pom or the load generator */
+    @Param({ "10", "50" })
+    public int variableCount;
+
+    /** variables received from other plugins during the test run */
+    @Param({ "0", "10" })
+    public int extraVariableCount;
+
+    private PerfanaTestContext context;
+    private PerfanaMessageEncoder encoder;
+    private Map<String, String> extraVariables;
+
+    @Setup
+    public void setup() {
+        Map<String, String> variables = new HashMap<>();
+        for (int i = 0; i < variableCount; i++) {
+            variables.put("__variable" + i + "__", "value-" + i);
+        }
+        context = new TestContextBuilder()
+                .setTestRunId("afterburner-load-1234")
+                .setSystemUnderTest("afterburner")
+                .setWorkload("load")
+                .setTestEnvironment("acc")
+                .setVersion("1.2.3")
+                .setCIBuildResultsUrl("https://ci.example.com/job/afterburner/1234/")
+                .setAnnotations("benchmark run")
+                .setTags("jmeter,k8s,jfr,gatling,wiremock")
+                .setVariables(variables)
+                .build();
+        encoder = new PerfanaMessageEncoder(context);
+
+        extraVariables = new LinkedHashMap<>();
+        for (int i = 0; i < extraVariableCount; i++) {
+            extraVariables.put("__received" + i + "__", "received-value-" + i);
+        }
+    }
+
+    @Benchmark
+    public void keepAlive() throws IOException {
+        encoder.writeTo(NULL_OUTPUT, false, extraVariables);
+    }
+
+    @Benchmark
+    public byte[] databind() throws IOException {
+        PerfanaMessage.PerfanaMessageBuilder builder = PerfanaMessage.builder()
+                .testRunId(context.getTestRunId())
+                .workload(context.getWorkload())
+                .testEnvironment(context.getTestEnvironment())
+                .systemUnderTest(context.getSystemUnderTest())
+                .version(context.getVersion())
+                .cibuildResultsUrl(context.getCIBuildResultsUrl())
+                .rampUp(String.valueOf(context.getRampupTime().getSeconds()))
+                .duration(String.valueOf(context.getPlannedDuration().getSeconds()))
+                .completed(false)
+                .annotations(context.getAnnotations())
+                .tags(context.getTags());
+        context.getVariables().forEach((k, v) -> builder.variable(Variable.builder().placeholder(k).value(v).build()));
+        extraVariables.forEach((k, v) -> builder.variable(Variable.builder().placeholder(k).value(v).build()));
+        // the json String is encoded to bytes again for the http request body
+        return PERFANA_MESSAGE_WRITER.writeValueAsString(builder.build()).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public PerfanaMessageEncoder newEncoder() {
+        // once per test context, and when the context changes
+        return new PerfanaMessageEncoder(context);
+    }
+}
@@ -0,0 +1,53 @@
+/*
+ *    Copyright 2020-2023  Peter Paul Bakker @ perfana.io, Daniel Moll @ perfana.io
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.perfana.client;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * String helpers that run for every call (urls) or every test run (tags, variables).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(2)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class PerfanaUtilsBenchmark {
+
+    public String baseUrl = "https://perfana.example.com/";
+    public String endpoint = "/api/test";
+    public String tags = " jmeter, k8s ,jfr,, gatling , wiremock ";
+    public String text = "2024-01-01T10:00:00.000Z INFO  [main] connected to http://perfana:4000/api/test in 12 ms";
+
+    @Benchmark
+    public String addSlashIfNeeded() {
+        return PerfanaUtils.addSlashIfNeeded(baseUrl, endpoint);
+    }
+
+    @Benchmark
+    public List<String> splitAndTrim() {
+        return PerfanaUtils.splitAndTrim(tags, ",");
+    }
+
+    @Benchmark
+    public int countOccurrences() {
+        return PerfanaUtils.countOccurrences(":", text);
+    }
+}
@@ -0,0 +1,163 @@
+/*
+ *    Copyright 2020-2023  Peter Paul Bakker @ perfana.io, Daniel Moll @ perfana.io
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.perfana.client;
+
+import com.sun.net.httpserver.HttpServer;
+import io.perfana.client.api.PerfanaClientLogger;
+import io.perfana.client.api.PerfanaConnectionSettingsBuilder;
+import io.perfana.client.api.PerfanaTestContext;
+import io.perfana.client.api.TestContextBuilder;
+import io.perfana.eventscheduler.api.EventFactory;
+import io.perfana.eventscheduler.api.TestContextInitializerFactory;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.ServiceLoader;
+
+/**
+ * Cold start cost of the plugin path, each run in a new JVM:
+ *
+ * <ul>
+ *     <li>factories: the scheduler loads the Perfana factories, e.g. a run with Perfana disabled</li>
+ *     <li>first-call: the factories, a new PerfanaClient and the first keep alive call to a local stub</li>
+ * </ul>
+ *
+ * Reports the time from the start of main (and of the JVM), the number of classes loaded by the
+ * scenario and how many of those are Jackson databind classes. Usage: StartupHarness [runs]
+ */
+public final class StartupHarness {
+
+    private static final String CHILD = "--child";
+    private static final String RESULT = "RESULT ";
+    private static final String[] SCENARIOS = { "factories", "first-call" };
+
+    private StartupHarness() {}
+
+    public static void main(String[] args) throws Exception {
+        if (args.length == 2 && CHILD.equals(args[0])) {
+            runScenario(args[1]);
+            return;
+        }
+        int runs = args.length > 0 ? Integer.parseInt(args[0]) : 10;
+        System.out.printf("%-11s %12s %12s %9s %9s%n", "scenario", "main (ms)", "jvm (ms)", "classes", "databind");
+        for (String scenario : SCENARIOS) {
+            List<long[]> results = new ArrayList<>(runs);
+            for (int i = 0; i < runs; i++) {
+                results.add(runChild(scenario));
+            }
+            long[] median = new long[4];
+            for (int column = 0; column < median.length; column++) {
+                List<Long> values = new ArrayList<>(runs);
+                for (long[] result : results) {
+                    values.add(result[column]);
+                }
+                Collections.sort(values);
+                median[column] = values.get(values.size() / 2);
+            }
+            System.out.printf("%-11s %12.1f %12.1f %9d %9d   (median of %d runs)%n",
+                    scenario, median[0] / 1000.0, median[1] / 1000.0, median[2], median[3], runs);
+        }
+    }
+
+    /**
+     * @return micros since main, micros since jvm start, classes loaded, databind classes loaded
+     */
+    private static long[] runChild(String scenario) throws IOException, InterruptedException {
+        String java = System.getProperty("java.home") + "/bin/java";
+        Process process = new ProcessBuilder(java, "-Xshare:auto", "-Xlog:class+load=info",
+                "-cp", System.getProperty("java.class.path"), StartupHarness.class.getName(), CHILD, scenario)
+                .redirectErrorStream(true)
+                .start();
+        long databindClasses = 0;
+        String result = null;
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith(RESULT)) {
+                    result = line.substring(RESULT.length());
+                } else if (line.contains("] com.fasterxml.jackson.databind.")) {
+                    databindClasses++;
+                }
+            }
+        }
+        if (process.waitFor() != 0 || result == null) {
+            throw new IllegalStateException("scenario " + scenario + " failed, exit code " + process.exitValue());
+        }
+        String[] values = result.split(" ");
+        return new long[] { Long.parseLong(values[0]), Long.parseLong(values[1]), Long.parseLong(values[2]), databindClasses };
+    }
+
+    private static void runScenario(String scenario) throws IOException {
+        long startNanos = System.nanoTime();
+        int startClasses = ManagementFactory.getClassLoadingMXBean().getLoadedClassCount();
+        HttpServer server = "first-call".equals(scenario) ? startStub() : null;
+
+        ServiceLoader.load(EventFactory.class).forEach(factory -> {});
+        ServiceLoader.load(TestContextInitializerFactory.class).forEach(factory -> {});
+
+        if (server != null) {
+            PerfanaTestContext context = new TestContextBuilder().setTestRunId("startup").build();
+            PerfanaClient client = new PerfanaClientBuilder()
+                    .setPerfanaConnectionSettings(new PerfanaConnectionSettingsBuilder()
+                            .setPerfanaUrl("http://localhost:" + server.getAddress().getPort())
+                            .build())
+                    .setTestContext(context)
+                    .setLogger(new QuietLogger())
+                    .build();
+            client.callPerfanaTestEndpoint(context, false);
+            client.close();
+        }
+
+        long micros = (System.nanoTime() - startNanos) / 1000;
+        long jvmMicros = ManagementFactory.getRuntimeMXBean().getUptime() * 1000;
+        int classes = ManagementFactory.getClassLoadingMXBean().getLoadedClassCount() - startClasses;
+        System.out.println(RESULT + micros + " " + jvmMicros + " " + classes);
+        if (server != null) {
+            server.stop(0);
+        }
+    }
+
+    private static HttpServer startStub() throws IOException {
+        byte[] reply = "{\"abort\":false}".getBytes(StandardCharsets.UTF_8);
+        HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/", exchange -> {
+            exchange.getRequestBody().readAllBytes();
+            exchange.sendResponseHeaders(200, reply.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(reply);
+            }
+        });
+        server.start();
+        return server;
+    }
+
+    private static final class QuietLogger implements PerfanaClientLogger {
+        @Override public void info(String message) {}
+        @Override public void warn(String message) { System.err.println(message); }
+        @Override public void error(String message) { System.err.println(message); }
+        @Override public void error(String message, Throwable throwable) { System.err.println(message + ": " + throwable); }
+        @Override public void debug(String message) {}
+    }
+}
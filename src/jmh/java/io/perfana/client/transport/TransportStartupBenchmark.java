@@ -0,0 +1,87 @@
+/*
+ *    Copyright 2020-2023  Peter Paul Bakker @ perfana.io, Daniel Moll @ perfana.io
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.perfana.client.transport;
+
+import com.sun.net.httpserver.HttpServer;
+import io.perfana.client.api.PerfanaConnectionSettings;
+import io.perfana.client.api.PerfanaConnectionSettingsBuilder;
+import io.perfana.client.api.PerfanaEndpointGroup;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time to the first reply in a new JVM: loading and creating the transport, connecting and the first call.
+ * This is the cost a short test run pays, so every measurement is a single shot in a new fork.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(10)
+@Warmup(iterations = 0)
+@Measurement(iterations = 1)
+public class TransportStartupBenchmark {
+
+    private static final byte[] REPLY = "{\"abort\":false}".getBytes(StandardCharsets.UTF_8);
+
+    @Param({ OkHttpTransportProvider.NAME, JdkHttpTransportProvider.NAME })
+    public String transport;
+
+    private HttpServer server;
+    private String url;
+
+    @Setup(Level.Trial)
+    public void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/", exchange -> {
+            exchange.getRequestBody().readAllBytes();
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, REPLY.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(REPLY);
+            }
+        });
+        server.start();
+        url = "http://localhost:" + server.getAddress().getPort();
+    }
+
+    @TearDown(Level.Trial)
+    public void stopServer() {
+        server.stop(0);
+    }
+
+    @Benchmark
+    public int firstCall() throws IOException {
+        PerfanaConnectionSettings settings = new PerfanaConnectionSettingsBuilder()
+                .setPerfanaUrl(url)
+                .setTransport(transport)
+                .build();
+        PerfanaTransport perfanaTransport = PerfanaTransports.create(settings.getTransport(), settings);
+        TransportRequest request = TransportRequest.builder(url + "/api/test")
+                .post(RequestContent.of(REPLY, RequestContent.JSON))
+                .build();
+        try (TransportResponse response = perfanaTransport.newCall(request, settings.getTimeoutProfile(PerfanaEndpointGroup.KEEP_ALIVE)).execute();
+             InputStream body = response.body()) {
+            return response.code() + body.readAllBytes().length;
+        }
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ *    Copyright 2020-2023  Peter Paul Bakker @ perfana.io, Daniel Moll @ perfana.io
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.perfana.event;
+
+import io.perfana.client.api.PerfanaTestContext;
+import io.perfana.client.api.TestContextBuilder;
+import io.perfana.client.domain.TestRunConfigJson;
+import io.perfana.client.domain.TestRunConfigKeyValue;
+import io.perfana.client.domain.TestRunConfigKeys;
+import io.perfana.eventscheduler.util.TestRunConfigUtil;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * From test-run-config message to upload, for the key, json and keys outputs.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(2)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class TestRunConfigMessagesBenchmark {
+
+    /** number of key-value pairs in a keys message, e.g. jvm arguments or environment variables */
+    @Param({ "20", "200" })
+    public int keyCount;
+
+    private PerfanaTestContext context;
+
+    private Map<String, String> keyVariables;
+    private String keyMessage;
+
+    private Map<String, String> jsonVariables;
+    private String jsonMessage;
+
+    private Map<String, String> keysVariables;
+    private String keysMessage;
+
+    @Setup
+    public void setup() {
+        context = new TestContextBuilder()
+                .setTestRunId("afterburner-load-1234")
+                .setSystemUnderTest("afterburner")
+                .setWorkload("load")
+                .setTestEnvironment("acc")
+                .build();
+
+        keyVariables = Map.of("message-type", "test-run-config", "output", "key", "key", "jmeter.version", "tags", "jmeter,config");
+        keyMessage = "5.6.3";
+
+        jsonVariables = Map.of("message-type", "test-run-config", "output", "json", "tags", "k8s,deployment",
+                "includes", "spec.template.spec.containers", "excludes", "metadata.managedFields,status");
+        StringBuilder json = new StringBuilder("{\"spec\":{\"template\":{\"spec\":{\"containers\":[");
+        for (int i = 0; i < 10; i++) {
+            json.append(i == 0 ? "" : ",").append("{\"name\":\"container-").append(i).append("\",\"image\":\"registry/image:1.").append(i).append("\"}");
+        }
+        jsonMessage = json.append("]}}}}").toString();
+
+        keysVariables = Map.of("message-type", "test-run-config", "output", "keys", "tags", "jvm,arguments");
+        List<String> keyValues = new ArrayList<>();
+        for (int i = 0; i < keyCount; i++) {
+            keyValues.add("jvm.arg." + i);
+            keyValues.add("-XX:+Option" + i);
+        }
+        keysMessage = String.join(TestRunConfigUtil.MESSAGE_KEY_VALUE_DELIMITER, keyValues);
+    }
+
+    @Benchmark
+    public TestRunConfigKeyValue key() {
+        return TestRunConfigMessages.keyValue(context, keyVariables, keyMessage);
+    }
+
+    @Benchmark
+    public TestRunConfigJson json() {
+        return TestRunConfigMessages.json(context, jsonVariables, jsonMessage);
+    }
+
+    @Benchmark
+    public TestRunConfigKeys keys() {
+        return TestRunConfigMessages.keys(context, TestRunConfigMessages.splitTags(keysVariables.getOrDefault("tags", "")),
+                TestRunConfigMessages.configItems(keysMessage));
+    }
+}
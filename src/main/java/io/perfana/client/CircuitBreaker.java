@@ -0,0 +1,162 @@
+/*
+ *    Copyright 2020-2023  Peter Paul Bakker @ perfana.io, Daniel Moll @ perfana.io
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.perfana.client;
+
+import io.perfana.client.api.PerfanaClientLogger;
+import net.jcip.annotations.ThreadSafe;
+
+import java.time.Duration;
+import java.util.function.LongSupplier;
+
+/**
+ * Stops calling a Perfana endpoint that keeps failing, so callers do not wait for timeouts on every call.
+ *
+ * Closed: calls are done, outcomes of the last windowSize calls are kept. When at least minimumCalls
+ * are known and the failure rate reaches the threshold, the breaker opens.
+ * Open: calls are rejected until openDuration has passed, then one probe call is let through (half-open).
+ * Half-open: a successful probe closes the breaker, a failed probe opens it again.
+ *
+ * Calls that bypass the breaker, because they must always be done, still report their outcome:
+ * a success of such a call also closes the breaker.
+ */
+@ThreadSafe
+final class CircuitBreaker {
+
+    enum State { CLOSED, OPEN, HALF_OPEN }
+
+    private final String name;
+    private final int failureRateThreshold;
+    private final int minimumCalls;
+    private final long openDurationNanos;
+    private final PerfanaClientLogger logger;
+    private final LongSupplier nanoClock;
+
+    // guarded by this
+    private final boolean[] window;
+    private int calls = 0;
+    private int failures = 0;
+    private int next = 0;
+    private State state = State.CLOSED;
+    private long openedAtNanos;
+    private boolean probeInFlight = false;
+
+    /**
+     * @param failureRateThreshold percentage of failed calls that opens the breaker
+     */
+    CircuitBreaker(String name, int failureRateThreshold, int minimumCalls, int windowSize, Duration openDuration, PerfanaClientLogger logger) {
+        this(name, failureRateThreshold, minimumCalls, windowSize, openDuration, logger, System::nanoTime);
+    }
+
+    CircuitBreaker(String name, int failureRateThreshold, int minimumCalls, int windowSize, Duration openDuration, PerfanaClientLogger logger, LongSupplier nanoClock) {
+        this.name = name;
+        this.failureRateThreshold = failureRateThreshold;
+        this.window = new boolean[Math.max(1, windowSize)];
+        this.minimumCalls = Math.max(1, Math.min(minimumCalls, window.length));
+        this.openDurationNanos = openDuration.toNanos();
+        this.logger = logger;
+        this.nanoClock = nanoClock;
+    }
+
+    /**
+     * @return true when the call can be done, false when it should fail fast
+     */
+    synchronized boolean tryAcquire() {
+        switch (state) {
+            case CLOSED:
+                return true;
+            case OPEN:
+                if (nanoClock.getAsLong() - openedAtNanos < openDurationNanos) {
+                    return false;
+                }
+                transitionTo(State.HALF_OPEN);
+                probeInFlight = true;
+                return true;
+            case HALF_OPEN:
+            default:
+                if (probeInFlight) {
+                    return false;
+                }
+                probeInFlight = true;
+                return true;
+        }
+    }
+
+    synchronized void onSuccess() {
+        if (state != State.CLOSED) {
+            transitionTo(State.CLOSED);
+        } else {
+            record(false);
+        }
+    }
+
+    synchronized void onFailure() {
+        if (state == State.HALF_OPEN) {
+            transitionTo(State.OPEN);
+        } else if (state == State.CLOSED) {
+            record(true);
+            if (calls >= minimumCalls && failures * 100 >= failureRateThreshold * calls) {
+                transitionTo(State.OPEN);
+            }
+        }
+    }
+
+    /**
+     * A cancelled call has no outcome: when it was the probe, the next call can probe instead.
+     */
+    synchronized void onCancel() {
+        if (state == State.HALF_OPEN) {
+            probeInFlight = false;
+        }
+    }
+
+    synchronized State getState() {
+        return state;
+    }
+
+    private void record(boolean failure) {
+        if (calls == window.length) {
+            if (window[next]) {
+                failures--;
+            }
+        } else {
+            calls++;
+        }
+        window[next] = failure;
+        if (failure) {
+            failures++;
+        }
+        next = (next + 1) % window.length;
+    }
+
+    private void transitionTo(State newState) {
+        if (newState == State.OPEN) {
+            openedAtNanos = nanoClock.getAsLong();
+            String reason = state == State.HALF_OPEN ? "probe call failed" : String.format("%d failures in %d calls", failures, calls);
+            logger.warn(String.format("circuit breaker for %s opened after %s, calls are skipped for %d ms",
+                    name, reason, openDurationNanos / 1_000_000L));
+        } else if (newState == State.CLOSED) {
+            logger.info("circuit breaker for " + name + " closed, calls are done again");
+        }
+        if (newState != State.HALF_OPEN) {
+            // a new window starts, also when the probe failed
+            calls = 0;
+            failures = 0;
+            next = 0;
+        }
+        state = newState;
+        probeInFlight = false;
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ *    Copyright 2020-2023  Peter Paul Bakker @ perfana.io, Daniel Moll @ perfana.io
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.perfana.client;
+
+import net.jcip.annotations.Immutable;
+import io.perfana.client.transport.TransportCall;
+
+import java.io.InterruptedIOException;
+import java.time.Duration;
+
+/**
+ * Point in time a logical call, including its retries and fail overs, should be done.
+ * The remaining time is passed on as the timeout of each attempt.
+ */
+@Immutable
+final class Deadline {
+
+    static final Deadline NONE = new Deadline(Long.MAX_VALUE);
+
+    private final long deadlineNanos;
+
+    private Deadline(long deadlineNanos) {
+        this.deadlineNanos = deadlineNanos;
+    }
+
+    /**
+     * @param timeout null or zero for no deadline
+     */
+    static Deadline after(Duration timeout) {
+        if (timeout == null || timeout.isZero() || timeout.isNegative()) {
+            return NONE;
+        }
+        return new Deadline(System.nanoTime() + timeout.toNanos());
+    }
+
+    /**
+     * @return the deadline that comes first
+     */
+    Deadline earliest(Deadline other) {
+        if (this == NONE) {
+            return other;
+        }
+        if (other == NONE) {
+            return this;
+        }
+        return deadlineNanos - other.deadlineNanos <= 0 ? this : other;
+    }
+
+    boolean isBounded() {
+        return this != NONE;
+    }
+
+    /**
+     * @return time left, zero when expired
+     */
+    Duration remaining() {
+        if (this == NONE) {
+            return Duration.ofNanos(Long.MAX_VALUE);
+        }
+        return Duration.ofNanos(Math.max(0, deadlineNanos - System.nanoTime()));
+    }
+
+    boolean isExpired() {
+        return this != NONE && deadlineNanos - System.nanoTime() <= 0;
+    }
+
+    /**
+     * @return true when there is time left to wait the delay and then do another attempt
+     */
+    boolean allows(Duration delay) {
+        return this == NONE || remaining().compareTo(delay) > 0;
+    }
+
+    /**
+     * Limits the call to the remaining time, on top of the connect, read and write timeouts.
+     *
+     * @throws InterruptedIOException when the deadline has passed
+     */
+    TransportCall bound(TransportCall call) throws InterruptedIOException {
+        if (this != NONE) {
+            long remainingNanos = deadlineNanos - System.nanoTime();
+            if (remainingNanos <= 0) {
+                throw new InterruptedIOException("deadline passed, no attempt for " + call.request().path());
+            }
+            call.timeout(Duration.ofNanos(remainingNanos));
+        }
+        return call;
+    }
+
+    @Override
+    public String toString() {
+        return this == NONE ? "Deadline[none]" : "Deadline[" + remaining().toMillis() + " ms left]";
+    }
+}
@@ -0,0 +1,1004 @@
+/*
+ *    Copyright 2020-2023  Peter Paul Bakker @ perfana.io, Daniel Moll @ perfana.io
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.perfana.client;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.SerializableString;
+import com.fasterxml.jackson.core.io.SerializedString;
+import io.perfana.client.domain.*;
+import net.jcip.annotations.Immutable;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Hand written streaming codecs for the domain types.
+ *
+ * The output is byte for byte the same as the databind serialization: same field order (fields
+ * renamed with @JsonProperty last), nulls written, same escaping. Reading is like databind with
+ * FAIL_ON_UNKNOWN_PROPERTIES disabled: unknown fields are skipped, missing fields are null (or 0 or
+ * false), and scalars are coerced, e.g. "60" for an int. Values are created with the all-args
+ * constructor, so a missing list stays null, as with databind.
+ */
+@Immutable
+final class DomainCodecs {
+
+    private DomainCodecs() {}
+
+    static final JsonCodec<Variable> VARIABLE = new VariableCodec();
+    static final JsonCodec<DeepLink> DEEP_LINK = new DeepLinkCodec();
+    static final JsonCodec<Tag> TAG = new TagCodec();
+    static final JsonCodec<Alert> ALERT = new AlertCodec();
+    static final JsonCodec<Result> RESULT = new ResultCodec();
+    static final JsonCodec<ConfigItem> CONFIG_ITEM = new ConfigItemCodec();
+    static final JsonCodec<PerfanaMessage> PERFANA_MESSAGE = new PerfanaMessageCodec();
+    static final JsonCodec<PerfanaEvent> PERFANA_EVENT = new PerfanaEventCodec();
+    static final JsonCodec<PerfanaTest> PERFANA_TEST = new PerfanaTestCodec();
+    static final JsonCodec<Benchmark> BENCHMARK = new BenchmarkCodec();
+    static final JsonCodec<TestRunConfigKeyValue> TEST_RUN_CONFIG_KEY_VALUE = new TestRunConfigKeyValueCodec();
+    static final JsonCodec<TestRunConfigJson> TEST_RUN_CONFIG_JSON = new TestRunConfigJsonCodec();
+    static final JsonCodec<TestRunConfigKeys> TEST_RUN_CONFIG_KEYS = new TestRunConfigKeysCodec();
+    static final JsonCodec<Init> INIT = new InitCodec();
+    static final JsonCodec<InitReply> INIT_REPLY = new InitReplyCodec();
+    static final JsonCodec<PerfanaErrorMessage> PERFANA_ERROR_MESSAGE = new PerfanaErrorMessageCodec();
+    static final JsonCodec<PerfanaSingleMessage> PERFANA_SINGLE_MESSAGE = new PerfanaSingleMessageCodec();
+    static final JsonCodec<AbortMessage> ABORT_MESSAGE = new AbortMessageCodec();
+
+    // field names, utf-8 encoded once
+    private static final SerializableString ABORT = name("abort");
+    private static final SerializableString ABORT_MESSAGE_FIELD = name("abortMessage");
+    private static final SerializableString ALERTS = name("alerts");
+    private static final SerializableString ANNOTATIONS = name("annotations");
+    private static final SerializableString APPLICATION = name("application");
+    private static final SerializableString BENCHMARK_BASELINE_TEST_RUN = name("benchmarkBaselineTestRun");
+    private static final SerializableString BENCHMARK_PREVIOUS_TEST_RUN = name("benchmarkPreviousTestRun");
+    private static final SerializableString CI_BUILD_RESULTS_URL = name("CIBuildResultsUrl");
+    private static final SerializableString COMPLETED = name("completed");
+    private static final SerializableString CONFIG_ITEMS = name("configItems");
+    private static final SerializableString DEEP_LINKS = name("deepLinks");
+    private static final SerializableString DEEPLINK = name("deeplink");
+    private static final SerializableString DESCRIPTION = name("description");
+    private static final SerializableString DURATION = name("duration");
+    private static final SerializableString END = name("end");
+    private static final SerializableString EXCLUDE = name("exclude");
+    private static final SerializableString EXPIRES = name("expires");
+    private static final SerializableString ID = name("_id");
+    private static final SerializableString INCLUDE = name("include");
+    private static final SerializableString JSON = name("json");
+    private static final SerializableString KEY = name("key");
+    private static final SerializableString MESSAGE = name("message");
+    private static final SerializableString NAME = name("name");
+    private static final SerializableString PLACEHOLDER = name("placeholder");
+    private static final SerializableString PLANNED_DURATION = name("plannedDuration");
+    private static final SerializableString PLUGIN_NAME = name("pluginName");
+    private static final SerializableString RAMP_UP = name("rampUp");
+    private static final SerializableString REQUIREMENTS = name("requirements");
+    private static final SerializableString RESULT_FIELD = name("result");
+    private static final SerializableString RETRY_AFTER_SECONDS = name("retryAfterSeconds");
+    private static final SerializableString START = name("start");
+    private static final SerializableString SYSTEM_UNDER_TEST = name("systemUnderTest");
+    private static final SerializableString TAGS = name("tags");
+    private static final SerializableString TEST_ENVIRONMENT = name("testEnvironment");
+    private static final SerializableString TEST_RUN_ID = name("testRunId");
+    private static final SerializableString TEST_TYPE = name("testType");
+    private static final SerializableString TIMESTAMP = name("timestamp");
+    private static final SerializableString TITLE = name("title");
+    private static final SerializableString TYPE = name("type");
+    private static final SerializableString URL = name("url");
+    private static final SerializableString VALUE = name("value");
+    private static final SerializableString VARIABLES = name("variables");
+    private static final SerializableString VERSION = name("version");
+    private static final SerializableString WORKLOAD = name("workload");
+
+    private static SerializableString name(String name) {
+        return new SerializedString(name);
+    }
+
+    private static final class VariableCodec implements JsonCodec<Variable> {
+        @Override
+        public void write(JsonGenerator generator, Variable value) throws IOException {
+            if (value == null) {
+                generator.writeNull();
+                return;
+            }
+            generator.writeStartObject();
+            writeString(generator, PLACEHOLDER, value.getPlaceholder());
+            writeString(generator, VALUE, value.getValue());
+            generator.writeEndObject();
+        }
+
+        @Override
+        public Variable read(JsonParser parser) throws IOException {
+            if (!startObject(parser)) {
+                return null;
+            }
+            String placeholder = null;
+            String value = null;
+            String field;
+            while ((field = nextField(parser)) != null) {
+                switch (field) {
+                    case "placeholder": placeholder = readString(parser); break;
+                    case "value": value = readString(parser); break;
+                    default: parser.skipChildren();
+                }
+            }
+            return new Variable(placeholder, value);
+        }
+    }
+
+    private static final class DeepLinkCodec implements JsonCodec<DeepLink> {
+        @Override
+        public void write(JsonGenerator generator, DeepLink value) throws IOException {
+            if (value == null) {
+                generator.writeNull();
+                return;
+            }
+            generator.writeStartObject();
+            writeString(generator, URL, value.getUrl());
+            writeString(generator, NAME, value.getName());
+            writeString(generator, TYPE, value.getType());
+            writeString(generator, PLUGIN_NAME, value.getPluginName());
+            generator.writeEndObject();
+        }
+
+        @Override
+        public DeepLink read(JsonParser parser) throws IOException {
+            if (!startObject(parser)) {
+                return null;
+            }
+            String url = null;
+            String name = null;
+            String type = null;
+            String pluginName = null;
+            String field;
+            while ((field = nextField(parser)) != null) {
+                switch (field) {
+                    case "url": url = readString(parser); break;
+                    case "name": name = readString(parser); break;
+                    case "type": type = readString(parser); break;
+                    case "pluginName": pluginName = readString(parser); break;
+                    default: parser.skipChildren();
+                }
+            }
+            return new DeepLink(url, name, type, pluginName);
+        }
+    }
+
+    private static final class TagCodec implements JsonCodec<Tag> {
+        @Override
+        public void write(JsonGenerator generator, Tag value) throws IOException {
+            if (value == null) {
+                generator.writeNull();
+                return;
+            }
+            generator.writeStartObject();
+            writeString(generator, KEY, value.getKey());
+            writeString(generator, VALUE, value.getValue());
+            generator.writeEndObject();
+        }
+
+        @Override
+        public Tag read(JsonParser parser) throws IOException {
+            if (!startObject(parser)) {
+                return null;
+            }
+            String key = null;
+            String value = null;
+            String field;
+            while ((field = nextField(parser)) != null) {
+                switch (field) {
+                    case "key": key = readString(parser); break;
+                    case "value": value = readString(parser); break;
+                    default: parser.skipChildren();
+                }
+            }
+            return new Tag(key, value);
+        }
+    }
+
+    private static final class AlertCodec implements JsonCodec<Alert> {
+        @Override
+        public void write(JsonGenerator generator, Alert value) throws IOException {
+            if (value == null) {
+                generator.writeNull();
+                return;
+            }
+            generator.writeStartObject();
+            writeString(generator, MESSAGE, value.getMessage());
+            writeString(generator, TIMESTAMP, value.getTimestamp());
+            writeList(generator, TAGS, value.getTags(), TAG);
+            generator.writeEndObject();
+        }
+
+        @Override
+        public Alert read(JsonParser parser) throws IOException {
+            if (!startObject(parser)) {
+                return null;
+            }
+            String message = null;
+            String timestamp = null;
+            List<Tag> tags = null;
+            String field;
+            while ((field = nextField(parser)) != null) {
+                switch (field) {
+                    case "message": message = readString(parser); break;
+                    case "timestamp": timestamp = readString(parser); break;
+                    case "tags": tags = readList(parser, TAG); break;
+                    default: parser.skipChildren();
+                }
+            }
+            return new Alert(message, timestamp, tags);
+        }
+    }
+
+    private static final class ResultCodec implements JsonCodec<Result> {
+        @Override
+        public void write(JsonGenerator generator, Result value) throws IOException {
+            if (value == null) {
+                generator.writeNull();
+                return;
+            }
+            generator.writeStartObject();
+            generator.writeFieldName(RESULT_FIELD);
+            generator.writeBoolean(value.isResult());
+            writeString(generator, DEEPLINK, value.getDeeplink());
+            generator.writeEndObject();
+        }
+
+        @Override
+        public Result read(JsonParser parser) throws IOException {
+            if (!startObject(parser)) {
+                return null;
+            }
+            boolean result = false;
+            String deeplink = null;
+            String field;
+            while ((field = nextField(parser)) != null) {
+                switch (field) {
+                    case "result": result = readBoolean(parser); break;
+                    case "deeplink": deeplink = readString(parser); break;
+                    default: parser.skipChildren();
+                }
+            }
+            return new Result(result, deeplink);
+        }
+    }
+
+    private static final class ConfigItemCodec implements JsonCodec<ConfigItem> {
+        @Override
+        public void write(JsonGenerator generator, ConfigItem value) throws IOException {
+            if (value == null) {
+                generator.writeNull();
+                return;
+            }
+            generator.writeStartObject();
+            writeString(generator, KEY, value.getKey());
+            writeString(generator, VALUE, value.getValue());
+            generator.writeEndObject();
+        }
+
+        @Override
+        public ConfigItem read(JsonParser parser) throws IOException {
+            if (!startObject(parser)) {
+                return null;
+            }
+            String key = null;
+            String value = null;
+            String field;
+            while ((field = nextField(parser)) != null) {
+                switch (field) {
+                    case "key": key = readString(parser); break;
+                    case "value": value = readString(parser); break;
+                    default: parser.skipChildren();
+                }
+            }
+            return new ConfigItem(key, value);
+        }
+    }
+
+    private static final class PerfanaMessageCodec implements JsonCodec<PerfanaMessage> {
+        @Override
+        public void write(JsonGenerator generator, PerfanaMessage value) throws IOException {
+            if (value == null) {
+                generator.writeNull();
+                return;
+            }
+            generator.writeStartObject();
+            writeString(generator, TEST_RUN_ID, value.getTestRunId());
+            writeString(generator, WORKLOAD, value.getWorkload());
+            writeString(generator, TEST_ENVIRONMENT, value.getTestEnvironment());
+            writeString(generator, SYSTEM_UNDER_TEST, value.getSystemUnderTest());
+            writeString(generator, VERSION, value.getVersion());
+            writeString(generator, RAMP_UP, value.getRampUp());
+            writeString(generator, DURATION, value.getDuration());
+            generator.writeFieldName(COMPLETED);
+            generator.writeBoolean(value.isCompleted());
+            writeString(generator, ANNOTATIONS, value.getAnnotations());
+            writeStrings(generator, TAGS, value.getTags());
+            writeList(generator, VARIABLES, value.getVariables(), VARIABLE);
+            writeList(generator, DEEP_LINKS, value.getDeepLinks(), DEEP_LINK);
+            writeString(generator, CI_BUILD_RESULTS_URL, value.getCibuildResultsUrl());
+            generator.writeEndObject();
+        }
+
+        @Override
+        public PerfanaMessage read(JsonParser parser) throws IOException {
+            if (!startObject(parser)) {
+                return null;
+            }
+            String testRunId = null;
+            String workload = null;
+            String testEnvironment = null;
+            String systemUnderTest = null;
+            String version = null;
+            String cibuildResultsUrl = null;
+            String rampUp = null;
+            String duration = null;
+            boolean completed = false;
+            String annotations = null;
+            List<String> tags = null;
+            List<Variable> variables = null;
+            List<DeepLink> deepLinks = null;
+            String field;
+            while ((field = nextField(parser)) != null) {
+                switch (field) {
+                    case "testRunId": testRunId = readString(parser); break;
+                    case "workload": workload = readString(parser); break;
+                    case "testEnvironment": testEnvironment = readString(parser); break;
+                    case "systemUnderTest": systemUnderTest = readString(parser); break;
+                    case "version": version = readString(parser); break;
+                    case "CIBuildResultsUrl": cibuildResultsUrl = readString(parser); break;
+                    case "rampUp": rampUp = readString(parser); break;
+                    case "duration": duration = readString(parser); break;
+                    case "completed": completed = readBoolean(parser); break;
+                    case "annotations": annotations = readString(parser); break;
+                    case "tags": tags = readStrings(parser); break;
+                    case "variables": variables = readList(parser, VARIABLE); break;
+                    case "deepLinks": deepLinks = readList(parser, DEEP_LINK); break;
+                    default: parser.skipChildren();
+                }
+            }
+            return new PerfanaMessage(testRunId, workload, testEnvironment, systemUnderTest, version, cibuildResultsUrl,
+                    rampUp, duration, completed, annotations, tags, variables, deepLinks);
+        }
+    }
+
+    private static final class PerfanaEventCodec implements JsonCodec<PerfanaEvent> {
+        @Override
+        public void write(JsonGenerator generator, PerfanaEvent value) throws IOException {
+            if (value == null) {
+                generator.writeNull();
+                return;
+            }
+            generator.writeStartObject();
+            writeString(generator, SYSTEM_UNDER_TEST, value.getSystemUnderTest());
+            writeString(generator, TEST_ENVIRONMENT, value.getTestEnvironment());
+            writeString(generator, TITLE, value.getTitle());
+            writeString(generator, DESCRIPTION, value.getDescription());
+            writeStrings(generator, TAGS, value.getTags());
+            generator.writeEndObject();
+        }
+
+        @Override
+        public PerfanaEvent read(JsonParser parser) throws IOException {
+            if (!startObject(parser)) {
+                return null;
+            }
+            String systemUnderTest = null;
+            String testEnvironment = null;
+            String title = null;
+            String description = null;
+            List<String> tags = null;
+            String field;
+            while ((field = nextField(parser)) != null) {
+                switch (field) {
+                    case "systemUnderTest": systemUnderTest = readString(parser); break;
+                    case "testEnvironment": testEnvironment = readString(parser); break;
+                    case "title": title = readString(parser); break;
+                    case "description": description = readString(parser); break;
+                    case "tags": tags = readStrings(parser); break;
+                    default: parser.skipChildren();
+                }
+            }
+            return new PerfanaEvent(systemUnderTest, testEnvironment, title, description, tags);
+        }
+    }
+
+    private static final class PerfanaTestCodec implements JsonCodec<PerfanaTest> {
+        @Override
+        public void write(JsonGenerator generator, PerfanaTest value) throws IOException {
+            if (value == null) {
+                generator.writeNull();
+                return;
+            }
+            generator.writeStartObject();
+            writeString(generator, SYSTEM_UNDER_TEST, value.getSystemUnderTest());
+            writeString(generator, TEST_RUN_ID, value.getTestRunId());
+            writeString(generator, VERSION, value.getVersion());
+            writeString(generator, TEST_ENVIRONMENT, value.getTestEnvironment());
+            writeString(generator, WORKLOAD, value.getWorkload());
+            generator.writeFieldName(DURATION);
+            generator.writeNumber(value.getDuration());
+            generator.writeFieldName(PLANNED_DURATION);
+            generator.writeNumber(value.getPlannedDuration());
+            generator.writeFieldName(RAMP_UP);
+            generator.writeNumber(value.getRampUp());
+            writeString(generator, START, value.getStart());
+            writeString(generator, END, value.getEnd());
+            writeString(generator, EXPIRES, value.getExpires());
+            generator.writeFieldName(COMPLETED);
+            generator.writeBoolean(value.isCompleted());
+            generator.writeFieldName(ABORT);
+            generator.writeBoolean(value.isAbort());
+            writeString(generator, ABORT_MESSAGE_FIELD, value.getAbortMessage());
+            writeList(generator, ALERTS, value.getAlerts(), ALERT);
+            writeStrings(generator, TAGS, value.getTags());
+            writeList(generator, VARIABLES, value.getVariables(), VARIABLE);
+            writeString(generator, ID, value.getId());
+            writeString(generator, CI_BUILD_RESULTS_URL, value.getCibuildResultsUrl());
+            generator.writeEndObject();
+        }
+
+        @Override
+        public PerfanaTest read(JsonParser parser) throws IOException {
+            if (!startObject(parser)) {
+                return null;
+            }
+            String id = null;
+            String systemUnderTest = null;
+            String testRunId = null;
+            String version = null;
+            String testEnvironment = null;
+            String workload = null;
+            String cibuildResultsUrl = null;
+            int duration = 0;
+            int plannedDuration = 0;
+            int rampUp = 0;
+            String start = null;
+            String end = null;
+            String expires = null;
+            boolean completed = false;
+            boolean abort = false;
+            String abortMessage = null;
+            List<Alert> alerts = null;
+            List<String> tags = null;
+            List<Variable> variables = null;
+            String field;
+            while ((field = nextField(parser)) != null) {
+                switch (field) {
+                    case "_id": id = readString(parser); break;
+                    case "systemUnderTest": systemUnderTest = readString(parser); break;
+                    case "testRunId": testRunId = readString(parser); break;
+                    case "version": version = readString(parser); break;
+                    case "testEnvironment": testEnvironment = readString(parser); break;
+                    case "workload": workload = readString(parser); break;
+                    case "CIBuildResultsUrl": cibuildResultsUrl = readString(parser); break;
+                    case "duration": duration = readInt(parser); break;
+                    case "plannedDuration": plannedDuration = readInt(parser); break;
+                    case "rampUp": rampUp = readInt(parser); break;
+                    case "start": start = readString(parser); break;
+                    case "end": end = readString(parser); break;
+                    case "expires": expires = readString(parser); break;
+                    case "completed": completed = readBoolean(parser); break;
+                    case "abort": abort = readBoolean(parser); break;
+                    case "abortMessage": abortMessage = readString(parser); break;
+                    case "alerts": alerts = readList(parser, ALERT); break;
+                    case "tags": tags = readStrings(parser); break;
+                    case "variables": variables = readList(parser, VARIABLE); break;
+                    default: parser.skipChildren();
+                }
+            }
+            return new PerfanaTest(id, systemUnderTest, testRunId, version, testEnvironment, workload, cibuildResultsUrl,
+                    duration, plannedDuration, rampUp, start, end, expires, completed, abort, abortMessage, alerts, tags, variables);
+        }
+    }
+
+    private static final class BenchmarkCodec implements JsonCodec<Benchmark> {
+        @Override
+        public void write(JsonGenerator generator, Benchmark value) throws IOException {
+            if (value == null) {
+                generator.writeNull();
+                return;
+            }
+            generator.writeStartObject();
+            generator.writeFieldName(REQUIREMENTS);
+            RESULT.write(generator, value.getRequirements());
+            generator.writeFieldName(BENCHMARK_PREVIOUS_TEST_RUN);
+            RESULT.write(generator, value.getBenchmarkPreviousTestRun());
+            generator.writeFieldName(BENCHMARK_BASELINE_TEST_RUN);
+            RESULT.write(generator, value.getBenchmarkBaselineTestRun());
+            generator.writeEndObject();
+        }
+
+        @Override
+        public Benchmark read(JsonParser parser) throws IOException {
+            if (!startObject(parser)) {
+                return null;
+            }
+            Result requirements = null;
+            Result benchmarkPreviousTestRun = null;
+            Result benchmarkBaselineTestRun = null;
+            String field;
+            while ((field = nextField(parser)) != null) {
+                switch (field) {
+                    case "requirements": requirements = RESULT.read(parser); break;
+                    case "benchmarkPreviousTestRun": benchmarkPreviousTestRun = RESULT.read(parser); break;
+                    case "benchmarkBaselineTestRun": benchmarkBaselineTestRun = RESULT.read(parser); break;
+                    default: parser.skipChildren();
+                }
+            }
+            return new Benchmark(requirements, benchmarkPreviousTestRun, benchmarkBaselineTestRun);
+        }
+    }
+
+    private static final class TestRunConfigKeyValueCodec implements JsonCodec<TestRunConfigKeyValue> {
+        @Override
+        public void write(JsonGenerator generator, TestRunConfigKeyValue value) throws IOException {
+            if (value == null) {
+                generator.writeNull();
+                return;
+            }
+            generator.writeStartObject();
+            writeString(generator, APPLICATION, value.getApplication());
+            writeString(generator, TEST_ENVIRONMENT, value.getTestEnvironment());
+            writeString(generator, TEST_TYPE, value.getTestType());
+            writeString(generator, TEST_RUN_ID, value.getTestRunId());
+            writeStrings(generator, TAGS, value.getTags());
+            writeString(generator, KEY, value.getKey());
+            writeString(generator, VALUE, value.getValue());
+            generator.writeEndObject();
+        }
+
+        @Override
+        public TestRunConfigKeyValue read(JsonParser parser) throws IOException {
+            if (!startObject(parser)) {
+                return null;
+            }
+            String application = null;
+            String testEnvironment = null;
+            String testType = null;
+            String testRunId = null;
+            List<String> tags = null;
+            String key = null;
+            String value = null;
+            String field;
+            while ((field = nextField(parser)) != null) {
+                switch (field) {
+                    case "application": application = readString(parser); break;
+                    case "testEnvironment": testEnvironment = readString(parser); break;
+                    case "testType": testType = readString(parser); break;
+                    case "testRunId": testRunId = readString(parser); break;
+                    case "tags": tags = readStrings(parser); break;
+                    case "key": key = readString(parser); break;
+                    case "value": value = readString(parser); break;
+                    default: parser.skipChildren();
+                }
+            }
+            return new TestRunConfigKeyValue(application, testEnvironment, testType, testRunId, tags, key, value);
+        }
+    }
+
+    private static final class TestRunConfigJsonCodec implements JsonCodec<TestRunConfigJson> {
+        @Override
+        public void write(JsonGenerator generator, TestRunConfigJson value) throws IOException {
+            if (value == null) {
+                generator.writeNull();
+                return;
+            }
+            generator.writeStartObject();
+            writeString(generator, APPLICATION, value.getApplication());
+            writeString(generator, TEST_ENVIRONMENT, value.getTestEnvironment());
+            writeString(generator, TEST_TYPE, value.getTestType());
+            writeString(generator, TEST_RUN_ID, value.getTestRunId());
+            writeStrings(generator, TAGS, value.getTags());
+            writeStrings(generator, INCLUDE, value.getInclude());
+            writeStrings(generator, EXCLUDE, value.getExclude());
+            generator.writeFieldName(JSON);
+            if (value.getJson() == null) {
+                generator.writeNull();
+            } else {
+                // @JsonRawValue: the json is written as is
+                generator.writeRawValue(value.getJson());
+            }
+            generator.writeEndObject();
+        }
+
+        @Override
+        public TestRunConfigJson read(JsonParser parser) throws IOException {
+            if (!startObject(parser)) {
+                return null;
+            }
+            String application = null;
+            String testEnvironment = null;
+            String testType = null;
+            String testRunId = null;
+            List<String> tags = null;
+            List<String> include = null;
+            List<String> exclude = null;
+            String json = null;
+            String field;
+            while ((field = nextField(parser)) != null) {
+                switch (field) {
+                    case "application": application = readString(parser); break;
+                    case "testEnvironment": testEnvironment = readString(parser); break;
+                    case "testType": testType = readString(parser); break;
+                    case "testRunId": testRunId = readString(parser); break;
+                    case "tags": tags = readStrings(parser); break;
+                    case "include": include = readStrings(parser); break;
+                    case "exclude": exclude = readStrings(parser); break;
+                    case "json": json = readRaw(parser); break;
+                    default: parser.skipChildren();
+                }
+            }
+            return new TestRunConfigJson(application, testEnvironment, testType, testRunId, tags, include, exclude, json);
+        }
+    }
+
+    private static final class TestRunConfigKeysCodec implements JsonCodec<TestRunConfigKeys> {
+        @Override
+        public void write(JsonGenerator generator, TestRunConfigKeys value) throws IOException {
+            if (value == null) {
+                generator.writeNull();
+                return;
+            }
+            generator.writeStartObject();
+            writeString(generator, APPLICATION, value.getApplication());
+            writeString(generator, TEST_ENVIRONMENT, value.getTestEnvironment());
+            writeString(generator, TEST_TYPE, value.getTestType());
+            writeString(generator, TEST_RUN_ID, value.getTestRunId());
+            writeStrings(generator, TAGS, value.getTags());
+            writeList(generator, CONFIG_ITEMS, value.getConfigItems(), CONFIG_ITEM);
+            generator.writeEndObject();
+        }
+
+        @Override
+        public TestRunConfigKeys read(JsonParser parser) throws IOException {
+            if (!startObject(parser)) {
+                return null;
+            }
+            String application = null;
+            String testEnvironment = null;
+            String testType = null;
+            String testRunId = null;
+            List<String> tags = null;
+            List<ConfigItem> configItems = null;
+            String field;
+            while ((field = nextField(parser)) != null) {
+                switch (field) {
+                    case "application": application = readString(parser); break;
+                    case "testEnvironment": testEnvironment = readString(parser); break;
+                    case "testType": testType = readString(parser); break;
+                    case "testRunId": testRunId = readString(parser); break;
+                    case "tags": tags = readStrings(parser); break;
+                    case "configItems": configItems = readList(parser, CONFIG_ITEM); break;
+                    default: parser.skipChildren();
+                }
+            }
+            return new TestRunConfigKeys(application, testEnvironment, testType, testRunId, tags, configItems);
+        }
+    }
+
+    private static final class InitCodec implements JsonCodec<Init> {
+        @Override
+        public void write(JsonGenerator generator, Init value) throws IOException {
+            if (value == null) {
+                generator.writeNull();
+                return;
+            }
+            generator.writeStartObject();
+            writeString(generator, SYSTEM_UNDER_TEST, value.getSystemUnderTest());
+            writeString(generator, TEST_ENVIRONMENT, value.getTestEnvironment());
+            writeString(generator, WORKLOAD, value.getWorkload());
+            generator.writeEndObject();
+        }
+
+        @Override
+        public Init read(JsonParser parser) throws IOException {
+            if (!startObject(parser)) {
+                return null;
+            }
+            String systemUnderTest = null;
+            String testEnvironment = null;
+            String workload = null;
+            String field;
+            while ((field = nextField(parser)) != null) {
+                switch (field) {
+                    case "systemUnderTest": systemUnderTest = readString(parser); break;
+                    case "testEnvironment": testEnvironment = readString(parser); break;
+                    case "workload": workload = readString(parser); break;
+                    default: parser.skipChildren();
+                }
+            }
+            return new Init(systemUnderTest, testEnvironment, workload);
+        }
+    }
+
+    private static final class InitReplyCodec implements JsonCodec<InitReply> {
+        @Override
+        public void write(JsonGenerator generator, InitReply value) throws IOException {
+            if (value == null) {
+                generator.writeNull();
+                return;
+            }
+            generator.writeStartObject();
+            writeString(generator, TEST_RUN_ID, value.getTestRunId());
+            generator.writeEndObject();
+        }
+
+        @Override
+        public InitReply read(JsonParser parser) throws IOException {
+            if (!startObject(parser)) {
+                return null;
+            }
+            String testRunId = null;
+            String field;
+            while ((field = nextField(parser)) != null) {
+                if ("testRunId".equals(field)) {
+                    testRunId = readString(parser);
+                } else {
+                    parser.skipChildren();
+                }
+            }
+            return new InitReply(testRunId);
+        }
+    }
+
+    private static final class PerfanaErrorMessageCodec implements JsonCodec<PerfanaErrorMessage> {
+        @Override
+        public void write(JsonGenerator generator, PerfanaErrorMessage value) throws IOException {
+            if (value == null) {
+                generator.writeNull();
+                return;
+            }
+            generator.writeStartObject();
+            writeStrings(generator, MESSAGE, value.getMessage());
+            generator.writeEndObject();
+        }
+
+        @Override
+        public PerfanaErrorMessage read(JsonParser parser) throws IOException {
+            if (!startObject(parser)) {
+                return null;
+            }
+            List<String> message = null;
+            String field;
+            while ((field = nextField(parser)) != null) {
+                if ("message".equals(field)) {
+                    message = readStrings(parser);
+                } else {
+                    parser.skipChildren();
+                }
+            }
+            return new PerfanaErrorMessage(message);
+        }
+    }
+
+    private static final class PerfanaSingleMessageCodec implements JsonCodec<PerfanaSingleMessage> {
+        @Override
+        public void write(JsonGenerator generator, PerfanaSingleMessage value) throws IOException {
+            if (value == null) {
+                generator.writeNull();
+                return;
+            }
+            generator.writeStartObject();
+            writeString(generator, MESSAGE, value.getMessage());
+            generator.writeFieldName(RETRY_AFTER_SECONDS);
+            if (value.getRetryAfterSeconds() == null) {
+                generator.writeNull();
+            } else {
+                generator.writeNumber(value.getRetryAfterSeconds());
+            }
+            generator.writeEndObject();
+        }
+
+        @Override
+        public PerfanaSingleMessage read(JsonParser parser) throws IOException {
+            if (!startObject(parser)) {
+                return null;
+            }
+            String message = null;
+            Integer retryAfterSeconds = null;
+            String field;
+            while ((field = nextField(parser)) != null) {
+                switch (field) {
+                    case "message": message = readString(parser); break;
+                    case "retryAfterSeconds": retryAfterSeconds = parser.currentToken() == JsonToken.VALUE_NULL ? null : readInt(parser); break;
+                    default: parser.skipChildren();
+                }
+            }
+            return new PerfanaSingleMessage(message, retryAfterSeconds);
+        }
+    }
+
+    private static final class AbortMessageCodec implements JsonCodec<AbortMessage> {
+        @Override
+        public void write(JsonGenerator generator, AbortMessage value) throws IOException {
+            if (value == null) {
+                generator.writeNull();
+                return;
+            }
+            generator.writeStartObject();
+            writeString(generator, ABORT_MESSAGE_FIELD, value.getAbortMessage());
+            generator.writeEndObject();
+        }
+
+        @Override
+        public AbortMessage read(JsonParser parser) throws IOException {
+            if (!startObject(parser)) {
+                return null;
+            }
+            String abortMessage = null;
+            String field;
+            while ((field = nextField(parser)) != null) {
+                if ("abortMessage".equals(field)) {
+                    abortMessage = readString(parser);
+                } else {
+                    parser.skipChildren();
+                }
+            }
+            return new AbortMessage(abortMessage);
+        }
+    }
+
+    private static void writeString(JsonGenerator generator, SerializableString name, String value) throws IOException {
+        generator.writeFieldName(name);
+        // a null value is written as null
+        generator.writeString(value);
+    }
+
+    private static void writeStrings(JsonGenerator generator, SerializableString name, List<String> values) throws IOException {
+        generator.writeFieldName(name);
+        if (values == null) {
+            generator.writeNull();
+            return;
+        }
+        generator.writeStartArray(values, values.size());
+        for (String value : values) {
+            generator.writeString(value);
+        }
+        generator.writeEndArray();
+    }
+
+    private static <T> void writeList(JsonGenerator generator, SerializableString name, List<T> values, JsonCodec<T> codec) throws IOException {
+        generator.writeFieldName(name);
+        if (values == null) {
+            generator.writeNull();
+            return;
+        }
+        generator.writeStartArray(values, values.size());
+        for (T value : values) {
+            codec.write(generator, value);
+        }
+        generator.writeEndArray();
+    }
+
+    /**
+     * @return false for a json null
+     */
+    private static boolean startObject(JsonParser parser) throws IOException {
+        JsonToken token = parser.currentToken();
+        if (token == null) {
+            token = parser.nextToken();
+        }
+        if (token == JsonToken.VALUE_NULL) {
+            return false;
+        }
+        if (token != JsonToken.START_OBJECT) {
+            throw new JsonParseException(parser, "Expected json object, got " + token);
+        }
+        return true;
+    }
+
+    /**
+     * @return the next field name with the parser at its value, or null at the end of the object
+     */
+    private static String nextField(JsonParser parser) throws IOException {
+        String field = parser.nextFieldName();
+        if (field != null) {
+            parser.nextToken();
+        }
+        return field;
+    }
+
+    private static String readString(JsonParser parser) throws IOException {
+        JsonToken token = parser.currentToken();
+        if (token == JsonToken.VALUE_STRING) {
+            return parser.getText();
+        }
+        if (token == JsonToken.VALUE_NULL) {
+            return null;
+        }
+        if (token != null && token.isScalarValue()) {
+            return parser.getText();
+        }
+        throw new JsonParseException(parser, "Expected json string for " + parser.currentName() + ", got " + token);
+    }
+
+    private static int readInt(JsonParser parser) throws IOException {
+        JsonToken token = parser.currentToken();
+        if (token == JsonToken.VALUE_NUMBER_INT) {
+            return parser.getIntValue();
+        }
+        if (token != null && token.isScalarValue()) {
+            return parser.getValueAsInt();
+        }
+        throw new JsonParseException(parser, "Expected json number for " + parser.currentName() + ", got " + token);
+    }
+
+    private static boolean readBoolean(JsonParser parser) throws IOException {
+        JsonToken token = parser.currentToken();
+        if (token == JsonToken.VALUE_TRUE || token == JsonToken.VALUE_FALSE) {
+            return token == JsonToken.VALUE_TRUE;
+        }
+        if (token != null && token.isScalarValue()) {
+            return parser.getValueAsBoolean();
+        }
+        throw new JsonParseException(parser, "Expected json boolean for " + parser.currentName() + ", got " + token);
+    }
+
+    /**
+     * A single string is read as a list with one element.
+     */
+    private static List<String> readStrings(JsonParser parser) throws IOException {
+        JsonToken token = parser.currentToken();
+        if (token == JsonToken.VALUE_NULL) {
+            return null;
+        }
+        if (token != JsonToken.START_ARRAY) {
+            return Collections.singletonList(readString(parser));
+        }
+        List<String> values = new ArrayList<>();
+        while (parser.nextToken() != JsonToken.END_ARRAY) {
+            values.add(readString(parser));
+        }
+        return values;
+    }
+
+    private static <T> List<T> readList(JsonParser parser, JsonCodec<T> codec) throws IOException {
+        JsonToken token = parser.currentToken();
+        if (token == JsonToken.VALUE_NULL) {
+            return null;
+        }
+        if (token != JsonToken.START_ARRAY) {
+            throw new JsonParseException(parser, "Expected json array for " + parser.currentName() + ", got " + token);
+        }
+        List<T> values = new ArrayList<>();
+        while (parser.nextToken() != JsonToken.END_ARRAY) {
+            values.add(codec.read(parser));
+        }
+        return values;
+    }
+
+    /**
+     * Counterpart of @JsonRawValue: an object or array is read as its json text.
+     */
+    private static String readRaw(JsonParser parser) throws IOException {
+        if (!parser.currentToken().isStructStart()) {
+            return readString(parser);
+        }
+        StringWriter json = new StringWriter();
+        try (JsonGenerator generator = PerfanaCodecs.jsonFactory().createGenerator(json)) {
+            generator.copyCurrentStructure(parser);
+        }
+        return json.toString();
+    }
+}
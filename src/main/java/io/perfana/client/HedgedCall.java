@@ -0,0 +1,212 @@
+/*
+ *    Copyright 2020-2023  Peter Paul Bakker @ perfana.io, Daniel Moll @ perfana.io
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.perfana.client;
+
+import io.perfana.client.api.TimeoutProfile;
+import io.perfana.client.transport.PerfanaTransport;
+import io.perfana.client.transport.TransportCall;
+import io.perfana.client.transport.TransportCallback;
+import io.perfana.client.transport.TransportRequest;
+import io.perfana.client.transport.TransportResponse;
+import net.jcip.annotations.ThreadSafe;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * One idempotent request, sent more than once when the first attempt is slow: the first good
+ * reply wins and the other attempts are cancelled.
+ *
+ * A reply that indicates Perfana is unavailable (502, 503, 504) or a failure is only used
+ * when no other attempt is in flight. All attempts report to the replicas and the latency tracker.
+ */
+@ThreadSafe
+final class HedgedCall {
+
+    private final PerfanaTransport transport;
+    private final TimeoutProfile timeouts;
+    private final PerfanaReplicas replicas;
+    private final LatencyTracker latencyTracker;
+    private final Deadline deadline;
+
+    private final CompletableFuture<TransportResponse> result = new CompletableFuture<>();
+
+    // guarded by this
+    private final List<TransportCall> calls = new ArrayList<>(2);
+    private int inFlight = 0;
+    private int winner = -1;
+    private TransportResponse unavailableReply;
+    private IOException failure;
+
+    /**
+     * @param deadline all attempts are cancelled when the deadline passes
+     */
+    HedgedCall(PerfanaTransport transport, TimeoutProfile timeouts, PerfanaReplicas replicas, LatencyTracker latencyTracker, Deadline deadline) {
+        this.transport = transport;
+        this.timeouts = timeouts;
+        this.replicas = replicas;
+        this.latencyTracker = latencyTracker;
+        this.deadline = deadline;
+    }
+
+    /**
+     * Sends an attempt, unless the call already has a result.
+     *
+     * @throws InterruptedIOException when the deadline has passed
+     */
+    void launch(PerfanaReplicas.Replica replica, TransportRequest request) throws InterruptedIOException {
+        TransportCall call = deadline.bound(transport.newCall(request, timeouts));
+        final int index;
+        synchronized (this) {
+            if (result.isDone()) {
+                return;
+            }
+            index = calls.size();
+            calls.add(call);
+            inFlight++;
+        }
+        long startNanos = System.nanoTime();
+        PerfanaReplicas.started(replica);
+        call.enqueue(new TransportCallback() {
+            @Override
+            public void onFailure(TransportCall call, IOException e) {
+                PerfanaReplicas.finished(replica);
+                if (!call.isCanceled()) {
+                    replicas.markDown(replica, e.getMessage());
+                }
+                complete(index, null, e);
+            }
+
+            @Override
+            public void onResponse(TransportCall call, TransportResponse response) {
+                PerfanaReplicas.finished(replica);
+                latencyTracker.record(System.nanoTime() - startNanos);
+                if (isUnavailable(response.code())) {
+                    replicas.markDown(replica, "reply " + response.code());
+                } else {
+                    replicas.markUp(replica);
+                }
+                complete(index, response, null);
+            }
+        });
+    }
+
+    /**
+     * @return the result, or null when there is no result within the timeout
+     */
+    @Nullable
+    TransportResponse await(Duration timeout) throws IOException {
+        try {
+            return result.get(timeout.toNanos(), TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            return null;
+        } catch (InterruptedException e) {
+            cancel();
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while waiting for " + this);
+        } catch (ExecutionException e) {
+            throw (IOException) e.getCause();
+        }
+    }
+
+    TransportResponse await() throws IOException {
+        try {
+            return result.get();
+        } catch (InterruptedException e) {
+            cancel();
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while waiting for " + this);
+        } catch (ExecutionException e) {
+            throw (IOException) e.getCause();
+        }
+    }
+
+    boolean isDone() {
+        return result.isDone();
+    }
+
+    /**
+     * @return index of the attempt that gave a good reply, 0 is the first attempt, -1 when there is none (yet)
+     */
+    synchronized int getWinner() {
+        return winner;
+    }
+
+    private void complete(int index, @Nullable TransportResponse response, @Nullable IOException e) {
+        TransportResponse toClose = null;
+        synchronized (this) {
+            inFlight--;
+            if (result.isDone()) {
+                toClose = response;
+            } else if (response != null && !isUnavailable(response.code())) {
+                winner = index;
+                toClose = unavailableReply;
+                result.complete(response);
+                cancelOthers(index);
+            } else {
+                if (response != null) {
+                    toClose = unavailableReply;
+                    unavailableReply = response;
+                } else {
+                    failure = e;
+                }
+                if (inFlight == 0) {
+                    // no better reply can come: the most recent unavailable reply, or the failure
+                    if (unavailableReply != null) {
+                        result.complete(unavailableReply);
+                        unavailableReply = null;
+                    } else {
+                        result.completeExceptionally(failure);
+                    }
+                }
+            }
+        }
+        if (toClose != null) {
+            toClose.close();
+        }
+    }
+
+    private void cancelOthers(int index) {
+        for (int i = 0; i < calls.size(); i++) {
+            if (i != index) {
+                calls.get(i).cancel();
+            }
+        }
+    }
+
+    private synchronized void cancel() {
+        calls.forEach(TransportCall::cancel);
+    }
+
+    private static boolean isUnavailable(int code) {
+        return code == 502 || code == 503 || code == 504;
+    }
+
+    @Override
+    public String toString() {
+        synchronized (this) {
+            return "HedgedCall[" + (calls.isEmpty() ? "" : calls.get(0).request().path()) + ", attempts: " + calls.size() + "]";
+        }
+    }
+}
@@ -0,0 +1,40 @@
+/*
+ *    Copyright 2020-2023  Peter Paul Bakker @ perfana.io, Daniel Moll @ perfana.io
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.perfana.client;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+
+import java.io.IOException;
+
+/**
+ * Streaming json (de)serialization of one type, without reflection.
+ */
+interface JsonCodec<T> {
+
+    /**
+     * Writes the value, or null.
+     */
+    void write(JsonGenerator generator, T value) throws IOException;
+
+    /**
+     * Reads a value. The parser is at the first token of the value, or before it.
+     * Unknown fields are skipped.
+     *
+     * @return null for a json null
+     */
+    T read(JsonParser parser) throws IOException;
+}
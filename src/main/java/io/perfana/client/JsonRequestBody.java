@@ -0,0 +1,50 @@
+/*
+ *    Copyright 2020-2023  Peter Paul Bakker @ perfana.io, Daniel Moll @ perfana.io
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.perfana.client;
+
+import io.perfana.client.transport.RequestContent;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Request body that runs the json codec directly against the http sink,
+ * so a (large) payload never exists as a complete json String or byte array.
+ *
+ * The content length is unknown up front, so the body is sent with chunked transfer encoding.
+ * The body can be written more than once, e.g. when the http client retries on a new connection.
+ */
+final class JsonRequestBody<T> implements RequestContent {
+
+    private final JsonCodec<T> codec;
+    private final T value;
+
+    JsonRequestBody(JsonCodec<T> codec, T value) {
+        this.codec = codec;
+        this.value = value;
+    }
+
+    @Override
+    public String contentType() {
+        return JSON;
+    }
+
+    @Override
+    public void writeTo(OutputStream out) throws IOException {
+        // note: the generator must not close the sink (JsonGenerator.Feature.AUTO_CLOSE_TARGET disabled)
+        PerfanaCodecs.write(codec, value, out);
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ *    Copyright 2020-2023  Peter Paul Bakker @ perfana.io, Daniel Moll @ perfana.io
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.perfana.client;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes json string values as utf-8 without creating intermediate Strings or byte arrays.
+ * Escaping is the same as the default Jackson escaping.
+ */
+final class JsonStrings {
+
+    private static final byte[] NULL = {'n', 'u', 'l', 'l'};
+    private static final byte[] HEX = {'0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'A', 'B', 'C', 'D', 'E', 'F'};
+
+    private JsonStrings() {}
+
+    static void write(OutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.write(NULL);
+            return;
+        }
+        out.write('"');
+        final int length = value.length();
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                writeAscii(out, c);
+            } else if (c < 0x800) {
+                out.write(0xC0 | (c >> 6));
+                out.write(0x80 | (c & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                // like Jackson: surrogates, also of valid pairs, are written as escaped chars
+                writeEscaped(out, c);
+            } else {
+                out.write(0xE0 | (c >> 12));
+                out.write(0x80 | ((c >> 6) & 0x3F));
+                out.write(0x80 | (c & 0x3F));
+            }
+        }
+        out.write('"');
+    }
+
+    private static void writeEscaped(OutputStream out, char c) throws IOException {
+        out.write('\\');
+        out.write('u');
+        out.write(HEX[(c >> 12) & 0xF]);
+        out.write(HEX[(c >> 8) & 0xF]);
+        out.write(HEX[(c >> 4) & 0xF]);
+        out.write(HEX[c & 0xF]);
+    }
+
+    private static void writeAscii(OutputStream out, char c) throws IOException {
+        switch (c) {
+            case '"':
+            case '\\':
+                out.write('\\');
+                out.write(c);
+                break;
+            case '\b':
+                out.write('\\');
+                out.write('b');
+                break;
+            case '\t':
+                out.write('\\');
+                out.write('t');
+                break;
+            case '\n':
+                out.write('\\');
+                out.write('n');
+                break;
+            case '\f':
+                out.write('\\');
+                out.write('f');
+                break;
+            case '\r':
+                out.write('\\');
+                out.write('r');
+                break;
+            default:
+                if (c < 0x20) {
+                    writeEscaped(out, c);
+                } else {
+                    out.write(c);
+                }
+        }
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ *    Copyright 2020-2023  Peter Paul Bakker @ perfana.io, Daniel Moll @ perfana.io
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.perfana.client;
+
+import net.jcip.annotations.ThreadSafe;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Optional;
+
+/**
+ * Latencies of the most recent calls, to estimate a latency percentile.
+ */
+@ThreadSafe
+final class LatencyTracker {
+
+    private final int minimumSamples;
+
+    // guarded by this
+    private final long[] samples;
+    private int count = 0;
+    private int next = 0;
+
+    LatencyTracker(int windowSize, int minimumSamples) {
+        this.samples = new long[Math.max(1, windowSize)];
+        this.minimumSamples = Math.max(1, Math.min(minimumSamples, samples.length));
+    }
+
+    synchronized void record(long nanos) {
+        samples[next] = nanos;
+        next = (next + 1) % samples.length;
+        count = Math.min(count + 1, samples.length);
+    }
+
+    /**
+     * @param percentile between 0 and 100
+     * @return empty when there are less than the minimum samples
+     */
+    Optional<Duration> percentile(int percentile) {
+        long[] sorted;
+        synchronized (this) {
+            if (count < minimumSamples) {
+                return Optional.empty();
+            }
+            sorted = Arrays.copyOf(samples, count);
+        }
+        Arrays.sort(sorted);
+        // nearest rank
+        int rank = (int) Math.ceil(percentile / 100.0 * sorted.length);
+        return Optional.of(Duration.ofNanos(sorted[Math.max(0, Math.min(sorted.length - 1, rank - 1))]));
+    }
+}
@@ -0,0 +1,277 @@
+/*
+ *    Copyright 2020-2023  Peter Paul Bakker @ perfana.io, Daniel Moll @ perfana.io
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.perfana.client;
+
+import io.perfana.client.api.PerfanaClientMetrics;
+import io.perfana.client.api.PerfanaSpan;
+import io.perfana.client.api.TimeoutProfile;
+import io.perfana.client.transport.PerfanaTransport;
+import io.perfana.client.transport.RequestContent;
+import io.perfana.client.transport.TransportCall;
+import io.perfana.client.transport.TransportCallback;
+import io.perfana.client.transport.TransportRequest;
+import io.perfana.client.transport.TransportResponse;
+import net.jcip.annotations.ThreadSafe;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Measures each call of a transport for the client metrics: the time until the reply, the status code,
+ * and the bytes of the request and reply bodies. Only used when metrics or tracing are enabled.
+ *
+ * With tracing, a request tagged with a span gets the trace headers of the span, and the status code
+ * and body sizes are set as attributes on the span, the last attempt wins.
+ */
+@ThreadSafe
+final class MeteredTransport implements PerfanaTransport {
+
+    private final PerfanaTransport transport;
+    private final PerfanaClientMetrics metrics;
+
+    MeteredTransport(PerfanaTransport transport, PerfanaClientMetrics metrics) {
+        this.transport = transport;
+        this.metrics = metrics;
+    }
+
+    @Override
+    public TransportCall newCall(TransportRequest request, TimeoutProfile timeouts) {
+        // the route has the path without the context path of the Perfana url
+        PerfanaReplicas.Route route = request.tag(PerfanaReplicas.Route.class);
+        String endpoint = PerfanaEndpoint.endpointPath(route == null ? request.path() : route.getRelativeUrl());
+        PerfanaSpan span = request.tag(PerfanaSpan.class);
+        RequestContent content = request.content();
+        if (content == null && span == null) {
+            return new MeteredCall(transport.newCall(request, timeouts), endpoint, PerfanaSpan.NONE, null);
+        }
+        TransportRequest.Builder builder = request.newBuilder();
+        if (span != null) {
+            span.injectHeaders(builder::header);
+        }
+        CountingContent countingContent = content == null ? null : new CountingContent(content);
+        if (countingContent != null) {
+            builder.post(countingContent);
+        }
+        return new MeteredCall(transport.newCall(builder.build(), timeouts), endpoint, span == null ? PerfanaSpan.NONE : span, countingContent);
+    }
+
+    @Override
+    public String name() {
+        return transport.name();
+    }
+
+    @ThreadSafe
+    private final class MeteredCall implements TransportCall {
+        private final TransportCall call;
+        private final String endpoint;
+        private final PerfanaSpan span;
+        @Nullable
+        private final CountingContent content;
+
+        private MeteredCall(TransportCall call, String endpoint, PerfanaSpan span, @Nullable CountingContent content) {
+            this.call = call;
+            this.endpoint = endpoint;
+            this.span = span;
+            this.content = content;
+        }
+
+        @Override
+        public TransportRequest request() {
+            return call.request();
+        }
+
+        @Override
+        public void timeout(Duration timeout) {
+            call.timeout(timeout);
+        }
+
+        @Override
+        public TransportResponse execute() throws IOException {
+            long start = System.nanoTime();
+            try {
+                return new MeteredResponse(call.execute(), System.nanoTime() - start);
+            } catch (IOException e) {
+                metrics.onFailure(endpoint, System.nanoTime() - start, requestBytes());
+                throw e;
+            }
+        }
+
+        @Override
+        public void enqueue(TransportCallback callback) {
+            long start = System.nanoTime();
+            call.enqueue(new TransportCallback() {
+                @Override
+                public void onFailure(TransportCall transportCall, IOException e) {
+                    metrics.onFailure(endpoint, System.nanoTime() - start, requestBytes());
+                    callback.onFailure(MeteredCall.this, e);
+                }
+
+                @Override
+                public void onResponse(TransportCall transportCall, TransportResponse response) throws IOException {
+                    callback.onResponse(MeteredCall.this, new MeteredResponse(response, System.nanoTime() - start));
+                }
+            });
+        }
+
+        @Override
+        public void cancel() {
+            call.cancel();
+        }
+
+        @Override
+        public boolean isCanceled() {
+            return call.isCanceled();
+        }
+
+        private long requestBytes() {
+            return content == null ? 0 : content.written.sum();
+        }
+
+        private final class MeteredResponse implements TransportResponse {
+            private final TransportResponse response;
+            private final long durationNanos;
+            private final AtomicBoolean closed = new AtomicBoolean(false);
+            @Nullable
+            private CountingInputStream body;
+
+            private MeteredResponse(TransportResponse response, long durationNanos) {
+                this.response = response;
+                this.durationNanos = durationNanos;
+            }
+
+            @Override
+            public int code() {
+                return response.code();
+            }
+
+            @Nullable
+            @Override
+            public String header(String name) {
+                return response.header(name);
+            }
+
+            @Override
+            public synchronized InputStream body() {
+                if (body == null) {
+                    body = new CountingInputStream(response.body());
+                }
+                return body;
+            }
+
+            @Override
+            public void close() {
+                if (closed.compareAndSet(false, true)) {
+                    long responseBytes;
+                    synchronized (this) {
+                        responseBytes = body == null ? 0 : body.count;
+                    }
+                    long requestBytes = requestBytes();
+                    metrics.onReply(endpoint, response.code(), durationNanos, requestBytes, responseBytes);
+                    span.setAttribute(PerfanaSpan.STATUS_CODE, response.code());
+                    span.setAttribute(PerfanaSpan.REQUEST_BODY_SIZE, requestBytes);
+                    span.setAttribute(PerfanaSpan.RESPONSE_BODY_SIZE, responseBytes);
+                }
+                response.close();
+            }
+        }
+    }
+
+    /**
+     * Counts the bytes written, of all writes: a request body is written again for each attempt,
+     * but each attempt has its own call and content.
+     */
+    private static final class CountingContent implements RequestContent {
+        private final RequestContent content;
+        private final LongAdder written = new LongAdder();
+
+        private CountingContent(RequestContent content) {
+            this.content = content;
+        }
+
+        @Override
+        public String contentType() {
+            return content.contentType();
+        }
+
+        @Override
+        public long contentLength() {
+            return content.contentLength();
+        }
+
+        @Override
+        public void writeTo(OutputStream out) throws IOException {
+            content.writeTo(new FilterOutputStream(out) {
+                @Override
+                public void write(int b) throws IOException {
+                    out.write(b);
+                    written.increment();
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+                    out.write(b, off, len);
+                    written.add(len);
+                }
+
+                @Override
+                public void close() {
+                    // the transport closes out
+                }
+            });
+        }
+    }
+
+    private static final class CountingInputStream extends FilterInputStream {
+        // read by the thread that closes the response, after reading
+        private volatile long count = 0;
+
+        private CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                count += n;
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            count += skipped;
+            return skipped;
+        }
+    }
+}
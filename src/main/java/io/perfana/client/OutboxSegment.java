@@ -0,0 +1,206 @@
+/*
+ *    Copyright 2020-2023  Peter Paul Bakker @ perfana.io, Daniel Moll @ perfana.io
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.perfana.client;
+
+import net.jcip.annotations.NotThreadSafe;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only, memory-mapped file with CRC-framed records.
+ *
+ * Layout: a header with magic, version and the acknowledged position, followed by records of
+ * [int payload length][int crc32 of payload][payload]. A zero length marks the end of the records.
+ * A record with a wrong checksum (e.g. a write interrupted by a crash) also marks the end, and is
+ * overwritten by the next append. Each append is forced to the storage device.
+ */
+@NotThreadSafe
+final class OutboxSegment {
+
+    private static final int MAGIC = 0x50464f42; // PFOB
+    private static final int VERSION = 1;
+    private static final int ACK_POSITION_OFFSET = 8;
+    static final int HEADER_SIZE = 16;
+    static final int RECORD_OVERHEAD = 8;
+    private static final int END_MARKER_SIZE = 4;
+
+    private final Path path;
+    private final long sequence;
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+
+    private int writePosition;
+    private int ackPosition;
+
+    private OutboxSegment(Path path, long sequence, FileChannel channel, MappedByteBuffer buffer) {
+        this.path = path;
+        this.sequence = sequence;
+        this.channel = channel;
+        this.buffer = buffer;
+    }
+
+    static OutboxSegment create(Path path, long sequence, int size) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        OutboxSegment segment = new OutboxSegment(path, sequence, channel, channel.map(FileChannel.MapMode.READ_WRITE, 0, size));
+        segment.buffer.putInt(0, MAGIC);
+        segment.buffer.putInt(4, VERSION);
+        segment.buffer.putInt(ACK_POSITION_OFFSET, HEADER_SIZE);
+        segment.writePosition = HEADER_SIZE;
+        segment.ackPosition = HEADER_SIZE;
+        return segment;
+    }
+
+    /**
+     * Opens an existing segment and finds the end of its valid records.
+     *
+     * @throws IOException when the file is not an outbox segment
+     */
+    static OutboxSegment open(Path path, long sequence) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        long size = channel.size();
+        if (size < HEADER_SIZE || size > Integer.MAX_VALUE) {
+            channel.close();
+            throw new IOException("not an outbox segment, unexpected size " + size + ": " + path);
+        }
+        OutboxSegment segment = new OutboxSegment(path, sequence, channel, channel.map(FileChannel.MapMode.READ_WRITE, 0, size));
+        if (segment.buffer.getInt(0) != MAGIC || segment.buffer.getInt(4) != VERSION) {
+            segment.close();
+            throw new IOException("not an outbox segment (version " + VERSION + "): " + path);
+        }
+        int position = HEADER_SIZE;
+        while (segment.readAt(position) != null) {
+            position = segment.nextPosition(position);
+        }
+        segment.writePosition = position;
+        segment.ackPosition = Math.max(HEADER_SIZE, Math.min(segment.buffer.getInt(ACK_POSITION_OFFSET), position));
+        return segment;
+    }
+
+    /**
+     * @return minimal segment size for a record with this payload length
+     */
+    static int requiredSize(int payloadLength) {
+        return HEADER_SIZE + RECORD_OVERHEAD + payloadLength + END_MARKER_SIZE;
+    }
+
+    /**
+     * @return false when the record does not fit in this segment
+     */
+    boolean append(byte[] payload) {
+        int end = writePosition + RECORD_OVERHEAD + payload.length;
+        if (end + END_MARKER_SIZE > buffer.capacity()) {
+            return false;
+        }
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        ByteBuffer slice = buffer.duplicate();
+        slice.position(writePosition + RECORD_OVERHEAD);
+        slice.put(payload);
+        buffer.putInt(end, 0);
+        buffer.putInt(writePosition + 4, (int) crc.getValue());
+        // the length is written last: a record is only visible when complete
+        buffer.putInt(writePosition, payload.length);
+        // a stored call should survive a crash of the machine, not only of the process
+        buffer.force();
+        writePosition = end;
+        return true;
+    }
+
+    /**
+     * @return the payload of the record at position, or null at the end of the records
+     */
+    @Nullable
+    byte[] readAt(int position) {
+        if (position + RECORD_OVERHEAD > buffer.capacity()) {
+            return null;
+        }
+        int length = buffer.getInt(position);
+        if (length <= 0 || position + RECORD_OVERHEAD + length > buffer.capacity()) {
+            return null;
+        }
+        byte[] payload = new byte[length];
+        ByteBuffer slice = buffer.duplicate();
+        slice.position(position + RECORD_OVERHEAD);
+        slice.get(payload);
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        if ((int) crc.getValue() != buffer.getInt(position + 4)) {
+            return null;
+        }
+        return payload;
+    }
+
+    /**
+     * @return the first not acknowledged record, or null if all are acknowledged
+     */
+    @Nullable
+    byte[] firstUnacknowledged() {
+        return ackPosition < writePosition ? readAt(ackPosition) : null;
+    }
+
+    /**
+     * Acknowledge the first not acknowledged record.
+     */
+    void acknowledge() {
+        ackPosition = nextPosition(ackPosition);
+        buffer.putInt(ACK_POSITION_OFFSET, ackPosition);
+    }
+
+    int countUnacknowledged() {
+        int count = 0;
+        for (int position = ackPosition; position < writePosition; position = nextPosition(position)) {
+            count++;
+        }
+        return count;
+    }
+
+    boolean isFullyAcknowledged() {
+        return ackPosition >= writePosition;
+    }
+
+    private int nextPosition(int position) {
+        return position + RECORD_OVERHEAD + buffer.getInt(position);
+    }
+
+    long getSequence() {
+        return sequence;
+    }
+
+    Path getPath() {
+        return path;
+    }
+
+    void close() throws IOException {
+        buffer.force();
+        channel.close();
+    }
+
+    /**
+     * Closes and removes the segment file.
+     */
+    void delete() throws IOException {
+        channel.close();
+        Files.deleteIfExists(path);
+    }
+}
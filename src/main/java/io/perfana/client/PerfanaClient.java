@@ -16,90 +16,137 @@
 package io.perfana.client;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.DeserializationFeature;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.ObjectReader;
-import com.fasterxml.jackson.databind.ObjectWriter;
+import io.perfana.client.api.PerfanaAsyncCaller;
 import io.perfana.client.api.PerfanaCaller;
+import io.perfana.client.api.CompressionStatistics;
+import io.perfana.client.api.HedgeStatistics;
+import io.perfana.client.api.OutboxMode;
 import io.perfana.client.api.PerfanaClientLogger;
+import io.perfana.client.api.PerfanaClientMetrics;
 import io.perfana.client.api.PerfanaConnectionSettings;
+import io.perfana.client.api.PerfanaEndpointGroup;
+import io.perfana.client.api.PerfanaSpan;
 import io.perfana.client.api.PerfanaTestContext;
+import io.perfana.client.api.PerfanaTracing;
+import io.perfana.client.api.RetryPolicy;
 import io.perfana.client.domain.*;
+import io.perfana.client.exception.CircuitBreakerOpenException;
 import io.perfana.client.exception.PerfanaAssertResultsException;
 import io.perfana.client.exception.PerfanaAssertionsAreFalse;
 import io.perfana.client.exception.PerfanaClientException;
 import io.perfana.client.exception.PerfanaClientRuntimeException;
+import io.perfana.client.transport.PerfanaTransport;
+import io.perfana.client.transport.PerfanaTransports;
+import io.perfana.client.transport.RequestContent;
+import io.perfana.client.transport.TransportCall;
+import io.perfana.client.transport.TransportCallback;
+import io.perfana.client.transport.TransportRequest;
+import io.perfana.client.transport.TransportResponse;
 import io.perfana.eventscheduler.exception.handler.AbortSchedulerException;
 import io.perfana.eventscheduler.exception.handler.KillSwitchException;
-import okhttp3.*;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import java.io.BufferedInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
+import java.net.ConnectException;
+import java.net.NoRouteToHostException;
+import java.net.UnknownHostException;
 import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.Instant;
 import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.stream.Stream;
 
 import static java.net.HttpURLConnection.*;
 
-public final class PerfanaClient implements PerfanaCaller {
+public final class PerfanaClient implements PerfanaCaller, PerfanaAsyncCaller, AutoCloseable {
 
-    private static final MediaType JSON
-            = MediaType.parse("application/json; charset=utf-8");
     public static final PerfanaErrorMessage PERFANA_ERROR_MESSAGE_NOT_FOUND = new PerfanaErrorMessage(Collections.singletonList("<No detail message was send>"));
     public static final PerfanaSingleMessage PERFANA_SINGLE_MESSAGE_NOT_FOUND = new PerfanaSingleMessage("<No detail message was send>");
 
-    private final OkHttpClient client = new OkHttpClient();
+    /**
+     * Header with a key per logical call, the same for all its attempts, so Perfana can ignore duplicates.
+     */
+    public static final String IDEMPOTENCY_KEY_HEADER = "Idempotency-Key";
+
+    private final PerfanaTransport transport;
+
+    private final PerfanaReplicas replicas;
 
     private final PerfanaClientLogger logger;
 
+    // NONE when metrics are disabled, then the transport is not metered
+    private final PerfanaClientMetrics metrics;
+
+    // NONE when tracing is disabled
+    private final PerfanaTracing tracing;
+
     private final PerfanaTestContext context;
     private final PerfanaConnectionSettings settings;
     
     private final boolean assertResultsEnabled;
 
-    private static final ObjectReader perfanaBenchmarkReader;
+    private volatile PerfanaMessageEncoder messageEncoder;
 
-    private static final ObjectReader errorMessageReader;
-    private static final ObjectReader singleMessageReader;
-    private static final ObjectReader perfanaTestReader;
-    private static final ObjectWriter perfanaMessageWriter;
-    private static final ObjectWriter perfanaEventWriter;
+    // empty when circuit breakers are disabled
+    private final Map<PerfanaEndpoint, CircuitBreaker> circuitBreakers = new EnumMap<>(PerfanaEndpoint.class);
 
-    private static final ObjectWriter testRunConfigKeyValueWriter;
+    // hedging of the benchmark results polling
+    private final LatencyTracker benchmarkResultsLatency = new LatencyTracker(100, 5);
+    private final LongAdder hedgedCalls = new LongAdder();
+    private final LongAdder hedges = new LongAdder();
+    private final LongAdder hedgeWins = new LongAdder();
 
-    private static final ObjectWriter testRunConfigJsonWriter;
+    private final RequestCompressor requestCompressor;
 
-    private static final ObjectWriter testRunConfigKeysWriter;
-
-    private static final ObjectWriter initWriter;
-    private static final ObjectReader initReplyReader;
-
-    static {
-        ObjectMapper objectMapper = new ObjectMapper();
-        objectMapper.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
-        perfanaBenchmarkReader = objectMapper.reader().forType(Benchmark.class);
-        errorMessageReader = objectMapper.reader().forType(PerfanaErrorMessage.class);
-        singleMessageReader = objectMapper.reader().forType(PerfanaSingleMessage.class);
-        perfanaTestReader = objectMapper.reader().forType(PerfanaTest.class);
-        perfanaMessageWriter = objectMapper.writer().forType(PerfanaMessage.class);
-        perfanaEventWriter = objectMapper.writer().forType(PerfanaEvent.class);
-        testRunConfigKeyValueWriter = objectMapper.writer().forType(TestRunConfigKeyValue.class);
-        testRunConfigJsonWriter = objectMapper.writer().forType(TestRunConfigJson.class);
-        testRunConfigKeysWriter = objectMapper.writer().forType(TestRunConfigKeys.class);
-        initWriter = objectMapper.writer().forType(Init.class);
-        initReplyReader = objectMapper.reader().forType(InitReply.class);
-    }
+    // null when there is no outbox
+    @Nullable
+    private final PerfanaOutbox outbox;
 
     PerfanaClient(PerfanaTestContext context, PerfanaConnectionSettings settings,
-                  boolean assertResultsEnabled, PerfanaClientLogger logger) {
+                  boolean assertResultsEnabled, PerfanaClientLogger logger, PerfanaClientMetrics metrics, PerfanaTracing tracing) {
         this.context = context;
         this.settings = settings;
         this.assertResultsEnabled = assertResultsEnabled;
         this.logger = logger;
+        this.metrics = metrics;
+        this.tracing = tracing;
+        PerfanaTransport httpTransport = PerfanaTransports.create(settings.getTransport(), settings);
+        logger.debug("using " + httpTransport.name() + " http transport");
+        this.transport = metrics == PerfanaClientMetrics.NONE && tracing == PerfanaTracing.NONE
+                ? httpTransport : new MeteredTransport(httpTransport, metrics);
+        this.requestCompressor = new RequestCompressor(settings.getCompression(), settings.getCompressionThreshold(), logger);
+        this.replicas = new PerfanaReplicas(settings.getPerfanaUrls(), settings.isStickyRouting(), logger);
+        this.replicas.startHealthChecks(httpTransport, settings.getHealthCheckInterval());
+        if (settings.getCircuitBreakerFailureRateThreshold() > 0) {
+            for (PerfanaEndpoint endpoint : PerfanaEndpoint.values()) {
+                circuitBreakers.put(endpoint, new CircuitBreaker(endpoint.getPath(),
+                        settings.getCircuitBreakerFailureRateThreshold(), settings.getCircuitBreakerMinimumCalls(),
+                        settings.getCircuitBreakerWindowSize(), settings.getCircuitBreakerOpenDuration(), logger));
+            }
+        }
+        this.outbox = settings.getOutboxDirectory() == null ? null
+                : PerfanaOutbox.open(Paths.get(settings.getOutboxDirectory()), settings.getOutboxSegmentSize(),
+                        settings.getOutboxReplayInterval(), this::sendStored, logger);
     }
 
     public void callPerfanaTestEndpoint(PerfanaTestContext context, boolean completed) throws KillSwitchException {
@@ -108,73 +155,624 @@ public final class PerfanaClient implements PerfanaCaller {
 
     @Override
     public void callPerfanaTestEndpoint(PerfanaTestContext context, boolean completed, Map<String, String> extraVariables) throws KillSwitchException {
-        final String json = perfanaMessageToJson(context, completed, extraVariables);
-        final Request request = createRequest("/api/test", json);
+        final TransportRequest request = createTestEndpointRequest(context, completed, extraVariables);
+        // the final call with completed = true is always done, keep alive calls fail fast when Perfana is down
+        execute(PerfanaEndpoint.TEST, !completed, request, response -> handleTestEndpointResponse(request, response, completed), this::testEndpointFailed);
+    }
 
-        try (Response response = client.newCall(request).execute()) {
+    @Override
+    public CompletableFuture<Void> callPerfanaTestEndpointAsync(PerfanaTestContext context, boolean completed) {
+        return callPerfanaTestEndpointAsync(context, completed, Collections.emptyMap());
+    }
 
-            logger.debug("test endpoint result: " + response);
+    @Override
+    public CompletableFuture<Void> callPerfanaTestEndpointAsync(PerfanaTestContext context, boolean completed, Map<String, String> extraVariables) {
+        final TransportRequest request = createTestEndpointRequest(context, completed, extraVariables);
+        return enqueue(PerfanaEndpoint.TEST, !completed, request, response -> handleTestEndpointResponse(request, response, completed), this::testEndpointFailed);
+    }
 
-            final int code = response.code();
-            final String body = extractBodyAsString(response.body());
+    private TransportRequest createTestEndpointRequest(PerfanaTestContext context, boolean completed, Map<String, String> extraVariables) {
+        logger.debug("call to endpoint: /api/test with completed: " + completed + " and " + extraVariables.size() + " extra variables");
+        RequestContent body = new PerfanaMessageRequestBody(messageEncoder(context), completed, extraVariables);
+        return createRequest(PerfanaEndpoint.TEST.getPath(), body);
+    }
 
-            if (code == HTTP_UNAUTHORIZED) { // 401
-                String dueTo = extractDueTo(response.header("WWW-Authenticate"));
-                throw new AbortSchedulerException(String.format("Abort: not authorized (%d) for [%s]%s", code, request, dueTo));
-            } else if (code == HTTP_UNAVAILABLE || code == HTTP_BAD_GATEWAY) {
-                logger.warn(String.format("Perfana replied with service unavailable (%d) for [%s]. Will retry.", code, request));
-            } else if (code == HTTP_BAD_REQUEST || code == HTTP_INTERNAL_ERROR) { // 400 || 500
+    /**
+     * The fixed part of the PerfanaMessage is encoded once per test context.
+     */
+    private PerfanaMessageEncoder messageEncoder(PerfanaTestContext context) {
+        PerfanaMessageEncoder encoder = messageEncoder;
+        if (encoder == null || !encoder.isFor(context)) {
+            encoder = new PerfanaMessageEncoder(context);
+            messageEncoder = encoder;
+        }
+        return encoder;
+    }
+
+    private Void handleTestEndpointResponse(TransportRequest request, TransportResponse response, boolean completed) throws IOException {
+
+        logger.debug("test endpoint result: " + response);
+
+        final int code = response.code();
+
+        if (code == HTTP_UNAUTHORIZED) { // 401
+            String dueTo = extractDueTo(response.header("WWW-Authenticate"));
+            throw new AbortSchedulerException(String.format("Abort: not authorized (%d) for [%s]%s", code, request, dueTo));
+        } else if (code == HTTP_UNAVAILABLE || code == HTTP_BAD_GATEWAY) {
+            logger.warn(String.format("Perfana replied with service unavailable (%d) for [%s]. Will retry.", code, request));
+        } else if (code == HTTP_BAD_REQUEST || code == HTTP_INTERNAL_ERROR) { // 400 || 500
+            final String body = extractBodyAsString(response.body());
+            if (!body.isEmpty()) {
                 PerfanaErrorMessage message = extractPerfanaErrorMessage(body);
-                if (body != null) {
-                    throw new AbortSchedulerException("Abort due to: " + message.getMessage());
-                } else {
-                    logger.error(String.format("No response body in test endpoint result: %s", response));
-                    throw new AbortSchedulerException(String.format("Abort due to Perfana error reply (%d) for [%s]", code, request));
-                }
+                throw new AbortSchedulerException("Abort due to: " + message.getMessage());
             } else {
-                if (body != null) {
-                    // only do the abort check for the keep alive calls, completed is final call
-                    if (!completed) {
-                        PerfanaTest test = perfanaTestReader.readValue(body);
-                        if (test.isAbort()) {
-                            String message = test.getAbortMessage();
-                            logger.info(String.format("abort requested by Perfana! Reason: '%s'", message));
-                            throw new KillSwitchException(message);
-                        }
-                    }
+                logger.error(String.format("No response body in test endpoint result: %s", response));
+                throw new AbortSchedulerException(String.format("Abort due to Perfana error reply (%d) for [%s]", code, request));
+            }
+        } else {
+            // only do the abort check for the keep alive calls, completed is final call
+            if (!completed) {
+                PerfanaTest test = PerfanaResponses.readAbortStatus(PerfanaCodecs.jsonFactory(), response.body());
+                if (test.isAbort()) {
+                    String message = test.getAbortMessage();
+                    logger.info(String.format("abort requested by Perfana! Reason: '%s'", message));
+                    throw new KillSwitchException(message);
+                }
+            }
+        }
+        return null;
+    }
+
+    private Void testEndpointFailed(IOException e) {
+        logger.error(String.format("Failed to call Perfana test endpoint: %s", e.getMessage()));
+        return null;
+    }
+
+    /**
+     * Blocking call: the response handler runs on the calling thread.
+     * An IOException (from the call or the handler) is passed to onFailure, runtime exceptions are thrown.
+     *
+     * @param failFast when true, the call is skipped with a CircuitBreakerOpenException while the circuit breaker
+     *                 of the endpoint is open. Otherwise the call is always done.
+     */
+    private <T> T execute(PerfanaEndpoint endpoint, boolean failFast, TransportRequest request, ResponseHandler<T> handler, Function<IOException, T> onFailure) {
+        PerfanaSpan span = startSpan(endpoint);
+        try {
+            final TransportResponse response;
+            try {
+                acquire(endpoint, failFast);
+                response = call(endpoint, traced(request, span));
+            } catch (IOException e) {
+                span.setError(e);
+                return onFailure.apply(e);
+            }
+            try (TransportResponse r = response) {
+                return handler.handle(r);
+            } catch (IOException e) {
+                span.setError(e);
+                return onFailure.apply(e);
+            }
+        } finally {
+            span.end();
+        }
+    }
+
+    /**
+     * Non-blocking call: the response handler runs on a thread of the http transport.
+     * The returned future completes with the result of the handler, or of onFailure in case of an IOException.
+     * Runtime exceptions of the handler, such as KillSwitchException and AbortSchedulerException,
+     * complete the future exceptionally. Cancelling the future cancels the call.
+     */
+    private <T> CompletableFuture<T> enqueue(PerfanaEndpoint endpoint, boolean failFast, TransportRequest request, ResponseHandler<T> handler, Function<IOException, T> onFailure) {
+        return enqueue(endpoint, failFast, true, request, handler, onFailure);
+    }
+
+    /**
+     * @param retry when false, calls with an idempotency key are not retried, e.g. because the outbox does the retries
+     */
+    private <T> CompletableFuture<T> enqueue(PerfanaEndpoint endpoint, boolean failFast, boolean retry, TransportRequest request, ResponseHandler<T> handler, Function<IOException, T> onFailure) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        // the span ends before the future completes, so it is complete for whoever waits for the future
+        PerfanaSpan span = startSpan(endpoint);
+        // a cancel ends the span, and the cancelled call can still report a failure afterwards
+        AtomicBoolean spanEnded = new AtomicBoolean();
+        Runnable endSpan = () -> {
+            if (spanEnded.compareAndSet(false, true)) {
+                span.end();
+            }
+        };
+        try {
+            acquire(endpoint, failFast);
+        } catch (CircuitBreakerOpenException e) {
+            span.setError(e);
+            endSpan.run();
+            completeOnFailure(future, onFailure, e);
+            return future;
+        }
+        // only fail fast calls can take the probe; the failure of a cancelled call can come after the cancel
+        AtomicBoolean released = new AtomicBoolean();
+        Runnable releaseOnCancel = () -> {
+            if (failFast && released.compareAndSet(false, true)) {
+                recordCancel(endpoint);
+            }
+        };
+        AtomicReference<TransportCall> currentCall = new AtomicReference<>();
+        TransportRequest tracedRequest = traced(request, span);
+        RetryPolicy.Attempts attempts = retry && isRetryable(tracedRequest) ? settings.getPostRetryPolicy().start() : null;
+        enqueueAttempt(endpoint, tracedRequest, deadline(endpoint), attempts, future, currentCall, new TransportCallback() {
+            @Override
+            public void onFailure(TransportCall call, IOException e) {
+                if (future.isCancelled()) {
+                    // the failure of a cancelled call is not an error of Perfana
+                    releaseOnCancel.run();
+                    return;
+                }
+                recordFailure(endpoint);
+                span.setError(e);
+                endSpan.run();
+                completeOnFailure(future, onFailure, e);
+            }
+
+            @Override
+            public void onResponse(TransportCall call, TransportResponse response) {
+                recordResponse(endpoint, response.code());
+                final T result;
+                try (TransportResponse r = response) {
+                    result = handler.handle(r);
+                } catch (IOException e) {
+                    span.setError(e);
+                    endSpan.run();
+                    completeOnFailure(future, onFailure, e);
+                    return;
+                } catch (RuntimeException e) {
+                    endSpan.run();
+                    future.completeExceptionally(e);
+                    return;
+                }
+                endSpan.run();
+                future.complete(result);
+            }
+        });
+        future.whenComplete((result, throwable) -> {
+            TransportCall call = currentCall.get();
+            if (future.isCancelled()) {
+                endSpan.run();
+                releaseOnCancel.run();
+                if (call != null) {
+                    call.cancel();
+                }
+            }
+        });
+        return future;
+    }
+
+    /**
+     * Does the call and reports the outcome to the circuit breaker of the endpoint.
+     * Calls with an idempotency key are retried with the post retry policy when Perfana is not available.
+     * All attempts are done within the call timeout of the endpoint.
+     */
+    private TransportResponse call(PerfanaEndpoint endpoint, TransportRequest request) throws IOException {
+        return call(endpoint, request, isRetryable(request), deadline(endpoint));
+    }
+
+    private TransportResponse call(PerfanaEndpoint endpoint, TransportRequest request, boolean retry) throws IOException {
+        return call(endpoint, request, retry, deadline(endpoint));
+    }
+
+    private TransportResponse call(PerfanaEndpoint endpoint, TransportRequest request, boolean retry, Deadline deadline) throws IOException {
+        try {
+            TransportResponse response = retry ? callWithRetries(endpoint, request, deadline) : callReplicas(endpoint, request, deadline);
+            recordResponse(endpoint, response.code());
+            return response;
+        } catch (IOException e) {
+            recordFailure(endpoint);
+            throw e;
+        }
+    }
+
+    /**
+     * Retries on IO errors and 502, 503 and 504 replies. The last reply or failure is returned,
+     * also when there is no time left before the deadline for another attempt.
+     */
+    private TransportResponse callWithRetries(PerfanaEndpoint endpoint, TransportRequest request, Deadline deadline) throws IOException {
+        RetryPolicy.Attempts attempts = settings.getPostRetryPolicy().start();
+        while (true) {
+            Optional<Duration> delay;
+            String reason;
+            try {
+                TransportResponse response = callReplicas(endpoint, request, deadline);
+                if (!isUnavailable(response.code())) {
+                    return response;
+                }
+                delay = attempts.nextDelay().filter(deadline::allows);
+                if (delay.isEmpty()) {
+                    return response;
+                }
+                reason = "reply " + response.code();
+                response.close();
+            } catch (InterruptedIOException e) {
+                throw e;
+            } catch (IOException e) {
+                delay = attempts.nextDelay().filter(deadline::allows);
+                if (delay.isEmpty()) {
+                    throw e;
+                }
+                reason = e.getMessage();
+            }
+            logRetry(request, attempts, delay.get(), reason);
+            metrics.onRetry(endpoint.getPath());
+            span(request).setAttribute(PerfanaSpan.RETRY_ATTEMPT, attempts.attempt() - 1);
+            sleep(delay.get().toMillis());
+            if (Thread.currentThread().isInterrupted()) {
+                throw new InterruptedIOException("interrupted while retrying " + request.path());
+            }
+        }
+    }
+
+    /**
+     * Async version of callWithRetries: retries are scheduled, no thread waits for them.
+     *
+     * @param attempts null when the call should not be retried
+     * @param future no retries are done when it is completed, e.g. cancelled
+     */
+    private void enqueueAttempt(PerfanaEndpoint endpoint, TransportRequest request, Deadline deadline, @Nullable RetryPolicy.Attempts attempts,
+                                CompletableFuture<?> future, AtomicReference<TransportCall> currentCall, TransportCallback callback) {
+        List<PerfanaReplicas.Replica> candidates = replicas.select(routingKey(request));
+        if (attempts == null) {
+            enqueueReplicas(endpoint, request, deadline, candidates, 0, currentCall, callback);
+            return;
+        }
+        enqueueReplicas(endpoint, request, deadline, candidates, 0, currentCall, new TransportCallback() {
+            @Override
+            public void onFailure(TransportCall call, IOException e) {
+                if (call.isCanceled() || !retryLater(e.getMessage())) {
+                    callback.onFailure(call, e);
+                }
+            }
+
+            @Override
+            public void onResponse(TransportCall call, TransportResponse response) throws IOException {
+                if (isUnavailable(response.code()) && retryLater("reply " + response.code())) {
+                    response.close();
                 } else {
-                    logger.error(String.format("No response body in test endpoint result: %s", response));
+                    callback.onResponse(call, response);
+                }
+            }
+
+            private boolean retryLater(String reason) {
+                Optional<Duration> delay = attempts.nextDelay().filter(deadline::allows);
+                if (delay.isEmpty() || future.isDone()) {
+                    return false;
                 }
+                logRetry(request, attempts, delay.get(), reason);
+                metrics.onRetry(endpoint.getPath());
+                span(request).setAttribute(PerfanaSpan.RETRY_ATTEMPT, attempts.attempt() - 1);
+                CompletableFuture.delayedExecutor(delay.get().toMillis(), TimeUnit.MILLISECONDS)
+                        .execute(() -> enqueueAttempt(endpoint, request, deadline, attempts, future, currentCall, callback));
+                return true;
+            }
+        });
+    }
+
+    private void logRetry(TransportRequest request, RetryPolicy.Attempts attempts, Duration delay, String reason) {
+        logger.warn(String.format("Call to %s failed (%s), retry in %d ms (%d/%d)",
+                request.path(), reason, delay.toMillis(), attempts.attempt(), attempts.maxAttempts()));
+    }
+
+    private static boolean isRetryable(TransportRequest request) {
+        return request.header(IDEMPOTENCY_KEY_HEADER) != null;
+    }
+
+    /**
+     * Like call, for idempotent requests: when there is no reply within the hedge delay, a second request
+     * is sent to the next replica, or on another connection to the same replica. The first good reply wins.
+     */
+    private TransportResponse callHedged(PerfanaEndpoint endpoint, TransportRequest request, Deadline deadline) throws IOException {
+        List<PerfanaReplicas.Replica> candidates = replicas.select(routingKey(request));
+        HedgedCall hedgedCall = new HedgedCall(transport, settings.getTimeoutProfile(endpoint.getGroup()), replicas, benchmarkResultsLatency, deadline);
+        hedgedCalls.increment();
+        try {
+            PerfanaReplicas.Replica first = candidates.get(0);
+            hedgedCall.launch(first, routeTo(first, request));
+            Duration hedgeDelay = benchmarkResultsLatency.percentile(settings.getHedgePercentile()).orElse(settings.getHedgeInitialDelay());
+            TransportResponse response = hedgedCall.await(hedgeDelay);
+            if (response == null) {
+                PerfanaReplicas.Replica second = candidates.get(candidates.size() > 1 ? 1 : 0);
+                logger.debug("no reply from " + first + " within " + hedgeDelay.toMillis() + " ms, hedge request to " + second);
+                hedges.increment();
+                hedgedCall.launch(second, routeTo(second, request));
+                response = hedgedCall.await();
+            }
+            if (hedgedCall.getWinner() > 0) {
+                hedgeWins.increment();
             }
+            recordResponse(endpoint, response.code());
+            return response;
         } catch (IOException e) {
-            logger.error(String.format("Failed to call Perfana test endpoint: %s", e.getMessage()));
+            recordFailure(endpoint);
+            throw e;
+        }
+    }
+
+    /**
+     * @return counts of the hedged benchmark results calls, all zero when hedging is not enabled
+     */
+    public HedgeStatistics getHedgeStatistics() {
+        return new HedgeStatistics(hedgedCalls.sum(), hedges.sum(), hedgeWins.sum());
+    }
+
+    /**
+     * @return the metrics of the calls to Perfana, {@link PerfanaClientMetrics#NONE} when not enabled
+     */
+    public PerfanaClientMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * @return the tracing of the calls to Perfana, {@link PerfanaTracing#NONE} when not enabled
+     */
+    public PerfanaTracing getTracing() {
+        return tracing;
+    }
+
+    /**
+     * @return the maximum time of a call to an endpoint of the group, including its retries and fail overs
+     */
+    public Duration getCallTimeout(PerfanaEndpointGroup group) {
+        return settings.getTimeoutProfile(group).getCallTimeout();
+    }
+
+    /**
+     * @return counts of the compressed request bodies, all zero when compression is disabled
+     */
+    public CompressionStatistics getCompressionStatistics() {
+        return requestCompressor.statistics();
+    }
+
+    /**
+     * Tries the replicas in order until one is available, or the deadline has passed.
+     * The reply or failure of the last replica tried is returned.
+     */
+    private TransportResponse callReplicas(PerfanaEndpoint endpoint, TransportRequest request, Deadline deadline) throws IOException {
+        List<PerfanaReplicas.Replica> candidates = replicas.select(routingKey(request));
+        for (int i = 0; ; i++) {
+            PerfanaReplicas.Replica replica = candidates.get(i);
+            boolean last = i == candidates.size() - 1;
+            TransportCall call = deadline.bound(newCall(endpoint, routeTo(replica, request)));
+            PerfanaReplicas.started(replica);
+            try {
+                TransportResponse response = call.execute();
+                if (!isUnavailable(response.code())) {
+                    replicas.markUp(replica);
+                    return response;
+                }
+                replicas.markDown(replica, "reply " + response.code());
+                if (last || deadline.isExpired()) {
+                    return response;
+                }
+                response.close();
+            } catch (IOException e) {
+                replicas.markDown(replica, e.getMessage());
+                if (last || deadline.isExpired() || !canFailOver(request, e)) {
+                    throw e;
+                }
+            } finally {
+                PerfanaReplicas.finished(replica);
+            }
+            logger.debug("fail over from " + replica + " for " + request.method() + " " + request.path());
+        }
+    }
+
+    /**
+     * Async version of callReplicas: the callback gets the reply or failure of the last replica tried.
+     */
+    private void enqueueReplicas(PerfanaEndpoint endpoint, TransportRequest request, Deadline deadline, List<PerfanaReplicas.Replica> candidates,
+                                 int index, AtomicReference<TransportCall> currentCall, TransportCallback callback) {
+        PerfanaReplicas.Replica replica = candidates.get(index);
+        boolean last = index == candidates.size() - 1;
+        TransportCall call = newCall(endpoint, routeTo(replica, request));
+        currentCall.set(call);
+        try {
+            deadline.bound(call);
+        } catch (InterruptedIOException e) {
+            callback.onFailure(call, e);
+            return;
+        }
+        PerfanaReplicas.started(replica);
+        call.enqueue(new TransportCallback() {
+            @Override
+            public void onFailure(TransportCall call, IOException e) {
+                PerfanaReplicas.finished(replica);
+                replicas.markDown(replica, e.getMessage());
+                if (last || call.isCanceled() || deadline.isExpired() || !canFailOver(request, e)) {
+                    callback.onFailure(call, e);
+                } else {
+                    enqueueReplicas(endpoint, request, deadline, candidates, index + 1, currentCall, callback);
+                }
+            }
+
+            @Override
+            public void onResponse(TransportCall call, TransportResponse response) throws IOException {
+                PerfanaReplicas.finished(replica);
+                if (!isUnavailable(response.code())) {
+                    replicas.markUp(replica);
+                } else {
+                    replicas.markDown(replica, "reply " + response.code());
+                    if (!last && !deadline.isExpired()) {
+                        response.close();
+                        enqueueReplicas(endpoint, request, deadline, candidates, index + 1, currentCall, callback);
+                        return;
+                    }
+                }
+                callback.onResponse(call, response);
+            }
+        });
+    }
+
+    /**
+     * @return new call with the timeouts of the endpoint group
+     */
+    private TransportCall newCall(PerfanaEndpoint endpoint, TransportRequest request) {
+        return transport.newCall(request, settings.getTimeoutProfile(endpoint.getGroup()));
+    }
+
+    /**
+     * @return deadline for a new call to the endpoint, from the call timeout of its group
+     */
+    private Deadline deadline(PerfanaEndpoint endpoint) {
+        return Deadline.after(settings.getTimeoutProfile(endpoint.getGroup()).getCallTimeout());
+    }
+
+    private TransportRequest routeTo(PerfanaReplicas.Replica replica, TransportRequest request) {
+        if (replicas.size() == 1) {
+            return request;
         }
+        return request.newBuilder().url(PerfanaReplicas.url(replica, route(request).getRelativeUrl())).build();
     }
 
+    @Nullable
+    private static String routingKey(TransportRequest request) {
+        return route(request).getRoutingKey();
+    }
+
+    private static PerfanaReplicas.Route route(TransportRequest request) {
+        return Objects.requireNonNull(request.tag(PerfanaReplicas.Route.class), "request without route");
+    }
+
+    /**
+     * @return new span for a call to the endpoint, PerfanaSpan.NONE when tracing is disabled
+     */
+    private PerfanaSpan startSpan(PerfanaEndpoint endpoint) {
+        PerfanaSpan span = tracing.startSpan(endpoint.getSpanName());
+        span.setAttribute(PerfanaSpan.ENDPOINT, endpoint.getPath());
+        return span;
+    }
+
+    /**
+     * The span is a tag of the request, so all attempts of the call carry its trace headers
+     * and report to it, also the attempts on other threads.
+     */
+    private static TransportRequest traced(TransportRequest request, PerfanaSpan span) {
+        if (span == PerfanaSpan.NONE) {
+            return request;
+        }
+        return request.newBuilder().tag(PerfanaSpan.class, span).build();
+    }
+
+    private static PerfanaSpan span(TransportRequest request) {
+        PerfanaSpan span = request.tag(PerfanaSpan.class);
+        return span == null ? PerfanaSpan.NONE : span;
+    }
+
+    /**
+     * A GET, or a call with an idempotency key, can always be done again. Other calls only when
+     * the request was not sent, so Perfana does not process it twice.
+     */
+    private static boolean canFailOver(TransportRequest request, IOException e) {
+        return "GET".equals(request.method()) || isRetryable(request)
+                || e instanceof ConnectException || e instanceof UnknownHostException || e instanceof NoRouteToHostException;
+    }
+
+    private void acquire(PerfanaEndpoint endpoint, boolean failFast) throws CircuitBreakerOpenException {
+        CircuitBreaker circuitBreaker = circuitBreakers.get(endpoint);
+        if (failFast && circuitBreaker != null && !circuitBreaker.tryAcquire()) {
+            throw new CircuitBreakerOpenException("circuit breaker is open for " + endpoint.getPath() + ", call is skipped");
+        }
+    }
+
+    /**
+     * Only replies that indicate Perfana is not available count as failure.
+     */
+    private void recordResponse(PerfanaEndpoint endpoint, int code) {
+        if (isUnavailable(code)) {
+            recordFailure(endpoint);
+        } else {
+            CircuitBreaker circuitBreaker = circuitBreakers.get(endpoint);
+            if (circuitBreaker != null) {
+                circuitBreaker.onSuccess();
+            }
+        }
+    }
+
+    private static boolean isUnavailable(int code) {
+        return code == HTTP_BAD_GATEWAY || code == HTTP_UNAVAILABLE || code == HTTP_GATEWAY_TIMEOUT;
+    }
+
+    private void recordFailure(PerfanaEndpoint endpoint) {
+        CircuitBreaker circuitBreaker = circuitBreakers.get(endpoint);
+        if (circuitBreaker != null) {
+            circuitBreaker.onFailure();
+        }
+    }
+
+    private void recordCancel(PerfanaEndpoint endpoint) {
+        CircuitBreaker circuitBreaker = circuitBreakers.get(endpoint);
+        if (circuitBreaker != null) {
+            circuitBreaker.onCancel();
+        }
+    }
+
+    private static <T> void completeOnFailure(CompletableFuture<T> future, Function<IOException, T> onFailure, IOException e) {
+        try {
+            future.complete(onFailure.apply(e));
+        } catch (RuntimeException re) {
+            future.completeExceptionally(re);
+        }
+    }
+
+    @FunctionalInterface
+    private interface ResponseHandler<T> {
+        T handle(TransportResponse response) throws IOException;
+    }
 
     @NotNull
-    private Request createRequest(String endPoint) {
-        return createRequest(endPoint, null);
+    private TransportRequest createRequest(String endPoint) {
+        logger.debug("call to endpoint: " + endPoint);
+        return createRequest(endPoint, (RequestContent) null);
     }
 
-    private Request createRequest(@NotNull String endpoint, String json) {
-        logger.debug("call to endpoint: " + endpoint + (json != null ? " with json: " + json : ""));
+    /**
+     * The value is serialized to json while the request is sent, no json String is created.
+     */
+    private <T> TransportRequest createRequest(@NotNull String endpoint, JsonCodec<T> codec, T value) {
+        logger.debug("call to endpoint: " + endpoint + " with " + value.getClass().getSimpleName());
+        return createRequest(endpoint, new JsonRequestBody<>(codec, value));
+    }
+
+    /**
+     * @param body when null a GET request is created, otherwise a POST with a new idempotency key
+     */
+    private TransportRequest createRequest(@NotNull String endpoint, @Nullable RequestContent body) {
+        return createRequest(endpoint, body, body == null ? null : UUID.randomUUID().toString());
+    }
 
+    private TransportRequest createRequest(@NotNull String endpoint, @Nullable RequestContent body, @Nullable String idempotencyKey) {
         String url = PerfanaUtils.addSlashIfNeeded(settings.getPerfanaUrl(), endpoint);
 
-        Request.Builder requestBuilder = new Request.Builder()
-            .url(url);
+        TransportRequest.Builder requestBuilder = TransportRequest.builder(url)
+            .tag(PerfanaReplicas.Route.class, new PerfanaReplicas.Route(endpoint, settings.isStickyRouting() ? context.getTestRunId() : null));
 
-        if (json == null) {
+        if (body == null) {
             requestBuilder.get();
         }
         else {
-            RequestBody body = RequestBody.create(json, JSON);
-            requestBuilder.post(body);
+            PerfanaEndpoint perfanaEndpoint = PerfanaEndpoint.of(endpoint);
+            boolean configUpload = perfanaEndpoint != null && perfanaEndpoint.getGroup() == PerfanaEndpointGroup.CONFIG;
+            RequestCompressor.EncodedBody encodedBody = requestCompressor.compress(body, configUpload);
+            if (encodedBody == null) {
+                requestBuilder.post(body);
+            } else {
+                requestBuilder.post(encodedBody.getBody())
+                    .header("Content-Encoding", encodedBody.getContentEncoding());
+            }
         }
 
         if (settings.getApiKey() != null) {
-            requestBuilder.addHeader("Authorization", "Bearer " + settings.getApiKey());
+            requestBuilder.header("Authorization", "Bearer " + settings.getApiKey());
+        }
+
+        if (idempotencyKey != null) {
+            requestBuilder.header(IDEMPOTENCY_KEY_HEADER, idempotencyKey);
         }
 
         return requestBuilder.build();
@@ -183,80 +781,220 @@ public final class PerfanaClient implements PerfanaCaller {
     @Override
     public void callPerfanaEvent(PerfanaTestContext context, String eventTitle, String eventDescription) {
         logger.info("add Perfana event: " + eventDescription);
-        String json = perfanaEventToJson(context, eventTitle, eventDescription);
+        PerfanaEvent event = createPerfanaEvent(context, eventTitle, eventDescription);
+        String result;
         try {
-            String result = post("/api/events", json);
-            logger.debug("result: " + result);
+            result = post(PerfanaEndpoint.EVENTS, DomainCodecs.PERFANA_EVENT, event);
         } catch (IOException e) {
-            logger.error("failed to call Perfana event endpoint: " + e.getMessage());
+            result = eventEndpointFailed(e);
         }
+        logger.debug("result: " + result);
+    }
+
+    @Override
+    public CompletableFuture<Void> callPerfanaEventAsync(PerfanaTestContext context, String eventTitle, String eventDescription) {
+        logger.info("add Perfana event: " + eventDescription);
+        PerfanaEvent event = createPerfanaEvent(context, eventTitle, eventDescription);
+        return postAsync(PerfanaEndpoint.EVENTS, DomainCodecs.PERFANA_EVENT, event, this::eventEndpointFailed)
+                .thenAccept(result -> logger.debug("result: " + result));
     }
 
     /**
-     * @return null when response is not successful
+     * Like post, without waiting for the reply. With an outbox, the value is stored when Perfana is not
+     * available, or right away in the same cases as post, so async calls keep their order with the stored calls.
      */
-    private String post(String endpoint, String json) throws IOException {
-        Request request = createRequest(endpoint, json);
-        try (Response response = client.newCall(request).execute()) {
-            String responseBody = response.body() == null ? "" : response.body().string();
-            final int responseCode = response.code();
-            if (responseCode == HTTP_UNAUTHORIZED) {
-                logger.warn("ignoring: not authorised (401) to post to [" + endpoint + "]");
-                return null;
+    private <T> CompletableFuture<String> postAsync(PerfanaEndpoint endpoint, JsonCodec<T> codec, T value, Function<IOException, String> onFailure) {
+        final boolean useOutbox = outbox != null && !outbox.isClosed();
+        TransportRequest request = createRequest(endpoint.getPath(), codec, value);
+        if (!useOutbox) {
+            return enqueue(endpoint, true, request, response -> handlePostResponse(endpoint.getPath(), value, response), onFailure);
+        }
+        if (settings.getOutboxMode() == OutboxMode.ALL || !outbox.isEmpty()) {
+            PerfanaSpan span = startSpan(endpoint);
+            try {
+                store(endpoint, traced(request, span), codec, value);
+                return CompletableFuture.completedFuture(null);
+            } catch (IOException e) {
+                span.setError(e);
+                return CompletableFuture.failedFuture(e);
+            } finally {
+                span.end();
             }
-            if (!response.isSuccessful()) {
-                logger.warn("POST was not successful. Response: " + response + " Body: '" + responseBody + "' Request: " + json);
-                return null;
+        }
+        // with an outbox, the outbox does the retries
+        return enqueue(endpoint, true, false, request, response -> {
+            if (isUnavailable(response.code())) {
+                throw new IOException("Perfana is unavailable (" + response.code() + ")");
             }
-            return responseBody;
+            return handlePostResponse(endpoint.getPath(), value, response);
+        }, e -> {
+            logger.warn("call to " + endpoint.getPath() + " failed, stored in outbox: " + e.getMessage());
+            try {
+                store(endpoint, request, codec, value);
+            } catch (IOException storeFailure) {
+                throw new PerfanaClientRuntimeException("failed to store call to " + endpoint.getPath() + " in outbox", storeFailure);
+            }
+            return null;
+        });
+    }
+
+    private String eventEndpointFailed(IOException e) {
+        logger.error("failed to call Perfana event endpoint: " + e.getMessage());
+        return null;
+    }
+
+    /**
+     * Fails fast with a CircuitBreakerOpenException when the circuit breaker for the endpoint is open.
+     * With an outbox, the value is stored instead when Perfana is not available, or when calls are
+     * already waiting in the outbox (to keep the order).
+     * @return null when response is not successful or the value is stored in the outbox
+     */
+    private <T> String post(PerfanaEndpoint endpoint, JsonCodec<T> codec, T value) throws IOException {
+        PerfanaSpan span = startSpan(endpoint);
+        try {
+            return post(endpoint, codec, value, span);
+        } catch (IOException e) {
+            span.setError(e);
+            throw e;
+        } finally {
+            span.end();
         }
     }
 
-    public static String perfanaMessageToJson(PerfanaTestContext context, boolean completed, Map<String, String> extraVariables) {
+    private <T> String post(PerfanaEndpoint endpoint, JsonCodec<T> codec, T value, PerfanaSpan span) throws IOException {
+        final boolean useOutbox = outbox != null && !outbox.isClosed();
+        TransportRequest request = traced(createRequest(endpoint.getPath(), codec, value), span);
+        if (useOutbox && (settings.getOutboxMode() == OutboxMode.ALL || !outbox.isEmpty())) {
+            store(endpoint, request, codec, value);
+            return null;
+        }
+        final TransportResponse response;
+        try {
+            acquire(endpoint, true);
+            // with an outbox, the outbox does the retries
+            response = call(endpoint, request, !useOutbox);
+        } catch (IOException e) {
+            if (!useOutbox) {
+                throw e;
+            }
+            logger.warn("call to " + endpoint.getPath() + " failed, stored in outbox: " + e.getMessage());
+            store(endpoint, request, codec, value);
+            return null;
+        }
+        try (TransportResponse r = response) {
+            if (useOutbox && isUnavailable(r.code())) {
+                logger.warn("Perfana is unavailable (" + r.code() + ") for " + endpoint.getPath() + ", stored in outbox");
+                store(endpoint, request, codec, value);
+                return null;
+            }
+            return handlePostResponse(endpoint.getPath(), value, r);
+        }
+    }
 
-        PerfanaMessage.PerfanaMessageBuilder perfanaMessageBuilder = PerfanaMessage.builder()
-            .testRunId(context.getTestRunId())
-            .workload(context.getWorkload())
-            .testEnvironment(context.getTestEnvironment())
-            .systemUnderTest(context.getSystemUnderTest())
-            .version(context.getVersion())
-            .cibuildResultsUrl(context.getCIBuildResultsUrl())
-            .rampUp(String.valueOf(context.getRampupTime().getSeconds()))
-            .duration(String.valueOf(context.getPlannedDuration().getSeconds()))
-            .completed(completed)
-            .annotations(context.getAnnotations())
-            .tags(context.getTags());
+    /**
+     * The idempotency key of the request is stored too: Perfana can ignore the call when an earlier attempt did arrive.
+     */
+    private <T> void store(PerfanaEndpoint endpoint, TransportRequest request, JsonCodec<T> codec, T value) throws IOException {
+        span(request).setAttribute(PerfanaSpan.OUTBOX, "stored");
+        outbox.append(endpoint.name(), request.header(IDEMPOTENCY_KEY_HEADER), PerfanaCodecs.toBytes(codec, value));
+        logger.debug("stored call to " + endpoint.getPath() + " in outbox");
+    }
 
-        context.getVariables().forEach((k,v) -> perfanaMessageBuilder
-            .variable(Variable.builder().placeholder(k).value(v).build()));
+    /**
+     * Sends a call from the outbox.
+     * @return false when Perfana is not available and the call should be retried later
+     */
+    private boolean sendStored(String endpointName, String idempotencyKey, byte[] json) throws IOException {
+        final PerfanaEndpoint endpoint;
+        try {
+            endpoint = PerfanaEndpoint.valueOf(endpointName);
+        } catch (IllegalArgumentException e) {
+            logger.warn("dropping call to unknown endpoint from outbox: " + endpointName);
+            return true;
+        }
+        PerfanaSpan span = startSpan(endpoint);
+        span.setAttribute(PerfanaSpan.OUTBOX, "replayed");
+        TransportRequest request = traced(createRequest(endpoint.getPath(), RequestContent.of(json, RequestContent.JSON), idempotencyKey), span);
+        try {
+            acquire(endpoint, true);
+            try (TransportResponse response = call(endpoint, request, false)) {
+                if (isUnavailable(response.code())) {
+                    return false;
+                }
+                handlePostResponse(endpoint.getPath(), "call from outbox", response);
+                return true;
+            }
+        } catch (IOException e) {
+            span.setError(e);
+            throw e;
+        } finally {
+            span.end();
+        }
+    }
 
-        extraVariables.forEach((k, v) -> perfanaMessageBuilder
-            .variable(Variable.builder().placeholder(k).value(v).build()));
+    /**
+     * Waits, at most the outbox drain timeout, for the calls in the outbox to be sent.
+     * Calls that are not sent stay in the outbox and are sent when a client is started
+     * with the same outbox directory.
+     *
+     * @return true when there is no outbox or the outbox is empty
+     */
+    public boolean drainOutbox() {
+        if (outbox == null || outbox.isEmpty()) {
+            return true;
+        }
+        logger.info("waiting for " + outbox.pendingCount() + " calls in outbox to be sent to Perfana");
+        boolean drained = outbox.drain(settings.getOutboxDrainTimeout());
+        if (!drained) {
+            logger.warn(outbox.pendingCount() + " calls in outbox are not sent to Perfana, these will be sent on next run");
+        }
+        return drained;
+    }
 
-        PerfanaMessage perfanaMessage = perfanaMessageBuilder.build();
+    /**
+     * Stops the replica health checks and releases the outbox, if any: calls are no longer stored.
+     * The http connections are shared and stay open.
+     */
+    @Override
+    public void close() {
+        if (metrics != PerfanaClientMetrics.NONE) {
+            logger.info("Perfana client metrics: " + metrics);
+        }
+        replicas.close();
+        if (outbox != null) {
+            outbox.close();
+        }
+    }
 
-        try {
-            return perfanaMessageWriter.writeValueAsString(perfanaMessage);
-        } catch (JsonProcessingException e) {
-            throw new PerfanaClientRuntimeException("Failed to write PerfanaMessage to json: " + perfanaMessage, e);
+    /**
+     * @return null when response is not successful
+     */
+    private String handlePostResponse(String endpoint, Object requestValue, TransportResponse response) throws IOException {
+        String responseBody = extractBodyAsString(response.body());
+        final int responseCode = response.code();
+        if (responseCode == HTTP_UNAUTHORIZED) {
+            logger.warn("ignoring: not authorised (401) to post to [" + endpoint + "]");
+            return null;
         }
+        if (!response.isSuccessful()) {
+            logger.warn("POST was not successful. Response: " + response + " Body: '" + responseBody + "' Request: " + requestValue);
+            return null;
+        }
+        return responseBody;
     }
 
-    private String perfanaEventToJson(PerfanaTestContext context, String eventTitle, String eventDescription) {
+    public static String perfanaMessageToJson(PerfanaTestContext context, boolean completed, Map<String, String> extraVariables) {
+        return new PerfanaMessageEncoder(context).encodeToString(completed, extraVariables);
+    }
 
-        PerfanaEvent event = PerfanaEvent.builder()
+    private static PerfanaEvent createPerfanaEvent(PerfanaTestContext context, String eventTitle, String eventDescription) {
+        return PerfanaEvent.builder()
             .systemUnderTest(context.getSystemUnderTest())
             .testEnvironment(context.getTestEnvironment())
             .title(eventTitle)
             .description(eventDescription)
             .tag(context.getWorkload())
             .build();
-
-        try {
-            return perfanaEventWriter.writeValueAsString(event);
-        } catch (JsonProcessingException e) {
-            throw new PerfanaClientRuntimeException("Unable to transform PerfanaEvent to json", e);
-        }
     }
 
     /**
@@ -277,41 +1015,51 @@ public final class PerfanaClient implements PerfanaCaller {
      *            response example for 500 or other errors:
      *            <pre>{ "message": "Something went wrong" }</pre>
      *
-     * @return string such as "All configured checks are OK:
-     *     https://perfana:4000/requirements/123
-     *     https://perfana:4000/benchmarkBaseline/123
-     *     https://perfana:4000/benchmarkPrevious/123"
+     * @return the benchmark results, or null when no checks are specified for the test run
      * @throws PerfanaClientException when call fails unexpectedly (e.g. bug)
      * @throws PerfanaAssertResultsException when call fails in more-or-less expect way (e.g. status code 400)
      */
-    private String callCheckAsserts() throws PerfanaClientException, PerfanaAssertResultsException {
+    private Benchmark callCheckAsserts() throws PerfanaClientException, PerfanaAssertResultsException {
         String endPoint;
         try {
-            endPoint = String.join("/",  "/api", "benchmark-results", encodeForURL(context.getSystemUnderTest()), encodeForURL(context.getTestRunId()));
+            endPoint = String.join("/",  PerfanaEndpoint.BENCHMARK_RESULTS.getPath(), encodeForURL(context.getSystemUnderTest()), encodeForURL(context.getTestRunId()));
         } catch (UnsupportedEncodingException e) {
             throw new PerfanaClientException("cannot encode Perfana url.", e);
         }
         
-        Request request = createRequest(endPoint);
+        TransportRequest request = createRequest(endPoint);
 
-        final int maxRetryCount = settings.getRetryMaxCount();
-        final long sleepDurationMillis = settings.getRetryDuration().toMillis();
+        final RetryPolicy.Attempts attempts = settings.getRetryPolicy().start();
+        // bounds the polling as a whole, each poll is also bounded by the call timeout
+        final Deadline assertResultsDeadline = Deadline.after(settings.getAssertResultsDeadline());
 
-        int retryCount = 0;
-        String assertions = null;
+        Benchmark assertions = null;
 
         boolean keepRetrying = true;
         boolean assertionsAvailable = false;
         boolean checksSpecified = false;
 
-         while (keepRetrying && (retryCount++ < maxRetryCount)) {
-            try (Response response = client.newCall(request).execute()) {
+        while (keepRetrying) {
+            // pacing hint from Perfana for the next attempt, if any
+            Duration retryAfter = null;
+            Deadline deadline = deadline(PerfanaEndpoint.BENCHMARK_RESULTS).earliest(assertResultsDeadline);
+            metrics.onPoll(PerfanaEndpoint.BENCHMARK_RESULTS.getPath());
+            // a span per poll, the sleep between polls is not part of a span
+            PerfanaSpan span = startSpan(PerfanaEndpoint.BENCHMARK_RESULTS);
+            span.setAttribute(PerfanaSpan.POLL_ATTEMPT, attempts.attempt());
+            TransportRequest pollRequest = traced(request, span);
+            // always polled, results are needed to finish the test run
+            try (TransportResponse response = settings.getHedgePercentile() > 0
+                    ? callHedged(PerfanaEndpoint.BENCHMARK_RESULTS, pollRequest, deadline)
+                    : call(PerfanaEndpoint.BENCHMARK_RESULTS, pollRequest, false, deadline)) {
 
                 // for response codes that do not throw PerfanaAssertResultsException: retries are done
                 final int code = response.code();
-                final String body = extractBodyAsString(response.body());
+                final BufferedInputStream bodyStream = PerfanaResponses.openBody(response.body());
+                // only the start of the body is used for html detection, logging and error messages
+                final String body = PerfanaResponses.peekText(bodyStream);
 
-                if (body != null && body.contains("<!DOCTYPE html>")) {
+                if (PerfanaResponses.isHtml(body)) {
                     throw new PerfanaAssertResultsException(String.format("Got html instead of json response for [%s]: [%s]",
                             endPoint, body));
                 }
@@ -319,15 +1067,19 @@ public final class PerfanaClient implements PerfanaCaller {
                 logger.debug(String.format("Received response for [%s] with code [%d] and body [%s]", request, code, body));
 
                 if (code == HTTP_OK) {
-                    assertions = body;
+                    assertions = readBenchmark(bodyStream, endPoint);
                     assertionsAvailable = true;
                     checksSpecified = true;
                     keepRetrying = false;
                 } else if (code == HTTP_ACCEPTED) { // 202
                     PerfanaSingleMessage message = extractPerfanaSingleMessage(body);
+                    retryAfter = PerfanaResponses.parseRetryAfter(response.header("Retry-After"), Instant.now());
+                    if (retryAfter == null && message.getRetryAfterSeconds() != null) {
+                        retryAfter = Duration.ofSeconds(message.getRetryAfterSeconds());
+                    }
                     //  evaluation in progress
                     logger.info(String.format("Trying to get test run check results at %s, attempt (%d/%d). %s",
-                            endPoint, retryCount, maxRetryCount, message.getMessage()));
+                            endPoint, attempts.attempt(), attempts.maxAttempts(), message.getMessage()));
                 }
                 else {
                     if (code == HTTP_NO_CONTENT) { // 204
@@ -338,8 +1090,9 @@ public final class PerfanaClient implements PerfanaCaller {
                                 context.getTestRunId(), "no checks specified for this test run in Perfana"));
                     } else if (code == HTTP_UNAVAILABLE || code == HTTP_BAD_GATEWAY) { // 503 and 502
                         // no results available (yet), can be retried
+                        retryAfter = PerfanaResponses.parseRetryAfter(response.header("Retry-After"), Instant.now());
                         logger.warn(String.format("Perfana is currently unavailable (%s) for [%s]. Will retry (%d/%d)...",
-                                code, context.getTestRunId(), retryCount, maxRetryCount));
+                                code, context.getTestRunId(), attempts.attempt(), attempts.maxAttempts()));
                     } else if (code == HTTP_BAD_REQUEST) { // 400
                         String dueTo = extractDueTo(body);
                         throw new PerfanaAssertResultsException(String.format("Bad request from client (%d) to results for [%s].%s",
@@ -364,25 +1117,68 @@ public final class PerfanaClient implements PerfanaCaller {
                 }
 
             } catch (IOException e) {
+                span.setError(e);
                 logger.warn(String.format("IO Exception while trying to get test run check results at [%s], will retry (%d/%d)...[%s][%s]",
-                    endPoint, retryCount, maxRetryCount, e.getClass().getName(), e.getMessage()));
+                    endPoint, attempts.attempt(), attempts.maxAttempts(), e.getClass().getName(), e.getMessage()));
+            } finally {
+                span.end();
             }
 
             if (!assertionsAvailable) {
-                sleep(sleepDurationMillis);
+                Optional<Duration> delay = attempts.nextDelay();
+                Duration pollDelay = delay.isPresent() ? pollDelay(delay.get(), retryAfter) : null;
+                if (pollDelay != null && assertResultsDeadline.allows(pollDelay)) {
+                    metrics.onPollDelay(PerfanaEndpoint.BENCHMARK_RESULTS.getPath(), pollDelay.toNanos());
+                    sleep(pollDelay.toMillis());
+                } else {
+                    keepRetrying = false;
+                }
             }
         }
+        if (settings.getHedgePercentile() > 0) {
+            logger.info("Hedged test run check results calls: " + getHedgeStatistics());
+        }
         if (!assertionsAvailable) {
-            String message = "Failed to get test run check results at [" + endPoint + "], maximum attempts reached!";
+            String message = "Failed to get test run check results at [" + endPoint + "], maximum attempts, retry deadline or assert results deadline reached!";
             logger.warn(message);
             throw new PerfanaAssertResultsException(message);
         }
         return checksSpecified ? assertions : null;
     }
 
-    @Nullable
-    private String extractBodyAsString(ResponseBody responseBody) throws IOException {
-        return responseBody == null ? null : responseBody.string();
+    /**
+     * A Retry-After hint from Perfana replaces the delay of the retry policy, within the
+     * retry min and max delay: a busy Perfana can slow down the polling, and a result that
+     * is expected soon is picked up earlier.
+     */
+    private Duration pollDelay(Duration policyDelay, @Nullable Duration retryAfter) {
+        if (retryAfter == null) {
+            return policyDelay;
+        }
+        Duration delay = retryAfter;
+        if (delay.compareTo(settings.getRetryMinDelay()) < 0) {
+            delay = settings.getRetryMinDelay();
+        }
+        if (delay.compareTo(settings.getRetryMaxDelay()) > 0) {
+            delay = settings.getRetryMaxDelay();
+        }
+        logger.debug(String.format("Next poll in %d ms as asked by Perfana (Retry-After %d s)", delay.toMillis(), retryAfter.getSeconds()));
+        return delay;
+    }
+
+    /**
+     * @return the start of the body (bounded), empty if there is no body
+     */
+    private String extractBodyAsString(InputStream responseBody) throws IOException {
+        return PerfanaResponses.readText(responseBody);
+    }
+
+    private Benchmark readBenchmark(InputStream bodyStream, String endPoint) {
+        try {
+            return PerfanaCodecs.read(DomainCodecs.BENCHMARK, bodyStream);
+        } catch (IOException e) {
+            throw new PerfanaClientRuntimeException("Unable to parse benchmark message for [" + endPoint + "]", e);
+        }
     }
 
     @NotNull
@@ -403,7 +1199,7 @@ public final class PerfanaClient implements PerfanaCaller {
         }
         PerfanaErrorMessage perfanaErrorMessage;
         try {
-            perfanaErrorMessage = errorMessageReader.readValue(messageBody);
+            perfanaErrorMessage = PerfanaCodecs.read(DomainCodecs.PERFANA_ERROR_MESSAGE, messageBody);
         } catch (JsonProcessingException e) {
             logger.warn(String.format("Failed to process Perfana error message: [%s] due to: %s", messageBody, e));
             return PERFANA_ERROR_MESSAGE_NOT_FOUND;
@@ -417,7 +1213,7 @@ public final class PerfanaClient implements PerfanaCaller {
         }
         PerfanaSingleMessage perfanaSingleMessage;
         try {
-            perfanaSingleMessage = singleMessageReader.readValue(messageBody);
+            perfanaSingleMessage = PerfanaCodecs.read(DomainCodecs.PERFANA_SINGLE_MESSAGE, messageBody);
         } catch (JsonProcessingException e) {
             logger.warn(String.format("Failed to process Perfana error message: [%s] due to: %s", messageBody, e));
             return PERFANA_SINGLE_MESSAGE_NOT_FOUND;
@@ -445,18 +1241,12 @@ public final class PerfanaClient implements PerfanaCaller {
             return message;
         }
 
-        final String assertions = callCheckAsserts();
-        if (assertions == null) {
+        final Benchmark benchmark = callCheckAsserts();
+        if (benchmark == null) {
             // No checks have specified
             return "No checks have been specified for this test run. Set assertResults property to false or create checks for key metrics.";
         }
 
-        Benchmark benchmark;
-        try {
-            benchmark = perfanaBenchmarkReader.readValue(assertions);
-        } catch (IOException e) {
-            throw new PerfanaClientRuntimeException("Unable to parse benchmark message: " + assertions, e);
-        }
         Optional<Result> baseline = Optional.ofNullable(benchmark.getBenchmarkBaselineTestRun());
         Optional<Result> previous = Optional.ofNullable(benchmark.getBenchmarkPreviousTestRun());
         Optional<Result> requirements = Optional.ofNullable(benchmark.getRequirements());
@@ -466,7 +1256,8 @@ public final class PerfanaClient implements PerfanaCaller {
         previous.ifPresent(r -> logger.info("Compared to previous test run: " + r.isResult()));
 
         StringBuilder text = new StringBuilder();
-        if (assertions.contains("false")) {
+        boolean anyFailed = Stream.of(requirements, baseline, previous).anyMatch(r -> r.filter(result -> !result.isResult()).isPresent());
+        if (anyFailed) {
             text.append("One or more Perfana assertions are failing: \n");
             requirements.filter(r -> !r.isResult()).ifPresent(r -> text.append("Requirements check failed: ").append(r.getDeeplink()).append("\n"));
             baseline.filter(r -> !r.isResult()).ifPresent(r -> text.append("Comparison check to baseline test run failed: ").append(r.getDeeplink()).append("\n"));
@@ -487,15 +1278,14 @@ public final class PerfanaClient implements PerfanaCaller {
         return "PerfanaClient [testRunId:" + context.getTestRunId() +
             " workload: " + context.getWorkload() +
             " testEnvironment: " + context.getTestEnvironment() +
-            " Perfana url: " + settings.getPerfanaUrl() + "]";
+            " Perfana url: " + String.join(",", settings.getPerfanaUrls()) + "]";
     }
 
     public void addTestRunConfigKeyValue(TestRunConfigKeyValue testRunConfigKeyValue) {
         logger.info("add Perfana test-run-config with key-value: " + testRunConfigKeyValue);
         try {
 
-            String json = testRunConfigKeyValueWriter.writeValueAsString(testRunConfigKeyValue);
-            String result = post("/api/config/key", json);
+            String result = post(PerfanaEndpoint.CONFIG_KEY, DomainCodecs.TEST_RUN_CONFIG_KEY_VALUE, testRunConfigKeyValue);
             // result expected to be ""?
             logger.debug("result: " + result);
 
@@ -512,8 +1302,7 @@ public final class PerfanaClient implements PerfanaCaller {
 
         try {
 
-            String json = testRunConfigJsonWriter.writeValueAsString(testRunConfigJson);
-            String result = post("/api/config/json", json);
+            String result = post(PerfanaEndpoint.CONFIG_JSON, DomainCodecs.TEST_RUN_CONFIG_JSON, testRunConfigJson);
             // result expected to be ""?
             logger.debug("result: " + result);
 
@@ -529,8 +1318,7 @@ public final class PerfanaClient implements PerfanaCaller {
         logger.debug("add Perfana test-run-config with keys: " + testRunConfigKeys);
         try {
 
-            String keys = testRunConfigKeysWriter.writeValueAsString(testRunConfigKeys);
-            String result = post("/api/config/keys", keys);
+            String result = post(PerfanaEndpoint.CONFIG_KEYS, DomainCodecs.TEST_RUN_CONFIG_KEYS, testRunConfigKeys);
             // result expected to be ""?
             logger.debug("result: " + result);
 
@@ -545,33 +1333,75 @@ public final class PerfanaClient implements PerfanaCaller {
      * @return the testRunId or null if the call failed.
      */
     public String callInitTest(PerfanaTestContext context) {
+        Init init = createInit(context);
+        return execute(PerfanaEndpoint.INIT, false, createRequest(PerfanaEndpoint.INIT.getPath(), DomainCodecs.INIT, init), response -> handleInitResponse(init, response), this::initEndpointFailed);
+    }
+
+    /**
+     * @return future with the testRunId or null if the call failed.
+     */
+    @Override
+    public CompletableFuture<String> callInitTestAsync(PerfanaTestContext context) {
+        Init init = createInit(context);
+        return enqueue(PerfanaEndpoint.INIT, false, createRequest(PerfanaEndpoint.INIT.getPath(), DomainCodecs.INIT, init), response -> handleInitResponse(init, response), this::initEndpointFailed);
+    }
+
+    private Init createInit(PerfanaTestContext context) {
         Init init = Init.builder()
                 .systemUnderTest(context.getSystemUnderTest())
                 .testEnvironment(context.getTestEnvironment())
                 .workload(context.getWorkload()).build();
 
         logger.info("call Perfana init-test with: " + init);
+        return init;
+    }
+
+    private String handleInitResponse(Init init, TransportResponse response) throws IOException {
+        String initReplyJson = handlePostResponse(PerfanaEndpoint.INIT.getPath(), init, response);
+
+        logger.info("got init reply: " + initReplyJson);
+        if (initReplyJson == null) {
+            logger.error("Perfana init call failed.");
+            return null;
+        }
 
         try {
-            String json = initWriter.writeValueAsString(init);
-            String initReplyJson = post("/api/init", json);
+            InitReply initReply = PerfanaCodecs.read(DomainCodecs.INIT_REPLY, initReplyJson);
+            return initReply.getTestRunId();
+        } catch (JsonProcessingException e) {
+            logger.error("failed to serialize " + initReplyJson + " to json: " + e.getMessage());
+        }
+        return null;
+    }
 
-            logger.info("got init reply: " + initReplyJson);
-            if (initReplyJson == null) {
-                logger.error("Perfana init call failed.");
-                return null;
-            }
+    private String initEndpointFailed(IOException e) {
+        logger.error("failed to call Perfana init-test endpoint: " + e.getMessage());
+        return null;
+    }
 
-            try {
-                InitReply initReply = initReplyReader.readValue(initReplyJson);
-                return initReply.getTestRunId();
-            } catch (JsonProcessingException e) {
-                logger.error("failed to serialize " + initReplyJson + " to json: " + e.getMessage());
-            }
+    /**
+     * Writes the PerfanaMessage directly to the http sink.
+     */
+    private static final class PerfanaMessageRequestBody implements RequestContent {
 
-        } catch (IOException e) {
-            logger.error("failed to call Perfana init-test endpoint: " + e.getMessage());
+        private final PerfanaMessageEncoder encoder;
+        private final boolean completed;
+        private final Map<String, String> extraVariables;
+
+        private PerfanaMessageRequestBody(PerfanaMessageEncoder encoder, boolean completed, Map<String, String> extraVariables) {
+            this.encoder = encoder;
+            this.completed = completed;
+            this.extraVariables = extraVariables;
+        }
+
+        @Override
+        public String contentType() {
+            return JSON;
+        }
+
+        @Override
+        public void writeTo(OutputStream out) throws IOException {
+            encoder.writeTo(out, completed, extraVariables);
         }
-        return null;
     }
 }
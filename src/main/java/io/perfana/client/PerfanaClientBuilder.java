@@ -17,8 +17,10 @@ package io.perfana.client;
 
 import io.perfana.client.api.PerfanaClientLogger;
 import io.perfana.client.api.PerfanaClientLoggerStdOut;
+import io.perfana.client.api.PerfanaClientMetrics;
 import io.perfana.client.api.PerfanaConnectionSettings;
 import io.perfana.client.api.PerfanaTestContext;
+import io.perfana.client.api.PerfanaTracing;
 import io.perfana.client.exception.PerfanaClientRuntimeException;
 
 public class PerfanaClientBuilder {
@@ -31,6 +33,10 @@ public class PerfanaClientBuilder {
 
     private PerfanaClientLogger logger = new PerfanaClientLoggerStdOut();
 
+    private PerfanaClientMetrics metrics = PerfanaClientMetrics.NONE;
+
+    private PerfanaTracing tracing = PerfanaTracing.NONE;
+
     public PerfanaClientBuilder setTestContext(PerfanaTestContext context) {
         this.testContext = context;
         return this;
@@ -41,6 +47,26 @@ public class PerfanaClientBuilder {
         return this;
     }
 
+    /**
+     * @param metrics records the calls to Perfana, default is no metrics
+     */
+    public PerfanaClientBuilder setMetrics(PerfanaClientMetrics metrics) {
+        if (metrics != null) {
+            this.metrics = metrics;
+        }
+        return this;
+    }
+
+    /**
+     * @param tracing creates trace spans for the calls to Perfana, default is no tracing
+     */
+    public PerfanaClientBuilder setTracing(PerfanaTracing tracing) {
+        if (tracing != null) {
+            this.tracing = tracing;
+        }
+        return this;
+    }
+
     public PerfanaClientBuilder setPerfanaConnectionSettings(PerfanaConnectionSettings settings) {
         this.perfanaConnectionSettings = settings;
         return this;
@@ -66,7 +92,7 @@ public class PerfanaClientBuilder {
             throw new PerfanaClientRuntimeException("PerfanaConnectionSettings must be set, it is null.");
         }
 
-        return new PerfanaClient(testContext, perfanaConnectionSettings, assertResultsEnabled, logger);
+        return new PerfanaClient(testContext, perfanaConnectionSettings, assertResultsEnabled, logger, metrics, tracing);
     }
 
 }
\ No newline at end of file
@@ -0,0 +1,77 @@
+/*
+ *    Copyright 2020-2023  Peter Paul Bakker @ perfana.io, Daniel Moll @ perfana.io
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.perfana.client;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import net.jcip.annotations.ThreadSafe;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Json (de)serialization of the Perfana domain types with the {@link DomainCodecs}.
+ *
+ * Only the streaming JsonFactory is used, created on first use: no ObjectMapper, no
+ * reflection and no databind classes are loaded, not at startup and not on the first call.
+ */
+@ThreadSafe
+final class PerfanaCodecs {
+
+    private PerfanaCodecs() {}
+
+    private static final class Streaming {
+        // request bodies are written to the http sink, which is closed by the http client
+        static final JsonFactory FACTORY = new JsonFactory().disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+    }
+
+    /**
+     * @return factory for streaming parsers and generators, without databind
+     */
+    static JsonFactory jsonFactory() {
+        return Streaming.FACTORY;
+    }
+
+    /**
+     * Writes value to out, out is not closed.
+     */
+    static <T> void write(JsonCodec<T> codec, T value, OutputStream out) throws IOException {
+        try (JsonGenerator generator = jsonFactory().createGenerator(out)) {
+            codec.write(generator, value);
+        }
+    }
+
+    static <T> byte[] toBytes(JsonCodec<T> codec, T value) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(256);
+        write(codec, value, out);
+        return out.toByteArray();
+    }
+
+    static <T> T read(JsonCodec<T> codec, InputStream in) throws IOException {
+        try (JsonParser parser = jsonFactory().createParser(in)) {
+            return codec.read(parser);
+        }
+    }
+
+    static <T> T read(JsonCodec<T> codec, String json) throws IOException {
+        try (JsonParser parser = jsonFactory().createParser(json)) {
+            return codec.read(parser);
+        }
+    }
+}
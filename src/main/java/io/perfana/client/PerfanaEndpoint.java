@@ -0,0 +1,83 @@
+/*
+ *    Copyright 2020-2023  Peter Paul Bakker @ perfana.io, Daniel Moll @ perfana.io
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.perfana.client;
+
+import io.perfana.client.api.PerfanaEndpointGroup;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * The Perfana endpoints used by the client.
+ */
+enum PerfanaEndpoint {
+    INIT("/api/init", PerfanaEndpointGroup.INIT, "perfana.init"),
+    TEST("/api/test", PerfanaEndpointGroup.KEEP_ALIVE, "perfana.test"),
+    EVENTS("/api/events", PerfanaEndpointGroup.EVENTS, "perfana.event"),
+    CONFIG_KEY("/api/config/key", PerfanaEndpointGroup.CONFIG, "perfana.config"),
+    CONFIG_JSON("/api/config/json", PerfanaEndpointGroup.CONFIG, "perfana.config"),
+    CONFIG_KEYS("/api/config/keys", PerfanaEndpointGroup.CONFIG, "perfana.config"),
+    BENCHMARK_RESULTS("/api/benchmark-results", PerfanaEndpointGroup.BENCHMARK_RESULTS, "perfana.check-results.poll");
+
+    private final String path;
+    private final PerfanaEndpointGroup group;
+    private final String spanName;
+
+    PerfanaEndpoint(String path, PerfanaEndpointGroup group, String spanName) {
+        this.path = path;
+        this.group = group;
+        this.spanName = spanName;
+    }
+
+    /**
+     * @return the group that determines the timeouts of the calls to this endpoint
+     */
+    PerfanaEndpointGroup getGroup() {
+        return group;
+    }
+
+    String getPath() {
+        return path;
+    }
+
+    /**
+     * @return name of the trace span of a call to this endpoint
+     */
+    String getSpanName() {
+        return spanName;
+    }
+
+    /**
+     * @param path path of a call, e.g. /api/benchmark-results/afterburner/test-run-1
+     * @return the path of the endpoint of the call, or the path itself for an unknown endpoint
+     */
+    static String endpointPath(String path) {
+        PerfanaEndpoint endpoint = of(path);
+        return endpoint == null ? path : endpoint.path;
+    }
+
+    /**
+     * @param path path of a call, e.g. /api/benchmark-results/afterburner/test-run-1
+     * @return the endpoint of the call, or null for an unknown endpoint
+     */
+    @Nullable
+    static PerfanaEndpoint of(String path) {
+        for (PerfanaEndpoint endpoint : values()) {
+            if (path.equals(endpoint.path) || path.startsWith(endpoint.path + "/")) {
+                return endpoint;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,186 @@
+/*
+ *    Copyright 2020-2023  Peter Paul Bakker @ perfana.io, Daniel Moll @ perfana.io
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.perfana.client;
+
+import io.perfana.client.api.PerfanaTestContext;
+import io.perfana.client.exception.PerfanaClientRuntimeException;
+import net.jcip.annotations.Immutable;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Encodes the PerfanaMessage json for the /api/test endpoint.
+ *
+ * Everything except the completed flag and the extra (received) variables is fixed for a
+ * test run, so that part is encoded once into byte arrays. Each call only writes the
+ * changing fields, directly to the given output stream and without intermediate objects.
+ *
+ * The output is the same as the databind serialization of {@link io.perfana.client.domain.PerfanaMessage}.
+ */
+@Immutable
+public final class PerfanaMessageEncoder {
+
+    private static final byte[] TRUE = bytes("true");
+    private static final byte[] FALSE = bytes("false");
+
+    private final PerfanaTestContext context;
+
+    /** up to and including "completed": */
+    private final byte[] head;
+    /** from annotations up to and including the context variables */
+    private final byte[] middle;
+    /** closes the variables array, adds the deep links and the CI build results url */
+    private final byte[] tail;
+    private final boolean hasContextVariables;
+
+    public PerfanaMessageEncoder(PerfanaTestContext context) {
+        this.context = context;
+        try {
+            this.head = encodeHead(context);
+            this.middle = encodeMiddle(context);
+            this.tail = encodeTail(context);
+        } catch (IOException e) {
+            throw new PerfanaClientRuntimeException("Failed to encode PerfanaMessage for " + context, e);
+        }
+        this.hasContextVariables = !context.getVariables().isEmpty();
+    }
+
+    /**
+     * @return true if this encoder was created for exactly this context instance
+     */
+    public boolean isFor(PerfanaTestContext context) {
+        return this.context == context;
+    }
+
+    public void writeTo(OutputStream out, boolean completed, Map<String, String> extraVariables) throws IOException {
+        out.write(head);
+        out.write(completed ? TRUE : FALSE);
+        out.write(middle);
+        boolean first = !hasContextVariables;
+        for (Map.Entry<String, String> variable : extraVariables.entrySet()) {
+            if (!first) {
+                out.write(',');
+            }
+            writeVariable(out, variable.getKey(), variable.getValue());
+            first = false;
+        }
+        out.write(tail);
+    }
+
+    public String encodeToString(boolean completed, Map<String, String> extraVariables) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(head.length + middle.length + tail.length + 16);
+        try {
+            writeTo(out, completed, extraVariables);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return out.toString(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] encodeHead(PerfanaTestContext context) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write('{');
+        writeField(out, "testRunId", context.getTestRunId());
+        out.write(',');
+        writeField(out, "workload", context.getWorkload());
+        out.write(',');
+        writeField(out, "testEnvironment", context.getTestEnvironment());
+        out.write(',');
+        writeField(out, "systemUnderTest", context.getSystemUnderTest());
+        out.write(',');
+        writeField(out, "version", context.getVersion());
+        out.write(',');
+        writeField(out, "rampUp", String.valueOf(context.getRampupTime().getSeconds()));
+        out.write(',');
+        writeField(out, "duration", String.valueOf(context.getPlannedDuration().getSeconds()));
+        out.write(',');
+        writeName(out, "completed");
+        return out.toByteArray();
+    }
+
+    private static byte[] encodeMiddle(PerfanaTestContext context) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(',');
+        writeField(out, "annotations", context.getAnnotations());
+        out.write(',');
+        writeName(out, "tags");
+        writeStrings(out, context.getTags());
+        out.write(',');
+        writeName(out, "variables");
+        out.write('[');
+        boolean first = true;
+        for (Map.Entry<String, String> variable : context.getVariables().entrySet()) {
+            if (!first) {
+                out.write(',');
+            }
+            writeVariable(out, variable.getKey(), variable.getValue());
+            first = false;
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] encodeTail(PerfanaTestContext context) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(']');
+        out.write(',');
+        writeName(out, "deepLinks");
+        out.write('[');
+        out.write(']');
+        out.write(',');
+        writeField(out, "CIBuildResultsUrl", context.getCIBuildResultsUrl());
+        out.write('}');
+        return out.toByteArray();
+    }
+
+    private static void writeVariable(OutputStream out, String placeholder, String value) throws IOException {
+        out.write('{');
+        writeField(out, "placeholder", placeholder);
+        out.write(',');
+        writeField(out, "value", value);
+        out.write('}');
+    }
+
+    private static void writeStrings(OutputStream out, List<String> values) throws IOException {
+        out.write('[');
+        for (int i = 0; i < values.size(); i++) {
+            if (i > 0) {
+                out.write(',');
+            }
+            JsonStrings.write(out, values.get(i));
+        }
+        out.write(']');
+    }
+
+    private static void writeField(OutputStream out, String name, String value) throws IOException {
+        writeName(out, name);
+        JsonStrings.write(out, value);
+    }
+
+    private static void writeName(OutputStream out, String name) throws IOException {
+        JsonStrings.write(out, name);
+        out.write(':');
+    }
+
+    private static byte[] bytes(String text) {
+        return text.getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,355 @@
+/*
+ *    Copyright 2020-2023  Peter Paul Bakker @ perfana.io, Daniel Moll @ perfana.io
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.perfana.client;
+
+import io.perfana.client.api.PerfanaClientLogger;
+import net.jcip.annotations.ThreadSafe;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Local outbox for Perfana calls that could not be delivered, e.g. during a network blip.
+ *
+ * Calls are appended to memory-mapped segment files in a directory that is owned by one client
+ * (guarded by a file lock). A background replayer sends the calls in order when Perfana answers again.
+ * Segments are deleted when all their calls are acknowledged. Calls left over from a previous run,
+ * e.g. after a crash, are replayed when the outbox is opened.
+ */
+@ThreadSafe
+final class PerfanaOutbox {
+
+    private static final String SEGMENT_PREFIX = "outbox-";
+    private static final String SEGMENT_SUFFIX = ".seg";
+    private static final String LOCK_FILE = "outbox.lock";
+
+    /**
+     * Delivers one stored call.
+     */
+    @FunctionalInterface
+    interface Sender {
+        /**
+         * @return true when the call is done (also when Perfana rejected it), false to retry later
+         * @throws IOException when Perfana could not be reached, the call is retried later
+         */
+        boolean send(String endpoint, String idempotencyKey, byte[] json) throws IOException;
+    }
+
+    private final Path directory;
+    private final int segmentSize;
+    private final Duration replayInterval;
+    private final Sender sender;
+    private final PerfanaClientLogger logger;
+
+    private final FileChannel lockChannel;
+    private final FileLock lock;
+
+    private final ScheduledExecutorService replayer;
+    private final AtomicBoolean replayScheduled = new AtomicBoolean(false);
+
+    // guarded by this, oldest segment first, the last one is appended to
+    private final Deque<OutboxSegment> segments = new ArrayDeque<>();
+    private long nextSequence = 0;
+    private int pendingCount = 0;
+    private boolean closed = false;
+
+    private PerfanaOutbox(Path directory, int segmentSize, Duration replayInterval, Sender sender, PerfanaClientLogger logger,
+                          FileChannel lockChannel, FileLock lock) {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.replayInterval = replayInterval;
+        this.sender = sender;
+        this.logger = logger;
+        this.lockChannel = lockChannel;
+        this.lock = lock;
+        this.replayer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "perfana-outbox-" + directory.getFileName());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Opens the outbox in directory and starts replaying left over calls.
+     *
+     * @return null when the directory cannot be used, e.g. because another client owns it
+     */
+    @Nullable
+    static PerfanaOutbox open(Path directory, int segmentSize, Duration replayInterval, Sender sender, PerfanaClientLogger logger) {
+        FileChannel lockChannel = null;
+        try {
+            Files.createDirectories(directory);
+            lockChannel = FileChannel.open(directory.resolve(LOCK_FILE), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            FileLock lock = lockChannel.tryLock();
+            if (lock == null) {
+                lockChannel.close();
+                logger.warn("outbox directory is in use by another process, outbox is disabled: " + directory);
+                return null;
+            }
+            PerfanaOutbox outbox = new PerfanaOutbox(directory, segmentSize, replayInterval, sender, logger, lockChannel, lock);
+            outbox.loadSegments();
+            if (!outbox.isEmpty()) {
+                logger.info("outbox contains " + outbox.pendingCount() + " calls from a previous run, these will be sent to Perfana");
+                outbox.triggerReplay();
+            }
+            return outbox;
+        } catch (IOException | OverlappingFileLockException e) {
+            logger.warn("cannot use outbox directory, outbox is disabled: " + directory + " due to: " + e);
+            closeQuietly(lockChannel);
+            return null;
+        }
+    }
+
+    private synchronized void loadSegments() throws IOException {
+        List<Path> paths = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            stream.forEach(paths::add);
+        }
+        paths.sort(Comparator.comparing(p -> p.getFileName().toString()));
+        for (Path path : paths) {
+            long sequence = parseSequence(path);
+            if (sequence < 0) {
+                continue;
+            }
+            nextSequence = Math.max(nextSequence, sequence + 1);
+            OutboxSegment segment;
+            try {
+                segment = OutboxSegment.open(path, sequence);
+            } catch (IOException e) {
+                logger.warn("skipping invalid outbox segment: " + e.getMessage());
+                continue;
+            }
+            if (segment.isFullyAcknowledged()) {
+                segment.delete();
+            } else {
+                segments.addLast(segment);
+                pendingCount += segment.countUnacknowledged();
+            }
+        }
+    }
+
+    /**
+     * Stores the call. It is sent by the replayer, after the calls stored before it.
+     */
+    void append(String endpoint, String idempotencyKey, byte[] json) throws IOException {
+        byte[] payload = encode(endpoint, idempotencyKey, json);
+        synchronized (this) {
+            if (closed) {
+                throw new IOException("outbox is closed: " + directory);
+            }
+            OutboxSegment segment = segments.peekLast();
+            if (segment == null || !segment.append(payload)) {
+                segment = OutboxSegment.create(segmentPath(nextSequence), nextSequence,
+                        Math.max(segmentSize, OutboxSegment.requiredSize(payload.length)));
+                nextSequence++;
+                segments.addLast(segment);
+                segment.append(payload);
+            }
+            pendingCount++;
+        }
+        triggerReplay();
+    }
+
+    synchronized boolean isClosed() {
+        return closed;
+    }
+
+    synchronized boolean isEmpty() {
+        return pendingCount == 0;
+    }
+
+    synchronized int pendingCount() {
+        return pendingCount;
+    }
+
+    /**
+     * Wait until all stored calls are sent, or the timeout has passed.
+     *
+     * @return true when the outbox is empty
+     */
+    boolean drain(Duration timeout) {
+        triggerReplay();
+        long deadline = System.nanoTime() + timeout.toNanos();
+        synchronized (this) {
+            try {
+                while (pendingCount > 0) {
+                    long remainingMillis = (deadline - System.nanoTime()) / 1_000_000;
+                    if (remainingMillis <= 0) {
+                        return false;
+                    }
+                    wait(remainingMillis);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return pendingCount == 0;
+            }
+            return true;
+        }
+    }
+
+    private void triggerReplay() {
+        if (replayScheduled.compareAndSet(false, true)) {
+            replayer.execute(this::replay);
+        }
+    }
+
+    private void replay() {
+        replayScheduled.set(false);
+        while (true) {
+            byte[] payload = peek();
+            if (payload == null) {
+                return;
+            }
+            boolean done;
+            ByteBuffer buffer = ByteBuffer.wrap(payload);
+            String endpoint = readString(buffer);
+            String idempotencyKey = readString(buffer);
+            byte[] json = new byte[buffer.remaining()];
+            buffer.get(json);
+            try {
+                done = sender.send(endpoint, idempotencyKey, json);
+            } catch (IOException e) {
+                logger.debug("outbox replay failed, will retry: " + e.getMessage());
+                done = false;
+            } catch (RuntimeException e) {
+                logger.error("outbox replay failed, call is dropped", e);
+                done = true;
+            }
+            if (!done) {
+                if (replayScheduled.compareAndSet(false, true)) {
+                    replayer.schedule(this::replay, replayInterval.toMillis(), TimeUnit.MILLISECONDS);
+                }
+                return;
+            }
+            acknowledge();
+        }
+    }
+
+    @Nullable
+    private synchronized byte[] peek() {
+        OutboxSegment segment = segments.peekFirst();
+        return segment == null ? null : segment.firstUnacknowledged();
+    }
+
+    private synchronized void acknowledge() {
+        OutboxSegment segment = segments.peekFirst();
+        if (segment == null) {
+            return;
+        }
+        segment.acknowledge();
+        pendingCount--;
+        if (segment.isFullyAcknowledged()) {
+            // compaction: a fully acknowledged segment is removed, also the one that is appended to
+            segments.removeFirst();
+            try {
+                segment.delete();
+            } catch (IOException e) {
+                logger.warn("failed to delete outbox segment " + segment.getPath() + ": " + e.getMessage());
+            }
+        }
+        if (pendingCount == 0) {
+            notifyAll();
+        }
+    }
+
+    /**
+     * Stops the replayer. Calls that are not sent yet stay in the outbox for the next run.
+     */
+    synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        replayer.shutdownNow();
+        for (OutboxSegment segment : segments) {
+            try {
+                segment.close();
+            } catch (IOException e) {
+                logger.warn("failed to close outbox segment " + segment.getPath() + ": " + e.getMessage());
+            }
+        }
+        segments.clear();
+        try {
+            lock.release();
+        } catch (IOException e) {
+            logger.warn("failed to release outbox lock: " + e.getMessage());
+        }
+        closeQuietly(lockChannel);
+    }
+
+    /**
+     * Payload: [short length][endpoint][short length][idempotency key][json], strings in UTF-8.
+     */
+    private static byte[] encode(String endpoint, String idempotencyKey, byte[] json) {
+        byte[] endpointBytes = endpoint.getBytes(StandardCharsets.UTF_8);
+        byte[] keyBytes = idempotencyKey.getBytes(StandardCharsets.UTF_8);
+        return ByteBuffer.allocate(2 + endpointBytes.length + 2 + keyBytes.length + json.length)
+                .putShort((short) endpointBytes.length)
+                .put(endpointBytes)
+                .putShort((short) keyBytes.length)
+                .put(keyBytes)
+                .put(json)
+                .array();
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getShort()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private Path segmentPath(long sequence) {
+        return directory.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, sequence, SEGMENT_SUFFIX));
+    }
+
+    private static long parseSequence(Path path) {
+        String name = path.getFileName().toString();
+        try {
+            return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static void closeQuietly(@Nullable FileChannel channel) {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                // ignore
+            }
+        }
+    }
+}
@@ -0,0 +1,239 @@
+/*
+ *    Copyright 2020-2023  Peter Paul Bakker @ perfana.io, Daniel Moll @ perfana.io
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.perfana.client;
+
+import io.perfana.client.api.PerfanaClientLogger;
+import io.perfana.client.api.TimeoutProfile;
+import io.perfana.client.transport.PerfanaTransport;
+import io.perfana.client.transport.TransportRequest;
+import io.perfana.client.transport.TransportResponse;
+import net.jcip.annotations.ThreadSafe;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+
+/**
+ * The Perfana replicas (base urls) a client can call, with their health and calls in progress.
+ *
+ * Calls go to the healthy replica with the least calls in progress, ties are taken in turn.
+ * With sticky routing, the calls of a test run go to the same healthy replica, chosen by
+ * rendezvous hashing on the routing key: when a replica goes down, only its test runs move.
+ * Unhealthy replicas are tried last, so a call is still tried when all replicas seem down.
+ *
+ * A replica is marked down when a call to it fails to connect or gets a 502, 503 or 504 reply,
+ * and up again by a successful call or by the periodic health check.
+ */
+@ThreadSafe
+final class PerfanaReplicas {
+
+    static final class Replica {
+        private final String baseUrl;
+        private final long urlHash;
+        private final AtomicInteger inProgress = new AtomicInteger();
+        private volatile boolean healthy = true;
+
+        private Replica(String baseUrl) {
+            this.baseUrl = baseUrl;
+            this.urlHash = hash(baseUrl);
+        }
+
+        String getBaseUrl() {
+            return baseUrl;
+        }
+
+        int getInProgress() {
+            return inProgress.get();
+        }
+
+        boolean isHealthy() {
+            return healthy;
+        }
+
+        @Override
+        public String toString() {
+            return baseUrl;
+        }
+    }
+
+    /**
+     * Request tag: the url relative to the base url, to route the request to any replica.
+     */
+    static final class Route {
+        private final String relativeUrl;
+        @Nullable
+        private final String routingKey;
+
+        Route(String relativeUrl, @Nullable String routingKey) {
+            this.relativeUrl = relativeUrl;
+            this.routingKey = routingKey;
+        }
+
+        String getRelativeUrl() {
+            return relativeUrl;
+        }
+
+        @Nullable
+        String getRoutingKey() {
+            return routingKey;
+        }
+    }
+
+    private final List<Replica> replicas;
+    private final boolean sticky;
+    private final PerfanaClientLogger logger;
+    private final AtomicInteger turn = new AtomicInteger();
+
+    @Nullable
+    private volatile ScheduledExecutorService healthChecker;
+
+    PerfanaReplicas(List<String> baseUrls, boolean sticky, PerfanaClientLogger logger) {
+        List<Replica> list = new ArrayList<>(baseUrls.size());
+        baseUrls.forEach(url -> list.add(new Replica(url)));
+        this.replicas = List.copyOf(list);
+        this.sticky = sticky;
+        this.logger = logger;
+    }
+
+    /**
+     * @param routingKey used for sticky routing, e.g. the test run id; ignored when null or without sticky routing
+     * @return all replicas, in the order they should be tried
+     */
+    List<Replica> select(@Nullable String routingKey) {
+        if (replicas.size() == 1) {
+            return replicas;
+        }
+        List<Replica> ordered = new ArrayList<>(replicas);
+        Comparator<Replica> healthyFirst = Comparator.comparing(replica -> !replica.isHealthy());
+        if (sticky && routingKey != null) {
+            long keyHash = hash(routingKey);
+            ordered.sort(healthyFirst.thenComparing(replica -> mix(keyHash ^ replica.urlHash), Comparator.reverseOrder()));
+        } else {
+            // rotate first, the stable sort keeps the rotation order for replicas with the same load
+            int size = ordered.size();
+            int start = Math.floorMod(turn.getAndIncrement(), size);
+            List<Replica> rotated = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                rotated.add(ordered.get((start + i) % size));
+            }
+            ordered = rotated;
+            ordered.sort(healthyFirst.thenComparingInt(Replica::getInProgress));
+        }
+        return ordered;
+    }
+
+    int size() {
+        return replicas.size();
+    }
+
+    static void started(Replica replica) {
+        replica.inProgress.incrementAndGet();
+    }
+
+    static void finished(Replica replica) {
+        replica.inProgress.decrementAndGet();
+    }
+
+    void markUp(Replica replica) {
+        if (!replica.healthy) {
+            replica.healthy = true;
+            if (replicas.size() > 1) {
+                logger.info("Perfana replica is available again: " + replica);
+            }
+        }
+    }
+
+    void markDown(Replica replica, String reason) {
+        if (replica.healthy) {
+            replica.healthy = false;
+            if (replicas.size() > 1) {
+                logger.warn("Perfana replica is not available: " + replica + " due to: " + reason);
+            }
+        }
+    }
+
+    /**
+     * @param relativeUrl path and query of the call, relative to the base url
+     */
+    static String url(Replica replica, String relativeUrl) {
+        return PerfanaUtils.addSlashIfNeeded(replica.baseUrl, relativeUrl);
+    }
+
+    /**
+     * Starts periodic health checks, only useful with more than one replica.
+     * A replica is healthy when its base url replies with anything else than 502, 503 or 504.
+     */
+    synchronized void startHealthChecks(PerfanaTransport transport, Duration interval) {
+        if (replicas.size() < 2 || interval.isZero() || interval.isNegative() || healthChecker != null) {
+            return;
+        }
+        TimeoutProfile timeouts = TimeoutProfile.of(interval, interval, interval, interval);
+        ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "perfana-health-check");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long millis = interval.toMillis();
+        executor.scheduleWithFixedDelay(() -> replicas.forEach(replica -> check(transport, timeouts, replica)), millis, millis, TimeUnit.MILLISECONDS);
+        healthChecker = executor;
+    }
+
+    private void check(PerfanaTransport transport, TimeoutProfile timeouts, Replica replica) {
+        TransportRequest request = TransportRequest.builder(url(replica, "/")).get().build();
+        try (TransportResponse response = transport.newCall(request, timeouts).execute()) {
+            int code = response.code();
+            if (code == 502 || code == 503 || code == 504) {
+                markDown(replica, "health check reply " + code);
+            } else {
+                markUp(replica);
+            }
+        } catch (IOException | RuntimeException e) {
+            markDown(replica, "health check failed: " + e.getMessage());
+        }
+    }
+
+    synchronized void close() {
+        ScheduledExecutorService executor = healthChecker;
+        if (executor != null) {
+            executor.shutdownNow();
+            healthChecker = null;
+        }
+    }
+
+    private static long hash(String text) {
+        CRC32 crc = new CRC32();
+        crc.update(text.getBytes(StandardCharsets.UTF_8));
+        return mix(crc.getValue() * 0x9E3779B97F4A7C15L + text.hashCode());
+    }
+
+    /**
+     * Finalizer of SplitMix64: spreads the bits, so scores of different replicas are independent.
+     */
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
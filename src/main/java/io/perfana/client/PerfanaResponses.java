@@ -0,0 +1,138 @@
+/*
+ *    Copyright 2020-2023  Peter Paul Bakker @ perfana.io, Daniel Moll @ perfana.io
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.perfana.client;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import io.perfana.client.domain.PerfanaTest;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+
+/**
+ * Reads Perfana replies from the response stream without buffering complete bodies.
+ *
+ * Text is only read up to {@link #MAX_TEXT_BYTES}, which is plenty for error messages
+ * and small replies. A misrouted proxy page or a large reply can therefore not spike the heap.
+ */
+final class PerfanaResponses {
+
+    static final int MAX_TEXT_BYTES = 16 * 1024;
+
+    private static final String HTML_MARKER = "<!DOCTYPE html>";
+
+    private PerfanaResponses() {}
+
+    /**
+     * @return stream that supports {@link #peekText(BufferedInputStream)}, empty stream when body is null
+     */
+    static BufferedInputStream openBody(InputStream body) {
+        return new BufferedInputStream(body == null ? InputStream.nullInputStream() : body, MAX_TEXT_BYTES);
+    }
+
+    /**
+     * Read at most MAX_TEXT_BYTES as text, without consuming them from the stream.
+     */
+    static String peekText(BufferedInputStream in) throws IOException {
+        in.mark(MAX_TEXT_BYTES);
+        String text = readText(in);
+        in.reset();
+        return text;
+    }
+
+    /**
+     * Read at most MAX_TEXT_BYTES as text, the remainder of the stream is not read.
+     * @return null when in is null
+     */
+    static String readText(InputStream in) throws IOException {
+        if (in == null) {
+            return null;
+        }
+        byte[] bytes = in.readNBytes(MAX_TEXT_BYTES);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Parses a Retry-After header, in delay-seconds or HTTP-date form.
+     *
+     * @return null when there is no valid header, zero for dates in the past
+     */
+    @Nullable
+    static Duration parseRetryAfter(@Nullable String header, Instant now) {
+        if (header == null || header.isBlank()) {
+            return null;
+        }
+        String value = header.trim();
+        try {
+            if (value.chars().allMatch(Character::isDigit)) {
+                return Duration.ofSeconds(Long.parseLong(value));
+            }
+            Instant retryAt = ZonedDateTime.parse(value, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant();
+            return retryAt.isAfter(now) ? Duration.between(now, retryAt) : Duration.ZERO;
+        } catch (NumberFormatException | DateTimeParseException e) {
+            return null;
+        }
+    }
+
+    static boolean isHtml(String text) {
+        return text != null && text.contains(HTML_MARKER);
+    }
+
+    /**
+     * Reads only the abort fields of the /api/test reply and stops as soon as these are known.
+     * Other fields, such as the list of alerts, are skipped without creating objects.
+     *
+     * @return PerfanaTest with only abort and abortMessage filled in
+     * @throws JsonParseException when the reply is not a json object
+     */
+    static PerfanaTest readAbortStatus(JsonFactory jsonFactory, InputStream in) throws IOException {
+        try (JsonParser parser = jsonFactory.createParser(in)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new JsonParseException(parser, "Expected json object in Perfana test reply");
+            }
+            Boolean abort = null;
+            String abortMessage = null;
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String fieldName = parser.getCurrentName();
+                JsonToken value = parser.nextToken();
+                if ("abort".equals(fieldName)) {
+                    abort = value == JsonToken.VALUE_TRUE;
+                } else if ("abortMessage".equals(fieldName)) {
+                    abortMessage = value == JsonToken.VALUE_NULL ? null : parser.getValueAsString();
+                } else {
+                    parser.skipChildren();
+                }
+                if (abort != null && (!abort || abortMessage != null)) {
+                    break;
+                }
+            }
+            return PerfanaTest.builder()
+                    .abort(abort != null && abort)
+                    .abortMessage(abortMessage)
+                    .build();
+        }
+    }
+}
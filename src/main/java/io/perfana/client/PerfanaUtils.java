@@ -15,15 +15,21 @@
  */
 package io.perfana.client;
 
+import io.perfana.client.api.ClientMetricsType;
+import io.perfana.client.api.PerfanaClientMetrics;
 import io.perfana.client.api.PerfanaConnectionSettings;
 import io.perfana.client.api.PerfanaConnectionSettingsBuilder;
+import io.perfana.client.api.PerfanaEndpointGroup;
 import io.perfana.client.api.PerfanaTestContext;
+import io.perfana.client.api.PerfanaTracing;
 import io.perfana.client.api.TestContextBuilder;
 import io.perfana.event.PerfanaClientEventLogger;
 import io.perfana.event.PerfanaEventContext;
 import io.perfana.eventscheduler.api.EventLogger;
 import io.perfana.eventscheduler.api.config.TestContext;
 
+import java.nio.file.Paths;
+import java.time.Duration;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
@@ -80,30 +86,173 @@ public class PerfanaUtils {
         } else {
             slashEndpoint = endpoint.startsWith("/") ? endpoint : "/" + endpoint;
         }
-        return  (cleanUrl + slashEndpoint).replaceAll("/+", "/");
+        // keep the double slash after the scheme, e.g. http://
+        return  (cleanUrl + slashEndpoint).replaceAll("(?<!:)/+", "/");
     }
 
     public static PerfanaClient createPerfanaClient(
             PerfanaEventContext eventContext,
             PerfanaTestContext testContext,
             EventLogger logger) {
+        return createPerfanaClient(eventContext, testContext, logger, PerfanaClientMetrics.NONE);
+    }
+
+    /**
+     * @param metrics receives the measurements of the calls, next to the clientMetrics of the event context
+     */
+    public static PerfanaClient createPerfanaClient(
+            PerfanaEventContext eventContext,
+            PerfanaTestContext testContext,
+            EventLogger logger,
+            PerfanaClientMetrics metrics) {
+        return createPerfanaClient(eventContext, testContext, logger, metrics, false);
+    }
+
+    /**
+     * Creates a client for a few calls before the test run, such as the init call: without outbox and
+     * health checks, so it does not lock the outbox of the event. Close the client after use.
+     */
+    public static PerfanaClient createSingleUsePerfanaClient(
+            PerfanaEventContext eventContext,
+            PerfanaTestContext testContext,
+            EventLogger logger) {
+        return createPerfanaClient(eventContext, testContext, logger, PerfanaClientMetrics.NONE, true);
+    }
+
+    private static PerfanaClient createPerfanaClient(
+            PerfanaEventContext eventContext,
+            PerfanaTestContext testContext,
+            EventLogger logger,
+            PerfanaClientMetrics metrics,
+            boolean singleUse) {
 
         PerfanaConnectionSettings settings = new PerfanaConnectionSettingsBuilder()
                 .setPerfanaUrl(eventContext.getPerfanaUrl())
                 .setApiKey(eventContext.getApiKey())
                 .setRetryMaxCount(eventContext.getRetryCount())
                 .setRetryTimeSeconds(String.valueOf(eventContext.getRetryDelaySeconds()))
+                .setRetryStrategy(eventContext.getRetryStrategy())
+                .setRetryMinDelay(Duration.ofSeconds(eventContext.getRetryMinDelaySeconds()))
+                .setRetryMaxDelay(Duration.ofSeconds(eventContext.getRetryMaxDelaySeconds()))
+                .setRetryDeadline(Duration.ofSeconds(eventContext.getRetryDeadlineSeconds()))
+                .setConnectionPoolMaxIdle(eventContext.getConnectionPoolMaxIdle())
+                .setConnectionKeepAlive(Duration.ofSeconds(eventContext.getConnectionKeepAliveSeconds()))
+                .setConnectTimeout(Duration.ofSeconds(eventContext.getConnectTimeoutSeconds()))
+                .setReadTimeout(Duration.ofSeconds(eventContext.getReadTimeoutSeconds()))
+                .setWriteTimeout(Duration.ofSeconds(eventContext.getWriteTimeoutSeconds()))
+                .setCircuitBreakerFailureRateThreshold(eventContext.getCircuitBreakerFailureRateThreshold())
+                .setCircuitBreakerMinimumCalls(eventContext.getCircuitBreakerMinimumCalls())
+                .setCircuitBreakerWindowSize(eventContext.getCircuitBreakerWindowSize())
+                .setCircuitBreakerOpenDuration(Duration.ofSeconds(eventContext.getCircuitBreakerOpenSeconds()))
+                .setOutboxDirectory(singleUse ? null : outboxDirectory(eventContext))
+                .setOutboxMode(eventContext.getOutboxMode())
+                .setOutboxReplayInterval(Duration.ofSeconds(eventContext.getOutboxReplayIntervalSeconds()))
+                .setOutboxDrainTimeout(Duration.ofSeconds(eventContext.getOutboxDrainTimeoutSeconds()))
+                .setHealthCheckInterval(singleUse ? Duration.ZERO : Duration.ofSeconds(eventContext.getHealthCheckIntervalSeconds()))
+                .setStickyRouting(eventContext.isStickyRouting())
+                .setHedgePercentile(eventContext.getHedgePercentile())
+                .setHedgeInitialDelay(Duration.ofMillis(eventContext.getHedgeInitialDelayMillis()))
+                .setPostRetryMaxAttempts(eventContext.getPostRetryMaxAttempts())
+                .setCallTimeout(PerfanaEndpointGroup.KEEP_ALIVE, Duration.ofSeconds(eventContext.getKeepAliveTimeoutSeconds()))
+                .setCallTimeout(PerfanaEndpointGroup.CONFIG, Duration.ofSeconds(eventContext.getConfigUploadTimeoutSeconds()))
+                .setAssertResultsDeadline(Duration.ofSeconds(eventContext.getAssertResultsDeadlineSeconds()))
+                .setCompression(eventContext.getCompression())
+                .setCompressionThreshold(eventContext.getCompressionThresholdBytes())
+                .setTransport(eventContext.getTransport())
                 .build();
 
         PerfanaClientBuilder builder = new PerfanaClientBuilder()
                 .setLogger(new PerfanaClientEventLogger(logger))
                 .setTestContext(testContext)
                 .setPerfanaConnectionSettings(settings)
-                .setAssertResultsEnabled(eventContext.isAssertResultsEnabled());
+                .setAssertResultsEnabled(eventContext.isAssertResultsEnabled())
+                .setMetrics(PerfanaClientMetrics.combine(createClientMetrics(eventContext.getClientMetrics(), logger), metrics))
+                .setTracing(eventContext.isTracingEnabled() ? createTracing(logger) : PerfanaTracing.NONE);
 
         return builder.build();
     }
 
+    /**
+     * The histograms and the Micrometer binding are optional dependencies: without them on the classpath
+     * there are no metrics. The classes that use them are only loaded after the classpath check.
+     */
+    private static PerfanaClientMetrics createClientMetrics(ClientMetricsType type, EventLogger logger) {
+        switch (type) {
+            case HDR_HISTOGRAM:
+                if (isOnClasspath("org.HdrHistogram.ConcurrentHistogram")) {
+                    return HdrHistogramMetrics.create();
+                }
+                logger.warn("client metrics HDR_HISTOGRAM need org.hdrhistogram:HdrHistogram on the classpath, metrics are disabled");
+                return PerfanaClientMetrics.NONE;
+            case MICROMETER:
+                if (isOnClasspath("io.micrometer.core.instrument.Metrics")) {
+                    return MicrometerMetrics.create();
+                }
+                logger.warn("client metrics MICROMETER need io.micrometer:micrometer-core on the classpath, metrics are disabled");
+                return PerfanaClientMetrics.NONE;
+            default:
+                return PerfanaClientMetrics.NONE;
+        }
+    }
+
+    /**
+     * The OpenTelemetry api is an optional dependency: without it on the classpath there is no tracing.
+     */
+    private static PerfanaTracing createTracing(EventLogger logger) {
+        if (isOnClasspath("io.opentelemetry.api.GlobalOpenTelemetry")) {
+            return OpenTelemetryGlobalTracing.create();
+        }
+        logger.warn("tracing needs io.opentelemetry:opentelemetry-api on the classpath, tracing is disabled");
+        return PerfanaTracing.NONE;
+    }
+
+    private static boolean isOnClasspath(String className) {
+        try {
+            Class.forName(className, false, PerfanaUtils.class.getClassLoader());
+            return true;
+        } catch (ClassNotFoundException | LinkageError e) {
+            return false;
+        }
+    }
+
+    /**
+     * Only loaded when HdrHistogram is on the classpath.
+     */
+    private static final class HdrHistogramMetrics {
+        static PerfanaClientMetrics create() {
+            return new io.perfana.client.metrics.HdrHistogramClientMetrics();
+        }
+    }
+
+    /**
+     * Only loaded when Micrometer is on the classpath.
+     */
+    private static final class MicrometerMetrics {
+        static PerfanaClientMetrics create() {
+            return new io.perfana.client.metrics.MicrometerClientMetrics(io.micrometer.core.instrument.Metrics.globalRegistry);
+        }
+    }
+
+    /**
+     * Only loaded when the OpenTelemetry api is on the classpath.
+     */
+    private static final class OpenTelemetryGlobalTracing {
+        static PerfanaTracing create() {
+            return new io.perfana.client.tracing.OpenTelemetryTracing(io.opentelemetry.api.GlobalOpenTelemetry.get());
+        }
+    }
+
+    /**
+     * Each Perfana event gets its own outbox, in a sub directory named after the event.
+     */
+    private static String outboxDirectory(PerfanaEventContext eventContext) {
+        if (!hasValue(eventContext.getOutboxDirectory())) {
+            return null;
+        }
+        String eventDirectory = eventContext.getName().replaceAll("[^A-Za-z0-9._-]", "_");
+        return Paths.get(eventContext.getOutboxDirectory(), eventDirectory).toString();
+    }
+
     public static PerfanaTestContext createPerfanaTestContext(PerfanaEventContext context, TestContext testContext) {
 
         return new TestContextBuilder()
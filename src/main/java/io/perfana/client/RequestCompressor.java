@@ -0,0 +1,201 @@
+/*
+ *    Copyright 2020-2023  Peter Paul Bakker @ perfana.io, Daniel Moll @ perfana.io
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.perfana.client;
+
+import io.perfana.client.api.Compression;
+import io.perfana.client.api.CompressionStatistics;
+import io.perfana.client.api.PerfanaClientLogger;
+import io.perfana.client.transport.RequestContent;
+import net.jcip.annotations.ThreadSafe;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Compresses request bodies of at least the threshold size, while the body is written to the http sink,
+ * so the body is not buffered and not copied in the calling thread.
+ *
+ * When the size of a body is unknown up front, only the test run config uploads are compressed:
+ * these can be large, while keep alive calls and events are small.
+ */
+@ThreadSafe
+final class RequestCompressor {
+
+    static final String ZSTD_CLASS = "com.github.luben.zstd.ZstdOutputStream";
+
+    private final Compression compression;
+    private final int threshold;
+    private final PerfanaClientLogger logger;
+
+    private final LongAdder compressedRequests = new LongAdder();
+    private final LongAdder uncompressedBytes = new LongAdder();
+    private final LongAdder compressedBytes = new LongAdder();
+
+    RequestCompressor(Compression compression, int threshold, PerfanaClientLogger logger) {
+        this.compression = compression == Compression.ZSTD && !isZstdAvailable() ? fallbackToGzip(logger) : compression;
+        this.threshold = threshold;
+        this.logger = logger;
+    }
+
+    private static Compression fallbackToGzip(PerfanaClientLogger logger) {
+        logger.warn("zstd compression needs com.github.luben:zstd-jni on the classpath, using gzip instead");
+        return Compression.GZIP;
+    }
+
+    static boolean isZstdAvailable() {
+        try {
+            Class.forName(ZSTD_CLASS, false, RequestCompressor.class.getClassLoader());
+            return true;
+        } catch (ClassNotFoundException | LinkageError e) {
+            return false;
+        }
+    }
+
+    boolean isEnabled() {
+        return compression != Compression.NONE;
+    }
+
+    /**
+     * @param configUpload the body is a test run config upload, which is compressed when its size is unknown
+     * @return the compressing body, or null when the body is sent as is (compression disabled or small body)
+     */
+    @Nullable
+    EncodedBody compress(RequestContent body, boolean configUpload) {
+        if (!isEnabled()) {
+            return null;
+        }
+        long length = body.contentLength();
+        if (length >= 0 ? length < threshold : !configUpload) {
+            return null;
+        }
+        return new EncodedBody(new CompressingContent(body), contentEncoding());
+    }
+
+    private OutputStream compressingStream(OutputStream out) throws IOException {
+        if (compression == Compression.ZSTD) {
+            return ZstdStreams.compress(out);
+        }
+        return new GZIPOutputStream(out);
+    }
+
+    private String contentEncoding() {
+        return compression == Compression.ZSTD ? "zstd" : "gzip";
+    }
+
+    CompressionStatistics statistics() {
+        return new CompressionStatistics(compressedRequests.sum(), uncompressedBytes.sum(), compressedBytes.sum());
+    }
+
+    /**
+     * A compressing request body, with its Content-Encoding.
+     */
+    static final class EncodedBody {
+        private final RequestContent body;
+        private final String contentEncoding;
+
+        private EncodedBody(RequestContent body, String contentEncoding) {
+            this.body = body;
+            this.contentEncoding = contentEncoding;
+        }
+
+        RequestContent getBody() {
+            return body;
+        }
+
+        String getContentEncoding() {
+            return contentEncoding;
+        }
+    }
+
+    /**
+     * Compresses the body each time it is written, e.g. again for a retry. The compressed size is unknown
+     * up front, so the body is sent with chunked transfer encoding.
+     */
+    private final class CompressingContent implements RequestContent {
+        private final RequestContent body;
+        // retries and failovers write the body again, the request is counted once
+        private final AtomicBoolean counted = new AtomicBoolean();
+
+        private CompressingContent(RequestContent body) {
+            this.body = body;
+        }
+
+        @Override
+        public String contentType() {
+            return body.contentType();
+        }
+
+        @Override
+        public void writeTo(OutputStream out) throws IOException {
+            CountingOutputStream encoded = new CountingOutputStream(out);
+            CountingOutputStream plain;
+            try (OutputStream compressing = compressingStream(encoded)) {
+                plain = new CountingOutputStream(compressing);
+                body.writeTo(plain);
+            }
+            if (!counted.compareAndSet(false, true)) {
+                return;
+            }
+            compressedRequests.increment();
+            uncompressedBytes.add(plain.count);
+            compressedBytes.add(encoded.count);
+            logger.debug(String.format("%s compressed request body from %d to %d bytes, saved %d bytes",
+                    contentEncoding(), plain.count, encoded.count, plain.count - encoded.count));
+        }
+    }
+
+    /**
+     * Counts the written bytes. Close only flushes, so closing the compressing stream does not close the http sink.
+     */
+    private static final class CountingOutputStream extends FilterOutputStream {
+        private long count;
+
+        private CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+        }
+    }
+
+    /**
+     * Only loaded when zstd is used, so zstd-jni is an optional dependency.
+     */
+    private static final class ZstdStreams {
+        static OutputStream compress(OutputStream out) throws IOException {
+            return new com.github.luben.zstd.ZstdOutputStream(out);
+        }
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ *    Copyright 2020-2023  Peter Paul Bakker @ perfana.io, Daniel Moll @ perfana.io
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.perfana.client.api;
+
+import lombok.Value;
+
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+
+@Value
+class BackoffRetryPolicy implements RetryPolicy {
+
+    RetryStrategy strategy;
+    Duration baseDelay;
+    Duration maxDelay;
+    int maxAttempts;
+    Duration deadline;
+
+    @Override
+    public Attempts start() {
+        return new BackoffAttempts(System.nanoTime());
+    }
+
+    private class BackoffAttempts implements Attempts {
+
+        private final long startNanos;
+        private int attempt = 1;
+        private long previousDelayMillis;
+
+        private BackoffAttempts(long startNanos) {
+            this.startNanos = startNanos;
+            this.previousDelayMillis = baseDelay.toMillis();
+        }
+
+        @Override
+        public int attempt() {
+            return attempt;
+        }
+
+        @Override
+        public int maxAttempts() {
+            return maxAttempts;
+        }
+
+        @Override
+        public Optional<Duration> nextDelay() {
+            if (attempt >= maxAttempts) {
+                return Optional.empty();
+            }
+            long delayMillis = Math.min(delayMillis(attempt), maxDelay.toMillis());
+            if (deadline != null && !deadline.isZero()) {
+                long remainingMillis = deadline.toMillis() - (System.nanoTime() - startNanos) / 1_000_000;
+                if (remainingMillis <= 0) {
+                    return Optional.empty();
+                }
+                // last attempt right at the deadline
+                delayMillis = Math.min(delayMillis, remainingMillis);
+            }
+            previousDelayMillis = delayMillis;
+            attempt++;
+            return Optional.of(Duration.ofMillis(delayMillis));
+        }
+
+        /**
+         * @param retry number of the retry, starting at 1
+         */
+        private long delayMillis(int retry) {
+            long base = baseDelay.toMillis();
+            switch (strategy) {
+                case EXPONENTIAL:
+                    // shift is capped to avoid overflow, maxDelay caps the result anyway
+                    return base << Math.min(retry - 1, 30);
+                case DECORRELATED_JITTER:
+                    long upper = Math.max(base, previousDelayMillis * 3);
+                    return base + ThreadLocalRandom.current().nextLong(upper - base + 1);
+                case FIXED:
+                default:
+                    return base;
+            }
+        }
+    }
+}
@@ -0,0 +1,36 @@
+/*
+ *    Copyright 2020-2023  Peter Paul Bakker @ perfana.io, Daniel Moll @ perfana.io
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.perfana.client.api;
+
+/**
+ * Which {@link PerfanaClientMetrics} the Perfana event uses.
+ */
+public enum ClientMetricsType {
+    /**
+     * Calls are not measured.
+     */
+    NONE,
+    /**
+     * Latency histograms and counters per endpoint, logged when the test run is finished.
+     * Needs org.hdrhistogram:HdrHistogram on the classpath.
+     */
+    HDR_HISTOGRAM,
+    /**
+     * Timers and counters in the Micrometer global registry.
+     * Needs io.micrometer:micrometer-core on the classpath.
+     */
+    MICROMETER
+}
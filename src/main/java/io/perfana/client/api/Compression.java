@@ -0,0 +1,35 @@
+/*
+ *    Copyright 2020-2023  Peter Paul Bakker @ perfana.io, Daniel Moll @ perfana.io
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.perfana.client.api;
+
+/**
+ * Content-Encoding of request bodies above the compression threshold.
+ */
+public enum Compression {
+    /**
+     * Request bodies are sent as is.
+     */
+    NONE,
+    /**
+     * gzip, supported by most servers and proxies.
+     */
+    GZIP,
+    /**
+     * Zstandard, faster and smaller than gzip. Needs com.github.luben:zstd-jni on the classpath,
+     * otherwise gzip is used.
+     */
+    ZSTD
+}
@@ -0,0 +1,37 @@
+/*
+ *    Copyright 2020-2023  Peter Paul Bakker @ perfana.io, Daniel Moll @ perfana.io
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.perfana.client.api;
+
+import lombok.Value;
+
+/**
+ * Counts of hedged benchmark-results calls, to see how much extra load hedging causes.
+ */
+@Value
+public class HedgeStatistics {
+    /**
+     * Calls done with hedging enabled.
+     */
+    long calls;
+    /**
+     * Calls for which a second request was sent.
+     */
+    long hedges;
+    /**
+     * Calls for which the second request gave the reply.
+     */
+    long hedgeWins;
+}
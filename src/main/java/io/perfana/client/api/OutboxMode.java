@@ -0,0 +1,31 @@
+/*
+ *    Copyright 2020-2023  Peter Paul Bakker @ perfana.io, Daniel Moll @ perfana.io
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.perfana.client.api;
+
+/**
+ * Which Perfana calls go through the local outbox, when an outbox directory is set.
+ */
+public enum OutboxMode {
+    /**
+     * Calls that fail because Perfana is not reachable or unavailable are stored and sent later.
+     * While calls are waiting in the outbox, new calls are stored too, to keep the order.
+     */
+    FAILED,
+    /**
+     * All calls are stored first and sent by the outbox replayer.
+     */
+    ALL
+}
@@ -0,0 +1,40 @@
+/*
+ *    Copyright 2020-2023  Peter Paul Bakker @ perfana.io, Daniel Moll @ perfana.io
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.perfana.client.api;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Non-blocking counterpart of {@link PerfanaCaller}: calls return immediately and
+ * the reply is handled on a http client thread.
+ *
+ * Outcomes are the same as for the blocking calls: a failed call to Perfana is logged and
+ * completes the future normally, a KillSwitchException or AbortSchedulerException
+ * completes the future exceptionally.
+ */
+public interface PerfanaAsyncCaller {
+    CompletableFuture<Void> callPerfanaEventAsync(PerfanaTestContext context, String eventTitle, String eventDescription);
+    CompletableFuture<Void> callPerfanaTestEndpointAsync(PerfanaTestContext context, boolean complete);
+    CompletableFuture<Void> callPerfanaTestEndpointAsync(PerfanaTestContext context, boolean complete, Map<String,String> extraVariables);
+
+    /**
+     * Call before test starts to get a unique test run id.
+     * @param context the test context
+     * @return future with a unique test run id to be used in the test, or null if the call failed
+     */
+    CompletableFuture<String> callInitTestAsync(PerfanaTestContext context);
+}
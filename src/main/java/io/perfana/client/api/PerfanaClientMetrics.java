@@ -0,0 +1,111 @@
+/*
+ *    Copyright 2020-2023  Peter Paul Bakker @ perfana.io, Daniel Moll @ perfana.io
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.perfana.client.api;
+
+/**
+ * Receives measurements of the calls to Perfana, e.g. to see where the time of a slow test run
+ * teardown went. Endpoints are the paths of the Perfana endpoints, e.g. /api/test or /api/benchmark-results.
+ *
+ * Methods are called from the threads that do the calls, concurrently, and should not block.
+ * All methods do nothing by default. With {@link #NONE} (the default) the calls are not measured at all.
+ */
+public interface PerfanaClientMetrics {
+
+    PerfanaClientMetrics NONE = new PerfanaClientMetrics() {
+        @Override
+        public String toString() {
+            return "PerfanaClientMetrics.NONE";
+        }
+    };
+
+    /**
+     * A reply from Perfana, called when the reply is closed. Each attempt of a call is reported, so a
+     * retried call or a call that failed over to another replica is reported more than once.
+     *
+     * @param durationNanos time until the reply arrived
+     * @param requestBytes bytes of the request body as sent (compressed), 0 for a GET
+     * @param responseBytes bytes of the reply body that were read
+     */
+    default void onReply(String endpoint, int statusCode, long durationNanos, long requestBytes, long responseBytes) {}
+
+    /**
+     * An attempt of a call that failed without a reply, e.g. a connection error or a timeout.
+     */
+    default void onFailure(String endpoint, long durationNanos, long requestBytes) {}
+
+    /**
+     * A call is retried because Perfana was not available.
+     */
+    default void onRetry(String endpoint) {}
+
+    /**
+     * A poll for the check results.
+     */
+    default void onPoll(String endpoint) {}
+
+    /**
+     * Time waited before the next poll for the check results.
+     */
+    default void onPollDelay(String endpoint, long delayNanos) {}
+
+    /**
+     * @return metrics that report to both, or the other one when one of them is {@link #NONE}
+     */
+    static PerfanaClientMetrics combine(PerfanaClientMetrics first, PerfanaClientMetrics second) {
+        if (first == NONE) {
+            return second;
+        }
+        if (second == NONE) {
+            return first;
+        }
+        return new PerfanaClientMetrics() {
+            @Override
+            public void onReply(String endpoint, int statusCode, long durationNanos, long requestBytes, long responseBytes) {
+                first.onReply(endpoint, statusCode, durationNanos, requestBytes, responseBytes);
+                second.onReply(endpoint, statusCode, durationNanos, requestBytes, responseBytes);
+            }
+
+            @Override
+            public void onFailure(String endpoint, long durationNanos, long requestBytes) {
+                first.onFailure(endpoint, durationNanos, requestBytes);
+                second.onFailure(endpoint, durationNanos, requestBytes);
+            }
+
+            @Override
+            public void onRetry(String endpoint) {
+                first.onRetry(endpoint);
+                second.onRetry(endpoint);
+            }
+
+            @Override
+            public void onPoll(String endpoint) {
+                first.onPoll(endpoint);
+                second.onPoll(endpoint);
+            }
+
+            @Override
+            public void onPollDelay(String endpoint, long delayNanos) {
+                first.onPollDelay(endpoint, delayNanos);
+                second.onPollDelay(endpoint, delayNanos);
+            }
+
+            @Override
+            public String toString() {
+                return first + System.lineSeparator() + second;
+            }
+        };
+    }
+}
@@ -18,6 +18,8 @@ package io.perfana.client.api;
 import lombok.Value;
 
 import java.time.Duration;
+import java.util.List;
+import java.util.Map;
 
 @Value
 public class PerfanaConnectionSettings {
@@ -26,5 +28,38 @@ public class PerfanaConnectionSettings {
     Duration retryDuration;
     String perfanaUrl;
     String apiKey;
+    int connectionPoolMaxIdle;
+    Duration connectionKeepAlive;
+    Duration connectTimeout;
+    Duration readTimeout;
+    Duration writeTimeout;
+    RetryPolicy retryPolicy;
+    Duration retryMinDelay;
+    Duration retryMaxDelay;
+    int circuitBreakerFailureRateThreshold;
+    int circuitBreakerMinimumCalls;
+    int circuitBreakerWindowSize;
+    Duration circuitBreakerOpenDuration;
+    String outboxDirectory;
+    OutboxMode outboxMode;
+    int outboxSegmentSize;
+    Duration outboxReplayInterval;
+    Duration outboxDrainTimeout;
+    List<String> perfanaUrls;
+    Duration healthCheckInterval;
+    boolean stickyRouting;
+    int hedgePercentile;
+    Duration hedgeInitialDelay;
+    RetryPolicy postRetryPolicy;
+    Map<PerfanaEndpointGroup, TimeoutProfile> timeoutProfiles;
+    Duration assertResultsDeadline;
+    Compression compression;
+    int compressionThreshold;
+    // null means the available transport with the highest priority
+    String transport;
+
+    public TimeoutProfile getTimeoutProfile(PerfanaEndpointGroup group) {
+        return timeoutProfiles.get(group);
+    }
 
 }
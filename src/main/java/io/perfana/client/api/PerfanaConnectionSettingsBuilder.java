@@ -18,15 +18,73 @@ package io.perfana.client.api;
 import io.perfana.client.PerfanaUtils;
 
 import java.time.Duration;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
 
 public class PerfanaConnectionSettingsBuilder {
 
     public static final int DEFAULT_RETRY_TIME_SECONDS = 6;
     public static final int DEFAULT_RETRY_MAX_COUNT = 30;
-    private String perfanaUrl = "unknown";
+    public static final int DEFAULT_CONNECTION_POOL_MAX_IDLE = 5;
+    public static final int DEFAULT_CONNECTION_KEEP_ALIVE_SECONDS = 300;
+    public static final int DEFAULT_CONNECT_TIMEOUT_SECONDS = 10;
+    public static final int DEFAULT_READ_TIMEOUT_SECONDS = 10;
+    public static final int DEFAULT_WRITE_TIMEOUT_SECONDS = 10;
+    public static final int DEFAULT_RETRY_MIN_DELAY_SECONDS = 1;
+    public static final int DEFAULT_RETRY_MAX_DELAY_SECONDS = 60;
+    public static final int DEFAULT_CIRCUIT_BREAKER_FAILURE_RATE_THRESHOLD = 50;
+    public static final int DEFAULT_CIRCUIT_BREAKER_MINIMUM_CALLS = 5;
+    public static final int DEFAULT_CIRCUIT_BREAKER_WINDOW_SIZE = 10;
+    public static final int DEFAULT_CIRCUIT_BREAKER_OPEN_SECONDS = 30;
+    public static final int DEFAULT_OUTBOX_SEGMENT_SIZE = 1024 * 1024;
+    public static final int DEFAULT_OUTBOX_REPLAY_INTERVAL_SECONDS = 5;
+    public static final int DEFAULT_OUTBOX_DRAIN_TIMEOUT_SECONDS = 30;
+    public static final int DEFAULT_HEALTH_CHECK_INTERVAL_SECONDS = 10;
+    public static final int DEFAULT_HEDGE_INITIAL_DELAY_MILLIS = 1000;
+    public static final int DEFAULT_POST_RETRY_MAX_ATTEMPTS = 3;
+    public static final int DEFAULT_KEEP_ALIVE_CALL_TIMEOUT_SECONDS = 10;
+    public static final int DEFAULT_CALL_TIMEOUT_SECONDS = 30;
+    public static final int DEFAULT_CONFIG_TIMEOUT_SECONDS = 60;
+    public static final int DEFAULT_CONFIG_CALL_TIMEOUT_SECONDS = 120;
+    public static final int DEFAULT_ASSERT_RESULTS_DEADLINE_SECONDS = 600;
+    public static final int DEFAULT_COMPRESSION_THRESHOLD_BYTES = 8 * 1024;
+    private List<String> perfanaUrls = List.of("unknown");
     private int retryMaxCount = DEFAULT_RETRY_MAX_COUNT;
     private Duration retryDuration = Duration.ofSeconds(DEFAULT_RETRY_TIME_SECONDS);
     private String apiKey = null;
+    private int connectionPoolMaxIdle = DEFAULT_CONNECTION_POOL_MAX_IDLE;
+    private Duration connectionKeepAlive = Duration.ofSeconds(DEFAULT_CONNECTION_KEEP_ALIVE_SECONDS);
+    private Duration connectTimeout = Duration.ofSeconds(DEFAULT_CONNECT_TIMEOUT_SECONDS);
+    private Duration readTimeout = Duration.ofSeconds(DEFAULT_READ_TIMEOUT_SECONDS);
+    private Duration writeTimeout = Duration.ofSeconds(DEFAULT_WRITE_TIMEOUT_SECONDS);
+    private RetryStrategy retryStrategy = RetryStrategy.FIXED;
+    private Duration retryMinDelay = Duration.ofSeconds(DEFAULT_RETRY_MIN_DELAY_SECONDS);
+    private Duration retryMaxDelay = Duration.ofSeconds(DEFAULT_RETRY_MAX_DELAY_SECONDS);
+    private Duration retryDeadline = null;
+    private RetryPolicy retryPolicy = null;
+    private int circuitBreakerFailureRateThreshold = DEFAULT_CIRCUIT_BREAKER_FAILURE_RATE_THRESHOLD;
+    private int circuitBreakerMinimumCalls = DEFAULT_CIRCUIT_BREAKER_MINIMUM_CALLS;
+    private int circuitBreakerWindowSize = DEFAULT_CIRCUIT_BREAKER_WINDOW_SIZE;
+    private Duration circuitBreakerOpenDuration = Duration.ofSeconds(DEFAULT_CIRCUIT_BREAKER_OPEN_SECONDS);
+    private String outboxDirectory = null;
+    private OutboxMode outboxMode = OutboxMode.FAILED;
+    private int outboxSegmentSize = DEFAULT_OUTBOX_SEGMENT_SIZE;
+    private Duration outboxReplayInterval = Duration.ofSeconds(DEFAULT_OUTBOX_REPLAY_INTERVAL_SECONDS);
+    private Duration outboxDrainTimeout = Duration.ofSeconds(DEFAULT_OUTBOX_DRAIN_TIMEOUT_SECONDS);
+    private Duration healthCheckInterval = Duration.ofSeconds(DEFAULT_HEALTH_CHECK_INTERVAL_SECONDS);
+    private boolean stickyRouting = false;
+    private int hedgePercentile = 0;
+    private Duration hedgeInitialDelay = Duration.ofMillis(DEFAULT_HEDGE_INITIAL_DELAY_MILLIS);
+    private int postRetryMaxAttempts = DEFAULT_POST_RETRY_MAX_ATTEMPTS;
+    private RetryPolicy postRetryPolicy = null;
+    private final Map<PerfanaEndpointGroup, TimeoutProfile> timeoutProfiles = new EnumMap<>(PerfanaEndpointGroup.class);
+    private final Map<PerfanaEndpointGroup, Duration> callTimeouts = new EnumMap<>(PerfanaEndpointGroup.class);
+    private Duration assertResultsDeadline = Duration.ofSeconds(DEFAULT_ASSERT_RESULTS_DEADLINE_SECONDS);
+    private Compression compression = Compression.NONE;
+    private int compressionThreshold = DEFAULT_COMPRESSION_THRESHOLD_BYTES;
+    private String transport = null;
 
     public PerfanaConnectionSettingsBuilder setRetryMaxCount(String retryMaxCount) {
         this.retryMaxCount = PerfanaUtils.parseInt("retryMaxCount", retryMaxCount, DEFAULT_RETRY_MAX_COUNT);
@@ -50,13 +108,45 @@ public class PerfanaConnectionSettingsBuilder {
         return this;
     }
 
+    /**
+     * @param perfanaUrl url of Perfana, or the urls of several Perfana replicas separated by commas
+     */
     public PerfanaConnectionSettingsBuilder setPerfanaUrl(String perfanaUrl) {
         if (PerfanaUtils.hasValue(perfanaUrl)) {
-            this.perfanaUrl = perfanaUrl;
+            setPerfanaUrls(PerfanaUtils.splitAndTrim(perfanaUrl, ","));
         }
         return this;
     }
 
+    /**
+     * Urls of Perfana replicas. Calls go to the replica with the least calls in progress,
+     * and fail over to the other replicas when a replica is not available.
+     */
+    public PerfanaConnectionSettingsBuilder setPerfanaUrls(List<String> perfanaUrls) {
+        if (perfanaUrls != null && !perfanaUrls.isEmpty()) {
+            this.perfanaUrls = List.copyOf(perfanaUrls);
+        }
+        return this;
+    }
+
+    /**
+     * Time between health checks of the Perfana replicas, use zero to disable. Only used with more than one url.
+     */
+    public PerfanaConnectionSettingsBuilder setHealthCheckInterval(Duration healthCheckInterval) {
+        if (healthCheckInterval != null) {
+            this.healthCheckInterval = healthCheckInterval;
+        }
+        return this;
+    }
+
+    /**
+     * When true, all calls for a test run go to the same Perfana replica, as long as it is available.
+     */
+    public PerfanaConnectionSettingsBuilder setStickyRouting(boolean stickyRouting) {
+        this.stickyRouting = stickyRouting;
+        return this;
+    }
+
     public PerfanaConnectionSettingsBuilder setApiKey(String apiKey) {
         if (PerfanaUtils.hasValue(apiKey)) {
             this.apiKey = apiKey;
@@ -64,8 +154,319 @@ public class PerfanaConnectionSettingsBuilder {
         return this;
     }
 
+    /**
+     * Maximum number of idle connections kept in the (shared) connection pool per Perfana url.
+     */
+    public PerfanaConnectionSettingsBuilder setConnectionPoolMaxIdle(int connectionPoolMaxIdle) {
+        if (connectionPoolMaxIdle >= 0) {
+            this.connectionPoolMaxIdle = connectionPoolMaxIdle;
+        }
+        return this;
+    }
+
+    /**
+     * Time an idle connection is kept in the pool before it is evicted.
+     */
+    public PerfanaConnectionSettingsBuilder setConnectionKeepAlive(Duration connectionKeepAlive) {
+        if (connectionKeepAlive != null) {
+            this.connectionKeepAlive = connectionKeepAlive;
+        }
+        return this;
+    }
+
+    public PerfanaConnectionSettingsBuilder setConnectTimeout(Duration connectTimeout) {
+        if (connectTimeout != null) {
+            this.connectTimeout = connectTimeout;
+        }
+        return this;
+    }
+
+    public PerfanaConnectionSettingsBuilder setReadTimeout(Duration readTimeout) {
+        if (readTimeout != null) {
+            this.readTimeout = readTimeout;
+        }
+        return this;
+    }
+
+    public PerfanaConnectionSettingsBuilder setWriteTimeout(Duration writeTimeout) {
+        if (writeTimeout != null) {
+            this.writeTimeout = writeTimeout;
+        }
+        return this;
+    }
+
+    /**
+     * How the retry delay grows, starting at the retry duration. Default is FIXED.
+     */
+    public PerfanaConnectionSettingsBuilder setRetryStrategy(RetryStrategy retryStrategy) {
+        if (retryStrategy != null) {
+            this.retryStrategy = retryStrategy;
+        }
+        return this;
+    }
+
+    /**
+     * Lower bound of the delay between retries when Perfana asks to retry sooner (Retry-After).
+     */
+    public PerfanaConnectionSettingsBuilder setRetryMinDelay(Duration retryMinDelay) {
+        if (retryMinDelay != null) {
+            this.retryMinDelay = retryMinDelay;
+        }
+        return this;
+    }
+
+    /**
+     * Upper bound of the delay between retries, for the growing retry strategies and when Perfana asks to retry later (Retry-After).
+     */
+    public PerfanaConnectionSettingsBuilder setRetryMaxDelay(Duration retryMaxDelay) {
+        if (retryMaxDelay != null) {
+            this.retryMaxDelay = retryMaxDelay;
+        }
+        return this;
+    }
+
+    /**
+     * Maximum total time for all attempts of one call, null or zero for no deadline.
+     */
+    public PerfanaConnectionSettingsBuilder setRetryDeadline(Duration retryDeadline) {
+        this.retryDeadline = retryDeadline;
+        return this;
+    }
+
+    /**
+     * Use a custom retry policy instead of one created from the retry settings of this builder.
+     */
+    public PerfanaConnectionSettingsBuilder setRetryPolicy(RetryPolicy retryPolicy) {
+        this.retryPolicy = retryPolicy;
+        return this;
+    }
+
+    /**
+     * Percentage of failed calls to an endpoint that opens its circuit breaker. Use 0 to disable the circuit breakers.
+     */
+    public PerfanaConnectionSettingsBuilder setCircuitBreakerFailureRateThreshold(int circuitBreakerFailureRateThreshold) {
+        if (circuitBreakerFailureRateThreshold >= 0 && circuitBreakerFailureRateThreshold <= 100) {
+            this.circuitBreakerFailureRateThreshold = circuitBreakerFailureRateThreshold;
+        }
+        return this;
+    }
+
+    /**
+     * Minimum number of calls before the failure rate is evaluated.
+     */
+    public PerfanaConnectionSettingsBuilder setCircuitBreakerMinimumCalls(int circuitBreakerMinimumCalls) {
+        if (circuitBreakerMinimumCalls > 0) {
+            this.circuitBreakerMinimumCalls = circuitBreakerMinimumCalls;
+        }
+        return this;
+    }
+
+    /**
+     * Number of most recent calls used to calculate the failure rate.
+     */
+    public PerfanaConnectionSettingsBuilder setCircuitBreakerWindowSize(int circuitBreakerWindowSize) {
+        if (circuitBreakerWindowSize > 0) {
+            this.circuitBreakerWindowSize = circuitBreakerWindowSize;
+        }
+        return this;
+    }
+
+    /**
+     * Time calls are skipped after the circuit breaker opened, before a probe call is done.
+     */
+    public PerfanaConnectionSettingsBuilder setCircuitBreakerOpenDuration(Duration circuitBreakerOpenDuration) {
+        if (circuitBreakerOpenDuration != null) {
+            this.circuitBreakerOpenDuration = circuitBreakerOpenDuration;
+        }
+        return this;
+    }
+
+    /**
+     * Directory for the outbox of events and test-run-config calls that could not be delivered.
+     * The directory should only be used by one client. When not set, there is no outbox.
+     */
+    public PerfanaConnectionSettingsBuilder setOutboxDirectory(String outboxDirectory) {
+        if (PerfanaUtils.hasValue(outboxDirectory)) {
+            this.outboxDirectory = outboxDirectory;
+        }
+        return this;
+    }
+
+    public PerfanaConnectionSettingsBuilder setOutboxMode(OutboxMode outboxMode) {
+        if (outboxMode != null) {
+            this.outboxMode = outboxMode;
+        }
+        return this;
+    }
+
+    /**
+     * Size in bytes of the outbox segment files, larger calls get a segment of their own.
+     */
+    public PerfanaConnectionSettingsBuilder setOutboxSegmentSize(int outboxSegmentSize) {
+        if (outboxSegmentSize > 0) {
+            this.outboxSegmentSize = outboxSegmentSize;
+        }
+        return this;
+    }
+
+    /**
+     * Time between attempts to send stored calls while Perfana is not available.
+     */
+    public PerfanaConnectionSettingsBuilder setOutboxReplayInterval(Duration outboxReplayInterval) {
+        if (outboxReplayInterval != null) {
+            this.outboxReplayInterval = outboxReplayInterval;
+        }
+        return this;
+    }
+
+    /**
+     * Maximum time to wait for stored calls to be sent at the end of the test run.
+     */
+    public PerfanaConnectionSettingsBuilder setOutboxDrainTimeout(Duration outboxDrainTimeout) {
+        if (outboxDrainTimeout != null) {
+            this.outboxDrainTimeout = outboxDrainTimeout;
+        }
+        return this;
+    }
+
+    /**
+     * Enables hedging for the benchmark results polling: when there is no reply within this latency
+     * percentile (e.g. 95) of earlier calls, a second request is sent. Use 0 to disable (default).
+     */
+    public PerfanaConnectionSettingsBuilder setHedgePercentile(int hedgePercentile) {
+        if (hedgePercentile >= 0 && hedgePercentile <= 100) {
+            this.hedgePercentile = hedgePercentile;
+        }
+        return this;
+    }
+
+    /**
+     * Hedge delay used until enough latencies of earlier calls are known.
+     */
+    public PerfanaConnectionSettingsBuilder setHedgeInitialDelay(Duration hedgeInitialDelay) {
+        if (hedgeInitialDelay != null) {
+            this.hedgeInitialDelay = hedgeInitialDelay;
+        }
+        return this;
+    }
+
+    /**
+     * Maximum attempts of the posts to Perfana (init, keep alive, events, test run config), use 1 for no retries.
+     * The delays follow the retry strategy, starting at the retry min delay.
+     */
+    public PerfanaConnectionSettingsBuilder setPostRetryMaxAttempts(int postRetryMaxAttempts) {
+        if (postRetryMaxAttempts > 0) {
+            this.postRetryMaxAttempts = postRetryMaxAttempts;
+        }
+        return this;
+    }
+
+    /**
+     * Overrides the policy derived from the post retry max attempts and the retry settings.
+     */
+    public PerfanaConnectionSettingsBuilder setPostRetryPolicy(RetryPolicy postRetryPolicy) {
+        this.postRetryPolicy = postRetryPolicy;
+        return this;
+    }
+
+    /**
+     * Timeouts for the calls to a group of endpoints, instead of the defaults: the connect, read and write
+     * timeouts of this builder, with a call timeout of 10 seconds for keep alive calls and 30 seconds for the
+     * other calls. Config uploads get at least 60 seconds read and write timeouts and a 120 seconds call timeout.
+     */
+    public PerfanaConnectionSettingsBuilder setTimeoutProfile(PerfanaEndpointGroup group, TimeoutProfile timeoutProfile) {
+        if (group != null && timeoutProfile != null) {
+            this.timeoutProfiles.put(group, timeoutProfile);
+        }
+        return this;
+    }
+
+    /**
+     * Only changes the call timeout of the timeout profile of the group: the maximum time of one call,
+     * including its retries and fail overs. Zero for no call timeout.
+     */
+    public PerfanaConnectionSettingsBuilder setCallTimeout(PerfanaEndpointGroup group, Duration callTimeout) {
+        if (group != null && callTimeout != null) {
+            this.callTimeouts.put(group, callTimeout);
+        }
+        return this;
+    }
+
+    /**
+     * Maximum total time of assert results, including all polls and the waits between them. Zero for no deadline.
+     */
+    public PerfanaConnectionSettingsBuilder setAssertResultsDeadline(Duration assertResultsDeadline) {
+        if (assertResultsDeadline != null) {
+            this.assertResultsDeadline = assertResultsDeadline;
+        }
+        return this;
+    }
+
+    /**
+     * Content-Encoding for request bodies above the compression threshold, and for test run config uploads.
+     * Default is NONE: enable only when Perfana, or a proxy in front of it, accepts compressed requests.
+     */
+    public PerfanaConnectionSettingsBuilder setCompression(Compression compression) {
+        if (compression != null) {
+            this.compression = compression;
+        }
+        return this;
+    }
+
+    /**
+     * Minimum size in bytes of a request body with a known size to be compressed.
+     */
+    public PerfanaConnectionSettingsBuilder setCompressionThreshold(int compressionThreshold) {
+        if (compressionThreshold >= 0) {
+            this.compressionThreshold = compressionThreshold;
+        }
+        return this;
+    }
+
+    /**
+     * Name of the http transport, e.g. "okhttp" or "jdk". Default (null or empty) is the available
+     * transport with the highest priority: okhttp when it is on the classpath, otherwise jdk.
+     */
+    public PerfanaConnectionSettingsBuilder setTransport(String transport) {
+        this.transport = PerfanaUtils.hasValue(transport) ? transport.trim() : null;
+        return this;
+    }
+
+    private Map<PerfanaEndpointGroup, TimeoutProfile> buildTimeoutProfiles() {
+        Map<PerfanaEndpointGroup, TimeoutProfile> profiles = new EnumMap<>(PerfanaEndpointGroup.class);
+        Duration callTimeout = Duration.ofSeconds(DEFAULT_CALL_TIMEOUT_SECONDS);
+        TimeoutProfile defaultProfile = TimeoutProfile.of(connectTimeout, readTimeout, writeTimeout, callTimeout);
+        Duration configTimeout = Duration.ofSeconds(DEFAULT_CONFIG_TIMEOUT_SECONDS);
+        profiles.put(PerfanaEndpointGroup.INIT, defaultProfile);
+        profiles.put(PerfanaEndpointGroup.KEEP_ALIVE, defaultProfile.withCallTimeout(Duration.ofSeconds(DEFAULT_KEEP_ALIVE_CALL_TIMEOUT_SECONDS)));
+        profiles.put(PerfanaEndpointGroup.EVENTS, defaultProfile);
+        profiles.put(PerfanaEndpointGroup.CONFIG, TimeoutProfile.of(connectTimeout, max(readTimeout, configTimeout), max(writeTimeout, configTimeout),
+                Duration.ofSeconds(DEFAULT_CONFIG_CALL_TIMEOUT_SECONDS)));
+        profiles.put(PerfanaEndpointGroup.BENCHMARK_RESULTS, defaultProfile);
+        profiles.putAll(timeoutProfiles);
+        callTimeouts.forEach((group, timeout) -> profiles.put(group, profiles.get(group).withCallTimeout(timeout)));
+        return Collections.unmodifiableMap(profiles);
+    }
+
+    private static Duration max(Duration a, Duration b) {
+        return a.compareTo(b) >= 0 ? a : b;
+    }
+
     public PerfanaConnectionSettings build() {
-        return new PerfanaConnectionSettings(retryMaxCount, retryDuration, perfanaUrl, apiKey);
+        RetryPolicy policy = retryPolicy != null
+                ? retryPolicy
+                : RetryPolicy.of(retryStrategy, retryDuration, retryStrategy == RetryStrategy.FIXED ? retryDuration : retryMaxDelay, retryMaxCount, retryDeadline);
+        return new PerfanaConnectionSettings(retryMaxCount, retryDuration, perfanaUrls.get(0), apiKey,
+                connectionPoolMaxIdle, connectionKeepAlive, connectTimeout, readTimeout, writeTimeout, policy,
+                retryMinDelay, retryMaxDelay,
+                circuitBreakerFailureRateThreshold, circuitBreakerMinimumCalls, circuitBreakerWindowSize, circuitBreakerOpenDuration,
+                outboxDirectory, outboxMode, outboxSegmentSize, outboxReplayInterval, outboxDrainTimeout,
+                perfanaUrls, healthCheckInterval, stickyRouting,
+                hedgePercentile, hedgeInitialDelay,
+                postRetryPolicy != null ? postRetryPolicy : RetryPolicy.of(retryStrategy, retryMinDelay,
+                        retryStrategy == RetryStrategy.FIXED ? retryMinDelay : retryMaxDelay, postRetryMaxAttempts, null),
+                buildTimeoutProfiles(), assertResultsDeadline,
+                compression, compressionThreshold, transport);
     }
 
 }
\ No newline at end of file
@@ -0,0 +1,42 @@
+/*
+ *    Copyright 2020-2023  Peter Paul Bakker @ perfana.io, Daniel Moll @ perfana.io
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.perfana.client.api;
+
+/**
+ * Groups of Perfana endpoints that share a timeout profile.
+ */
+public enum PerfanaEndpointGroup {
+    /**
+     * Test run init call, to get a test run id.
+     */
+    INIT,
+    /**
+     * Keep alive calls during the test run, and the final call when the test run is completed.
+     */
+    KEEP_ALIVE,
+    /**
+     * Perfana events.
+     */
+    EVENTS,
+    /**
+     * Test run config uploads: key, keys and json.
+     */
+    CONFIG,
+    /**
+     * Polling for the check results (assert results).
+     */
+    BENCHMARK_RESULTS
+}
@@ -0,0 +1,56 @@
+/*
+ *    Copyright 2020-2023  Peter Paul Bakker @ perfana.io, Daniel Moll @ perfana.io
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.perfana.client.api;
+
+import java.util.function.BiConsumer;
+
+/**
+ * A trace span of a call to Perfana. Attributes can be set from the threads of the http transport,
+ * for example the status code of the reply. All methods do nothing by default.
+ */
+public interface PerfanaSpan {
+
+    PerfanaSpan NONE = new PerfanaSpan() {
+        @Override
+        public String toString() {
+            return "PerfanaSpan.NONE";
+        }
+    };
+
+    String STATUS_CODE = "http.response.status_code";
+    String REQUEST_BODY_SIZE = "http.request.body.size";
+    String RESPONSE_BODY_SIZE = "http.response.body.size";
+    String RETRY_ATTEMPT = "perfana.retry.attempt";
+    String POLL_ATTEMPT = "perfana.poll.attempt";
+    String ENDPOINT = "perfana.endpoint";
+    String OUTBOX = "perfana.outbox";
+
+    default void setAttribute(String key, long value) {}
+
+    default void setAttribute(String key, String value) {}
+
+    /**
+     * The call failed, e.g. Perfana could not be reached.
+     */
+    default void setError(Throwable error) {}
+
+    /**
+     * Adds the trace context headers of this span to an outgoing request, e.g. the W3C traceparent header.
+     */
+    default void injectHeaders(BiConsumer<String, String> header) {}
+
+    default void end() {}
+}
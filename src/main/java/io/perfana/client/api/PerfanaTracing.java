@@ -0,0 +1,46 @@
+/*
+ *    Copyright 2020-2023  Peter Paul Bakker @ perfana.io, Daniel Moll @ perfana.io
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.perfana.client.api;
+
+/**
+ * Creates trace spans for the calls to Perfana, e.g. to see the Perfana calls next to the spans
+ * of the load tool in a tracing backend.
+ *
+ * With {@link #NONE} (the default) there are no spans and no trace headers.
+ */
+@FunctionalInterface
+public interface PerfanaTracing {
+
+    PerfanaTracing NONE = new PerfanaTracing() {
+        @Override
+        public PerfanaSpan startSpan(String name) {
+            return PerfanaSpan.NONE;
+        }
+
+        @Override
+        public String toString() {
+            return "PerfanaTracing.NONE";
+        }
+    };
+
+    /**
+     * Starts a span for one call to Perfana, including its retries, or for one poll of the check results.
+     * The parent is the current span of the calling thread, if any.
+     *
+     * @param name e.g. perfana.event
+     */
+    PerfanaSpan startSpan(String name);
+}
@@ -0,0 +1,64 @@
+/*
+ *    Copyright 2020-2023  Peter Paul Bakker @ perfana.io, Daniel Moll @ perfana.io
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.perfana.client.api;
+
+import java.time.Duration;
+import java.util.Optional;
+
+/**
+ * Decides if and when a failed Perfana call is tried again.
+ */
+public interface RetryPolicy {
+
+    /**
+     * Start the attempts of one logical call, e.g. polling for the check results.
+     */
+    Attempts start();
+
+    /**
+     * @param strategy how the delay grows per retry
+     * @param baseDelay delay before the first retry
+     * @param maxDelay upper bound of the delay before a retry
+     * @param maxAttempts maximum number of attempts, including the first one
+     * @param deadline maximum total time of all attempts, null or zero for no deadline
+     */
+    static RetryPolicy of(RetryStrategy strategy, Duration baseDelay, Duration maxDelay, int maxAttempts, Duration deadline) {
+        return new BackoffRetryPolicy(strategy, baseDelay, maxDelay, maxAttempts, deadline);
+    }
+
+    static RetryPolicy fixed(Duration delay, int maxAttempts) {
+        return of(RetryStrategy.FIXED, delay, delay, maxAttempts, null);
+    }
+
+    /**
+     * State of the attempts of one logical call. Not thread safe.
+     */
+    interface Attempts {
+
+        /**
+         * @return number of the current attempt, starting at 1
+         */
+        int attempt();
+
+        int maxAttempts();
+
+        /**
+         * Call after a failed attempt.
+         * @return the delay before the next attempt, or empty when there are no attempts left
+         */
+        Optional<Duration> nextDelay();
+    }
+}
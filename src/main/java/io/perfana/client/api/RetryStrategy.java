@@ -0,0 +1,35 @@
+/*
+ *    Copyright 2020-2023  Peter Paul Bakker @ perfana.io, Daniel Moll @ perfana.io
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.perfana.client.api;
+
+/**
+ * How the delay between retries of a Perfana call grows.
+ */
+public enum RetryStrategy {
+    /**
+     * Same delay before each retry.
+     */
+    FIXED,
+    /**
+     * Delay doubles for each retry, up to the maximum delay.
+     */
+    EXPONENTIAL,
+    /**
+     * Random delay between the base delay and three times the previous delay, up to the maximum delay.
+     * Spreads the retries of clients that failed at the same moment.
+     */
+    DECORRELATED_JITTER
+}
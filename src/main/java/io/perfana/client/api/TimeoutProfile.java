@@ -0,0 +1,43 @@
+/*
+ *    Copyright 2020-2023  Peter Paul Bakker @ perfana.io, Daniel Moll @ perfana.io
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.perfana.client.api;
+
+import lombok.Value;
+
+import java.time.Duration;
+
+/**
+ * Timeouts for the calls to a group of Perfana endpoints.
+ *
+ * The connect, read and write timeouts apply to each attempt. The call timeout is the deadline
+ * for one logical call, including its retries and fail overs: zero for no deadline.
+ */
+@Value
+public class TimeoutProfile {
+
+    Duration connectTimeout;
+    Duration readTimeout;
+    Duration writeTimeout;
+    Duration callTimeout;
+
+    public static TimeoutProfile of(Duration connectTimeout, Duration readTimeout, Duration writeTimeout, Duration callTimeout) {
+        return new TimeoutProfile(connectTimeout, readTimeout, writeTimeout, callTimeout);
+    }
+
+    public TimeoutProfile withCallTimeout(Duration callTimeout) {
+        return new TimeoutProfile(connectTimeout, readTimeout, writeTimeout, callTimeout);
+    }
+}
@@ -23,4 +23,12 @@ import lombok.*;
 @AllArgsConstructor
 public class PerfanaSingleMessage {
     String message;
+    /**
+     * Optional hint from Perfana when to ask again, e.g. while the evaluation is in progress.
+     */
+    Integer retryAfterSeconds;
+
+    public PerfanaSingleMessage(String message) {
+        this(message, null);
+    }
 }
@@ -0,0 +1,182 @@
+/*
+ *    Copyright 2020-2023  Peter Paul Bakker @ perfana.io, Daniel Moll @ perfana.io
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.perfana.client.metrics;
+
+import io.perfana.client.api.PerfanaClientMetrics;
+import lombok.Value;
+import net.jcip.annotations.ThreadSafe;
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latency histograms and counters per endpoint, in memory. Recording is lock-free.
+ *
+ * Needs org.hdrhistogram:HdrHistogram on the classpath.
+ */
+@ThreadSafe
+public final class HdrHistogramClientMetrics implements PerfanaClientMetrics {
+
+    private static final int SIGNIFICANT_DIGITS = 3;
+
+    private final ConcurrentMap<String, EndpointMetrics> endpoints = new ConcurrentHashMap<>();
+
+    @Override
+    public void onReply(String endpoint, int statusCode, long durationNanos, long requestBytes, long responseBytes) {
+        EndpointMetrics metrics = endpoint(endpoint);
+        metrics.latency.recordValue(Math.max(0, durationNanos));
+        metrics.statusCodes.computeIfAbsent(statusCode, code -> new LongAdder()).increment();
+        metrics.requestBytes.add(requestBytes);
+        metrics.responseBytes.add(responseBytes);
+    }
+
+    @Override
+    public void onFailure(String endpoint, long durationNanos, long requestBytes) {
+        EndpointMetrics metrics = endpoint(endpoint);
+        metrics.failures.increment();
+        metrics.failureNanos.add(durationNanos);
+        metrics.requestBytes.add(requestBytes);
+    }
+
+    @Override
+    public void onRetry(String endpoint) {
+        endpoint(endpoint).retries.increment();
+    }
+
+    @Override
+    public void onPoll(String endpoint) {
+        endpoint(endpoint).polls.increment();
+    }
+
+    @Override
+    public void onPollDelay(String endpoint, long delayNanos) {
+        endpoint(endpoint).pollDelayNanos.add(delayNanos);
+    }
+
+    private EndpointMetrics endpoint(String endpoint) {
+        EndpointMetrics metrics = endpoints.get(endpoint);
+        return metrics != null ? metrics : endpoints.computeIfAbsent(endpoint, e -> new EndpointMetrics());
+    }
+
+    /**
+     * @return the endpoints with calls, sorted
+     */
+    public Map<String, EndpointStatistics> getStatistics() {
+        Map<String, EndpointStatistics> statistics = new TreeMap<>();
+        endpoints.forEach((endpoint, metrics) -> statistics.put(endpoint, metrics.statistics()));
+        return statistics;
+    }
+
+    /**
+     * @return copy of the latencies in nanoseconds of the replies of the endpoint, empty when there are none
+     */
+    public Histogram getLatencies(String endpoint) {
+        EndpointMetrics metrics = endpoints.get(endpoint);
+        return metrics == null ? new Histogram(SIGNIFICANT_DIGITS) : metrics.latency.copy();
+    }
+
+    /**
+     * @return one line per endpoint, for logging
+     */
+    @Override
+    public String toString() {
+        StringBuilder text = new StringBuilder();
+        getStatistics().forEach((endpoint, statistics) -> text.append(text.length() == 0 ? "" : "\n")
+                .append(endpoint).append(": ").append(statistics));
+        return text.length() == 0 ? "no calls" : text.toString();
+    }
+
+    private static final class EndpointMetrics {
+        private final ConcurrentHistogram latency = new ConcurrentHistogram(SIGNIFICANT_DIGITS);
+        private final ConcurrentMap<Integer, LongAdder> statusCodes = new ConcurrentHashMap<>();
+        private final LongAdder failures = new LongAdder();
+        private final LongAdder failureNanos = new LongAdder();
+        private final LongAdder retries = new LongAdder();
+        private final LongAdder polls = new LongAdder();
+        private final LongAdder pollDelayNanos = new LongAdder();
+        private final LongAdder requestBytes = new LongAdder();
+        private final LongAdder responseBytes = new LongAdder();
+
+        private EndpointStatistics statistics() {
+            Histogram copy = latency.copy();
+            Map<Integer, Long> codes = new TreeMap<>();
+            statusCodes.forEach((code, count) -> codes.put(code, count.sum()));
+            return new EndpointStatistics(copy.getTotalCount(), Collections.unmodifiableMap(codes),
+                    copy.getValueAtPercentile(50), copy.getValueAtPercentile(99), copy.getMaxValue(),
+                    failures.sum(), failureNanos.sum(), retries.sum(), polls.sum(), pollDelayNanos.sum(),
+                    requestBytes.sum(), responseBytes.sum());
+        }
+    }
+
+    /**
+     * Totals of one endpoint. Times are in nanoseconds.
+     */
+    @Value
+    public static class EndpointStatistics {
+        /**
+         * Attempts with a reply.
+         */
+        long replies;
+        /**
+         * Number of replies per status code.
+         */
+        Map<Integer, Long> statusCodes;
+        long p50Nanos;
+        long p99Nanos;
+        long maxNanos;
+        /**
+         * Attempts without a reply.
+         */
+        long failures;
+        long failureNanos;
+        long retries;
+        long polls;
+        long pollDelayNanos;
+        long requestBytes;
+        long responseBytes;
+
+        @Override
+        public String toString() {
+            StringBuilder text = new StringBuilder()
+                    .append(replies).append(" replies ").append(statusCodes)
+                    .append(", p50 ").append(millis(p50Nanos))
+                    .append(" ms, p99 ").append(millis(p99Nanos))
+                    .append(" ms, max ").append(millis(maxNanos)).append(" ms");
+            if (failures > 0) {
+                text.append(", ").append(failures).append(" failures in ").append(millis(failureNanos)).append(" ms");
+            }
+            if (retries > 0) {
+                text.append(", ").append(retries).append(" retries");
+            }
+            if (polls > 0) {
+                text.append(", ").append(polls).append(" polls, ").append(millis(pollDelayNanos)).append(" ms between polls");
+            }
+            return text.append(", ").append(requestBytes).append(" bytes sent, ")
+                    .append(responseBytes).append(" bytes received").toString();
+        }
+
+        private static long millis(long nanos) {
+            return TimeUnit.NANOSECONDS.toMillis(nanos);
+        }
+    }
+}
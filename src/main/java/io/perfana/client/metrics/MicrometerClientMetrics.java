@@ -0,0 +1,118 @@
+/*
+ *    Copyright 2020-2023  Peter Paul Bakker @ perfana.io, Daniel Moll @ perfana.io
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.perfana.client.metrics;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.perfana.client.api.PerfanaClientMetrics;
+import net.jcip.annotations.ThreadSafe;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Publishes the measurements to a Micrometer registry:
+ * <ul>
+ *     <li>perfana.client.calls - timer per endpoint and status, status is the status code or IO_ERROR</li>
+ *     <li>perfana.client.request.size and perfana.client.response.size - bytes per endpoint</li>
+ *     <li>perfana.client.retries and perfana.client.polls - counters per endpoint</li>
+ *     <li>perfana.client.poll.delay - timer of the waits between polls</li>
+ * </ul>
+ * Meters are registered once and then looked up without allocation.
+ *
+ * Needs io.micrometer:micrometer-core on the classpath.
+ */
+@ThreadSafe
+public final class MicrometerClientMetrics implements PerfanaClientMetrics {
+
+    static final String IO_ERROR = "IO_ERROR";
+
+    private final MeterRegistry registry;
+
+    private final ConcurrentMap<String, ConcurrentMap<Integer, Timer>> callTimers = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Timer> failureTimers = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, DistributionSummary> requestSizes = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, DistributionSummary> responseSizes = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Counter> retries = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Counter> polls = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Timer> pollDelays = new ConcurrentHashMap<>();
+
+    public MicrometerClientMetrics(MeterRegistry registry) {
+        this.registry = registry;
+    }
+
+    @Override
+    public void onReply(String endpoint, int statusCode, long durationNanos, long requestBytes, long responseBytes) {
+        callTimers.computeIfAbsent(endpoint, e -> new ConcurrentHashMap<>())
+                .computeIfAbsent(statusCode, code -> callTimer(endpoint, String.valueOf(code)))
+                .record(durationNanos, TimeUnit.NANOSECONDS);
+        requestSizes.computeIfAbsent(endpoint, e -> size("perfana.client.request.size", e)).record(requestBytes);
+        responseSizes.computeIfAbsent(endpoint, e -> size("perfana.client.response.size", e)).record(responseBytes);
+    }
+
+    @Override
+    public void onFailure(String endpoint, long durationNanos, long requestBytes) {
+        failureTimers.computeIfAbsent(endpoint, e -> callTimer(e, IO_ERROR)).record(durationNanos, TimeUnit.NANOSECONDS);
+        requestSizes.computeIfAbsent(endpoint, e -> size("perfana.client.request.size", e)).record(requestBytes);
+    }
+
+    @Override
+    public void onRetry(String endpoint) {
+        retries.computeIfAbsent(endpoint, e -> counter("perfana.client.retries", e)).increment();
+    }
+
+    @Override
+    public void onPoll(String endpoint) {
+        polls.computeIfAbsent(endpoint, e -> counter("perfana.client.polls", e)).increment();
+    }
+
+    @Override
+    public void onPollDelay(String endpoint, long delayNanos) {
+        pollDelays.computeIfAbsent(endpoint, e -> Timer.builder("perfana.client.poll.delay")
+                .description("Waits between polls for the check results")
+                .tag("endpoint", e)
+                .register(registry)).record(delayNanos, TimeUnit.NANOSECONDS);
+    }
+
+    private Timer callTimer(String endpoint, String status) {
+        return Timer.builder("perfana.client.calls")
+                .description("Calls to Perfana, each attempt")
+                .tag("endpoint", endpoint)
+                .tag("status", status)
+                .register(registry);
+    }
+
+    private DistributionSummary size(String name, String endpoint) {
+        return DistributionSummary.builder(name)
+                .baseUnit("bytes")
+                .tag("endpoint", endpoint)
+                .register(registry);
+    }
+
+    private Counter counter(String name, String endpoint) {
+        return Counter.builder(name)
+                .tag("endpoint", endpoint)
+                .register(registry);
+    }
+
+    @Override
+    public String toString() {
+        return "MicrometerClientMetrics{registry=" + registry.getClass().getSimpleName() + "}";
+    }
+}
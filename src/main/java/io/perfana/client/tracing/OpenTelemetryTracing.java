@@ -0,0 +1,103 @@
+/*
+ *    Copyright 2020-2023  Peter Paul Bakker @ perfana.io, Daniel Moll @ perfana.io
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.perfana.client.tracing;
+
+import io.opentelemetry.api.OpenTelemetry;
+import io.opentelemetry.api.trace.Span;
+import io.opentelemetry.api.trace.SpanKind;
+import io.opentelemetry.api.trace.StatusCode;
+import io.opentelemetry.api.trace.Tracer;
+import io.opentelemetry.api.trace.propagation.W3CTraceContextPropagator;
+import io.opentelemetry.context.Context;
+import io.perfana.client.api.PerfanaSpan;
+import io.perfana.client.api.PerfanaTracing;
+import net.jcip.annotations.ThreadSafe;
+
+import java.util.function.BiConsumer;
+
+/**
+ * OpenTelemetry client spans for the calls to Perfana. The parent of a span is the current
+ * OpenTelemetry context of the calling thread, e.g. a span of the load tool.
+ *
+ * Requests carry the W3C traceparent header of their span, also when another propagator is configured,
+ * so Perfana can link the calls to the trace.
+ *
+ * Needs io.opentelemetry:opentelemetry-api on the classpath. Without a configured OpenTelemetry sdk,
+ * the spans are no-ops and no headers are sent.
+ */
+@ThreadSafe
+public final class OpenTelemetryTracing implements PerfanaTracing {
+
+    public static final String INSTRUMENTATION_NAME = "io.perfana.perfana-java-client";
+
+    private final Tracer tracer;
+
+    public OpenTelemetryTracing(OpenTelemetry openTelemetry) {
+        this.tracer = openTelemetry.getTracer(INSTRUMENTATION_NAME);
+    }
+
+    @Override
+    public PerfanaSpan startSpan(String name) {
+        Context parent = Context.current();
+        Span span = tracer.spanBuilder(name)
+                .setParent(parent)
+                .setSpanKind(SpanKind.CLIENT)
+                .startSpan();
+        return new OpenTelemetrySpan(span, parent.with(span));
+    }
+
+    @Override
+    public String toString() {
+        return "OpenTelemetryTracing";
+    }
+
+    @ThreadSafe
+    private static final class OpenTelemetrySpan implements PerfanaSpan {
+        private final Span span;
+        private final Context context;
+
+        private OpenTelemetrySpan(Span span, Context context) {
+            this.span = span;
+            this.context = context;
+        }
+
+        @Override
+        public void setAttribute(String key, long value) {
+            span.setAttribute(key, value);
+        }
+
+        @Override
+        public void setAttribute(String key, String value) {
+            span.setAttribute(key, value);
+        }
+
+        @Override
+        public void setError(Throwable error) {
+            span.recordException(error);
+            span.setStatus(StatusCode.ERROR, String.valueOf(error.getMessage()));
+        }
+
+        @Override
+        public void injectHeaders(BiConsumer<String, String> header) {
+            W3CTraceContextPropagator.getInstance().inject(context, header, (carrier, key, value) -> carrier.accept(key, value));
+        }
+
+        @Override
+        public void end() {
+            span.end();
+        }
+    }
+}
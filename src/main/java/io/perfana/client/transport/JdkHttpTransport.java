@@ -0,0 +1,248 @@
+/*
+ *    Copyright 2020-2023  Peter Paul Bakker @ perfana.io, Daniel Moll @ perfana.io
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.perfana.client.transport;
+
+import io.perfana.client.api.TimeoutProfile;
+import net.jcip.annotations.ThreadSafe;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Transport on java.net.http.HttpClient. Clients are shared per connect timeout, each has its own connection pool.
+ *
+ * Differences with OkHttp: request bodies are buffered before they are sent, the read and write
+ * timeouts are combined into one timeout for the reply to arrive, and the connection pool is
+ * configured with the jdk.httpclient system properties instead of the connection settings.
+ */
+@ThreadSafe
+final class JdkHttpTransport implements PerfanaTransport {
+
+    private static final Map<Duration, HttpClient> CLIENTS = new ConcurrentHashMap<>();
+
+    /**
+     * Like the default executor of the http client a thread per reply in progress (callbacks read the
+     * body blocking, so a bounded pool could run out), but idle threads end after seconds instead of a
+     * minute: after a burst of concurrent calls the threads do not linger.
+     */
+    private static final ExecutorService EXECUTOR = createExecutor();
+
+    @Override
+    public TransportCall newCall(TransportRequest request, TimeoutProfile timeouts) {
+        HttpClient client = CLIENTS.computeIfAbsent(timeouts.getConnectTimeout(), connectTimeout -> HttpClient.newBuilder()
+                .connectTimeout(connectTimeout)
+                .followRedirects(HttpClient.Redirect.NORMAL)
+                .executor(EXECUTOR)
+                .build());
+        return new JdkTransportCall(client, request, timeouts.getReadTimeout().plus(timeouts.getWriteTimeout()));
+    }
+
+    @Override
+    public String name() {
+        return JdkHttpTransportProvider.NAME;
+    }
+
+    private static ExecutorService createExecutor() {
+        AtomicInteger count = new AtomicInteger();
+        return new ThreadPoolExecutor(0, Integer.MAX_VALUE, 5, TimeUnit.SECONDS, new SynchronousQueue<>(), runnable -> {
+            Thread thread = new Thread(runnable, "perfana-jdk-http-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @ThreadSafe
+    private static final class JdkTransportCall implements TransportCall {
+        private final HttpClient client;
+        private final TransportRequest request;
+        private volatile Duration timeout;
+        private volatile boolean canceled = false;
+        @Nullable
+        private volatile CompletableFuture<HttpResponse<InputStream>> future;
+
+        private JdkTransportCall(HttpClient client, TransportRequest request, Duration timeout) {
+            this.client = client;
+            this.request = request;
+            this.timeout = timeout;
+        }
+
+        @Override
+        public TransportRequest request() {
+            return request;
+        }
+
+        @Override
+        public void timeout(Duration callTimeout) {
+            if (callTimeout.compareTo(timeout) < 0) {
+                timeout = callTimeout;
+            }
+        }
+
+        @Override
+        public TransportResponse execute() throws IOException {
+            CompletableFuture<HttpResponse<InputStream>> sent = send();
+            try {
+                return new JdkTransportResponse(sent.get());
+            } catch (InterruptedException e) {
+                cancel();
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("interrupted while waiting for reply of " + request.path());
+            } catch (ExecutionException | CancellationException e) {
+                throw failure(e);
+            }
+        }
+
+        @Override
+        public void enqueue(TransportCallback callback) {
+            CompletableFuture<HttpResponse<InputStream>> sent;
+            try {
+                sent = send();
+            } catch (IOException e) {
+                callback.onFailure(this, e);
+                return;
+            }
+            sent.whenComplete((response, throwable) -> {
+                if (throwable != null) {
+                    callback.onFailure(this, failure(throwable));
+                    return;
+                }
+                JdkTransportResponse transportResponse = new JdkTransportResponse(response);
+                try {
+                    callback.onResponse(this, transportResponse);
+                } catch (IOException e) {
+                    transportResponse.close();
+                }
+            });
+        }
+
+        private CompletableFuture<HttpResponse<InputStream>> send() throws IOException {
+            if (canceled) {
+                throw new IOException("Canceled");
+            }
+            CompletableFuture<HttpResponse<InputStream>> sent = client.sendAsync(toHttpRequest(), HttpResponse.BodyHandlers.ofInputStream());
+            future = sent;
+            if (canceled) {
+                sent.cancel(true);
+            }
+            return sent;
+        }
+
+        private HttpRequest toHttpRequest() throws IOException {
+            URI uri = URI.create(request.url());
+            HttpRequest.Builder builder = HttpRequest.newBuilder(uri).timeout(timeout);
+            if ("http".equalsIgnoreCase(uri.getScheme())) {
+                // no h2c upgrade attempts on plain http, like OkHttp
+                builder.version(HttpClient.Version.HTTP_1_1);
+            }
+            request.headers().forEach(header -> builder.header(header[0], header[1]));
+            RequestContent content = request.content();
+            if (content == null) {
+                builder.GET();
+            } else {
+                ByteArrayOutputStream body = new ByteArrayOutputStream(content.contentLength() > 0 ? (int) content.contentLength() : 512);
+                content.writeTo(body);
+                builder.header("Content-Type", content.contentType());
+                builder.POST(HttpRequest.BodyPublishers.ofByteArray(body.toByteArray()));
+            }
+            return builder.build();
+        }
+
+        private IOException failure(Throwable throwable) {
+            Throwable cause = throwable;
+            while ((cause instanceof CompletionException || cause instanceof ExecutionException) && cause.getCause() != null) {
+                cause = cause.getCause();
+            }
+            if (canceled || cause instanceof CancellationException) {
+                return new IOException("Canceled");
+            }
+            if (cause instanceof IOException) {
+                return (IOException) cause;
+            }
+            return new IOException(cause);
+        }
+
+        @Override
+        public void cancel() {
+            canceled = true;
+            CompletableFuture<HttpResponse<InputStream>> sent = future;
+            if (sent != null) {
+                sent.cancel(true);
+            }
+        }
+
+        @Override
+        public boolean isCanceled() {
+            return canceled;
+        }
+    }
+
+    private static final class JdkTransportResponse implements TransportResponse {
+        private final HttpResponse<InputStream> response;
+
+        private JdkTransportResponse(HttpResponse<InputStream> response) {
+            this.response = response;
+        }
+
+        @Override
+        public int code() {
+            return response.statusCode();
+        }
+
+        @Nullable
+        @Override
+        public String header(String name) {
+            return response.headers().firstValue(name).orElse(null);
+        }
+
+        @Override
+        public InputStream body() {
+            return response.body();
+        }
+
+        @Override
+        public void close() {
+            try {
+                response.body().close();
+            } catch (IOException e) {
+                // ignore
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "Response{protocol=" + response.version() + ", code=" + response.statusCode() + ", url=" + response.uri() + "}";
+        }
+    }
+}
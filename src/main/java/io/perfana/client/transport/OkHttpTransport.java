@@ -0,0 +1,188 @@
+/*
+ *    Copyright 2020-2023  Peter Paul Bakker @ perfana.io, Daniel Moll @ perfana.io
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.perfana.client.transport;
+
+import io.perfana.client.api.TimeoutProfile;
+import net.jcip.annotations.ThreadSafe;
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.BufferedSink;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Transport on a shared OkHttpClient. Clients with other timeouts are derived from it,
+ * and share its connection pool and dispatcher.
+ */
+@ThreadSafe
+final class OkHttpTransport implements PerfanaTransport {
+
+    private final OkHttpClient client;
+    private final Map<TimeoutProfile, OkHttpClient> clients = new ConcurrentHashMap<>();
+
+    OkHttpTransport(OkHttpClient client) {
+        this.client = client;
+    }
+
+    @Override
+    public TransportCall newCall(TransportRequest request, TimeoutProfile timeouts) {
+        OkHttpClient timeoutClient = clients.computeIfAbsent(timeouts, profile -> PerfanaHttpClients.withTimeouts(client, profile));
+        return new OkHttpTransportCall(request, timeoutClient.newCall(toOkHttpRequest(request)));
+    }
+
+    @Override
+    public String name() {
+        return OkHttpTransportProvider.NAME;
+    }
+
+    private static Request toOkHttpRequest(TransportRequest request) {
+        Request.Builder builder = new Request.Builder().url(request.url());
+        request.headers().forEach(header -> builder.header(header[0], header[1]));
+        RequestContent content = request.content();
+        if (content == null) {
+            builder.get();
+        } else {
+            builder.post(new ContentRequestBody(content));
+        }
+        return builder.build();
+    }
+
+    /**
+     * The content is written directly to the http sink.
+     */
+    private static final class ContentRequestBody extends RequestBody {
+        private final RequestContent content;
+        private final MediaType mediaType;
+
+        private ContentRequestBody(RequestContent content) {
+            this.content = content;
+            this.mediaType = MediaType.parse(content.contentType());
+        }
+
+        @Override
+        public MediaType contentType() {
+            return mediaType;
+        }
+
+        @Override
+        public long contentLength() {
+            return content.contentLength();
+        }
+
+        @Override
+        public void writeTo(@NotNull BufferedSink sink) throws IOException {
+            content.writeTo(sink.outputStream());
+        }
+    }
+
+    private static final class OkHttpTransportCall implements TransportCall {
+        private final TransportRequest request;
+        private final Call call;
+
+        private OkHttpTransportCall(TransportRequest request, Call call) {
+            this.request = request;
+            this.call = call;
+        }
+
+        @Override
+        public TransportRequest request() {
+            return request;
+        }
+
+        @Override
+        public void timeout(Duration timeout) {
+            call.timeout().timeout(timeout.toNanos(), TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public TransportResponse execute() throws IOException {
+            return new OkHttpTransportResponse(call.execute());
+        }
+
+        @Override
+        public void enqueue(TransportCallback callback) {
+            call.enqueue(new Callback() {
+                @Override
+                public void onFailure(@NotNull Call call, @NotNull IOException e) {
+                    callback.onFailure(OkHttpTransportCall.this, e);
+                }
+
+                @Override
+                public void onResponse(@NotNull Call call, @NotNull Response response) throws IOException {
+                    callback.onResponse(OkHttpTransportCall.this, new OkHttpTransportResponse(response));
+                }
+            });
+        }
+
+        @Override
+        public void cancel() {
+            call.cancel();
+        }
+
+        @Override
+        public boolean isCanceled() {
+            return call.isCanceled();
+        }
+    }
+
+    private static final class OkHttpTransportResponse implements TransportResponse {
+        private final Response response;
+
+        private OkHttpTransportResponse(Response response) {
+            this.response = response;
+        }
+
+        @Override
+        public int code() {
+            return response.code();
+        }
+
+        @Nullable
+        @Override
+        public String header(String name) {
+            return response.header(name);
+        }
+
+        @Override
+        public InputStream body() {
+            ResponseBody body = response.body();
+            return body == null ? InputStream.nullInputStream() : body.byteStream();
+        }
+
+        @Override
+        public void close() {
+            response.close();
+        }
+
+        @Override
+        public String toString() {
+            return response.toString();
+        }
+    }
+}
@@ -0,0 +1,51 @@
+/*
+ *    Copyright 2020-2023  Peter Paul Bakker @ perfana.io, Daniel Moll @ perfana.io
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.perfana.client.transport;
+
+import io.perfana.client.api.PerfanaConnectionSettings;
+
+/**
+ * Transport with OkHttp: streams request bodies and shares connection pools per Perfana.
+ */
+public final class OkHttpTransportProvider implements PerfanaTransportProvider {
+
+    public static final String NAME = "okhttp";
+
+    @Override
+    public String name() {
+        return NAME;
+    }
+
+    @Override
+    public int priority() {
+        return 100;
+    }
+
+    @Override
+    public boolean isAvailable() {
+        try {
+            Class.forName("okhttp3.OkHttpClient", false, OkHttpTransportProvider.class.getClassLoader());
+            return true;
+        } catch (ClassNotFoundException | LinkageError e) {
+            return false;
+        }
+    }
+
+    @Override
+    public PerfanaTransport create(PerfanaConnectionSettings settings) {
+        return new OkHttpTransport(PerfanaHttpClients.get(settings));
+    }
+}
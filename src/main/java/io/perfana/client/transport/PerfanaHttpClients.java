@@ -0,0 +1,105 @@
+/*
+ *    Copyright 2020-2023  Peter Paul Bakker @ perfana.io, Daniel Moll @ perfana.io
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.perfana.client.transport;
+
+import io.perfana.client.api.PerfanaConnectionSettings;
+import io.perfana.client.api.TimeoutProfile;
+import lombok.Value;
+import okhttp3.ConnectionPool;
+import okhttp3.HttpUrl;
+import okhttp3.OkHttpClient;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Registry of shared OkHttpClients: one per Perfana instance and transport settings.
+ *
+ * All PerfanaClients (and the test context initializer) that talk to the same Perfana
+ * with the same settings share one connection pool, so warm TCP/TLS connections are reused
+ * between the init call, keep-alive calls, events and config uploads.
+ */
+final class PerfanaHttpClients {
+
+    /**
+     * Root client: derived clients share its dispatcher (and threads), but each get their own pool.
+     */
+    private static final OkHttpClient ROOT_CLIENT = new OkHttpClient();
+
+    private static final Map<TransportKey, OkHttpClient> CLIENTS = new ConcurrentHashMap<>();
+
+    private PerfanaHttpClients() {}
+
+    static OkHttpClient get(PerfanaConnectionSettings settings) {
+        return CLIENTS.computeIfAbsent(TransportKey.of(settings), PerfanaHttpClients::createClient);
+    }
+
+    private static OkHttpClient createClient(TransportKey key) {
+        return ROOT_CLIENT.newBuilder()
+                .connectionPool(new ConnectionPool(key.getConnectionPoolMaxIdle(), key.getConnectionKeepAlive().toMillis(), TimeUnit.MILLISECONDS))
+                .connectTimeout(key.getConnectTimeout())
+                .readTimeout(key.getReadTimeout())
+                .writeTimeout(key.getWriteTimeout())
+                .build();
+    }
+
+    /**
+     * @return client with the timeouts of the profile, sharing the connection pool and dispatcher of client
+     */
+    static OkHttpClient withTimeouts(OkHttpClient client, TimeoutProfile timeoutProfile) {
+        return client.newBuilder()
+                .connectTimeout(timeoutProfile.getConnectTimeout())
+                .readTimeout(timeoutProfile.getReadTimeout())
+                .writeTimeout(timeoutProfile.getWriteTimeout())
+                .build();
+    }
+
+    static int size() {
+        return CLIENTS.size();
+    }
+
+    @Value
+    static class TransportKey {
+        String origin;
+        int connectionPoolMaxIdle;
+        Duration connectionKeepAlive;
+        Duration connectTimeout;
+        Duration readTimeout;
+        Duration writeTimeout;
+
+        static TransportKey of(PerfanaConnectionSettings settings) {
+            return new TransportKey(origin(settings.getPerfanaUrl()),
+                    settings.getConnectionPoolMaxIdle(),
+                    settings.getConnectionKeepAlive(),
+                    settings.getConnectTimeout(),
+                    settings.getReadTimeout(),
+                    settings.getWriteTimeout());
+        }
+
+        /**
+         * Connections can be reused for any path on the same scheme, host and port.
+         */
+        private static String origin(String perfanaUrl) {
+            HttpUrl url = perfanaUrl == null ? null : HttpUrl.parse(perfanaUrl);
+            if (url == null) {
+                return String.valueOf(perfanaUrl);
+            }
+            return url.scheme() + "://" + url.host() + ":" + url.port();
+        }
+    }
+}
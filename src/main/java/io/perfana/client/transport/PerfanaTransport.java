@@ -0,0 +1,34 @@
+/*
+ *    Copyright 2020-2023  Peter Paul Bakker @ perfana.io, Daniel Moll @ perfana.io
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.perfana.client.transport;
+
+import io.perfana.client.api.TimeoutProfile;
+
+/**
+ * Sends requests to Perfana. Thread safe.
+ *
+ * Implementations are created by a {@link PerfanaTransportProvider} and can share connections
+ * with other transports for the same Perfana.
+ */
+public interface PerfanaTransport {
+
+    /**
+     * @param timeouts the connect, read and write timeouts of the call; the call timeout is set with {@link TransportCall#timeout}
+     */
+    TransportCall newCall(TransportRequest request, TimeoutProfile timeouts);
+
+    String name();
+}
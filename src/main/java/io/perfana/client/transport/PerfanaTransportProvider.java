@@ -0,0 +1,44 @@
+/*
+ *    Copyright 2020-2023  Peter Paul Bakker @ perfana.io, Daniel Moll @ perfana.io
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.perfana.client.transport;
+
+import io.perfana.client.api.PerfanaConnectionSettings;
+
+/**
+ * Service provider interface for transports, found with the {@link java.util.ServiceLoader}.
+ *
+ * Register an implementation in META-INF/services/io.perfana.client.transport.PerfanaTransportProvider.
+ * A provider should only refer to its http library from create, so it can be loaded when the library is missing.
+ */
+public interface PerfanaTransportProvider {
+
+    /**
+     * @return name to select this transport, e.g. okhttp
+     */
+    String name();
+
+    /**
+     * @return when no transport is selected, the available transport with the highest priority is used
+     */
+    int priority();
+
+    /**
+     * @return true when the http library of the transport is on the classpath
+     */
+    boolean isAvailable();
+
+    PerfanaTransport create(PerfanaConnectionSettings settings);
+}
@@ -0,0 +1,91 @@
+/*
+ *    Copyright 2020-2023  Peter Paul Bakker @ perfana.io, Daniel Moll @ perfana.io
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.perfana.client.transport;
+
+import io.perfana.client.api.PerfanaConnectionSettings;
+import io.perfana.client.exception.PerfanaClientRuntimeException;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
+import java.util.stream.Collectors;
+
+/**
+ * Finds the transport providers on the classpath.
+ */
+public final class PerfanaTransports {
+
+    private PerfanaTransports() {}
+
+    private static final class Holder {
+        // the class loader of this library, plugin class loaders can differ from the context class loader
+        static final List<PerfanaTransportProvider> PROVIDERS = load();
+
+        private static List<PerfanaTransportProvider> load() {
+            List<PerfanaTransportProvider> providers = new ArrayList<>();
+            ServiceLoader<PerfanaTransportProvider> loader = ServiceLoader.load(PerfanaTransportProvider.class, PerfanaTransports.class.getClassLoader());
+            for (Iterator<PerfanaTransportProvider> iterator = loader.iterator(); ; ) {
+                try {
+                    if (!iterator.hasNext()) {
+                        break;
+                    }
+                    PerfanaTransportProvider provider = iterator.next();
+                    if (provider.isAvailable()) {
+                        providers.add(provider);
+                    }
+                } catch (ServiceConfigurationError | LinkageError e) {
+                    // provider that cannot be loaded, e.g. its http library is missing
+                }
+            }
+            providers.sort(Comparator.comparingInt(PerfanaTransportProvider::priority).reversed());
+            return List.copyOf(providers);
+        }
+    }
+
+    /**
+     * @return the available providers, highest priority first
+     */
+    public static List<PerfanaTransportProvider> providers() {
+        return Holder.PROVIDERS;
+    }
+
+    /**
+     * @param name name of the transport, null or empty for the available transport with the highest priority
+     * @throws PerfanaClientRuntimeException when the transport is not available
+     */
+    public static PerfanaTransport create(@Nullable String name, PerfanaConnectionSettings settings) {
+        return provider(name).create(settings);
+    }
+
+    static PerfanaTransportProvider provider(@Nullable String name) {
+        List<PerfanaTransportProvider> providers = providers();
+        if (name == null || name.isBlank()) {
+            if (providers.isEmpty()) {
+                throw new PerfanaClientRuntimeException("no Perfana transport available");
+            }
+            return providers.get(0);
+        }
+        return providers.stream()
+                .filter(provider -> provider.name().equalsIgnoreCase(name.trim()))
+                .findFirst()
+                .orElseThrow(() -> new PerfanaClientRuntimeException("Perfana transport not available: " + name
+                        + ", available: " + providers.stream().map(PerfanaTransportProvider::name).collect(Collectors.joining(", "))));
+    }
+}
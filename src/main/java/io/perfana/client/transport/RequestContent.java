@@ -0,0 +1,60 @@
+/*
+ *    Copyright 2020-2023  Peter Paul Bakker @ perfana.io, Daniel Moll @ perfana.io
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.perfana.client.transport;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Body of a request. Can be written more than once, e.g. for a retry or a fail over.
+ */
+public interface RequestContent {
+
+    String JSON = "application/json; charset=utf-8";
+
+    String contentType();
+
+    /**
+     * @return number of bytes, or -1 when unknown until written
+     */
+    default long contentLength() {
+        return -1;
+    }
+
+    /**
+     * Writes the body. Must not close out.
+     */
+    void writeTo(OutputStream out) throws IOException;
+
+    static RequestContent of(byte[] bytes, String contentType) {
+        return new RequestContent() {
+            @Override
+            public String contentType() {
+                return contentType;
+            }
+
+            @Override
+            public long contentLength() {
+                return bytes.length;
+            }
+
+            @Override
+            public void writeTo(OutputStream out) throws IOException {
+                out.write(bytes);
+            }
+        };
+    }
+}
@@ -0,0 +1,46 @@
+/*
+ *    Copyright 2020-2023  Peter Paul Bakker @ perfana.io, Daniel Moll @ perfana.io
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.perfana.client.transport;
+
+import java.io.IOException;
+import java.time.Duration;
+
+/**
+ * One attempt of a request. Executed or enqueued once.
+ */
+public interface TransportCall {
+
+    TransportRequest request();
+
+    /**
+     * Limits the complete call, on top of the connect, read and write timeouts. Call before execute or enqueue.
+     */
+    void timeout(Duration timeout);
+
+    /**
+     * Blocking call.
+     */
+    TransportResponse execute() throws IOException;
+
+    /**
+     * Non-blocking call, the callback gets the outcome.
+     */
+    void enqueue(TransportCallback callback);
+
+    void cancel();
+
+    boolean isCanceled();
+}
@@ -0,0 +1,158 @@
+/*
+ *    Copyright 2020-2023  Peter Paul Bakker @ perfana.io, Daniel Moll @ perfana.io
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.perfana.client.transport;
+
+import net.jcip.annotations.Immutable;
+import org.jetbrains.annotations.Nullable;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A GET or POST request to Perfana, independent of the http library.
+ *
+ * Headers have a single value. Tags are not sent, they carry client state with the request.
+ */
+@Immutable
+public final class TransportRequest {
+
+    private final String method;
+    private final String url;
+    private final List<String[]> headers;
+    @Nullable
+    private final RequestContent content;
+    private final Map<Class<?>, Object> tags;
+
+    private TransportRequest(Builder builder) {
+        this.method = builder.content == null ? "GET" : "POST";
+        this.url = builder.url;
+        this.headers = Collections.unmodifiableList(new ArrayList<>(builder.headers));
+        this.content = builder.content;
+        this.tags = Collections.unmodifiableMap(new HashMap<>(builder.tags));
+    }
+
+    public static Builder builder(String url) {
+        return new Builder(url);
+    }
+
+    public String method() {
+        return method;
+    }
+
+    public String url() {
+        return url;
+    }
+
+    /**
+     * @return the encoded path of the url, e.g. for logging
+     */
+    public String path() {
+        String path = URI.create(url).getRawPath();
+        return path == null || path.isEmpty() ? "/" : path;
+    }
+
+    @Nullable
+    public String header(String name) {
+        for (String[] header : headers) {
+            if (header[0].equalsIgnoreCase(name)) {
+                return header[1];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return name and value pairs
+     */
+    public List<String[]> headers() {
+        return headers;
+    }
+
+    /**
+     * @return the body, null for a GET
+     */
+    @Nullable
+    public RequestContent content() {
+        return content;
+    }
+
+    @Nullable
+    public <T> T tag(Class<T> type) {
+        return type.cast(tags.get(type));
+    }
+
+    public Builder newBuilder() {
+        Builder builder = new Builder(url);
+        builder.headers.addAll(headers);
+        builder.content = content;
+        builder.tags.putAll(tags);
+        return builder;
+    }
+
+    @Override
+    public String toString() {
+        return "TransportRequest{method=" + method + ", url=" + url + "}";
+    }
+
+    public static final class Builder {
+        private String url;
+        private final List<String[]> headers = new ArrayList<>();
+        @Nullable
+        private RequestContent content;
+        private final Map<Class<?>, Object> tags = new HashMap<>();
+
+        private Builder(String url) {
+            this.url = url;
+        }
+
+        public Builder url(String url) {
+            this.url = url;
+            return this;
+        }
+
+        /**
+         * Sets the header, replacing a header with the same name.
+         */
+        public Builder header(String name, String value) {
+            headers.removeIf(header -> header[0].equalsIgnoreCase(name));
+            headers.add(new String[] { name, value });
+            return this;
+        }
+
+        public Builder get() {
+            this.content = null;
+            return this;
+        }
+
+        public Builder post(RequestContent content) {
+            this.content = content;
+            return this;
+        }
+
+        public <T> Builder tag(Class<T> type, T tag) {
+            tags.put(type, tag);
+            return this;
+        }
+
+        public TransportRequest build() {
+            return new TransportRequest(this);
+        }
+    }
+}
@@ -0,0 +1,44 @@
+/*
+ *    Copyright 2020-2023  Peter Paul Bakker @ perfana.io, Daniel Moll @ perfana.io
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.perfana.client.transport;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.io.Closeable;
+import java.io.InputStream;
+
+/**
+ * Reply from Perfana. Close it to release the connection.
+ */
+public interface TransportResponse extends Closeable {
+
+    int code();
+
+    @Nullable
+    String header(String name);
+
+    /**
+     * @return the body, an empty stream when there is no body
+     */
+    InputStream body();
+
+    default boolean isSuccessful() {
+        return code() >= 200 && code() < 300;
+    }
+
+    @Override
+    void close();
+}
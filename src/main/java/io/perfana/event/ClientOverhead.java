@@ -0,0 +1,164 @@
+/*
+ *    Copyright 2020-2023  Peter Paul Bakker @ perfana.io, Daniel Moll @ perfana.io
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.perfana.event;
+
+import io.perfana.client.api.PerfanaClientMetrics;
+import io.perfana.client.domain.ConfigItem;
+import net.jcip.annotations.ThreadSafe;
+import org.jetbrains.annotations.Nullable;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Cost of the Perfana event during a test run, to show it does not distort the load generator.
+ *
+ * CPU time and allocated bytes are measured for the threads that run event code: the scheduler
+ * threads that call the event, the plugin threads that send messages and the message workers.
+ * Time spent in http calls and the bytes on the wire are reported by the client as metrics,
+ * for all calls, also the ones that run on http transport threads.
+ * The cpu time and allocations of async calls on http transport threads are not measured:
+ * for these calls only starting the call is included.
+ *
+ * Nested measurements in the same thread are counted once, by the outer measurement.
+ */
+@ThreadSafe
+class ClientOverhead implements PerfanaClientMetrics {
+
+    private static final ThreadMXBean THREAD_MX_BEAN = ManagementFactory.getThreadMXBean();
+
+    private final boolean cpuTimeEnabled;
+    private final boolean allocatedBytesEnabled;
+
+    private final ThreadLocal<Measurement> current = new ThreadLocal<>();
+
+    private final LongAdder measurements = new LongAdder();
+    private final LongAdder cpuTimeNanos = new LongAdder();
+    private final LongAdder allocatedBytes = new LongAdder();
+    private final LongAdder httpCalls = new LongAdder();
+    private final LongAdder httpTimeNanos = new LongAdder();
+    private final LongAdder bytesSent = new LongAdder();
+    private final LongAdder bytesReceived = new LongAdder();
+
+    ClientOverhead() {
+        this.cpuTimeEnabled = THREAD_MX_BEAN.isCurrentThreadCpuTimeSupported() && THREAD_MX_BEAN.isThreadCpuTimeEnabled();
+        this.allocatedBytesEnabled = THREAD_MX_BEAN instanceof com.sun.management.ThreadMXBean
+                && ((com.sun.management.ThreadMXBean) THREAD_MX_BEAN).isThreadAllocatedMemorySupported()
+                && ((com.sun.management.ThreadMXBean) THREAD_MX_BEAN).isThreadAllocatedMemoryEnabled();
+    }
+
+    /**
+     * Start measuring the calling thread, stop with {@link #stop(Measurement)} in a finally block.
+     *
+     * @return null when a measurement of this thread is already running
+     */
+    @Nullable
+    Measurement start() {
+        if (current.get() != null) {
+            return null;
+        }
+        Measurement measurement = new Measurement(cpuTimeEnabled ? THREAD_MX_BEAN.getCurrentThreadCpuTime() : 0, allocatedBytes());
+        current.set(measurement);
+        return measurement;
+    }
+
+    void stop(@Nullable Measurement measurement) {
+        if (measurement == null) {
+            return;
+        }
+        current.remove();
+        measurements.increment();
+        if (cpuTimeEnabled) {
+            cpuTimeNanos.add(THREAD_MX_BEAN.getCurrentThreadCpuTime() - measurement.cpuTimeNanos);
+        }
+        if (allocatedBytesEnabled) {
+            allocatedBytes.add(allocatedBytes() - measurement.allocatedBytes);
+        }
+    }
+
+    void measure(Runnable runnable) {
+        Measurement measurement = start();
+        try {
+            runnable.run();
+        } finally {
+            stop(measurement);
+        }
+    }
+
+    private long allocatedBytes() {
+        return allocatedBytesEnabled
+                ? ((com.sun.management.ThreadMXBean) THREAD_MX_BEAN).getThreadAllocatedBytes(Thread.currentThread().getId())
+                : 0;
+    }
+
+    @Override
+    public void onReply(String endpoint, int statusCode, long durationNanos, long requestBytes, long responseBytes) {
+        httpCalls.increment();
+        httpTimeNanos.add(durationNanos);
+        bytesSent.add(requestBytes);
+        bytesReceived.add(responseBytes);
+    }
+
+    @Override
+    public void onFailure(String endpoint, long durationNanos, long requestBytes) {
+        httpCalls.increment();
+        httpTimeNanos.add(durationNanos);
+        bytesSent.add(requestBytes);
+    }
+
+    /**
+     * @param prefix e.g. event.perfana. for keys like event.perfana.overhead.cpuTimeMillis
+     * @return the overhead so far, without the measurements that are not available in this jvm
+     */
+    List<ConfigItem> configItems(String prefix) {
+        List<ConfigItem> items = new ArrayList<>();
+        String overhead = prefix + "overhead.";
+        items.add(new ConfigItem(overhead + "measuredCalls", String.valueOf(measurements.sum())));
+        if (cpuTimeEnabled) {
+            items.add(new ConfigItem(overhead + "cpuTimeMillis", String.valueOf(TimeUnit.NANOSECONDS.toMillis(cpuTimeNanos.sum()))));
+        }
+        if (allocatedBytesEnabled) {
+            items.add(new ConfigItem(overhead + "allocatedBytes", String.valueOf(allocatedBytes.sum())));
+        }
+        items.add(new ConfigItem(overhead + "httpCalls", String.valueOf(httpCalls.sum())));
+        items.add(new ConfigItem(overhead + "httpTimeMillis", String.valueOf(TimeUnit.NANOSECONDS.toMillis(httpTimeNanos.sum()))));
+        items.add(new ConfigItem(overhead + "bytesSent", String.valueOf(bytesSent.sum())));
+        items.add(new ConfigItem(overhead + "bytesReceived", String.valueOf(bytesReceived.sum())));
+        return items;
+    }
+
+    @Override
+    public String toString() {
+        return "overhead: " + measurements.sum() + " measured calls, cpu " + TimeUnit.NANOSECONDS.toMillis(cpuTimeNanos.sum()) + " ms, "
+                + allocatedBytes.sum() + " bytes allocated, " + httpCalls.sum() + " http calls in "
+                + TimeUnit.NANOSECONDS.toMillis(httpTimeNanos.sum()) + " ms, "
+                + bytesSent.sum() + " bytes sent, " + bytesReceived.sum() + " bytes received";
+    }
+
+    static final class Measurement {
+        private final long cpuTimeNanos;
+        private final long allocatedBytes;
+
+        private Measurement(long cpuTimeNanos, long allocatedBytes) {
+            this.cpuTimeNanos = cpuTimeNanos;
+            this.allocatedBytes = allocatedBytes;
+        }
+    }
+}
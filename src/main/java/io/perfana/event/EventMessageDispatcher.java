@@ -0,0 +1,266 @@
+/*
+ *    Copyright 2020-2023  Peter Paul Bakker @ perfana.io, Daniel Moll @ perfana.io
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.perfana.event;
+
+import io.perfana.eventscheduler.api.EventLogger;
+import io.perfana.eventscheduler.api.message.EventMessage;
+import net.jcip.annotations.ThreadSafe;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Hands received messages to a small pool of worker threads via a bounded queue,
+ * so plugins that send messages do not wait for the Perfana calls that follow.
+ *
+ * With more than one worker, messages can be handled in a different order than received.
+ * Use {@link #awaitDrained(Duration)} as a barrier to make sure all received messages are handled.
+ *
+ * With MERGE backpressure, the handler gets the merged messages in one call, so these can be uploaded together.
+ */
+@ThreadSafe
+class EventMessageDispatcher {
+
+    /**
+     * Maximum number of messages merged into one queued entry, so a merged upload stays small.
+     */
+    static final int MAX_MERGED_MESSAGES = 100;
+
+    private final int capacity;
+    private final MessageBackpressure backpressure;
+    private final Consumer<List<EventMessage>> handler;
+    private final Function<EventMessage, String> mergeKey;
+    private final EventLogger logger;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+    // signalled when a queued entry is handled
+    private final Condition handled = lock.newCondition();
+
+    // guarded by lock
+    private final Deque<QueuedMessages> queue = new ArrayDeque<>();
+    private int inProgress = 0;
+    private int inProgressMessages = 0;
+    private long handledCount = 0;
+    private boolean closed = false;
+
+    /**
+     * @param handler gets one message, or the merged messages with MERGE backpressure
+     * @param mergeKey messages with the same merge key can be merged with MERGE backpressure, null key means never merge
+     */
+    EventMessageDispatcher(String eventName, int capacity, int workerCount, MessageBackpressure backpressure,
+                           Consumer<List<EventMessage>> handler, Function<EventMessage, String> mergeKey, EventLogger logger) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity should be at least 1: " + capacity);
+        }
+        if (workerCount < 1) {
+            throw new IllegalArgumentException("workerCount should be at least 1: " + workerCount);
+        }
+        this.capacity = capacity;
+        this.backpressure = backpressure;
+        this.handler = handler;
+        this.mergeKey = mergeKey;
+        this.logger = logger;
+        for (int i = 0; i < workerCount; i++) {
+            Thread worker = new Thread(this::work, "perfana-messages-" + eventName + "-" + i);
+            worker.setDaemon(true);
+            worker.start();
+        }
+    }
+
+    /**
+     * Queue the message for a worker. After close, the message is handled in the calling thread.
+     */
+    void dispatch(EventMessage message) {
+        boolean queued = false;
+        lock.lock();
+        try {
+            queued = !closed && enqueue(message);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            logger.warn("interrupted while waiting for room in message queue, message is handled directly");
+        } finally {
+            lock.unlock();
+        }
+        if (!queued) {
+            handle(new QueuedMessages(null, message));
+        }
+    }
+
+    /**
+     * @return false when the message was not queued because the dispatcher was closed while waiting
+     */
+    private boolean enqueue(EventMessage message) throws InterruptedException {
+        String key = backpressure == MessageBackpressure.MERGE ? mergeKey.apply(message) : null;
+        if (key != null && queue.size() >= capacity) {
+            for (QueuedMessages queued : queue) {
+                if (key.equals(queued.mergeKey) && queued.messages.size() < MAX_MERGED_MESSAGES) {
+                    queued.messages.add(message);
+                    return true;
+                }
+            }
+        }
+        if (queue.size() >= capacity && backpressure == MessageBackpressure.DROP_OLDEST) {
+            QueuedMessages dropped = queue.removeFirst();
+            logger.warn("message queue full (" + capacity + "), dropped oldest message(s) from " + dropped.pluginNames());
+        }
+        while (queue.size() >= capacity && !closed) {
+            notFull.await();
+        }
+        if (closed) {
+            return false;
+        }
+        queue.addLast(new QueuedMessages(key, message));
+        notEmpty.signal();
+        return true;
+    }
+
+    /**
+     * Wait until all queued messages are handled, as long as the workers make progress:
+     * the timeout starts again each time a queued entry is handled, so the wait scales with the queue size,
+     * while a stuck handler does not hold up the caller for longer than the timeout.
+     *
+     * @param timeout maximum wait for the next queued entry to be handled
+     * @return false when there are still messages queued or in progress, see {@link #pendingCount()}
+     */
+    boolean awaitDrained(Duration timeout) {
+        lock.lock();
+        try {
+            long nanos = timeout.toNanos();
+            while (!queue.isEmpty() || inProgress > 0) {
+                if (nanos <= 0) {
+                    return false;
+                }
+                long handledBefore = handledCount;
+                nanos = handled.awaitNanos(nanos);
+                if (handledCount != handledBefore) {
+                    nanos = timeout.toNanos();
+                }
+            }
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            logger.warn("interrupted while waiting for queued messages to be handled");
+            return false;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return number of messages queued or in progress
+     */
+    int pendingCount() {
+        lock.lock();
+        try {
+            int count = 0;
+            for (QueuedMessages queued : queue) {
+                count += queued.messages.size();
+            }
+            return count + inProgressMessages;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Waits for the queued messages like {@link #awaitDrained(Duration)} and stops the workers when the queue is empty.
+     * Messages dispatched after close are handled directly.
+     */
+    void close(Duration timeout) {
+        if (!awaitDrained(timeout)) {
+            logger.warn("still " + pendingCount() + " queued messages to be handled after waiting " + timeout.toMillis()
+                    + " ms for progress, these are handled in the background");
+        }
+        lock.lock();
+        try {
+            closed = true;
+            notEmpty.signalAll();
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void work() {
+        while (true) {
+            QueuedMessages next;
+            lock.lock();
+            try {
+                while (queue.isEmpty() && !closed) {
+                    notEmpty.await();
+                }
+                if (queue.isEmpty()) {
+                    return;
+                }
+                next = queue.removeFirst();
+                inProgress++;
+                inProgressMessages += next.messages.size();
+                notFull.signal();
+            } catch (InterruptedException e) {
+                return;
+            } finally {
+                lock.unlock();
+            }
+
+            try {
+                handle(next);
+            } finally {
+                lock.lock();
+                try {
+                    inProgress--;
+                    inProgressMessages -= next.messages.size();
+                    handledCount++;
+                    handled.signalAll();
+                } finally {
+                    lock.unlock();
+                }
+            }
+        }
+    }
+
+    private void handle(QueuedMessages queued) {
+        try {
+            handler.accept(queued.messages);
+        } catch (Exception e) {
+            logger.error("failed to handle message(s) from " + queued.pluginNames(), e);
+        }
+    }
+
+    private static class QueuedMessages {
+        private final String mergeKey;
+        private final List<EventMessage> messages = new ArrayList<>(1);
+
+        private QueuedMessages(String mergeKey, EventMessage message) {
+            this.mergeKey = mergeKey;
+            this.messages.add(message);
+        }
+
+        private List<String> pluginNames() {
+            List<String> names = new ArrayList<>(messages.size());
+            messages.forEach(m -> names.add(m.getPluginName()));
+            return names;
+        }
+    }
+}
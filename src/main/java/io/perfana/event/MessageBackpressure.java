@@ -0,0 +1,35 @@
+/*
+ *    Copyright 2020-2023  Peter Paul Bakker @ perfana.io, Daniel Moll @ perfana.io
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.perfana.event;
+
+/**
+ * What to do when a message arrives and the message queue is full.
+ */
+public enum MessageBackpressure {
+    /**
+     * The sender waits until there is room in the queue.
+     */
+    BLOCK,
+    /**
+     * The oldest queued message is dropped (and logged) to make room.
+     */
+    DROP_OLDEST,
+    /**
+     * Test-run-config key(s) messages are merged into a queued message with the same tags, and uploaded together.
+     * When there is nothing to merge with, or the queued message is full, the sender waits like BLOCK.
+     */
+    MERGE
+}
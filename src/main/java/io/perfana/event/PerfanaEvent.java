@@ -17,11 +17,10 @@ package io.perfana.event;
 
 import io.perfana.client.PerfanaClient;
 import io.perfana.client.PerfanaUtils;
+import io.perfana.client.api.PerfanaClientMetrics;
+import io.perfana.client.api.PerfanaEndpointGroup;
 import io.perfana.client.api.PerfanaTestContext;
 import io.perfana.client.domain.ConfigItem;
-import io.perfana.client.domain.TestRunConfigJson;
-import io.perfana.client.domain.TestRunConfigKeyValue;
-import io.perfana.client.domain.TestRunConfigKeys;
 import io.perfana.client.exception.PerfanaAssertResultsException;
 import io.perfana.client.exception.PerfanaAssertionsAreFalse;
 import io.perfana.client.exception.PerfanaClientException;
@@ -33,11 +32,19 @@ import io.perfana.eventscheduler.api.message.EventMessageReceiver;
 import io.perfana.eventscheduler.exception.handler.KillSwitchException;
 import io.perfana.eventscheduler.util.TestRunConfigUtil;
 
-import java.util.Arrays;
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
 
 public class PerfanaEvent extends EventAdapter<PerfanaEventContext> {
 
@@ -53,7 +60,23 @@ public class PerfanaEvent extends EventAdapter<PerfanaEventContext> {
 
     private final PerfanaClient perfanaClient;
 
-    private String abortDetailMessage = null;
+    // null when test-run-config messages are handled in the thread of the sender
+    private final EventMessageDispatcher testRunConfigDispatcher;
+
+    // null when test-run-config keys are uploaded per message
+    private final TestRunConfigBatcher testRunConfigBatcher;
+
+    // null when the overhead report is disabled
+    private final ClientOverhead overhead;
+
+    // keep alive calls and custom events are async, the scheduler thread does not wait for Perfana
+    private final Set<CompletableFuture<Void>> pendingCalls = ConcurrentHashMap.newKeySet();
+    private volatile CompletableFuture<Void> keepAliveCall = CompletableFuture.completedFuture(null);
+    // failure of a keep alive call, e.g. an abort requested by Perfana, thrown by the next keep alive
+    private final AtomicReference<RuntimeException> keepAliveFailure = new AtomicReference<>();
+
+    // set by the keep alive reply on a transport thread
+    private volatile String abortDetailMessage = null;
     // save some state to do the status check
     private EventCheck eventCheck;
 
@@ -64,85 +87,101 @@ public class PerfanaEvent extends EventAdapter<PerfanaEventContext> {
         this.perfanaTestContext = PerfanaUtils.createPerfanaTestContext(context, testContext);
         this.messageBus = messageBus;
 
-        this.perfanaClient = PerfanaUtils.createPerfanaClient(context, perfanaTestContext, logger);
+        this.overhead = context.isOverheadReportEnabled() ? new ClientOverhead() : null;
+        this.perfanaClient = PerfanaUtils.createPerfanaClient(context, perfanaTestContext, logger,
+                overhead == null ? PerfanaClientMetrics.NONE : overhead);
+
+        int flushWindowMillis = context.getTestRunConfigFlushWindowMillis();
+        this.testRunConfigBatcher = flushWindowMillis > 0
+                ? new TestRunConfigBatcher(eventName, perfanaTestContext, Duration.ofMillis(flushWindowMillis),
+                        keys -> measured(() -> perfanaClient.addTestRunConfigKeys(keys)), logger)
+                : null;
+
+        this.testRunConfigDispatcher = context.getMessageWorkers() > 0
+                ? new EventMessageDispatcher(eventName, context.getMessageQueueCapacity(), context.getMessageWorkers(),
+                        context.getMessageBackpressure(),
+                        messages -> measured(() -> addTestRunConfig(messages)), PerfanaEvent::testRunConfigMergeKey, logger)
+                : null;
 
-        EventMessageReceiver eventMessageReceiver = message -> {
+        EventMessageReceiver eventMessageReceiver = message -> measured(() -> {
             // a test-run-config message
             if (message.getVariables().getOrDefault("message-type", "").equals("test-run-config")) {
                 logger.debug("received test-run-config message from " + message.getPluginName());
-                addTestRunConfig(message);
+                if (testRunConfigDispatcher != null) {
+                    testRunConfigDispatcher.dispatch(message);
+                } else {
+                    addTestRunConfig(message);
+                }
             }
             else if (!message.getVariables().isEmpty()) {
+                // variables are cheap to handle and should be known for the next keep alive call
                 logger.debug("received variables from " + message.getPluginName() + ": " + message.getVariables());
                 receivedVariables.putAll(message.getVariables());
             }
-        };
+        });
         this.messageBus.addReceiver(eventMessageReceiver);
     }
 
+    /**
+     * Messages merged by the dispatcher are key(s) messages with the same tags, these are uploaded together.
+     */
+    private void addTestRunConfig(List<EventMessage> messages) {
+        if (messages.size() == 1) {
+            addTestRunConfig(messages.get(0));
+            return;
+        }
+        List<ConfigItem> configItems = new ArrayList<>();
+        for (EventMessage message : messages) {
+            Map<String, String> variables = message.getVariables();
+            if ("key".equals(variables.get("output"))) {
+                configItems.add(TestRunConfigMessages.configItem(variables, message.getMessage()));
+            } else {
+                try {
+                    configItems.addAll(TestRunConfigMessages.configItems(message.getMessage()));
+                } catch (IllegalArgumentException e) {
+                    logger.error("skip send of test config key value pairs: " + e.getMessage());
+                }
+            }
+        }
+        List<String> tags = TestRunConfigMessages.splitTags(messages.get(0).getVariables().getOrDefault("tags", ""));
+        if (testRunConfigBatcher != null) {
+            testRunConfigBatcher.add(tags, configItems);
+        } else if (!configItems.isEmpty()) {
+            perfanaClient.addTestRunConfigKeys(TestRunConfigMessages.keys(perfanaTestContext, tags, configItems));
+        }
+    }
+
     private void addTestRunConfig(EventMessage message) {
 
         Map<String, String> variables = message.getVariables();
 
         String output = variables.get("output");
-        String tags = variables.getOrDefault("tags", "");
 
         switch (output) {
             case "key":
-
-                TestRunConfigKeyValue.TestRunConfigKeyValueBuilder testRunConfig = TestRunConfigKeyValue.builder()
-                        .testRunId(perfanaTestContext.getTestRunId())
-                        .application(perfanaTestContext.getSystemUnderTest())
-                        .testEnvironment(perfanaTestContext.getTestEnvironment())
-                        .testType(perfanaTestContext.getWorkload())
-                        .key(variables.get("key"))
-                        .value(replaceNullWithEmptyString(message.getMessage()));
-
-                Arrays.stream(tags.split(",")).forEach(testRunConfig::tag);
-
-                perfanaClient.addTestRunConfigKeyValue(testRunConfig.build());
-
+                if (testRunConfigBatcher != null) {
+                    testRunConfigBatcher.add(TestRunConfigMessages.splitTags(variables.getOrDefault("tags", "")),
+                            List.of(TestRunConfigMessages.configItem(variables, message.getMessage())));
+                } else {
+                    perfanaClient.addTestRunConfigKeyValue(TestRunConfigMessages.keyValue(perfanaTestContext, variables, message.getMessage()));
+                }
                 break;
             case "json":
-
-                TestRunConfigJson.TestRunConfigJsonBuilder testRunConfigJson = TestRunConfigJson.builder()
-                        .testRunId(perfanaTestContext.getTestRunId())
-                        .application(perfanaTestContext.getSystemUnderTest())
-                        .testEnvironment(perfanaTestContext.getTestEnvironment())
-                        .testType(perfanaTestContext.getWorkload())
-                        .json(message.getMessage());
-
-                String excludes = variables.getOrDefault("excludes", "");
-                String includes = variables.getOrDefault("includes", "");
-
-                Arrays.stream(excludes.split(",")).forEach(testRunConfigJson::excludeItem);
-                Arrays.stream(includes.split(",")).forEach(testRunConfigJson::includeItem);
-
-                Arrays.stream(tags.split(",")).forEach(testRunConfigJson::tag);
-
-                perfanaClient.addTestRunConfigJson(testRunConfigJson.build());
+                perfanaClient.addTestRunConfigJson(TestRunConfigMessages.json(perfanaTestContext, variables, message.getMessage()));
                 break;
             case "keys":
-                TestRunConfigKeys.TestRunConfigKeysBuilder keysBuilder = TestRunConfigKeys.builder()
-                        .testRunId(perfanaTestContext.getTestRunId())
-                        .application(perfanaTestContext.getSystemUnderTest())
-                        .testEnvironment(perfanaTestContext.getTestEnvironment())
-                        .testType(perfanaTestContext.getWorkload());
-
-                Arrays.stream(tags.split(",")).forEach(keysBuilder::tag);
-
-                String keyValuePairsString = message.getMessage();
-
-                // -1 to keep empty strings in split
-                List<String> keyValuePairs = Arrays.asList(keyValuePairsString.split(TestRunConfigUtil.MESSAGE_KEY_VALUE_DELIMITER, -1));
-
-                if (keyValuePairs.size() % 2 != 0) {
-                    logger.error("skip send of test config key value pairs: received string with uneven number of key-value items: " + keyValuePairs.size());
+                List<ConfigItem> configItems;
+                try {
+                    configItems = TestRunConfigMessages.configItems(message.getMessage());
+                } catch (IllegalArgumentException e) {
+                    logger.error("skip send of test config key value pairs: " + e.getMessage());
+                    break;
+                }
+                List<String> tags = TestRunConfigMessages.splitTags(variables.getOrDefault("tags", ""));
+                if (testRunConfigBatcher != null) {
+                    testRunConfigBatcher.add(tags, configItems);
                 } else {
-                    for (int i = 0; i < keyValuePairs.size(); i = i + 2) {
-                        keysBuilder.configItem(new ConfigItem(keyValuePairs.get(i), keyValuePairs.get(i + 1)));
-                    }
-                    perfanaClient.addTestRunConfigKeys(keysBuilder.build());
+                    perfanaClient.addTestRunConfigKeys(TestRunConfigMessages.keys(perfanaTestContext, tags, configItems));
                 }
                 break;
             default:
@@ -151,13 +190,32 @@ public class PerfanaEvent extends EventAdapter<PerfanaEventContext> {
         }
     }
 
-    private String replaceNullWithEmptyString(String text) {
-        return text == null ? "" : text;
+    /**
+     * Key(s) messages with the same tags can be merged, these all end up in the same key-value upload.
+     */
+    private static String testRunConfigMergeKey(EventMessage message) {
+        Map<String, String> variables = message.getVariables();
+        String output = variables.get("output");
+        if ("key".equals(output) || "keys".equals(output)) {
+            return variables.getOrDefault("tags", "");
+        }
+        return null;
+    }
+
+    /**
+     * Runs the event code and adds its cpu time and allocations to the overhead, if enabled.
+     */
+    private void measured(Runnable eventCode) {
+        if (overhead == null) {
+            eventCode.run();
+        } else {
+            overhead.measure(eventCode);
+        }
     }
 
     @Override
     public void beforeTest() {
-        sendTestRunConfig();
+        measured(this::sendTestRunConfig);
     }
 
     private void sendTestRunConfig() {
@@ -167,7 +225,7 @@ public class PerfanaEvent extends EventAdapter<PerfanaEventContext> {
     }
 
     private Map<String, String> createTestRunConfigKeyValues() {
-        String prefix = "event." + eventContext.getName() + ".";
+        String prefix = testRunConfigPrefix();
         Map<String, String> lines = new HashMap<>();
         lines.put(prefix + "perfanaUrl", eventContext.getPerfanaUrl());
         lines.put(prefix + "isAssertResultsEnabled", String.valueOf(eventContext.isAssertResultsEnabled()));
@@ -176,21 +234,111 @@ public class PerfanaEvent extends EventAdapter<PerfanaEventContext> {
         return lines;
     }
 
+    private String testRunConfigPrefix() {
+        return "event." + eventContext.getName() + ".";
+    }
+
+    /**
+     * Uploads the overhead of this event so far, so it can be compared between test runs.
+     * The calls to complete the test run and to get the check results are not included.
+     */
+    private void sendOverhead() {
+        if (overhead == null) {
+            return;
+        }
+        logger.info("Perfana event " + overhead);
+        perfanaClient.addTestRunConfigKeys(TestRunConfigMessages.keys(perfanaTestContext, List.of(eventName),
+                overhead.configItems(testRunConfigPrefix())));
+    }
+
+    /**
+     * Handles the queued test-run-config messages and uploads the keys that are still waiting for the flush window.
+     */
+    private void flushTestRunConfig() {
+        if (testRunConfigDispatcher != null && !testRunConfigDispatcher.awaitDrained(testRunConfigDrainTimeout())) {
+            logger.error("test run config of " + testRunConfigDispatcher.pendingCount() + " received messages is not uploaded before the test start: "
+                    + "no message was handled within " + testRunConfigDrainTimeout().toMillis() + " ms, the messages are uploaded in the background");
+        }
+        if (testRunConfigBatcher != null) {
+            testRunConfigBatcher.flush();
+        }
+    }
+
+    /**
+     * Each queued entry gets the time of a config upload to be handled, so the wait grows with the queue,
+     * and a stuck call does not hold up the test run.
+     */
+    private Duration testRunConfigDrainTimeout() {
+        return Duration.ofSeconds(eventContext.getConfigUploadTimeoutSeconds());
+    }
+
+    private void closeTestRunConfig() {
+        if (testRunConfigDispatcher != null) {
+            testRunConfigDispatcher.close(testRunConfigDrainTimeout());
+        }
+        if (testRunConfigBatcher != null) {
+            testRunConfigBatcher.close();
+        }
+    }
+
+    /**
+     * The final calls of the test run are done after the pending async calls. The wait is the longest
+     * call timeout of the keep alive calls and events, so a call is not cut short.
+     * A failure of the last keep alive, such as an abort requested by Perfana, is logged here.
+     */
+    private void awaitPendingCalls() {
+        CompletableFuture<?>[] calls = pendingCalls.toArray(new CompletableFuture<?>[0]);
+        Duration timeout = pendingCallsTimeout();
+        try {
+            CompletableFuture.allOf(calls).get(timeout.toMillis(), TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            // failures are logged by the calls themselves
+        } catch (TimeoutException e) {
+            logger.warn(pendingCalls.size() + " calls to Perfana still running after " + timeout.getSeconds() + " seconds");
+        }
+        RuntimeException failure = keepAliveFailure.getAndSet(null);
+        if (failure != null) {
+            logger.warn("last keep alive call to Perfana failed: " + failure.getMessage());
+        }
+    }
+
+    private Duration pendingCallsTimeout() {
+        Duration keepAliveTimeout = perfanaClient.getCallTimeout(PerfanaEndpointGroup.KEEP_ALIVE);
+        Duration eventsTimeout = perfanaClient.getCallTimeout(PerfanaEndpointGroup.EVENTS);
+        return keepAliveTimeout.compareTo(eventsTimeout) > 0 ? keepAliveTimeout : eventsTimeout;
+    }
+
+    private CompletableFuture<Void> track(CompletableFuture<Void> call) {
+        pendingCalls.add(call);
+        call.whenComplete((result, throwable) -> pendingCalls.remove(call));
+        return call;
+    }
+
     @Override
     public void startTest() {
-        perfanaClient.callPerfanaEvent(perfanaTestContext, "Test start", "Test run started");
+        measured(() -> {
+            flushTestRunConfig();
+            perfanaClient.callPerfanaEvent(perfanaTestContext, "Test start", "Test run started");
+        });
     }
 
     @Override
     public void afterTest() {
+        measured(() -> {
+            closeTestRunConfig();
+            awaitPendingCalls();
 
-        if (abortDetailMessage != null) {
-            perfanaClient.callPerfanaEvent(perfanaTestContext, "Test abort", abortDetailMessage);
-        }
-        else {
-            perfanaClient.callPerfanaEvent(perfanaTestContext, "Test end", "Test run completed");
-        }
+            if (abortDetailMessage != null) {
+                perfanaClient.callPerfanaEvent(perfanaTestContext, "Test abort", abortDetailMessage);
+            }
+            else {
+                perfanaClient.callPerfanaEvent(perfanaTestContext, "Test end", "Test run completed");
+            }
+        });
 
+        sendOverhead();
         finalizePerfanaTestRun();
     }
 
@@ -198,6 +346,8 @@ public class PerfanaEvent extends EventAdapter<PerfanaEventContext> {
      * Calls out to Perfana with completed = true. Also checks the assertions of the test run.
      */
     private void finalizePerfanaTestRun() {
+        // stored events and test-run-config should be in Perfana before the test run is completed
+        perfanaClient.drainOutbox();
         perfanaClient.callPerfanaTestEndpoint(perfanaTestContext, true, receivedVariables);
 
         // assume all is ok, will be overridden in case of assertResult exceptions
@@ -213,14 +363,21 @@ public class PerfanaEvent extends EventAdapter<PerfanaEventContext> {
             eventCheck = new EventCheck(eventName, CLASSNAME, EventStatus.FAILURE, "Failed to get check results: " + e.getMessage());
         } catch (PerfanaAssertionsAreFalse perfanaAssertionsAreFalse) {
             eventCheck = new EventCheck(eventName, CLASSNAME, EventStatus.FAILURE, perfanaAssertionsAreFalse.getMessage());
+        } finally {
+            perfanaClient.close();
         }
     }
 
     @Override
     public void abortTest() {
-        String eventTitle = "Test aborted";
+        measured(() -> {
+            closeTestRunConfig();
+            awaitPendingCalls();
+        });
+        // the reply of the last keep alive can have set the abort detail message
         String eventDescription = abortDetailMessage == null ? "manually aborted" : abortDetailMessage;
-        perfanaClient.callPerfanaEvent(perfanaTestContext, eventTitle, eventDescription);
+        measured(() -> perfanaClient.callPerfanaEvent(perfanaTestContext, "Test aborted", eventDescription));
+        sendOverhead();
 
         this.eventCheck = new EventCheck(eventName, CLASSNAME, EventStatus.ABORTED, eventDescription);
 
@@ -233,24 +390,52 @@ public class PerfanaEvent extends EventAdapter<PerfanaEventContext> {
         return eventCheck;
     }
 
+    /**
+     * Sends the keep alive without waiting for the reply. An abort requested by Perfana in a reply
+     * sets the abort detail message right away, so the test end reports the abort, and is thrown
+     * by the next keep alive, as is another failure that should stop the test.
+     * When the previous keep alive call is still running, no new call is made.
+     * All failures of the call are logged when the call completes.
+     */
     @Override
     public void keepAlive() {
         logger.debug("Keep alive called");
-        try {
-            perfanaClient.callPerfanaTestEndpoint(perfanaTestContext, false, receivedVariables);
-        } catch (KillSwitchException killSwitchException) {
-            abortDetailMessage = killSwitchException.getMessage();
-            throw killSwitchException;
+        RuntimeException failure = keepAliveFailure.getAndSet(null);
+        if (failure != null) {
+            throw failure;
+        }
+        if (!keepAliveCall.isDone()) {
+            logger.warn("previous keep alive call to Perfana is still running, skipping this keep alive");
+            return;
         }
+        // only starting the call is measured, the request and reply are handled on http transport threads
+        measured(() -> keepAliveCall = track(perfanaClient.callPerfanaTestEndpointAsync(perfanaTestContext, false, Map.copyOf(receivedVariables))
+                .whenComplete((result, throwable) -> {
+                    if (throwable == null) {
+                        return;
+                    }
+                    Throwable cause = throwable instanceof CompletionException ? throwable.getCause() : throwable;
+                    if (cause instanceof KillSwitchException) {
+                        abortDetailMessage = cause.getMessage();
+                        logger.warn("Perfana requested abort of the test run: " + cause.getMessage());
+                    } else {
+                        logger.error("Perfana keep alive call failed", cause);
+                    }
+                    if (cause instanceof RuntimeException) {
+                        keepAliveFailure.set((RuntimeException) cause);
+                    }
+                })));
     }
 
     @Override
     public void customEvent(CustomEvent customEvent) {
-        try {
-            perfanaClient.callPerfanaEvent(perfanaTestContext, customEvent.getName(), customEvent.getDescription());
-        } catch (Exception e) {
-            logger.error("Perfana call event failed", e);
-        }
+        // only starting the call is measured, like for the keep alive
+        measured(() -> track(perfanaClient.callPerfanaEventAsync(perfanaTestContext, customEvent.getName(), customEvent.getDescription())
+                .whenComplete((result, throwable) -> {
+                    if (throwable != null) {
+                        logger.error("Perfana call event failed", throwable);
+                    }
+                })));
     }
 
 }
@@ -15,12 +15,19 @@
  */
 package io.perfana.event;
 
+import io.perfana.client.api.ClientMetricsType;
+import io.perfana.client.api.Compression;
+import io.perfana.client.api.OutboxMode;
 import io.perfana.client.api.PerfanaConnectionSettingsBuilder;
+import io.perfana.client.api.RetryStrategy;
+import io.perfana.client.exception.PerfanaClientRuntimeException;
 import io.perfana.eventscheduler.api.config.EventConfig;
 import io.perfana.eventscheduler.api.config.EventContext;
 import org.jetbrains.annotations.NotNull;
 
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.Locale;
 import java.util.Map;
 
 public class PerfanaEventConfig extends EventConfig {
@@ -34,8 +41,81 @@ public class PerfanaEventConfig extends EventConfig {
 
     private int retryDelaySeconds = PerfanaConnectionSettingsBuilder.DEFAULT_RETRY_TIME_SECONDS;
 
+    private String retryStrategy = RetryStrategy.FIXED.name();
+
+    private int retryMinDelaySeconds = PerfanaConnectionSettingsBuilder.DEFAULT_RETRY_MIN_DELAY_SECONDS;
+
+    private int retryMaxDelaySeconds = PerfanaConnectionSettingsBuilder.DEFAULT_RETRY_MAX_DELAY_SECONDS;
+
+    private int retryDeadlineSeconds = 0;
+
     private boolean overrideTestRunId = true;
 
+    private int connectionPoolMaxIdle = PerfanaConnectionSettingsBuilder.DEFAULT_CONNECTION_POOL_MAX_IDLE;
+
+    private int connectionKeepAliveSeconds = PerfanaConnectionSettingsBuilder.DEFAULT_CONNECTION_KEEP_ALIVE_SECONDS;
+
+    private int connectTimeoutSeconds = PerfanaConnectionSettingsBuilder.DEFAULT_CONNECT_TIMEOUT_SECONDS;
+
+    private int readTimeoutSeconds = PerfanaConnectionSettingsBuilder.DEFAULT_READ_TIMEOUT_SECONDS;
+
+    private int writeTimeoutSeconds = PerfanaConnectionSettingsBuilder.DEFAULT_WRITE_TIMEOUT_SECONDS;
+
+    private int circuitBreakerFailureRateThreshold = PerfanaConnectionSettingsBuilder.DEFAULT_CIRCUIT_BREAKER_FAILURE_RATE_THRESHOLD;
+
+    private int circuitBreakerMinimumCalls = PerfanaConnectionSettingsBuilder.DEFAULT_CIRCUIT_BREAKER_MINIMUM_CALLS;
+
+    private int circuitBreakerWindowSize = PerfanaConnectionSettingsBuilder.DEFAULT_CIRCUIT_BREAKER_WINDOW_SIZE;
+
+    private int circuitBreakerOpenSeconds = PerfanaConnectionSettingsBuilder.DEFAULT_CIRCUIT_BREAKER_OPEN_SECONDS;
+
+    private int testRunConfigFlushWindowMillis = 500;
+
+    private int messageQueueCapacity = 1000;
+
+    private int messageWorkers = 1;
+
+    private String messageBackpressure = MessageBackpressure.BLOCK.name();
+
+    private String outboxDirectory = null;
+
+    private String outboxMode = OutboxMode.FAILED.name();
+
+    private int outboxReplayIntervalSeconds = PerfanaConnectionSettingsBuilder.DEFAULT_OUTBOX_REPLAY_INTERVAL_SECONDS;
+
+    private int outboxDrainTimeoutSeconds = PerfanaConnectionSettingsBuilder.DEFAULT_OUTBOX_DRAIN_TIMEOUT_SECONDS;
+
+    private int healthCheckIntervalSeconds = PerfanaConnectionSettingsBuilder.DEFAULT_HEALTH_CHECK_INTERVAL_SECONDS;
+
+    private boolean stickyRouting = false;
+
+    private int hedgePercentile = 0;
+
+    private int hedgeInitialDelayMillis = PerfanaConnectionSettingsBuilder.DEFAULT_HEDGE_INITIAL_DELAY_MILLIS;
+
+    private int postRetryMaxAttempts = PerfanaConnectionSettingsBuilder.DEFAULT_POST_RETRY_MAX_ATTEMPTS;
+
+    private int keepAliveTimeoutSeconds = PerfanaConnectionSettingsBuilder.DEFAULT_KEEP_ALIVE_CALL_TIMEOUT_SECONDS;
+
+    private int configUploadTimeoutSeconds = PerfanaConnectionSettingsBuilder.DEFAULT_CONFIG_CALL_TIMEOUT_SECONDS;
+
+    private int assertResultsDeadlineSeconds = PerfanaConnectionSettingsBuilder.DEFAULT_ASSERT_RESULTS_DEADLINE_SECONDS;
+
+    private String compression = Compression.NONE.name();
+
+    private int compressionThresholdBytes = PerfanaConnectionSettingsBuilder.DEFAULT_COMPRESSION_THRESHOLD_BYTES;
+
+    private String transport = "";
+
+    private String clientMetrics = ClientMetricsType.NONE.name();
+
+    private boolean overheadReportEnabled = false;
+
+    private boolean tracingEnabled = false;
+
+    /**
+     * Url of Perfana, or the urls of several Perfana replicas separated by commas.
+     */
     public void setPerfanaUrl(String perfanaUrl) {
         this.perfanaUrl = perfanaUrl;
     }
@@ -60,11 +140,255 @@ public class PerfanaEventConfig extends EventConfig {
         this.retryDelaySeconds = retryDelaySeconds;
     }
 
+    /**
+     * One of FIXED, EXPONENTIAL or DECORRELATED_JITTER, see {@link RetryStrategy}. The first delay is retryDelaySeconds.
+     */
+    public void setRetryStrategy(String retryStrategy) {
+        this.retryStrategy = retryStrategy;
+    }
+
+    /**
+     * Minimum delay between retries when Perfana asks to retry sooner.
+     */
+    public void setRetryMinDelaySeconds(int retryMinDelaySeconds) {
+        this.retryMinDelaySeconds = retryMinDelaySeconds;
+    }
+
+    public void setRetryMaxDelaySeconds(int retryMaxDelaySeconds) {
+        this.retryMaxDelaySeconds = retryMaxDelaySeconds;
+    }
+
+    /**
+     * Maximum total time for retrying one call, 0 for no deadline.
+     */
+    public void setRetryDeadlineSeconds(int retryDeadlineSeconds) {
+        this.retryDeadlineSeconds = retryDeadlineSeconds;
+    }
+
+    public void setConnectionPoolMaxIdle(int connectionPoolMaxIdle) {
+        this.connectionPoolMaxIdle = connectionPoolMaxIdle;
+    }
+
+    public void setConnectionKeepAliveSeconds(int connectionKeepAliveSeconds) {
+        this.connectionKeepAliveSeconds = connectionKeepAliveSeconds;
+    }
+
+    public void setConnectTimeoutSeconds(int connectTimeoutSeconds) {
+        this.connectTimeoutSeconds = connectTimeoutSeconds;
+    }
+
+    public void setReadTimeoutSeconds(int readTimeoutSeconds) {
+        this.readTimeoutSeconds = readTimeoutSeconds;
+    }
+
+    public void setWriteTimeoutSeconds(int writeTimeoutSeconds) {
+        this.writeTimeoutSeconds = writeTimeoutSeconds;
+    }
+
+    /**
+     * Percentage of failed calls to a Perfana endpoint that opens its circuit breaker, 0 to disable.
+     */
+    public void setCircuitBreakerFailureRateThreshold(int circuitBreakerFailureRateThreshold) {
+        this.circuitBreakerFailureRateThreshold = circuitBreakerFailureRateThreshold;
+    }
+
+    public void setCircuitBreakerMinimumCalls(int circuitBreakerMinimumCalls) {
+        this.circuitBreakerMinimumCalls = circuitBreakerMinimumCalls;
+    }
+
+    public void setCircuitBreakerWindowSize(int circuitBreakerWindowSize) {
+        this.circuitBreakerWindowSize = circuitBreakerWindowSize;
+    }
+
+    /**
+     * Time calls are skipped when a circuit breaker opened, before a probe call is done.
+     */
+    public void setCircuitBreakerOpenSeconds(int circuitBreakerOpenSeconds) {
+        this.circuitBreakerOpenSeconds = circuitBreakerOpenSeconds;
+    }
+
+    /**
+     * Test-run-config keys received within this window are uploaded in one call. Use 0 to upload each message directly.
+     */
+    public void setTestRunConfigFlushWindowMillis(int testRunConfigFlushWindowMillis) {
+        this.testRunConfigFlushWindowMillis = testRunConfigFlushWindowMillis;
+    }
+
+    /**
+     * Maximum number of received messages waiting to be sent to Perfana.
+     */
+    public void setMessageQueueCapacity(int messageQueueCapacity) {
+        this.messageQueueCapacity = messageQueueCapacity;
+    }
+
+    /**
+     * Number of threads that send received messages to Perfana. Use 0 to send in the thread of the sender.
+     */
+    public void setMessageWorkers(int messageWorkers) {
+        this.messageWorkers = messageWorkers;
+    }
+
+    /**
+     * One of BLOCK, DROP_OLDEST or MERGE, see {@link MessageBackpressure}.
+     */
+    public void setMessageBackpressure(String messageBackpressure) {
+        this.messageBackpressure = messageBackpressure;
+    }
+
+    /**
+     * Directory to store events and test-run-config that cannot be sent to Perfana, to be sent later.
+     * A sub directory is used per event name. Not set by default: there is no outbox.
+     */
+    public void setOutboxDirectory(String outboxDirectory) {
+        this.outboxDirectory = outboxDirectory;
+    }
+
+    /**
+     * One of FAILED or ALL, see {@link OutboxMode}.
+     */
+    public void setOutboxMode(String outboxMode) {
+        this.outboxMode = outboxMode;
+    }
+
+    public void setOutboxReplayIntervalSeconds(int outboxReplayIntervalSeconds) {
+        this.outboxReplayIntervalSeconds = outboxReplayIntervalSeconds;
+    }
+
+    /**
+     * Maximum time to wait for the outbox to be sent at the end of the test run.
+     */
+    public void setOutboxDrainTimeoutSeconds(int outboxDrainTimeoutSeconds) {
+        this.outboxDrainTimeoutSeconds = outboxDrainTimeoutSeconds;
+    }
+
+    /**
+     * Time between health checks of the Perfana replicas, use 0 to disable. Only used with more than one url.
+     */
+    public void setHealthCheckIntervalSeconds(int healthCheckIntervalSeconds) {
+        this.healthCheckIntervalSeconds = healthCheckIntervalSeconds;
+    }
+
+    /**
+     * Send all calls of a test run to the same Perfana replica, while it is available.
+     */
+    public void setStickyRouting(boolean stickyRouting) {
+        this.stickyRouting = stickyRouting;
+    }
+
+    /**
+     * Send a second request for the check results when there is no reply within this latency percentile
+     * of earlier calls, e.g. 95. Use 0 to disable (default).
+     */
+    public void setHedgePercentile(int hedgePercentile) {
+        this.hedgePercentile = hedgePercentile;
+    }
+
+    /**
+     * Hedge delay used until enough latencies of earlier calls are known.
+     */
+    public void setHedgeInitialDelayMillis(int hedgeInitialDelayMillis) {
+        this.hedgeInitialDelayMillis = hedgeInitialDelayMillis;
+    }
+
+    /**
+     * Maximum attempts of posts to Perfana (init, keep alive, events, test run config), use 1 for no retries.
+     */
+    public void setPostRetryMaxAttempts(int postRetryMaxAttempts) {
+        this.postRetryMaxAttempts = postRetryMaxAttempts;
+    }
+
+    /**
+     * Maximum time of a keep alive call to Perfana, including retries.
+     */
+    public void setKeepAliveTimeoutSeconds(int keepAliveTimeoutSeconds) {
+        this.keepAliveTimeoutSeconds = keepAliveTimeoutSeconds;
+    }
+
+    /**
+     * Maximum time of a test run config upload to Perfana, including retries.
+     */
+    public void setConfigUploadTimeoutSeconds(int configUploadTimeoutSeconds) {
+        this.configUploadTimeoutSeconds = configUploadTimeoutSeconds;
+    }
+
+    /**
+     * Maximum total time to get the check results, including all polls. Use 0 for no deadline.
+     */
+    public void setAssertResultsDeadlineSeconds(int assertResultsDeadlineSeconds) {
+        this.assertResultsDeadlineSeconds = assertResultsDeadlineSeconds;
+    }
+
+    /**
+     * Content-Encoding of request bodies above the compression threshold, and of test run config uploads:
+     * NONE (default), GZIP or ZSTD (needs zstd-jni).
+     */
+    public void setCompression(String compression) {
+        this.compression = compression;
+    }
+
+    /**
+     * Minimum size in bytes of a request body with a known size to be compressed.
+     */
+    public void setCompressionThresholdBytes(int compressionThresholdBytes) {
+        this.compressionThresholdBytes = compressionThresholdBytes;
+    }
+
+    /**
+     * Http transport: okhttp or jdk. Default (empty) is okhttp when it is on the classpath, otherwise jdk.
+     */
+    public void setTransport(String transport) {
+        this.transport = transport;
+    }
+
+    /**
+     * Metrics of the calls to Perfana, logged when the client is closed: NONE (default), HDR_HISTOGRAM (needs HdrHistogram) or MICROMETER (needs micrometer-core, uses the global registry).
+     */
+    public void setClientMetrics(String clientMetrics) {
+        this.clientMetrics = clientMetrics;
+    }
+
+    /**
+     * Measure the cost of this event during the test run (cpu time, allocated bytes, http time and bytes)
+     * and upload it as test run config at the end of the test, default false.
+     */
+    public void setOverheadReportEnabled(boolean overheadReportEnabled) {
+        this.overheadReportEnabled = overheadReportEnabled;
+    }
+
+    /**
+     * OpenTelemetry spans for the calls to Perfana, with W3C traceparent headers, default false.
+     * Needs opentelemetry-api on the classpath, spans are sent by the OpenTelemetry sdk or agent, if any.
+     */
+    public void setTracingEnabled(boolean tracingEnabled) {
+        this.tracingEnabled = tracingEnabled;
+    }
+
     @NotNull
     private PerfanaEventContext createPerfanaEventContext(EventContext context) {
         return new PerfanaEventContext(context, perfanaUrl, apiKey,
                 assertResultsEnabled, variables, retryCount,
-                retryDelaySeconds, overrideTestRunId);
+                retryDelaySeconds, parseEnum("retryStrategy", retryStrategy, RetryStrategy.class),
+                retryMinDelaySeconds, retryMaxDelaySeconds, retryDeadlineSeconds, overrideTestRunId,
+                connectionPoolMaxIdle, connectionKeepAliveSeconds,
+                connectTimeoutSeconds, readTimeoutSeconds, writeTimeoutSeconds,
+                circuitBreakerFailureRateThreshold, circuitBreakerMinimumCalls, circuitBreakerWindowSize, circuitBreakerOpenSeconds,
+                testRunConfigFlushWindowMillis,
+                messageQueueCapacity, messageWorkers, parseEnum("messageBackpressure", messageBackpressure, MessageBackpressure.class),
+                outboxDirectory, parseEnum("outboxMode", outboxMode, OutboxMode.class), outboxReplayIntervalSeconds, outboxDrainTimeoutSeconds,
+                healthCheckIntervalSeconds, stickyRouting,
+                hedgePercentile, hedgeInitialDelayMillis, postRetryMaxAttempts,
+                keepAliveTimeoutSeconds, configUploadTimeoutSeconds, assertResultsDeadlineSeconds,
+                parseEnum("compression", compression, Compression.class), compressionThresholdBytes, transport,
+                parseEnum("clientMetrics", clientMetrics, ClientMetricsType.class), overheadReportEnabled, tracingEnabled);
+    }
+
+    private static <E extends Enum<E>> E parseEnum(String name, String value, Class<E> type) {
+        try {
+            return Enum.valueOf(type, value.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException | NullPointerException e) {
+            throw new PerfanaClientRuntimeException("unknown " + name + ": " + value
+                    + ", use one of " + Arrays.toString(type.getEnumConstants()));
+        }
     }
 
     public void setOverrideTestRunId(boolean overrideTestRunId) {
@@ -85,6 +409,41 @@ public class PerfanaEventConfig extends EventConfig {
                 ", variables=" + variables +
                 ", retryCount=" + retryCount +
                 ", retryDelaySeconds=" + retryDelaySeconds +
+                ", retryStrategy=" + retryStrategy +
+                ", retryMinDelaySeconds=" + retryMinDelaySeconds +
+                ", retryMaxDelaySeconds=" + retryMaxDelaySeconds +
+                ", retryDeadlineSeconds=" + retryDeadlineSeconds +
+                ", connectionPoolMaxIdle=" + connectionPoolMaxIdle +
+                ", connectionKeepAliveSeconds=" + connectionKeepAliveSeconds +
+                ", connectTimeoutSeconds=" + connectTimeoutSeconds +
+                ", readTimeoutSeconds=" + readTimeoutSeconds +
+                ", writeTimeoutSeconds=" + writeTimeoutSeconds +
+                ", circuitBreakerFailureRateThreshold=" + circuitBreakerFailureRateThreshold +
+                ", circuitBreakerMinimumCalls=" + circuitBreakerMinimumCalls +
+                ", circuitBreakerWindowSize=" + circuitBreakerWindowSize +
+                ", circuitBreakerOpenSeconds=" + circuitBreakerOpenSeconds +
+                ", testRunConfigFlushWindowMillis=" + testRunConfigFlushWindowMillis +
+                ", messageQueueCapacity=" + messageQueueCapacity +
+                ", messageWorkers=" + messageWorkers +
+                ", messageBackpressure=" + messageBackpressure +
+                ", outboxDirectory=" + outboxDirectory +
+                ", outboxMode=" + outboxMode +
+                ", outboxReplayIntervalSeconds=" + outboxReplayIntervalSeconds +
+                ", outboxDrainTimeoutSeconds=" + outboxDrainTimeoutSeconds +
+                ", healthCheckIntervalSeconds=" + healthCheckIntervalSeconds +
+                ", stickyRouting=" + stickyRouting +
+                ", hedgePercentile=" + hedgePercentile +
+                ", hedgeInitialDelayMillis=" + hedgeInitialDelayMillis +
+                ", postRetryMaxAttempts=" + postRetryMaxAttempts +
+                ", keepAliveTimeoutSeconds=" + keepAliveTimeoutSeconds +
+                ", configUploadTimeoutSeconds=" + configUploadTimeoutSeconds +
+                ", assertResultsDeadlineSeconds=" + assertResultsDeadlineSeconds +
+                ", compression=" + compression +
+                ", compressionThresholdBytes=" + compressionThresholdBytes +
+                ", transport=" + transport +
+                ", clientMetrics=" + clientMetrics +
+                ", overheadReportEnabled=" + overheadReportEnabled +
+                ", tracingEnabled=" + tracingEnabled +
                 '}' + super.toString();
     }
 }
@@ -15,6 +15,10 @@
  */
 package io.perfana.event;
 
+import io.perfana.client.api.ClientMetricsType;
+import io.perfana.client.api.Compression;
+import io.perfana.client.api.OutboxMode;
+import io.perfana.client.api.RetryStrategy;
 import io.perfana.eventscheduler.api.config.EventContext;
 
 import java.util.Map;
@@ -32,7 +36,88 @@ public class PerfanaEventContext extends EventContext {
 
     private final int retryDelaySeconds;
 
-    protected PerfanaEventContext(EventContext context, String perfanaUrl, String apiKey, boolean assertResultsEnabled, Map<String, String> variables, int retryCount, int retryDelaySeconds, boolean overrideTestRunId) {
+    private final RetryStrategy retryStrategy;
+
+    private final int retryMinDelaySeconds;
+
+    private final int retryMaxDelaySeconds;
+
+    private final int retryDeadlineSeconds;
+
+    private final int connectionPoolMaxIdle;
+
+    private final int connectionKeepAliveSeconds;
+
+    private final int connectTimeoutSeconds;
+
+    private final int readTimeoutSeconds;
+
+    private final int writeTimeoutSeconds;
+
+    private final int circuitBreakerFailureRateThreshold;
+
+    private final int circuitBreakerMinimumCalls;
+
+    private final int circuitBreakerWindowSize;
+
+    private final int circuitBreakerOpenSeconds;
+
+    private final int testRunConfigFlushWindowMillis;
+
+    private final int messageQueueCapacity;
+
+    private final int messageWorkers;
+
+    private final MessageBackpressure messageBackpressure;
+
+    private final String outboxDirectory;
+
+    private final OutboxMode outboxMode;
+
+    private final int outboxReplayIntervalSeconds;
+
+    private final int outboxDrainTimeoutSeconds;
+
+    private final int healthCheckIntervalSeconds;
+
+    private final boolean stickyRouting;
+
+    private final int hedgePercentile;
+
+    private final int hedgeInitialDelayMillis;
+
+    private final int postRetryMaxAttempts;
+
+    private final int keepAliveTimeoutSeconds;
+
+    private final int configUploadTimeoutSeconds;
+
+    private final int assertResultsDeadlineSeconds;
+
+    private final Compression compression;
+
+    private final int compressionThresholdBytes;
+
+    private final String transport;
+
+    private final ClientMetricsType clientMetrics;
+
+    private final boolean overheadReportEnabled;
+
+    private final boolean tracingEnabled;
+
+    protected PerfanaEventContext(EventContext context, String perfanaUrl, String apiKey, boolean assertResultsEnabled, Map<String, String> variables, int retryCount, int retryDelaySeconds,
+                                  RetryStrategy retryStrategy, int retryMinDelaySeconds, int retryMaxDelaySeconds, int retryDeadlineSeconds, boolean overrideTestRunId,
+                                  int connectionPoolMaxIdle, int connectionKeepAliveSeconds, int connectTimeoutSeconds, int readTimeoutSeconds, int writeTimeoutSeconds,
+                                  int circuitBreakerFailureRateThreshold, int circuitBreakerMinimumCalls, int circuitBreakerWindowSize, int circuitBreakerOpenSeconds,
+                                  int testRunConfigFlushWindowMillis,
+                                  int messageQueueCapacity, int messageWorkers, MessageBackpressure messageBackpressure,
+                                  String outboxDirectory, OutboxMode outboxMode, int outboxReplayIntervalSeconds, int outboxDrainTimeoutSeconds,
+                                  int healthCheckIntervalSeconds, boolean stickyRouting,
+                                  int hedgePercentile, int hedgeInitialDelayMillis, int postRetryMaxAttempts,
+                                  int keepAliveTimeoutSeconds, int configUploadTimeoutSeconds, int assertResultsDeadlineSeconds,
+                                  Compression compression, int compressionThresholdBytes, String transport, ClientMetricsType clientMetrics,
+                                  boolean overheadReportEnabled, boolean tracingEnabled) {
         super(context, PerfanaEventFactory.class.getName(), false);
         this.perfanaUrl = perfanaUrl;
         this.apiKey = apiKey;
@@ -40,7 +125,42 @@ public class PerfanaEventContext extends EventContext {
         this.variables = Map.copyOf(variables);
         this.retryCount = retryCount;
         this.retryDelaySeconds = retryDelaySeconds;
+        this.retryStrategy = retryStrategy;
+        this.retryMinDelaySeconds = retryMinDelaySeconds;
+        this.retryMaxDelaySeconds = retryMaxDelaySeconds;
+        this.retryDeadlineSeconds = retryDeadlineSeconds;
         this.overrideTestRunId = overrideTestRunId;
+        this.connectionPoolMaxIdle = connectionPoolMaxIdle;
+        this.connectionKeepAliveSeconds = connectionKeepAliveSeconds;
+        this.connectTimeoutSeconds = connectTimeoutSeconds;
+        this.readTimeoutSeconds = readTimeoutSeconds;
+        this.writeTimeoutSeconds = writeTimeoutSeconds;
+        this.circuitBreakerFailureRateThreshold = circuitBreakerFailureRateThreshold;
+        this.circuitBreakerMinimumCalls = circuitBreakerMinimumCalls;
+        this.circuitBreakerWindowSize = circuitBreakerWindowSize;
+        this.circuitBreakerOpenSeconds = circuitBreakerOpenSeconds;
+        this.testRunConfigFlushWindowMillis = testRunConfigFlushWindowMillis;
+        this.messageQueueCapacity = messageQueueCapacity;
+        this.messageWorkers = messageWorkers;
+        this.messageBackpressure = messageBackpressure;
+        this.outboxDirectory = outboxDirectory;
+        this.outboxMode = outboxMode;
+        this.outboxReplayIntervalSeconds = outboxReplayIntervalSeconds;
+        this.outboxDrainTimeoutSeconds = outboxDrainTimeoutSeconds;
+        this.healthCheckIntervalSeconds = healthCheckIntervalSeconds;
+        this.stickyRouting = stickyRouting;
+        this.hedgePercentile = hedgePercentile;
+        this.hedgeInitialDelayMillis = hedgeInitialDelayMillis;
+        this.postRetryMaxAttempts = postRetryMaxAttempts;
+        this.keepAliveTimeoutSeconds = keepAliveTimeoutSeconds;
+        this.configUploadTimeoutSeconds = configUploadTimeoutSeconds;
+        this.assertResultsDeadlineSeconds = assertResultsDeadlineSeconds;
+        this.compression = compression;
+        this.compressionThresholdBytes = compressionThresholdBytes;
+        this.transport = transport;
+        this.clientMetrics = clientMetrics;
+        this.overheadReportEnabled = overheadReportEnabled;
+        this.tracingEnabled = tracingEnabled;
     }
 
     public String getPerfanaUrl() {
@@ -67,10 +187,150 @@ public class PerfanaEventContext extends EventContext {
         return retryDelaySeconds;
     }
 
+    public RetryStrategy getRetryStrategy() {
+        return retryStrategy;
+    }
+
+    public int getRetryMinDelaySeconds() {
+        return retryMinDelaySeconds;
+    }
+
+    public int getRetryMaxDelaySeconds() {
+        return retryMaxDelaySeconds;
+    }
+
+    public int getRetryDeadlineSeconds() {
+        return retryDeadlineSeconds;
+    }
+
     public boolean isOverrideTestRunId() {
         return overrideTestRunId;
     }
 
+    public int getConnectionPoolMaxIdle() {
+        return connectionPoolMaxIdle;
+    }
+
+    public int getConnectionKeepAliveSeconds() {
+        return connectionKeepAliveSeconds;
+    }
+
+    public int getConnectTimeoutSeconds() {
+        return connectTimeoutSeconds;
+    }
+
+    public int getReadTimeoutSeconds() {
+        return readTimeoutSeconds;
+    }
+
+    public int getWriteTimeoutSeconds() {
+        return writeTimeoutSeconds;
+    }
+
+    public int getCircuitBreakerFailureRateThreshold() {
+        return circuitBreakerFailureRateThreshold;
+    }
+
+    public int getCircuitBreakerMinimumCalls() {
+        return circuitBreakerMinimumCalls;
+    }
+
+    public int getCircuitBreakerWindowSize() {
+        return circuitBreakerWindowSize;
+    }
+
+    public int getCircuitBreakerOpenSeconds() {
+        return circuitBreakerOpenSeconds;
+    }
+
+    public int getTestRunConfigFlushWindowMillis() {
+        return testRunConfigFlushWindowMillis;
+    }
+
+    public int getMessageQueueCapacity() {
+        return messageQueueCapacity;
+    }
+
+    public int getMessageWorkers() {
+        return messageWorkers;
+    }
+
+    public MessageBackpressure getMessageBackpressure() {
+        return messageBackpressure;
+    }
+
+    public String getOutboxDirectory() {
+        return outboxDirectory;
+    }
+
+    public OutboxMode getOutboxMode() {
+        return outboxMode;
+    }
+
+    public int getOutboxReplayIntervalSeconds() {
+        return outboxReplayIntervalSeconds;
+    }
+
+    public int getOutboxDrainTimeoutSeconds() {
+        return outboxDrainTimeoutSeconds;
+    }
+
+    public int getHealthCheckIntervalSeconds() {
+        return healthCheckIntervalSeconds;
+    }
+
+    public boolean isStickyRouting() {
+        return stickyRouting;
+    }
+
+    public int getHedgePercentile() {
+        return hedgePercentile;
+    }
+
+    public int getHedgeInitialDelayMillis() {
+        return hedgeInitialDelayMillis;
+    }
+
+    public int getPostRetryMaxAttempts() {
+        return postRetryMaxAttempts;
+    }
+
+    public int getKeepAliveTimeoutSeconds() {
+        return keepAliveTimeoutSeconds;
+    }
+
+    public int getConfigUploadTimeoutSeconds() {
+        return configUploadTimeoutSeconds;
+    }
+
+    public int getAssertResultsDeadlineSeconds() {
+        return assertResultsDeadlineSeconds;
+    }
+
+    public Compression getCompression() {
+        return compression;
+    }
+
+    public int getCompressionThresholdBytes() {
+        return compressionThresholdBytes;
+    }
+
+    public String getTransport() {
+        return transport;
+    }
+
+    public ClientMetricsType getClientMetrics() {
+        return clientMetrics;
+    }
+
+    public boolean isOverheadReportEnabled() {
+        return overheadReportEnabled;
+    }
+
+    public boolean isTracingEnabled() {
+        return tracingEnabled;
+    }
+
     @Override
     public String toString() {
         return "PerfanaEventContext{" +
@@ -80,6 +340,41 @@ public class PerfanaEventContext extends EventContext {
                 ", variables=" + variables +
                 ", retryCount=" + retryCount +
                 ", retryDelaySeconds=" + retryDelaySeconds +
+                ", retryStrategy=" + retryStrategy +
+                ", retryMinDelaySeconds=" + retryMinDelaySeconds +
+                ", retryMaxDelaySeconds=" + retryMaxDelaySeconds +
+                ", retryDeadlineSeconds=" + retryDeadlineSeconds +
+                ", connectionPoolMaxIdle=" + connectionPoolMaxIdle +
+                ", connectionKeepAliveSeconds=" + connectionKeepAliveSeconds +
+                ", connectTimeoutSeconds=" + connectTimeoutSeconds +
+                ", readTimeoutSeconds=" + readTimeoutSeconds +
+                ", writeTimeoutSeconds=" + writeTimeoutSeconds +
+                ", circuitBreakerFailureRateThreshold=" + circuitBreakerFailureRateThreshold +
+                ", circuitBreakerMinimumCalls=" + circuitBreakerMinimumCalls +
+                ", circuitBreakerWindowSize=" + circuitBreakerWindowSize +
+                ", circuitBreakerOpenSeconds=" + circuitBreakerOpenSeconds +
+                ", testRunConfigFlushWindowMillis=" + testRunConfigFlushWindowMillis +
+                ", messageQueueCapacity=" + messageQueueCapacity +
+                ", messageWorkers=" + messageWorkers +
+                ", messageBackpressure=" + messageBackpressure +
+                ", outboxDirectory=" + outboxDirectory +
+                ", outboxMode=" + outboxMode +
+                ", outboxReplayIntervalSeconds=" + outboxReplayIntervalSeconds +
+                ", outboxDrainTimeoutSeconds=" + outboxDrainTimeoutSeconds +
+                ", healthCheckIntervalSeconds=" + healthCheckIntervalSeconds +
+                ", stickyRouting=" + stickyRouting +
+                ", hedgePercentile=" + hedgePercentile +
+                ", hedgeInitialDelayMillis=" + hedgeInitialDelayMillis +
+                ", postRetryMaxAttempts=" + postRetryMaxAttempts +
+                ", keepAliveTimeoutSeconds=" + keepAliveTimeoutSeconds +
+                ", configUploadTimeoutSeconds=" + configUploadTimeoutSeconds +
+                ", assertResultsDeadlineSeconds=" + assertResultsDeadlineSeconds +
+                ", compression=" + compression +
+                ", compressionThresholdBytes=" + compressionThresholdBytes +
+                ", transport=" + transport +
+                ", clientMetrics=" + clientMetrics +
+                ", overheadReportEnabled=" + overheadReportEnabled +
+                ", tracingEnabled=" + tracingEnabled +
                 '}' + super.toString();
     }
 }
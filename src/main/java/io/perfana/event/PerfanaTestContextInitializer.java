@@ -40,8 +40,10 @@ public class PerfanaTestContextInitializer implements TestContextInitializer {
         }
         else {
             PerfanaTestContext perfanaTestContext = PerfanaUtils.createPerfanaTestContext(perfanaEventContext, testContext);
-            PerfanaClient perfanaClient = PerfanaUtils.createPerfanaClient(perfanaEventContext, perfanaTestContext, logger);
-            String newTestRunId = perfanaClient.callInitTest(perfanaTestContext);
+            String newTestRunId;
+            try (PerfanaClient perfanaClient = PerfanaUtils.createSingleUsePerfanaClient(perfanaEventContext, perfanaTestContext, logger)) {
+                newTestRunId = perfanaClient.callInitTest(perfanaTestContext);
+            }
             if (newTestRunId == null) {
                 logger.warn("Perfana test run id is null. No override will be done.");
                 return testContext;
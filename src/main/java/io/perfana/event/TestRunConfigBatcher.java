@@ -0,0 +1,134 @@
+/*
+ *    Copyright 2020-2023  Peter Paul Bakker @ perfana.io, Daniel Moll @ perfana.io
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.perfana.event;
+
+import io.perfana.client.api.PerfanaTestContext;
+import io.perfana.client.domain.ConfigItem;
+import io.perfana.client.domain.TestRunConfigKeys;
+import io.perfana.eventscheduler.api.EventLogger;
+import net.jcip.annotations.ThreadSafe;
+
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Collects test-run-config key-values for one test run and uploads them in batches:
+ * one TestRunConfigKeys upload per set of tags, instead of one call per key.
+ *
+ * Repeated keys within a batch are deduplicated, the last value wins.
+ * A batch is uploaded when the flush window after the first added key has passed,
+ * or when {@link #flush()} is called, e.g. right before the test starts.
+ */
+@ThreadSafe
+class TestRunConfigBatcher {
+
+    private final PerfanaTestContext testContext;
+    private final Duration flushWindow;
+    private final Consumer<TestRunConfigKeys> uploader;
+    private final EventLogger logger;
+
+    private final ScheduledExecutorService executor;
+
+    private final Object flushLock = new Object();
+
+    // guarded by this
+    private Map<List<String>, Map<String, String>> pending = new LinkedHashMap<>();
+    private boolean flushScheduled = false;
+    private boolean closed = false;
+
+    TestRunConfigBatcher(String eventName, PerfanaTestContext testContext, Duration flushWindow, Consumer<TestRunConfigKeys> uploader, EventLogger logger) {
+        this.testContext = testContext;
+        this.flushWindow = flushWindow;
+        this.uploader = uploader;
+        this.logger = logger;
+        this.executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "perfana-config-batcher-" + eventName);
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    void add(List<String> tags, List<ConfigItem> configItems) {
+        boolean flushNow;
+        synchronized (this) {
+            Map<String, String> keyValues = pending.computeIfAbsent(List.copyOf(tags), k -> new LinkedHashMap<>());
+            configItems.forEach(item -> keyValues.put(item.getKey(), item.getValue()));
+            flushNow = closed;
+            if (!closed && !flushScheduled) {
+                flushScheduled = true;
+                executor.schedule(this::flushQuietly, flushWindow.toMillis(), TimeUnit.MILLISECONDS);
+            }
+        }
+        if (flushNow) {
+            flush();
+        }
+    }
+
+    /**
+     * Uploads all pending key-values. Flushes are serialized, so an older batch never overwrites a newer one.
+     */
+    void flush() {
+        synchronized (flushLock) {
+            Map<List<String>, Map<String, String>> batch;
+            synchronized (this) {
+                batch = pending;
+                pending = new LinkedHashMap<>();
+                flushScheduled = false;
+            }
+            batch.forEach(this::upload);
+        }
+    }
+
+    /**
+     * Flushes pending key-values and stops the flush timer. Keys added after close are uploaded directly.
+     */
+    void close() {
+        synchronized (this) {
+            closed = true;
+        }
+        flush();
+        executor.shutdown();
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (Exception e) {
+            logger.error("Failed to flush test-run-config keys", e);
+        }
+    }
+
+    private void upload(List<String> tags, Map<String, String> keyValues) {
+        if (keyValues.isEmpty()) {
+            return;
+        }
+        TestRunConfigKeys.TestRunConfigKeysBuilder keysBuilder = TestRunConfigKeys.builder()
+                .testRunId(testContext.getTestRunId())
+                .application(testContext.getSystemUnderTest())
+                .testEnvironment(testContext.getTestEnvironment())
+                .testType(testContext.getWorkload())
+                .tags(tags);
+
+        keyValues.forEach((key, value) -> keysBuilder.configItem(new ConfigItem(key, value)));
+
+        logger.debug("upload batch of " + keyValues.size() + " test-run-config keys with tags " + tags);
+        uploader.accept(keysBuilder.build());
+    }
+}
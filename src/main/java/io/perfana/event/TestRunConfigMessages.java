@@ -0,0 +1,122 @@
+/*
+ *    Copyright 2020-2023  Peter Paul Bakker @ perfana.io, Daniel Moll @ perfana.io
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.perfana.event;
+
+import io.perfana.client.api.PerfanaTestContext;
+import io.perfana.client.domain.ConfigItem;
+import io.perfana.client.domain.TestRunConfigJson;
+import io.perfana.client.domain.TestRunConfigKeyValue;
+import io.perfana.client.domain.TestRunConfigKeys;
+import io.perfana.eventscheduler.util.TestRunConfigUtil;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Turns the variables and message of test-run-config messages into the Perfana upload types.
+ */
+final class TestRunConfigMessages {
+
+    private TestRunConfigMessages() {}
+
+    /**
+     * For output "key".
+     */
+    static TestRunConfigKeyValue keyValue(PerfanaTestContext context, Map<String, String> variables, String message) {
+        TestRunConfigKeyValue.TestRunConfigKeyValueBuilder testRunConfig = TestRunConfigKeyValue.builder()
+                .testRunId(context.getTestRunId())
+                .application(context.getSystemUnderTest())
+                .testEnvironment(context.getTestEnvironment())
+                .testType(context.getWorkload())
+                .key(variables.get("key"))
+                .value(replaceNullWithEmptyString(message));
+
+        testRunConfig.tags(splitTags(variables.getOrDefault("tags", "")));
+
+        return testRunConfig.build();
+    }
+
+    /**
+     * For output "key", when the key is added to a batch.
+     */
+    static ConfigItem configItem(Map<String, String> variables, String message) {
+        return new ConfigItem(variables.get("key"), replaceNullWithEmptyString(message));
+    }
+
+    /**
+     * For output "json".
+     */
+    static TestRunConfigJson json(PerfanaTestContext context, Map<String, String> variables, String message) {
+        TestRunConfigJson.TestRunConfigJsonBuilder testRunConfigJson = TestRunConfigJson.builder()
+                .testRunId(context.getTestRunId())
+                .application(context.getSystemUnderTest())
+                .testEnvironment(context.getTestEnvironment())
+                .testType(context.getWorkload())
+                .json(message);
+
+        testRunConfigJson.exclude(splitTags(variables.getOrDefault("excludes", "")));
+        testRunConfigJson.include(splitTags(variables.getOrDefault("includes", "")));
+        testRunConfigJson.tags(splitTags(variables.getOrDefault("tags", "")));
+
+        return testRunConfigJson.build();
+    }
+
+    /**
+     * For output "keys".
+     */
+    static TestRunConfigKeys keys(PerfanaTestContext context, List<String> tags, List<ConfigItem> configItems) {
+        return TestRunConfigKeys.builder()
+                .testRunId(context.getTestRunId())
+                .application(context.getSystemUnderTest())
+                .testEnvironment(context.getTestEnvironment())
+                .testType(context.getWorkload())
+                .tags(tags)
+                .configItems(configItems)
+                .build();
+    }
+
+    /**
+     * For output "keys": the message holds keys and values separated by {@link TestRunConfigUtil#MESSAGE_KEY_VALUE_DELIMITER}.
+     *
+     * @throws IllegalArgumentException when the message has an uneven number of items
+     */
+    static List<ConfigItem> configItems(String keyValuePairsString) {
+        // -1 to keep empty strings in split
+        String[] keyValuePairs = keyValuePairsString.split(TestRunConfigUtil.MESSAGE_KEY_VALUE_DELIMITER, -1);
+
+        if (keyValuePairs.length % 2 != 0) {
+            throw new IllegalArgumentException("received string with uneven number of key-value items: " + keyValuePairs.length);
+        }
+        List<ConfigItem> configItems = new ArrayList<>(keyValuePairs.length / 2);
+        for (int i = 0; i < keyValuePairs.length; i = i + 2) {
+            configItems.add(new ConfigItem(keyValuePairs[i], keyValuePairs[i + 1]));
+        }
+        return configItems;
+    }
+
+    /**
+     * Note: empty tags give one empty tag, as before.
+     */
+    static List<String> splitTags(String tags) {
+        return Arrays.asList(tags.split(","));
+    }
+
+    private static String replaceNullWithEmptyString(String text) {
+        return text == null ? "" : text;
+    }
+}
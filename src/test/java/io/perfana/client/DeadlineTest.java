@@ -0,0 +1,62 @@
+/*
+ *    Copyright 2020-2023  Peter Paul Bakker @ perfana.io, Daniel Moll @ perfana.io
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.perfana.client;
+
+import org.junit.Test;
+
+import java.time.Duration;
+
+import static org.junit.Assert.*;
+
+public class DeadlineTest {
+
+    @Test
+    public void noDeadline() {
+        assertSame(Deadline.NONE, Deadline.after(null));
+        assertSame(Deadline.NONE, Deadline.after(Duration.ZERO));
+        assertFalse(Deadline.NONE.isBounded());
+        assertFalse(Deadline.NONE.isExpired());
+        assertTrue(Deadline.NONE.allows(Duration.ofDays(365)));
+    }
+
+    @Test
+    public void earliest() {
+        Deadline soon = Deadline.after(Duration.ofSeconds(1));
+        Deadline later = Deadline.after(Duration.ofMinutes(1));
+        assertSame(soon, soon.earliest(later));
+        assertSame(soon, later.earliest(soon));
+        assertSame(soon, Deadline.NONE.earliest(soon));
+        assertSame(soon, soon.earliest(Deadline.NONE));
+    }
+
+    @Test
+    public void allows() {
+        Deadline deadline = Deadline.after(Duration.ofMinutes(1));
+        assertTrue(deadline.isBounded());
+        assertTrue(deadline.allows(Duration.ofSeconds(10)));
+        assertFalse(deadline.allows(Duration.ofMinutes(2)));
+        assertTrue(deadline.remaining().compareTo(Duration.ofMinutes(1)) <= 0);
+    }
+
+    @Test
+    public void expired() throws InterruptedException {
+        Deadline deadline = Deadline.after(Duration.ofMillis(1));
+        Thread.sleep(5);
+        assertTrue(deadline.isExpired());
+        assertEquals(Duration.ZERO, deadline.remaining());
+        assertFalse(deadline.allows(Duration.ZERO));
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ *    Copyright 2020-2023  Peter Paul Bakker @ perfana.io, Daniel Moll @ perfana.io
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.perfana.client;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.perfana.client.domain.*;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+/**
+ * The codecs should produce the same json as databind, which is used here as reference.
+ */
+public class DomainCodecsTest {
+
+    private static final ObjectMapper objectMapper = new ObjectMapper()
+            .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+
+    @Test
+    public void perfanaMessageJsonSameAsDatabind() throws IOException {
+        assertSameAsDatabind(DomainCodecs.PERFANA_MESSAGE, PerfanaMessage.class, resource("perfana-message.json"));
+    }
+
+    @Test
+    public void perfanaTestJsonSameAsDatabind() throws IOException {
+        assertSameAsDatabind(DomainCodecs.PERFANA_TEST, PerfanaTest.class, resource("perfana-test.json"));
+    }
+
+    @Test
+    public void writeSameAsDatabind() throws IOException {
+        Variable variable = Variable.builder().placeholder("__run__").value("run \"1\"\n\u00e9\u2603").build();
+        DeepLink deepLink = DeepLink.builder().url("http://example.com/?a=1&b=<2>").name("trace").type("link").pluginName("plugin").build();
+        Tag tag = Tag.builder().key("k").value(null).build();
+        Alert alert = Alert.builder().message("too slow").timestamp("2024-01-01T00:00:00Z").tag(tag).build();
+
+        assertWriteSameAsDatabind(DomainCodecs.PERFANA_MESSAGE, PerfanaMessage.builder()
+                .testRunId("run-1").workload("load").testEnvironment("acc").systemUnderTest("sut").version("1.0")
+                .cibuildResultsUrl("http://ci/1").rampUp("10").duration("60").completed(true).annotations(null)
+                .tag("a").tag("b").variable(variable).deepLink(deepLink).build());
+        assertWriteSameAsDatabind(DomainCodecs.PERFANA_MESSAGE, PerfanaMessage.builder().build());
+        assertWriteSameAsDatabind(DomainCodecs.PERFANA_TEST, PerfanaTest.builder()
+                .id("id-1").testRunId("run-1").duration(60).plannedDuration(120).rampUp(-1).abort(true).abortMessage("stop")
+                .alert(alert).tag("t").variable(variable).build());
+        assertWriteSameAsDatabind(DomainCodecs.PERFANA_EVENT, PerfanaEvent.builder()
+                .systemUnderTest("sut").testEnvironment("acc").title("title").description("multi\nline\ttext").tag("x").build());
+        assertWriteSameAsDatabind(DomainCodecs.BENCHMARK, Benchmark.builder()
+                .requirements(Result.builder().result(true).deeplink("http://r").build())
+                .benchmarkPreviousTestRun(Result.builder().result(false).build()).build());
+        assertWriteSameAsDatabind(DomainCodecs.TEST_RUN_CONFIG_KEY_VALUE, TestRunConfigKeyValue.builder()
+                .application("app").testEnvironment("acc").testType("load").testRunId("run-1").tag("t").key("k").value("v").build());
+        assertWriteSameAsDatabind(DomainCodecs.TEST_RUN_CONFIG_JSON, TestRunConfigJson.builder()
+                .application("app").testRunId("run-1").includeItem("a.b").excludeItem("c")
+                .json("{\"a\":{\"b\":[1,2,3]},\"c\":\"d\"}").build());
+        assertWriteSameAsDatabind(DomainCodecs.TEST_RUN_CONFIG_JSON, TestRunConfigJson.builder().build());
+        assertWriteSameAsDatabind(DomainCodecs.TEST_RUN_CONFIG_KEYS, TestRunConfigKeys.builder()
+                .application("app").testRunId("run-1").configItem(ConfigItem.builder().key("k").value("v").build()).build());
+        assertWriteSameAsDatabind(DomainCodecs.INIT, Init.builder().systemUnderTest("sut").testEnvironment("acc").workload("load").build());
+        assertWriteSameAsDatabind(DomainCodecs.INIT_REPLY, new InitReply("run-1"));
+        assertWriteSameAsDatabind(DomainCodecs.PERFANA_ERROR_MESSAGE, new PerfanaErrorMessage(Arrays.asList("one", "two")));
+        assertWriteSameAsDatabind(DomainCodecs.PERFANA_SINGLE_MESSAGE, new PerfanaSingleMessage("wait", 5));
+        assertWriteSameAsDatabind(DomainCodecs.PERFANA_SINGLE_MESSAGE, new PerfanaSingleMessage("wait"));
+        assertWriteSameAsDatabind(DomainCodecs.ABORT_MESSAGE, new AbortMessage("stop"));
+    }
+
+    @Test
+    public void readRoundTrip() throws IOException {
+        PerfanaMessage message = PerfanaMessage.builder().testRunId("run-1").completed(true).tag("a")
+                .variable(Variable.builder().placeholder("p").value("v").build()).build();
+        assertEquals(message, PerfanaCodecs.read(DomainCodecs.PERFANA_MESSAGE, new String(PerfanaCodecs.toBytes(DomainCodecs.PERFANA_MESSAGE, message), StandardCharsets.UTF_8)));
+    }
+
+    @Test
+    public void readSkipsUnknownFieldsAndCoercesScalars() throws IOException {
+        String json = "{\"unknown\":{\"nested\":[1,{\"x\":2}]},\"duration\":\"60\",\"rampUp\":10.0,\"completed\":\"true\",\"testRunId\":123}";
+        PerfanaTest test = PerfanaCodecs.read(DomainCodecs.PERFANA_TEST, json);
+        assertEquals(60, test.getDuration());
+        assertEquals(10, test.getRampUp());
+        assertTrue(test.isCompleted());
+        assertEquals("123", test.getTestRunId());
+        assertEquals(objectMapper.readValue(json, PerfanaTest.class), test);
+    }
+
+    @Test
+    public void missingListsStayNull() throws IOException {
+        PerfanaTest test = PerfanaCodecs.read(DomainCodecs.PERFANA_TEST, "{\"testRunId\":\"run-1\"}");
+        assertNull(test.getTags());
+        assertNull(test.getAlerts());
+        assertNull(PerfanaCodecs.read(DomainCodecs.PERFANA_TEST, "null"));
+    }
+
+    @Test
+    public void errorMessageAsSingleString() throws IOException {
+        PerfanaErrorMessage message = PerfanaCodecs.read(DomainCodecs.PERFANA_ERROR_MESSAGE, "{\"message\":\"failed\"}");
+        assertEquals(Collections.singletonList("failed"), message.getMessage());
+    }
+
+    @Test
+    public void rawJsonIsReadAsText() throws IOException {
+        TestRunConfigJson config = PerfanaCodecs.read(DomainCodecs.TEST_RUN_CONFIG_JSON, "{\"json\": {\"a\" : [1, true]}}");
+        assertEquals("{\"a\":[1,true]}", config.getJson());
+    }
+
+    @Test(expected = IOException.class)
+    public void notAnObject() throws IOException {
+        PerfanaCodecs.read(DomainCodecs.INIT_REPLY, "[\"run-1\"]");
+    }
+
+    private static <T> void assertSameAsDatabind(JsonCodec<T> codec, Class<T> type, String json) throws IOException {
+        T value = PerfanaCodecs.read(codec, json);
+        assertEquals(objectMapper.readValue(json, type), value);
+        assertWriteSameAsDatabind(codec, value);
+    }
+
+    private static <T> void assertWriteSameAsDatabind(JsonCodec<T> codec, T value) throws IOException {
+        assertEquals(objectMapper.writeValueAsString(value), new String(PerfanaCodecs.toBytes(codec, value), StandardCharsets.UTF_8));
+    }
+
+    private static String resource(String name) throws IOException {
+        try (InputStream in = DomainCodecsTest.class.getClassLoader().getResourceAsStream(name)) {
+            if (in == null) { throw new IOException(name + " not found"); }
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+}
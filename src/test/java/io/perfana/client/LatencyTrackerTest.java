@@ -0,0 +1,53 @@
+/*
+ *    Copyright 2020-2023  Peter Paul Bakker @ perfana.io, Daniel Moll @ perfana.io
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.perfana.client;
+
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.Optional;
+
+import static org.junit.Assert.assertEquals;
+
+public class LatencyTrackerTest {
+
+    @Test
+    public void noPercentileBeforeMinimumSamples() {
+        LatencyTracker tracker = new LatencyTracker(10, 3);
+        tracker.record(1_000_000);
+        tracker.record(2_000_000);
+        assertEquals(Optional.empty(), tracker.percentile(95));
+        tracker.record(3_000_000);
+        assertEquals(Optional.of(Duration.ofMillis(3)), tracker.percentile(95));
+    }
+
+    @Test
+    public void nearestRankOfRecentSamples() {
+        LatencyTracker tracker = new LatencyTracker(100, 5);
+        for (int i = 1; i <= 100; i++) {
+            tracker.record(Duration.ofMillis(i).toNanos());
+        }
+        assertEquals(Duration.ofMillis(50), tracker.percentile(50).orElseThrow());
+        assertEquals(Duration.ofMillis(95), tracker.percentile(95).orElseThrow());
+        assertEquals(Duration.ofMillis(100), tracker.percentile(100).orElseThrow());
+
+        // old samples leave the window
+        for (int i = 0; i < 100; i++) {
+            tracker.record(Duration.ofMillis(7).toNanos());
+        }
+        assertEquals(Duration.ofMillis(7), tracker.percentile(99).orElseThrow());
+    }
+}
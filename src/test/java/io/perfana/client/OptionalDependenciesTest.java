@@ -0,0 +1,134 @@
+/*
+ *    Copyright 2020-2023  Peter Paul Bakker @ perfana.io, Daniel Moll @ perfana.io
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.perfana.client;
+
+import io.perfana.client.transport.JdkHttpTransportProvider;
+import io.perfana.eventscheduler.api.config.TestConfig;
+import io.perfana.eventscheduler.api.config.TestContext;
+import io.perfana.eventscheduler.api.EventLogger;
+import io.perfana.eventscheduler.log.EventLoggerStdOut;
+import io.perfana.stub.PerfanaSimulator;
+import org.junit.Test;
+
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * HdrHistogram, Micrometer, OpenTelemetry and OkHttp are optional dependencies: the client should work without them.
+ */
+public class OptionalDependenciesTest {
+
+    private static final List<String> OPTIONAL_PACKAGES = List.of("org.HdrHistogram.", "io.micrometer.", "io.opentelemetry.");
+
+    private static final List<String> OKHTTP_PACKAGES = List.of("okhttp3.", "okio.", "kotlin.");
+
+    /**
+     * Loads the client classes itself, and hides the classes of the optional dependencies.
+     */
+    private static final class WithoutOptionalDependencies extends URLClassLoader {
+
+        private final List<String> hiddenPackages;
+
+        private WithoutOptionalDependencies() {
+            this(OPTIONAL_PACKAGES);
+        }
+
+        private WithoutOptionalDependencies(List<String> hiddenPackages) {
+            super(new URL[] { PerfanaUtils.class.getProtectionDomain().getCodeSource().getLocation() },
+                    PerfanaUtils.class.getClassLoader());
+            this.hiddenPackages = hiddenPackages;
+        }
+
+        @Override
+        protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+            if (hiddenPackages.stream().anyMatch(name::startsWith)) {
+                throw new ClassNotFoundException(name);
+            }
+            if (!name.startsWith("io.perfana.client.") && !name.startsWith("io.perfana.event.")) {
+                return super.loadClass(name, resolve);
+            }
+            synchronized (getClassLoadingLock(name)) {
+                Class<?> loaded = findLoadedClass(name);
+                return loaded != null ? loaded : findClass(name);
+            }
+        }
+    }
+
+    @Test
+    public void clientWithMetricsAndTracingWithoutOptionalDependencies() throws Exception {
+        try (WithoutOptionalDependencies loader = new WithoutOptionalDependencies()) {
+            Class<?> utils = loader.loadClass(PerfanaUtils.class.getName());
+            assertNotSame(PerfanaUtils.class, utils);
+            assertEquals(42, utils.getMethod("parseInt", String.class, String.class, int.class).invoke(null, "number", "42", 0));
+
+            Class<?> configClass = loader.loadClass("io.perfana.event.PerfanaEventConfig");
+            Object config = configClass.getConstructor().newInstance();
+            configClass.getMethod("setName", String.class).invoke(config, "perfana");
+            configClass.getMethod("setPerfanaUrl", String.class).invoke(config, "http://localhost:4000");
+            configClass.getMethod("setClientMetrics", String.class).invoke(config, "MICROMETER");
+            configClass.getMethod("setTracingEnabled", boolean.class).invoke(config, true);
+            Object eventContext = configClass.getMethod("toContext").invoke(config);
+
+            Class<?> eventContextClass = loader.loadClass("io.perfana.event.PerfanaEventContext");
+            TestContext testContext = TestConfig.builder().testRunId("optional-1").build().toContext();
+            Object perfanaTestContext = utils.getMethod("createPerfanaTestContext", eventContextClass, TestContext.class)
+                    .invoke(null, eventContext, testContext);
+
+            Method createPerfanaClient = utils.getMethod("createPerfanaClient", eventContextClass,
+                    loader.loadClass("io.perfana.client.api.PerfanaTestContext"), EventLogger.class);
+            try (AutoCloseable client = (AutoCloseable) createPerfanaClient.invoke(null, eventContext, perfanaTestContext, EventLoggerStdOut.INSTANCE)) {
+                Object noMetrics = loader.loadClass("io.perfana.client.api.PerfanaClientMetrics").getField("NONE").get(null);
+                Object noTracing = loader.loadClass("io.perfana.client.api.PerfanaTracing").getField("NONE").get(null);
+                assertSame(noMetrics, client.getClass().getMethod("getMetrics").invoke(client));
+                assertSame(noTracing, client.getClass().getMethod("getTracing").invoke(client));
+            }
+        }
+    }
+
+    @Test
+    public void clientWithJdkTransportWithoutOkHttp() throws Exception {
+        try (PerfanaSimulator simulator = PerfanaSimulator.start();
+             WithoutOptionalDependencies loader = new WithoutOptionalDependencies(OKHTTP_PACKAGES)) {
+            List<?> providers = (List<?>) loader.loadClass("io.perfana.client.transport.PerfanaTransports").getMethod("providers").invoke(null);
+            assertEquals(1, providers.size());
+            assertEquals(JdkHttpTransportProvider.NAME, providers.get(0).getClass().getMethod("name").invoke(providers.get(0)));
+
+            Class<?> utils = loader.loadClass(PerfanaUtils.class.getName());
+            Class<?> configClass = loader.loadClass("io.perfana.event.PerfanaEventConfig");
+            Object config = configClass.getConstructor().newInstance();
+            configClass.getMethod("setName", String.class).invoke(config, "perfana");
+            configClass.getMethod("setPerfanaUrl", String.class).invoke(config, simulator.getUrl());
+            Object eventContext = configClass.getMethod("toContext").invoke(config);
+
+            Class<?> eventContextClass = loader.loadClass("io.perfana.event.PerfanaEventContext");
+            Class<?> perfanaTestContextClass = loader.loadClass("io.perfana.client.api.PerfanaTestContext");
+            TestContext testContext = TestConfig.builder().testRunId("optional-2").build().toContext();
+            Object perfanaTestContext = utils.getMethod("createPerfanaTestContext", eventContextClass, TestContext.class)
+                    .invoke(null, eventContext, testContext);
+
+            Method createPerfanaClient = utils.getMethod("createPerfanaClient", eventContextClass, perfanaTestContextClass, EventLogger.class);
+            try (AutoCloseable client = (AutoCloseable) createPerfanaClient.invoke(null, eventContext, perfanaTestContext, EventLoggerStdOut.INSTANCE)) {
+                client.getClass().getMethod("callPerfanaEvent", perfanaTestContextClass, String.class, String.class)
+                        .invoke(client, perfanaTestContext, "Without OkHttp", "event with the jdk transport");
+            }
+            assertEquals(1, simulator.getReceivedCount());
+        }
+    }
+}
@@ -0,0 +1,55 @@
+/*
+ *    Copyright 2020-2023  Peter Paul Bakker @ perfana.io, Daniel Moll @ perfana.io
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.perfana.client;
+
+import io.perfana.client.domain.InitReply;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.*;
+
+public class PerfanaCodecsTest {
+
+    @Test
+    public void readFromStream() throws IOException {
+        ByteArrayInputStream in = new ByteArrayInputStream("{\"testRunId\":\"run-1\"}".getBytes(StandardCharsets.UTF_8));
+        assertEquals("run-1", PerfanaCodecs.read(DomainCodecs.INIT_REPLY, in).getTestRunId());
+    }
+
+    @Test
+    public void unknownPropertiesAreIgnored() throws IOException {
+        InitReply reply = PerfanaCodecs.read(DomainCodecs.INIT_REPLY, "{\"testRunId\":\"run-1\",\"unknown\":true}");
+        assertEquals("run-1", reply.getTestRunId());
+    }
+
+    @Test
+    public void writerDoesNotCloseTarget() throws IOException {
+        boolean[] closed = { false };
+        ByteArrayOutputStream out = new ByteArrayOutputStream() {
+            @Override
+            public void close() {
+                closed[0] = true;
+            }
+        };
+        PerfanaCodecs.write(DomainCodecs.INIT_REPLY, new InitReply("run-1"), out);
+        assertFalse(closed[0]);
+        assertEquals("{\"testRunId\":\"run-1\"}", out.toString());
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ *    Copyright 2020-2023  Peter Paul Bakker @ perfana.io, Daniel Moll @ perfana.io
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.perfana.client;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import io.perfana.client.api.PerfanaTestContext;
+import io.perfana.client.api.TestContextBuilder;
+import io.perfana.client.domain.PerfanaMessage;
+import io.perfana.client.domain.Variable;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class PerfanaMessageEncoderTest {
+
+    private static final ObjectWriter perfanaMessageWriter = new ObjectMapper().writer().forType(PerfanaMessage.class);
+
+    @Test
+    public void sameAsDatabind() throws Exception {
+        Map<String, String> variables = new LinkedHashMap<>();
+        variables.put("$service", "afterburner");
+        variables.put("quote\"and\\backslash", "tab\tnew\nline\u0001");
+        variables.put("unicode", "café € 😀");
+
+        PerfanaTestContext context = new TestContextBuilder()
+                .setTestRunId("Afterburner-1.0-loadTest-dev-2020-03-14T12:41:24Z")
+                .setWorkload("loadTest")
+                .setTestEnvironment("dev")
+                .setSystemUnderTest("Afterburner")
+                .setVersion("1.0")
+                .setRampupTimeInSeconds("60")
+                .setConstantLoadTimeInSeconds("300")
+                .setAnnotations("Xmx set to 2g")
+                .setTags("release-load-test,micro-service")
+                .setVariables(variables)
+                .build();
+
+        Map<String, String> extraVariables = new LinkedHashMap<>();
+        extraVariables.put("extraVar1", "extraValue1");
+        extraVariables.put("extraVar2", "");
+
+        PerfanaMessageEncoder encoder = new PerfanaMessageEncoder(context);
+
+        for (boolean completed : Arrays.asList(true, false)) {
+            assertArrayEquals(databind(context, completed, extraVariables), encode(encoder, completed, extraVariables));
+            assertArrayEquals(databind(context, completed, Collections.emptyMap()), encode(encoder, completed, Collections.emptyMap()));
+        }
+    }
+
+    @Test
+    public void sameAsDatabindWithoutContextVariables() throws Exception {
+        PerfanaTestContext context = new TestContextBuilder().build();
+        Map<String, String> extraVariables = Collections.singletonMap("extraVar1", "extraValue1");
+
+        PerfanaMessageEncoder encoder = new PerfanaMessageEncoder(context);
+
+        assertArrayEquals(databind(context, false, extraVariables), encode(encoder, false, extraVariables));
+        assertEquals(new String(databind(context, true, Collections.emptyMap())), encoder.encodeToString(true, Collections.emptyMap()));
+    }
+
+    private static byte[] encode(PerfanaMessageEncoder encoder, boolean completed, Map<String, String> extraVariables) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        encoder.writeTo(out, completed, extraVariables);
+        return out.toByteArray();
+    }
+
+    private static byte[] databind(PerfanaTestContext context, boolean completed, Map<String, String> extraVariables) throws Exception {
+        PerfanaMessage.PerfanaMessageBuilder builder = PerfanaMessage.builder()
+                .testRunId(context.getTestRunId())
+                .workload(context.getWorkload())
+                .testEnvironment(context.getTestEnvironment())
+                .systemUnderTest(context.getSystemUnderTest())
+                .version(context.getVersion())
+                .cibuildResultsUrl(context.getCIBuildResultsUrl())
+                .rampUp(String.valueOf(context.getRampupTime().getSeconds()))
+                .duration(String.valueOf(context.getPlannedDuration().getSeconds()))
+                .completed(completed)
+                .annotations(context.getAnnotations())
+                .tags(context.getTags());
+        context.getVariables().forEach((k, v) -> builder.variable(new Variable(k, v)));
+        extraVariables.forEach((k, v) -> builder.variable(new Variable(k, v)));
+        return perfanaMessageWriter.writeValueAsBytes(builder.build());
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ *    Copyright 2020-2023  Peter Paul Bakker @ perfana.io, Daniel Moll @ perfana.io
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.perfana.client;
+
+import io.perfana.client.api.PerfanaClientLoggerStdOut;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+
+public class PerfanaOutboxTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final List<String> sent = Collections.synchronizedList(new ArrayList<>());
+
+    private final PerfanaOutbox.Sender recordingSender = (endpoint, idempotencyKey, json) -> {
+        sent.add(endpoint + ":" + idempotencyKey + ":" + new String(json, StandardCharsets.UTF_8));
+        return true;
+    };
+
+    @Test
+    public void sendsCallsInOrderAndRemovesSegments() throws IOException {
+        Path directory = folder.newFolder().toPath();
+        PerfanaOutbox outbox = open(directory, 64, recordingSender);
+
+        for (int i = 0; i < 5; i++) {
+            outbox.append("EVENTS", "key-" + i, ("{\"title\":\"event-" + i + "\"}").getBytes(StandardCharsets.UTF_8));
+        }
+
+        assertTrue(outbox.drain(Duration.ofSeconds(5)));
+        assertEquals(List.of("EVENTS:key-0:{\"title\":\"event-0\"}", "EVENTS:key-1:{\"title\":\"event-1\"}", "EVENTS:key-2:{\"title\":\"event-2\"}",
+                "EVENTS:key-3:{\"title\":\"event-3\"}", "EVENTS:key-4:{\"title\":\"event-4\"}"), sent);
+        assertEquals("acknowledged segments are deleted", 0, countSegments(directory));
+        outbox.close();
+    }
+
+    @Test
+    public void retriesUntilSent() throws IOException {
+        AtomicInteger attempts = new AtomicInteger();
+        PerfanaOutbox outbox = open(folder.newFolder().toPath(), 1024, (endpoint, idempotencyKey, json) -> {
+            if (attempts.incrementAndGet() == 1) {
+                throw new IOException("connection refused");
+            }
+            return attempts.get() > 2;
+        });
+
+        outbox.append("CONFIG_KEYS", "key", "{}".getBytes(StandardCharsets.UTF_8));
+
+        assertTrue(outbox.drain(Duration.ofSeconds(5)));
+        assertEquals(3, attempts.get());
+        outbox.close();
+    }
+
+    @Test
+    public void replaysLeftOversOnNextOpen() throws IOException {
+        Path directory = folder.newFolder().toPath();
+        PerfanaOutbox outbox = open(directory, 1024, (endpoint, idempotencyKey, json) -> false);
+        outbox.append("EVENTS", "key-1", "{\"title\":\"one\"}".getBytes(StandardCharsets.UTF_8));
+        outbox.append("CONFIG_KEY", "key-2", "{\"key\":\"two\"}".getBytes(StandardCharsets.UTF_8));
+        assertFalse(outbox.drain(Duration.ofMillis(50)));
+        outbox.close();
+
+        PerfanaOutbox reopened = open(directory, 1024, recordingSender);
+        assertTrue(reopened.drain(Duration.ofSeconds(5)));
+        assertEquals(List.of("EVENTS:key-1:{\"title\":\"one\"}", "CONFIG_KEY:key-2:{\"key\":\"two\"}"), sent);
+        reopened.close();
+    }
+
+    @Test
+    public void directoryIsUsedByOneOutboxOnly() throws IOException {
+        Path directory = folder.newFolder().toPath();
+        PerfanaOutbox outbox = open(directory, 1024, recordingSender);
+        assertNull(open(directory, 1024, recordingSender));
+        outbox.close();
+    }
+
+    @Test
+    public void corruptRecordEndsSegment() throws IOException {
+        Path path = folder.newFolder().toPath().resolve("outbox-0.seg");
+        OutboxSegment segment = OutboxSegment.create(path, 0, 256);
+        byte[] first = "first".getBytes(StandardCharsets.UTF_8);
+        assertTrue(segment.append(first));
+        assertTrue(segment.append("second".getBytes(StandardCharsets.UTF_8)));
+        segment.close();
+
+        // flip a payload byte of the second record, e.g. a write interrupted by a crash
+        byte[] bytes = Files.readAllBytes(path);
+        int secondPayload = OutboxSegment.HEADER_SIZE + OutboxSegment.RECORD_OVERHEAD + first.length + OutboxSegment.RECORD_OVERHEAD;
+        bytes[secondPayload] ^= 0x1;
+        Files.write(path, bytes);
+
+        OutboxSegment reopened = OutboxSegment.open(path, 0);
+        assertEquals(1, reopened.countUnacknowledged());
+        assertArrayEquals(first, reopened.firstUnacknowledged());
+        reopened.acknowledge();
+        assertTrue(reopened.isFullyAcknowledged());
+
+        assertTrue("corrupt record is overwritten", reopened.append("third".getBytes(StandardCharsets.UTF_8)));
+        assertArrayEquals("third".getBytes(StandardCharsets.UTF_8), reopened.firstUnacknowledged());
+        reopened.close();
+    }
+
+    private PerfanaOutbox open(Path directory, int segmentSize, PerfanaOutbox.Sender sender) {
+        return PerfanaOutbox.open(directory, segmentSize, Duration.ofMillis(10), sender, new PerfanaClientLoggerStdOut());
+    }
+
+    private static long countSegments(Path directory) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(p -> p.getFileName().toString().endsWith(".seg")).count();
+        }
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ *    Copyright 2020-2023  Peter Paul Bakker @ perfana.io, Daniel Moll @ perfana.io
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.perfana.client;
+
+import io.perfana.client.api.PerfanaClientLoggerStdOut;
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+public class PerfanaReplicasTest {
+
+    private static final List<String> URLS = List.of("http://perfana-1:4000", "http://perfana-2:4000", "http://perfana-3:4000");
+
+    @Test
+    public void takesReplicasInTurn() {
+        PerfanaReplicas replicas = new PerfanaReplicas(URLS, false, new PerfanaClientLoggerStdOut());
+        Set<String> firsts = new HashSet<>();
+        for (int i = 0; i < URLS.size(); i++) {
+            firsts.add(replicas.select(null).get(0).getBaseUrl());
+        }
+        assertEquals(Set.copyOf(URLS), firsts);
+    }
+
+    @Test
+    public void prefersLeastCallsInProgress() {
+        PerfanaReplicas replicas = new PerfanaReplicas(URLS, false, new PerfanaClientLoggerStdOut());
+        List<PerfanaReplicas.Replica> all = replicas.select(null);
+        PerfanaReplicas.started(all.get(0));
+        PerfanaReplicas.started(all.get(1));
+
+        for (int i = 0; i < URLS.size(); i++) {
+            assertSame(all.get(2), replicas.select(null).get(0));
+        }
+    }
+
+    @Test
+    public void triesUnhealthyReplicasLast() {
+        PerfanaReplicas replicas = new PerfanaReplicas(URLS, false, new PerfanaClientLoggerStdOut());
+        PerfanaReplicas.Replica down = replicas.select(null).get(0);
+        replicas.markDown(down, "test");
+
+        for (int i = 0; i < URLS.size(); i++) {
+            List<PerfanaReplicas.Replica> selected = replicas.select(null);
+            assertEquals(URLS.size(), selected.size());
+            assertSame(down, selected.get(URLS.size() - 1));
+        }
+    }
+
+    @Test
+    public void stickyRoutingKeepsTestRunOnReplica() {
+        PerfanaReplicas replicas = new PerfanaReplicas(URLS, true, new PerfanaClientLoggerStdOut());
+        PerfanaReplicas.Replica chosen = replicas.select("test-run-1").get(0);
+        for (int i = 0; i < 10; i++) {
+            assertSame(chosen, replicas.select("test-run-1").get(0));
+        }
+
+        Set<String> used = new HashSet<>();
+        for (int i = 0; i < 100; i++) {
+            used.add(replicas.select("test-run-" + i).get(0).getBaseUrl());
+        }
+        assertEquals("test runs are spread over the replicas", Set.copyOf(URLS), used);
+
+        replicas.markDown(chosen, "test");
+        assertNotSame("moves to another replica while down", chosen, replicas.select("test-run-1").get(0));
+        replicas.markUp(chosen);
+        assertSame("back to its replica when available again", chosen, replicas.select("test-run-1").get(0));
+    }
+}
@@ -0,0 +1,49 @@
+/*
+ *    Copyright 2020-2023  Peter Paul Bakker @ perfana.io, Daniel Moll @ perfana.io
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.perfana.client;
+
+import org.junit.Test;
+
+import java.time.Duration;
+import java.time.Instant;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class PerfanaResponsesTest {
+
+    private static final Instant NOW = Instant.parse("2023-10-21T07:28:00Z");
+
+    @Test
+    public void parseRetryAfterSeconds() {
+        assertEquals(Duration.ofSeconds(120), PerfanaResponses.parseRetryAfter("120", NOW));
+        assertEquals(Duration.ZERO, PerfanaResponses.parseRetryAfter(" 0 ", NOW));
+    }
+
+    @Test
+    public void parseRetryAfterHttpDate() {
+        assertEquals(Duration.ofSeconds(30), PerfanaResponses.parseRetryAfter("Sat, 21 Oct 2023 07:28:30 GMT", NOW));
+        assertEquals("date in the past", Duration.ZERO, PerfanaResponses.parseRetryAfter("Sat, 21 Oct 2023 07:00:00 GMT", NOW));
+    }
+
+    @Test
+    public void parseRetryAfterInvalid() {
+        assertNull(PerfanaResponses.parseRetryAfter(null, NOW));
+        assertNull(PerfanaResponses.parseRetryAfter("", NOW));
+        assertNull(PerfanaResponses.parseRetryAfter("-1", NOW));
+        assertNull(PerfanaResponses.parseRetryAfter("soon", NOW));
+    }
+}
@@ -44,5 +44,6 @@ public class PerfanaUtilsTest {
         assertEquals("/", PerfanaUtils.addSlashIfNeeded(null, ""));
         assertEquals("", PerfanaUtils.addSlashIfNeeded("", null));
         assertEquals("", PerfanaUtils.addSlashIfNeeded(null, null));
+        assertEquals("http://perfana:4000/api/test", PerfanaUtils.addSlashIfNeeded("http://perfana:4000/", "/api/test"));
     }
 }
\ No newline at end of file
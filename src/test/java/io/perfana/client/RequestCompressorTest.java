@@ -0,0 +1,106 @@
+/*
+ *    Copyright 2020-2023  Peter Paul Bakker @ perfana.io, Daniel Moll @ perfana.io
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.perfana.client;
+
+import io.perfana.client.api.Compression;
+import io.perfana.client.api.CompressionStatistics;
+import io.perfana.client.api.PerfanaClientLoggerStdOut;
+import io.perfana.client.transport.RequestContent;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.*;
+
+public class RequestCompressorTest {
+
+    private final RequestCompressor compressor = new RequestCompressor(Compression.GZIP, 1024, new PerfanaClientLoggerStdOut());
+
+    /**
+     * Body of unknown size, like the json bodies that are written directly to the http sink.
+     */
+    private static RequestContent streamingBody(String text) {
+        return new RequestContent() {
+            @Override
+            public String contentType() {
+                return JSON;
+            }
+
+            @Override
+            public void writeTo(OutputStream out) throws IOException {
+                out.write(text.getBytes(StandardCharsets.UTF_8));
+            }
+        };
+    }
+
+    @Test
+    public void smallBodyOfKnownSizeIsSentAsIs() {
+        RequestContent body = RequestContent.of("{}".getBytes(StandardCharsets.UTF_8), RequestContent.JSON);
+        assertNull(compressor.compress(body, true));
+    }
+
+    @Test
+    public void bodyOfUnknownSizeIsOnlyCompressedForConfigUploads() {
+        assertNull(compressor.compress(streamingBody("{}"), false));
+        assertNotNull(compressor.compress(streamingBody("{}"), true));
+    }
+
+    @Test
+    public void compressesWhileWriting() throws IOException {
+        String json = "{\"items\":\"" + "x".repeat(4096) + "\"}";
+        RequestCompressor.EncodedBody encoded = compressor.compress(streamingBody(json), true);
+        assertNotNull(encoded);
+        assertEquals("gzip", encoded.getContentEncoding());
+        assertEquals(-1, encoded.getBody().contentLength());
+
+        ByteArrayOutputStream sink = new ByteArrayOutputStream() {
+            @Override
+            public void close() {
+                fail("the http sink should not be closed");
+            }
+        };
+        encoded.getBody().writeTo(sink);
+
+        try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(sink.toByteArray()))) {
+            assertEquals(json, new String(in.readAllBytes(), StandardCharsets.UTF_8));
+        }
+        assertEquals(1, compressor.statistics().getCompressedRequests());
+        assertTrue(compressor.statistics().getBytesSaved() > 0);
+    }
+
+    @Test
+    public void retriedRequestIsCountedOnce() throws IOException {
+        String json = "{\"items\":\"" + "x".repeat(4096) + "\"}";
+        RequestCompressor.EncodedBody encoded = compressor.compress(streamingBody(json), true);
+        assertNotNull(encoded);
+
+        ByteArrayOutputStream firstAttempt = new ByteArrayOutputStream();
+        encoded.getBody().writeTo(firstAttempt);
+        ByteArrayOutputStream retry = new ByteArrayOutputStream();
+        encoded.getBody().writeTo(retry);
+
+        assertArrayEquals(firstAttempt.toByteArray(), retry.toByteArray());
+        CompressionStatistics statistics = compressor.statistics();
+        assertEquals(1, statistics.getCompressedRequests());
+        assertEquals(json.length(), statistics.getUncompressedBytes());
+        assertEquals(firstAttempt.size(), statistics.getCompressedBytes());
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ *    Copyright 2020-2023  Peter Paul Bakker @ perfana.io, Daniel Moll @ perfana.io
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.perfana.client.api;
+
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.Optional;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RetryPolicyTest {
+
+    @Test
+    public void fixed() {
+        RetryPolicy.Attempts attempts = RetryPolicy.fixed(Duration.ofSeconds(2), 3).start();
+        assertEquals(1, attempts.attempt());
+        assertEquals(Optional.of(Duration.ofSeconds(2)), attempts.nextDelay());
+        assertEquals(Optional.of(Duration.ofSeconds(2)), attempts.nextDelay());
+        assertEquals(3, attempts.attempt());
+        assertFalse(attempts.nextDelay().isPresent());
+    }
+
+    @Test
+    public void exponentialUpToMaxDelay() {
+        RetryPolicy.Attempts attempts = RetryPolicy.of(RetryStrategy.EXPONENTIAL, Duration.ofMillis(500), Duration.ofSeconds(3), 10, null).start();
+        assertEquals(Optional.of(Duration.ofMillis(500)), attempts.nextDelay());
+        assertEquals(Optional.of(Duration.ofMillis(1000)), attempts.nextDelay());
+        assertEquals(Optional.of(Duration.ofMillis(2000)), attempts.nextDelay());
+        assertEquals(Optional.of(Duration.ofMillis(3000)), attempts.nextDelay());
+        assertEquals(Optional.of(Duration.ofMillis(3000)), attempts.nextDelay());
+    }
+
+    @Test
+    public void decorrelatedJitterWithinBounds() {
+        RetryPolicy.Attempts attempts = RetryPolicy.of(RetryStrategy.DECORRELATED_JITTER, Duration.ofMillis(100), Duration.ofSeconds(2), 1000, null).start();
+        long previous = 100;
+        for (int i = 0; i < 999; i++) {
+            long delay = attempts.nextDelay().orElseThrow().toMillis();
+            assertTrue("delay " + delay, delay >= 100 && delay <= Math.min(2000, previous * 3));
+            previous = delay;
+        }
+        assertFalse(attempts.nextDelay().isPresent());
+    }
+
+    @Test
+    public void deadline() throws InterruptedException {
+        RetryPolicy.Attempts attempts = RetryPolicy.of(RetryStrategy.FIXED, Duration.ofSeconds(10), Duration.ofSeconds(10), 100, Duration.ofMillis(50)).start();
+        assertTrue("delay is cut to the deadline", attempts.nextDelay().orElseThrow().toMillis() <= 50);
+        Thread.sleep(60);
+        assertFalse(attempts.nextDelay().isPresent());
+    }
+
+    @Test
+    public void builderDefaultIsFixedRetryDuration() {
+        PerfanaConnectionSettings settings = new PerfanaConnectionSettingsBuilder()
+                .setRetryMaxCount(2)
+                .setRetryDuration(Duration.ofSeconds(1))
+                .build();
+        RetryPolicy.Attempts attempts = settings.getRetryPolicy().start();
+        assertEquals(Optional.of(Duration.ofSeconds(1)), attempts.nextDelay());
+        assertFalse(attempts.nextDelay().isPresent());
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ *    Copyright 2020-2023  Peter Paul Bakker @ perfana.io, Daniel Moll @ perfana.io
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.perfana.client.transport;
+
+import io.perfana.client.api.PerfanaConnectionSettings;
+import io.perfana.client.api.PerfanaConnectionSettingsBuilder;
+import okhttp3.OkHttpClient;
+import org.junit.Test;
+
+import java.time.Duration;
+
+import static org.junit.Assert.*;
+
+public class PerfanaHttpClientsTest {
+
+    @Test
+    public void sameOriginSharesClient() {
+        PerfanaConnectionSettings settings1 = new PerfanaConnectionSettingsBuilder()
+                .setPerfanaUrl("http://perfana.example.com:4000")
+                .setApiKey("key-1")
+                .build();
+        PerfanaConnectionSettings settings2 = new PerfanaConnectionSettingsBuilder()
+                .setPerfanaUrl("http://perfana.example.com:4000/")
+                .setApiKey("key-2")
+                .build();
+
+        assertSame(PerfanaHttpClients.get(settings1), PerfanaHttpClients.get(settings2));
+    }
+
+    @Test
+    public void differentSettingsGetOwnClient() {
+        PerfanaConnectionSettings settings1 = new PerfanaConnectionSettingsBuilder()
+                .setPerfanaUrl("http://perfana.example.com:4001")
+                .build();
+        PerfanaConnectionSettings settings2 = new PerfanaConnectionSettingsBuilder()
+                .setPerfanaUrl("http://perfana.example.com:4001")
+                .setReadTimeout(Duration.ofSeconds(42))
+                .setConnectionPoolMaxIdle(2)
+                .build();
+
+        OkHttpClient client1 = PerfanaHttpClients.get(settings1);
+        OkHttpClient client2 = PerfanaHttpClients.get(settings2);
+
+        assertNotSame(client1, client2);
+        assertEquals(42_000, client2.readTimeoutMillis());
+        assertSame(client1.dispatcher(), client2.dispatcher());
+    }
+}
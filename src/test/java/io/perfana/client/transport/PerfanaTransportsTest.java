@@ -0,0 +1,57 @@
+/*
+ *    Copyright 2020-2023  Peter Paul Bakker @ perfana.io, Daniel Moll @ perfana.io
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.perfana.client.transport;
+
+import io.perfana.client.api.PerfanaConnectionSettings;
+import io.perfana.client.api.PerfanaConnectionSettingsBuilder;
+import io.perfana.client.exception.PerfanaClientRuntimeException;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class PerfanaTransportsTest {
+
+    private final PerfanaConnectionSettings settings = new PerfanaConnectionSettingsBuilder()
+            .setPerfanaUrl("http://perfana.example.com:4000")
+            .build();
+
+    @Test
+    public void bothProvidersAreFound() {
+        List<PerfanaTransportProvider> providers = PerfanaTransports.providers();
+        assertEquals(2, providers.size());
+        assertEquals(OkHttpTransportProvider.NAME, providers.get(0).name());
+        assertEquals(JdkHttpTransportProvider.NAME, providers.get(1).name());
+    }
+
+    @Test
+    public void defaultIsOkHttp() {
+        assertEquals("okhttp", PerfanaTransports.create(null, settings).name());
+        assertEquals("okhttp", PerfanaTransports.create("", settings).name());
+    }
+
+    @Test
+    public void selectByName() {
+        assertEquals("jdk", PerfanaTransports.create("jdk", settings).name());
+        assertEquals("jdk", PerfanaTransports.create(" JDK ", settings).name());
+    }
+
+    @Test(expected = PerfanaClientRuntimeException.class)
+    public void unknownTransport() {
+        PerfanaTransports.create("netty", settings);
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ *    Copyright 2020-2023  Peter Paul Bakker @ perfana.io, Daniel Moll @ perfana.io
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.perfana.event;
+
+import io.perfana.client.domain.ConfigItem;
+import io.perfana.eventscheduler.EventMessageBusSimple;
+import io.perfana.eventscheduler.api.config.TestConfig;
+import io.perfana.eventscheduler.log.EventLoggerStdOut;
+import io.perfana.stub.PerfanaSimulator;
+import io.perfana.stub.PerfanaStubServer;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
+
+public class ClientOverheadTest {
+
+    private static Map<String, String> toMap(List<ConfigItem> items) {
+        return items.stream().collect(Collectors.toMap(ConfigItem::getKey, ConfigItem::getValue));
+    }
+
+    @Test
+    public void nestedMeasurementsAreCountedOnce() {
+        ClientOverhead overhead = new ClientOverhead();
+        overhead.measure(() -> overhead.measure(() -> new StringBuilder().append("some work")));
+        overhead.measure(() -> {});
+
+        assertEquals("2", toMap(overhead.configItems("event.perfana.")).get("event.perfana.overhead.measuredCalls"));
+    }
+
+    @Test
+    public void httpCallsAndBytes() {
+        ClientOverhead overhead = new ClientOverhead();
+        overhead.onReply("/api/test", 200, 2_000_000, 100, 20);
+        overhead.onFailure("/api/test", 3_000_000, 100);
+
+        Map<String, String> items = toMap(overhead.configItems("event.perfana."));
+        assertEquals("2", items.get("event.perfana.overhead.httpCalls"));
+        assertEquals("5", items.get("event.perfana.overhead.httpTimeMillis"));
+        assertEquals("200", items.get("event.perfana.overhead.bytesSent"));
+        assertEquals("20", items.get("event.perfana.overhead.bytesReceived"));
+    }
+
+    /**
+     * @return the bodies of the config keys uploads of a test run with one keep alive
+     */
+    private static List<String> configUploadsOfTestRun(PerfanaSimulator simulator, PerfanaEventConfig eventConfig) {
+        eventConfig.setName("perfana");
+        eventConfig.setPerfanaUrl(simulator.getUrl());
+        eventConfig.setAssertResultsEnabled(false);
+
+        PerfanaEvent event = new PerfanaEvent(eventConfig.toContext(),
+                TestConfig.builder().testRunId("overhead-1").build().toContext(), new EventMessageBusSimple(), EventLoggerStdOut.INSTANCE);
+        event.beforeTest();
+        event.startTest();
+        event.keepAlive();
+        event.afterTest();
+
+        return simulator.getRecordedCalls().stream()
+                .filter(call -> call.getPath().equals("/api/config/keys"))
+                .map(PerfanaStubServer.RecordedCall::getBody)
+                .collect(Collectors.toList());
+    }
+
+    @Test
+    public void overheadIsUploadedAfterTest() throws Exception {
+        try (PerfanaSimulator simulator = PerfanaSimulator.builder().start()) {
+            PerfanaEventConfig eventConfig = new PerfanaEventConfig();
+            eventConfig.setOverheadReportEnabled(true);
+
+            List<String> configUploads = configUploadsOfTestRun(simulator, eventConfig);
+            assertTrue(configUploads.toString(), configUploads.stream().anyMatch(body ->
+                    body.contains("event.perfana.overhead.httpCalls") && body.contains("event.perfana.overhead.bytesSent")));
+        }
+    }
+
+    @Test
+    public void noOverheadByDefault() throws Exception {
+        try (PerfanaSimulator simulator = PerfanaSimulator.builder().start()) {
+            List<String> configUploads = configUploadsOfTestRun(simulator, new PerfanaEventConfig());
+            assertTrue(configUploads.toString(), configUploads.stream().noneMatch(body -> body.contains(".overhead.")));
+        }
+    }
+}
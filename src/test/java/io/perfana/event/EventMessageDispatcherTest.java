@@ -0,0 +1,184 @@
+/*
+ *    Copyright 2020-2023  Peter Paul Bakker @ perfana.io, Daniel Moll @ perfana.io
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.perfana.event;
+
+import io.perfana.eventscheduler.api.message.EventMessage;
+import io.perfana.eventscheduler.log.EventLoggerStdOut;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class EventMessageDispatcherTest {
+
+    private final List<String> handled = new CopyOnWriteArrayList<>();
+    private final List<Integer> handlerCalls = new CopyOnWriteArrayList<>();
+    private final CountDownLatch release = new CountDownLatch(1);
+    private final CountDownLatch firstStarted = new CountDownLatch(1);
+
+    /**
+     * Blocks on the first message until released, so the queue fills up.
+     */
+    private final Consumer<List<EventMessage>> blockingHandler = messages -> {
+        firstStarted.countDown();
+        try {
+            release.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        handlerCalls.add(messages.size());
+        messages.forEach(message -> handled.add(message.getMessage()));
+    };
+
+    private static EventMessage message(String text, String tags) {
+        return EventMessage.builder()
+                .pluginName("test-plugin")
+                .message(text)
+                .variables(Map.of("output", "keys", "tags", tags))
+                .build();
+    }
+
+    private EventMessageDispatcher createDispatcher(MessageBackpressure backpressure) {
+        return new EventMessageDispatcher("test", 2, 1, backpressure, blockingHandler,
+                message -> message.getVariables().get("tags"), EventLoggerStdOut.INSTANCE);
+    }
+
+    @Test
+    public void dispatchDoesNotWaitForHandler() throws InterruptedException {
+        EventMessageDispatcher dispatcher = createDispatcher(MessageBackpressure.BLOCK);
+
+        dispatcher.dispatch(message("one", "a"));
+        assertTrue(firstStarted.await(5, TimeUnit.SECONDS));
+        dispatcher.dispatch(message("two", "a"));
+        assertTrue("handler still blocked", handled.isEmpty());
+
+        release.countDown();
+        assertTrue(dispatcher.awaitDrained(Duration.ofSeconds(5)));
+        assertEquals(List.of("one", "two"), handled);
+        dispatcher.close(Duration.ofSeconds(5));
+    }
+
+    @Test
+    public void dropOldestWhenFull() throws InterruptedException {
+        EventMessageDispatcher dispatcher = createDispatcher(MessageBackpressure.DROP_OLDEST);
+
+        dispatcher.dispatch(message("in-progress", "a"));
+        assertTrue(firstStarted.await(5, TimeUnit.SECONDS));
+        dispatcher.dispatch(message("dropped", "a"));
+        dispatcher.dispatch(message("two", "a"));
+        dispatcher.dispatch(message("three", "a"));
+
+        release.countDown();
+        dispatcher.close(Duration.ofSeconds(5));
+        assertEquals(List.of("in-progress", "two", "three"), handled);
+    }
+
+    @Test
+    public void mergeWhenFull() throws InterruptedException {
+        EventMessageDispatcher dispatcher = createDispatcher(MessageBackpressure.MERGE);
+
+        dispatcher.dispatch(message("in-progress", "a"));
+        assertTrue(firstStarted.await(5, TimeUnit.SECONDS));
+        dispatcher.dispatch(message("a1", "a"));
+        dispatcher.dispatch(message("b1", "b"));
+        // queue is full: these are merged with the queued messages with the same tags
+        dispatcher.dispatch(message("a2", "a"));
+        dispatcher.dispatch(message("b2", "b"));
+
+        release.countDown();
+        dispatcher.close(Duration.ofSeconds(5));
+        assertEquals(List.of("in-progress", "a1", "a2", "b1", "b2"), handled);
+        // merged messages are handled in one call
+        assertEquals(List.of(1, 2, 2), handlerCalls);
+    }
+
+    @Test
+    public void mergeIsCapped() throws InterruptedException {
+        EventMessageDispatcher dispatcher = createDispatcher(MessageBackpressure.MERGE);
+
+        dispatcher.dispatch(message("in-progress", "a"));
+        assertTrue(firstStarted.await(5, TimeUnit.SECONDS));
+        dispatcher.dispatch(message("a", "a"));
+        dispatcher.dispatch(message("b", "b"));
+        for (int i = 1; i < EventMessageDispatcher.MAX_MERGED_MESSAGES; i++) {
+            dispatcher.dispatch(message("a" + i, "a"));
+        }
+
+        // the queued messages with tags a are full, so this one waits for room in the queue
+        Thread sender = new Thread(() -> dispatcher.dispatch(message("a-next", "a")));
+        sender.start();
+        sender.join(200);
+        assertTrue("sender should wait for room", sender.isAlive());
+
+        release.countDown();
+        sender.join(5_000);
+        dispatcher.close(Duration.ofSeconds(5));
+        assertEquals(List.of(1, EventMessageDispatcher.MAX_MERGED_MESSAGES, 1, 1), handlerCalls);
+    }
+
+    @Test
+    public void awaitDrainedIsBounded() throws InterruptedException {
+        EventMessageDispatcher dispatcher = createDispatcher(MessageBackpressure.BLOCK);
+
+        dispatcher.dispatch(message("stuck", "a"));
+        assertTrue(firstStarted.await(5, TimeUnit.SECONDS));
+        assertFalse("handler is still blocked", dispatcher.awaitDrained(Duration.ofMillis(100)));
+        assertEquals(1, dispatcher.pendingCount());
+
+        release.countDown();
+        dispatcher.close(Duration.ofSeconds(5));
+        assertEquals(List.of("stuck"), handled);
+    }
+
+    @Test
+    public void awaitDrainedWaitsWhileMessagesAreHandled() {
+        EventMessageDispatcher dispatcher = new EventMessageDispatcher("test", 10, 1, MessageBackpressure.BLOCK, messages -> {
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            messages.forEach(message -> handled.add(message.getMessage()));
+        }, message -> null, EventLoggerStdOut.INSTANCE);
+
+        for (int i = 0; i < 6; i++) {
+            dispatcher.dispatch(message("slow-" + i, "a"));
+        }
+        assertTrue("each message is handled within the timeout", dispatcher.awaitDrained(Duration.ofMillis(200)));
+        assertEquals(6, handled.size());
+        assertEquals(0, dispatcher.pendingCount());
+        dispatcher.close(Duration.ofSeconds(5));
+    }
+
+    @Test
+    public void dispatchAfterCloseIsHandledDirectly() {
+        release.countDown();
+        EventMessageDispatcher dispatcher = createDispatcher(MessageBackpressure.BLOCK);
+        dispatcher.close(Duration.ofSeconds(5));
+
+        dispatcher.dispatch(message("late", "a"));
+        assertEquals(List.of("late"), handled);
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ *    Copyright 2020-2023  Peter Paul Bakker @ perfana.io, Daniel Moll @ perfana.io
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.perfana.event;
+
+import io.perfana.eventscheduler.EventMessageBusSimple;
+import io.perfana.eventscheduler.api.config.TestConfig;
+import io.perfana.eventscheduler.exception.handler.KillSwitchException;
+import io.perfana.eventscheduler.log.EventLoggerStdOut;
+import io.perfana.stub.PerfanaSimulator;
+import io.perfana.stub.PerfanaStubServer;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
+
+/**
+ * Async keep alive calls, with an abort requested by Perfana in the reply.
+ */
+public class PerfanaEventKeepAliveTest {
+
+    private static PerfanaEvent createPerfanaEvent(PerfanaSimulator simulator, String testRunId) {
+        PerfanaEventConfig eventConfig = new PerfanaEventConfig();
+        eventConfig.setName("perfana");
+        eventConfig.setPerfanaUrl(simulator.getUrl());
+        eventConfig.setAssertResultsEnabled(false);
+        return new PerfanaEvent(eventConfig.toContext(),
+                TestConfig.builder().testRunId(testRunId).build().toContext(), new EventMessageBusSimple(), EventLoggerStdOut.INSTANCE);
+    }
+
+    private static List<String> eventBodies(PerfanaSimulator simulator) {
+        return simulator.getRecordedCalls().stream()
+                .filter(call -> call.getPath().equals("/api/events"))
+                .map(PerfanaStubServer.RecordedCall::getBody)
+                .collect(Collectors.toList());
+    }
+
+    @Test
+    public void abortInReplyToLastKeepAliveIsReportedAtTestEnd() throws Exception {
+        try (PerfanaSimulator simulator = PerfanaSimulator.builder().abortAfter(0, "stop the test").start()) {
+            PerfanaEvent event = createPerfanaEvent(simulator, "keep-alive-1");
+            event.beforeTest();
+            event.startTest();
+            // the test ends before a next keep alive can throw the abort
+            event.keepAlive();
+            event.afterTest();
+
+            String testEnd = eventBodies(simulator).get(1);
+            assertTrue(testEnd, testEnd.contains("Test abort"));
+            assertTrue(testEnd, testEnd.contains("stop the test"));
+        }
+    }
+
+    @Test
+    public void abortInReplyIsThrownByNextKeepAlive() throws Exception {
+        try (PerfanaSimulator simulator = PerfanaSimulator.builder().abortAfter(0, "stop the test").start()) {
+            PerfanaEvent event = createPerfanaEvent(simulator, "keep-alive-2");
+            event.beforeTest();
+            event.startTest();
+            event.keepAlive();
+            KillSwitchException thrown = null;
+            for (int i = 0; i < 100 && thrown == null; i++) {
+                Thread.sleep(20);
+                try {
+                    event.keepAlive();
+                } catch (KillSwitchException e) {
+                    thrown = e;
+                }
+            }
+            assertNotNull("keep alive should throw the abort", thrown);
+            assertTrue(thrown.getMessage(), thrown.getMessage().contains("stop the test"));
+            event.abortTest();
+
+            String testAborted = eventBodies(simulator).get(1);
+            assertTrue(testAborted, testAborted.contains("stop the test"));
+        }
+    }
+}
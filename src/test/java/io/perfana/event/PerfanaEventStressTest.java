@@ -0,0 +1,256 @@
+/*
+ *    Copyright 2020-2023  Peter Paul Bakker @ perfana.io, Daniel Moll @ perfana.io
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.perfana.event;
+
+import com.sun.management.UnixOperatingSystemMXBean;
+import io.perfana.eventscheduler.EventMessageBusSimple;
+import io.perfana.eventscheduler.api.CustomEvent;
+import io.perfana.eventscheduler.api.EventLogger;
+import io.perfana.eventscheduler.api.EventStatus;
+import io.perfana.eventscheduler.api.config.TestConfig;
+import io.perfana.eventscheduler.api.message.EventMessage;
+import io.perfana.eventscheduler.api.message.EventMessageBus;
+import io.perfana.eventscheduler.log.EventLoggerStdOut;
+import io.perfana.stub.PerfanaSimulator;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.OperatingSystemMXBean;
+import java.lang.management.ThreadMXBean;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
+
+/**
+ * Many concurrent test runs in one JVM, like a long-running load generator host, against the simulator.
+ * Each test run has its own PerfanaEvent and message bus, with keep alives and messages from other plugins.
+ *
+ * After a warm-up round the shared resources (connection pool, http dispatcher, simulator workers) are in
+ * use, so after each next round the live threads, open sockets and heap should be back at that level.
+ *
+ * Only runs with the stress profile: ./mvnw -Pstress test. For a soak test, add more rounds,
+ * e.g. -Dperfana.stress.rounds=50.
+ */
+public class PerfanaEventStressTest {
+
+    private static final int RUNS = Integer.getInteger("perfana.stress.runs", 200);
+    private static final int ROUNDS = Integer.getInteger("perfana.stress.rounds", 3);
+    private static final int KEEP_ALIVES = Integer.getInteger("perfana.stress.keepAlives", 20);
+    private static final String TRANSPORT = System.getProperty("perfana.stress.transport", "");
+
+    private static final int MAX_EXTRA_THREADS = Integer.getInteger("perfana.stress.maxExtraThreads", 20);
+    private static final int MAX_EXTRA_FILE_DESCRIPTORS = Integer.getInteger("perfana.stress.maxExtraFileDescriptors", 40);
+    private static final long MAX_HEAP_GROWTH_BYTES = Long.getLong("perfana.stress.maxHeapGrowthMb", 32) * 1024 * 1024;
+    private static final long MAX_P99_KEEP_ALIVE_MILLIS = Long.getLong("perfana.stress.maxP99KeepAliveMillis", 1000);
+
+    private static final Duration SETTLE_TIMEOUT = Duration.ofSeconds(30);
+
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+    private static final MemoryMXBean MEMORY = ManagementFactory.getMemoryMXBean();
+    private static final OperatingSystemMXBean OS = ManagementFactory.getOperatingSystemMXBean();
+
+    private static PerfanaSimulator simulator;
+
+    @BeforeClass
+    public static void startSimulator() throws Exception {
+        simulator = PerfanaSimulator.builder()
+                .latency(Duration.ZERO, Duration.ofMillis(2))
+                .checkResultsPending(2, 0)
+                .recordCapacity(0)
+                .start();
+    }
+
+    @AfterClass
+    public static void stopSimulator() {
+        simulator.close();
+    }
+
+    @Test
+    public void concurrentTestRunsStayWithinBounds() throws Exception {
+        runRound("warm-up");
+
+        int baselineThreads = settledThreadCount(Integer.MAX_VALUE);
+        long baselineFileDescriptors = settledFileDescriptorCount(Long.MAX_VALUE);
+        long baselineHeap = usedHeapAfterGc();
+
+        for (int round = 1; round <= ROUNDS; round++) {
+            THREADS.resetPeakThreadCount();
+            long[] keepAliveNanos = runRound("round-" + round);
+
+            // each test run: its driver thread, a message worker, a config batcher and, for the jdk transport,
+            // a worker of the http client for its call in flight
+            int maxPeakThreads = baselineThreads + RUNS * 4 + MAX_EXTRA_THREADS;
+            assertTrue("peak threads " + THREADS.getPeakThreadCount() + " > " + maxPeakThreads,
+                    THREADS.getPeakThreadCount() <= maxPeakThreads);
+
+            long p99Millis = TimeUnit.NANOSECONDS.toMillis(percentile(keepAliveNanos, 0.99));
+            assertTrue("p99 keep alive " + p99Millis + " ms > " + MAX_P99_KEEP_ALIVE_MILLIS + " ms in round " + round,
+                    p99Millis <= MAX_P99_KEEP_ALIVE_MILLIS);
+
+            int maxThreads = baselineThreads + MAX_EXTRA_THREADS;
+            int threads = settledThreadCount(maxThreads);
+            assertTrue("live threads " + threads + " > " + maxThreads + " after round " + round + ": " + threadGroups(),
+                    threads <= maxThreads);
+
+            long maxFileDescriptors = baselineFileDescriptors + MAX_EXTRA_FILE_DESCRIPTORS;
+            long fileDescriptors = settledFileDescriptorCount(maxFileDescriptors);
+            assertTrue("open file descriptors " + fileDescriptors + " > " + maxFileDescriptors + " after round " + round,
+                    fileDescriptors <= maxFileDescriptors);
+
+            System.out.printf("stress round %d: %d test runs, p99 keep alive %d ms, peak threads %d, threads %d, file descriptors %d, heap %d KB%n",
+                    round, RUNS, p99Millis, THREADS.getPeakThreadCount(), threads, fileDescriptors, usedHeapAfterGc() / 1024);
+        }
+
+        long heapGrowth = usedHeapAfterGc() - baselineHeap;
+        assertTrue("heap grew " + heapGrowth / 1024 + " KB in " + ROUNDS + " rounds", heapGrowth <= MAX_HEAP_GROWTH_BYTES);
+    }
+
+    /**
+     * @return the duration of all keep alive calls
+     */
+    private long[] runRound(String name) throws Exception {
+        ExecutorService drivers = Executors.newFixedThreadPool(RUNS);
+        CountDownLatch start = new CountDownLatch(1);
+        try {
+            List<Future<long[]>> runs = new ArrayList<>(RUNS);
+            for (int i = 0; i < RUNS; i++) {
+                String testRunId = "stress-" + name + "-" + i;
+                runs.add(drivers.submit(() -> {
+                    start.await();
+                    return testRun(testRunId);
+                }));
+            }
+            start.countDown();
+
+            long[] keepAliveNanos = new long[RUNS * KEEP_ALIVES];
+            for (int i = 0; i < RUNS; i++) {
+                System.arraycopy(runs.get(i).get(5, TimeUnit.MINUTES), 0, keepAliveNanos, i * KEEP_ALIVES, KEEP_ALIVES);
+            }
+            return keepAliveNanos;
+        } finally {
+            drivers.shutdownNow();
+            assertTrue(drivers.awaitTermination(10, TimeUnit.SECONDS));
+        }
+    }
+
+    private static long[] testRun(String testRunId) throws InterruptedException {
+        PerfanaEventConfig eventConfig = new PerfanaEventConfig();
+        eventConfig.setName("stress");
+        eventConfig.setPerfanaUrl(simulator.getUrl());
+        eventConfig.setAssertResultsEnabled(true);
+        eventConfig.setRetryMinDelaySeconds(0);
+        eventConfig.setTestRunConfigFlushWindowMillis(50);
+        eventConfig.setTransport(TRANSPORT);
+
+        EventLogger logger = EventLoggerStdOut.INSTANCE;
+        EventMessageBus messageBus = new EventMessageBusSimple();
+        PerfanaEvent event = new PerfanaEvent(eventConfig.toContext(),
+                TestConfig.builder().systemUnderTest("stress").testRunId(testRunId).build().toContext(), messageBus, logger);
+
+        long[] keepAliveNanos = new long[KEEP_ALIVES];
+        event.beforeTest();
+        event.startTest();
+        for (int i = 0; i < KEEP_ALIVES; i++) {
+            messageBus.send(EventMessage.builder().pluginName("stress-plugin").variable("iteration", String.valueOf(i)).build());
+            messageBus.send(EventMessage.builder().pluginName("stress-plugin")
+                    .variable("message-type", "test-run-config")
+                    .variable("output", "key")
+                    .variable("key", "stress.iteration." + i)
+                    .variable("tags", "stress")
+                    .message(String.valueOf(i))
+                    .build());
+            long start = System.nanoTime();
+            event.keepAlive();
+            keepAliveNanos[i] = System.nanoTime() - start;
+            Thread.sleep(5);
+        }
+        event.customEvent(new CustomEvent(Duration.ZERO, "stress-event", "stress test event"));
+        event.afterTest();
+
+        assertEquals(event.check().getMessage(), EventStatus.SUCCESS, event.check().getEventStatus());
+        return keepAliveNanos;
+    }
+
+    private static long percentile(long[] values, double percentile) {
+        long[] sorted = values.clone();
+        Arrays.sort(sorted);
+        return sorted[(int) Math.ceil(percentile * sorted.length) - 1];
+    }
+
+    /**
+     * Threads and connections end asynchronously, e.g. idle connections are evicted by a background task.
+     */
+    private static int settledThreadCount(int max) throws InterruptedException {
+        return (int) settle(THREADS::getThreadCount, max);
+    }
+
+    private static long settledFileDescriptorCount(long max) throws InterruptedException {
+        if (!(OS instanceof UnixOperatingSystemMXBean)) {
+            return 0;
+        }
+        return settle(((UnixOperatingSystemMXBean) OS)::getOpenFileDescriptorCount, max);
+    }
+
+    /**
+     * @return the count when it is at most max and did not change for a second, or the count at the timeout
+     */
+    private static long settle(LongSupplier count, long max) throws InterruptedException {
+        long deadline = System.nanoTime() + SETTLE_TIMEOUT.toNanos();
+        long previous = count.getAsLong();
+        int stableSamples = 0;
+        while (System.nanoTime() < deadline) {
+            Thread.sleep(200);
+            long current = count.getAsLong();
+            stableSamples = current == previous ? stableSamples + 1 : 0;
+            if (current <= max && stableSamples >= 5) {
+                return current;
+            }
+            previous = current;
+        }
+        return count.getAsLong();
+    }
+
+    private static long usedHeapAfterGc() throws InterruptedException {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+        return MEMORY.getHeapMemoryUsage().getUsed();
+    }
+
+    /**
+     * @return number of live threads per name without the sequence number, e.g. perfana-messages-stress-
+     */
+    private static Map<String, Long> threadGroups() {
+        return Thread.getAllStackTraces().keySet().stream()
+                .collect(Collectors.groupingBy(thread -> thread.getName().replaceAll("\\d+$", ""), TreeMap::new, Collectors.counting()));
+    }
+}
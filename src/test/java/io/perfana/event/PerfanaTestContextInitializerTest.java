@@ -0,0 +1,56 @@
+/*
+ *    Copyright 2020-2023  Peter Paul Bakker @ perfana.io, Daniel Moll @ perfana.io
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.perfana.event;
+
+import io.perfana.eventscheduler.api.config.TestConfig;
+import io.perfana.eventscheduler.api.config.TestContext;
+import io.perfana.eventscheduler.log.EventLoggerStdOut;
+import io.perfana.stub.PerfanaSimulator;
+import org.junit.Test;
+
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static org.junit.Assert.*;
+
+public class PerfanaTestContextInitializerTest {
+
+    @Test
+    public void initDoesNotLockTheOutboxOfTheEvent() throws Exception {
+        Path outboxDirectory = Files.createTempDirectory("perfana-outbox");
+        try (PerfanaSimulator simulator = PerfanaSimulator.builder().start()) {
+            PerfanaEventConfig eventConfig = new PerfanaEventConfig();
+            eventConfig.setName("perfana");
+            eventConfig.setPerfanaUrl(simulator.getUrl());
+            eventConfig.setOverrideTestRunId(true);
+            eventConfig.setOutboxDirectory(outboxDirectory.toString());
+
+            TestContext testContext = new PerfanaTestContextInitializer(eventConfig.toContext(), EventLoggerStdOut.INSTANCE)
+                    .extendTestContext(TestConfig.builder().testRunId("init-1").build().toContext());
+            assertTrue(testContext.getTestRunId().startsWith("simulated-test-run-"));
+
+            // the outbox of the event can still be locked, within this jvm an overlapping lock throws
+            Path eventOutbox = Files.createDirectories(outboxDirectory.resolve("perfana"));
+            try (FileChannel channel = FileChannel.open(eventOutbox.resolve("outbox.lock"), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+                 FileLock lock = channel.tryLock()) {
+                assertNotNull(lock);
+            }
+        }
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ *    Copyright 2020-2023  Peter Paul Bakker @ perfana.io, Daniel Moll @ perfana.io
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.perfana.event;
+
+import io.perfana.client.api.PerfanaTestContext;
+import io.perfana.client.api.TestContextBuilder;
+import io.perfana.client.domain.ConfigItem;
+import io.perfana.client.domain.TestRunConfigKeys;
+import io.perfana.eventscheduler.log.EventLoggerStdOut;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TestRunConfigBatcherTest {
+
+    private final List<TestRunConfigKeys> uploads = new CopyOnWriteArrayList<>();
+
+    private final PerfanaTestContext context = new TestContextBuilder()
+            .setWorkload("testType")
+            .setTestEnvironment("testEnv")
+            .setTestRunId("testRunId")
+            .setSystemUnderTest("app")
+            .setVariables(Collections.emptyMap())
+            .setTags("")
+            .build();
+
+    private TestRunConfigBatcher createBatcher(Duration flushWindow) {
+        return new TestRunConfigBatcher("test", context, flushWindow, uploads::add, EventLoggerStdOut.INSTANCE);
+    }
+
+    @Test
+    public void flushMergesAndDedupesPerTagSet() {
+        TestRunConfigBatcher batcher = createBatcher(Duration.ofMinutes(1));
+
+        batcher.add(List.of("jvm"), List.of(new ConfigItem("heap", "1g")));
+        batcher.add(List.of("jvm"), List.of(new ConfigItem("gc", "G1"), new ConfigItem("heap", "2g")));
+        batcher.add(List.of("k8s"), List.of(new ConfigItem("replicas", "3")));
+
+        assertTrue("nothing is uploaded before the flush window has passed", uploads.isEmpty());
+
+        batcher.flush();
+
+        assertEquals(2, uploads.size());
+
+        TestRunConfigKeys jvm = uploads.get(0);
+        assertEquals("testRunId", jvm.getTestRunId());
+        assertEquals("app", jvm.getApplication());
+        assertEquals(List.of("jvm"), jvm.getTags());
+        assertEquals(List.of(new ConfigItem("heap", "2g"), new ConfigItem("gc", "G1")), jvm.getConfigItems());
+
+        assertEquals(List.of(new ConfigItem("replicas", "3")), uploads.get(1).getConfigItems());
+
+        batcher.flush();
+        assertEquals("empty flush uploads nothing", 2, uploads.size());
+        batcher.close();
+    }
+
+    @Test
+    public void flushAfterWindow() throws InterruptedException {
+        TestRunConfigBatcher batcher = createBatcher(Duration.ofMillis(50));
+
+        batcher.add(List.of(""), List.of(new ConfigItem("key", "value")));
+
+        long deadline = System.currentTimeMillis() + 5_000;
+        while (uploads.isEmpty() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(1, uploads.size());
+        batcher.close();
+    }
+
+    @Test
+    public void addAfterCloseUploadsDirectly() {
+        TestRunConfigBatcher batcher = createBatcher(Duration.ofMinutes(1));
+        batcher.add(List.of("a"), List.of(new ConfigItem("one", "1")));
+        batcher.close();
+        assertEquals(1, uploads.size());
+
+        batcher.add(List.of("a"), List.of(new ConfigItem("two", "2")));
+        assertEquals(2, uploads.size());
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ *    Copyright 2020-2023  Peter Paul Bakker @ perfana.io, Daniel Moll @ perfana.io
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.perfana.event;
+
+import io.perfana.client.api.PerfanaTestContext;
+import io.perfana.client.api.TestContextBuilder;
+import io.perfana.client.domain.ConfigItem;
+import io.perfana.client.domain.TestRunConfigJson;
+import io.perfana.client.domain.TestRunConfigKeyValue;
+import io.perfana.eventscheduler.util.TestRunConfigUtil;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
+public class TestRunConfigMessagesTest {
+
+    private final PerfanaTestContext context = new TestContextBuilder()
+            .setWorkload("testType")
+            .setTestEnvironment("testEnv")
+            .setTestRunId("testRunId")
+            .setSystemUnderTest("app")
+            .setVariables(Collections.emptyMap())
+            .setTags("")
+            .build();
+
+    @Test
+    public void keyValue() {
+        TestRunConfigKeyValue keyValue = TestRunConfigMessages.keyValue(context, Map.of("key", "heap", "tags", "jvm,memory"), null);
+        assertEquals("heap", keyValue.getKey());
+        assertEquals("", keyValue.getValue());
+        assertEquals(List.of("jvm", "memory"), keyValue.getTags());
+        assertEquals("app", keyValue.getApplication());
+        assertEquals("testType", keyValue.getTestType());
+    }
+
+    @Test
+    public void json() {
+        TestRunConfigJson json = TestRunConfigMessages.json(context, Map.of("includes", "a,b", "excludes", "c"), "{\"a\":1}");
+        assertEquals(List.of("a", "b"), json.getInclude());
+        assertEquals(List.of("c"), json.getExclude());
+        assertEquals(List.of(""), json.getTags());
+        assertEquals("{\"a\":1}", json.getJson());
+    }
+
+    @Test
+    public void configItems() {
+        String message = String.join(TestRunConfigUtil.MESSAGE_KEY_VALUE_DELIMITER, "gc", "G1", "empty", "");
+        assertEquals(List.of(new ConfigItem("gc", "G1"), new ConfigItem("empty", "")), TestRunConfigMessages.configItems(message));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void configItemsUneven() {
+        TestRunConfigMessages.configItems(String.join(TestRunConfigUtil.MESSAGE_KEY_VALUE_DELIMITER, "gc", "G1", "heap"));
+    }
+}
@@ -0,0 +1,454 @@
+/*
+ *    Copyright 2020-2023  Peter Paul Bakker @ perfana.io, Daniel Moll @ perfana.io
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.perfana.stub;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Embedded Perfana that behaves like Perfana over time, for load, retry and latency tests
+ * of the client without network access.
+ *
+ * Replies follow a {@link Script} per path prefix: a sequence of steps, each used for a number
+ * of calls, counted per test run. E.g. keep alive calls that get abort after 10 calls, check
+ * results that are pending (202) for 3 polls, or a 503 burst every 100 calls. Paths without a
+ * script get the normal Perfana replies. Latency can be added per step and for all calls.
+ *
+ * Calls are counted per path and the last calls are recorded. Replies are sent from a worker
+ * pool and delays do not block workers, so thousands of calls per second are no problem.
+ *
+ * Note: the JDK http server is slow (about 40 ms per reply) without TCP_NODELAY. This class sets
+ * sun.net.httpserver.nodelay, which only works when no http server was started before in the JVM;
+ * otherwise set it on the command line, e.g. in the surefire argLine.
+ */
+public class PerfanaSimulator implements AutoCloseable {
+
+    static final String NODELAY_PROPERTY = "sun.net.httpserver.nodelay";
+
+    static {
+        if (System.getProperty(NODELAY_PROPERTY) == null) {
+            System.setProperty(NODELAY_PROPERTY, "true");
+        }
+    }
+
+    public static final String ABORT_FALSE = "{\"abort\":false}";
+    public static final String BENCHMARK_OK = "{\"requirements\":{\"result\":true,\"deeplink\":\"http://perfana/requirements\"},"
+            + "\"benchmarkPreviousTestRun\":{\"result\":true,\"deeplink\":\"http://perfana/previous\"},"
+            + "\"benchmarkBaselineTestRun\":{\"result\":true,\"deeplink\":\"http://perfana/baseline\"}}";
+
+    private static final Pattern TEST_RUN_ID = Pattern.compile("\"testRunId\"\\s*:\\s*\"([^\"]*)\"");
+    private static final String BENCHMARK_RESULTS_PATH = "/api/benchmark-results/";
+
+    private final HttpServer server;
+    private final ExecutorService workers;
+    private final ScheduledExecutorService delayer;
+
+    private final Map<String, Script> scripts;
+    private final Duration minLatency;
+    private final Duration maxLatency;
+
+    private final AtomicLong testRunCounter = new AtomicLong();
+    private final LongAdder received = new LongAdder();
+    private final Map<String, LongAdder> receivedByPath = new ConcurrentHashMap<>();
+    private final Map<String, AtomicLong> callCounters = new ConcurrentHashMap<>();
+
+    private final int recordCapacity;
+    // guarded by itself
+    private final Deque<PerfanaStubServer.RecordedCall> recorded = new ArrayDeque<>();
+
+    private PerfanaSimulator(Builder builder) throws IOException {
+        this.scripts = new LinkedHashMap<>(builder.scripts);
+        this.minLatency = builder.minLatency;
+        this.maxLatency = builder.maxLatency;
+        this.recordCapacity = builder.recordCapacity;
+        this.workers = Executors.newFixedThreadPool(builder.workers, daemon("perfana-simulator"));
+        this.delayer = Executors.newSingleThreadScheduledExecutor(daemon("perfana-simulator-delay"));
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), builder.port), builder.backlog);
+        server.setExecutor(workers);
+        server.createContext("/", this::handle);
+        server.start();
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * @return simulator with the normal Perfana replies
+     */
+    public static PerfanaSimulator start() throws IOException {
+        return builder().start();
+    }
+
+    public String getUrl() {
+        return "http://localhost:" + server.getAddress().getPort();
+    }
+
+    /**
+     * @return number of calls received
+     */
+    public long getReceivedCount() {
+        return received.sum();
+    }
+
+    /**
+     * @return number of calls received for exactly this path, e.g. /api/test
+     */
+    public long getReceivedCount(String path) {
+        LongAdder count = receivedByPath.get(path);
+        return count == null ? 0 : count.sum();
+    }
+
+    /**
+     * @return the last recorded calls, oldest first
+     */
+    public List<PerfanaStubServer.RecordedCall> getRecordedCalls() {
+        synchronized (recorded) {
+            return new ArrayList<>(recorded);
+        }
+    }
+
+    /**
+     * Forget the recorded calls and the counters, the scripts start again.
+     */
+    public void reset() {
+        synchronized (recorded) {
+            recorded.clear();
+        }
+        callCounters.clear();
+        receivedByPath.clear();
+        received.reset();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        delayer.shutdownNow();
+        workers.shutdownNow();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            String method = exchange.getRequestMethod();
+            String path = exchange.getRequestURI().getPath();
+            String contentEncoding = exchange.getRequestHeaders().getFirst("Content-Encoding");
+            String body = new String(PerfanaStubServer.decode(contentEncoding, exchange.getRequestBody()), StandardCharsets.UTF_8);
+
+            received.increment();
+            receivedByPath.computeIfAbsent(path, p -> new LongAdder()).increment();
+            record(new PerfanaStubServer.RecordedCall(method, path,
+                    exchange.getRequestHeaders().getFirst(PerfanaStubServer.IDEMPOTENCY_KEY_HEADER), contentEncoding,
+                    exchange.getRequestHeaders().getFirst(PerfanaStubServer.TRACE_PARENT_HEADER), body));
+
+            String testRunId = testRunId(path, body);
+            Step step = step(path, testRunId);
+            long delayMillis = step.delay.toMillis() + latencyMillis();
+            if (delayMillis > 0) {
+                delayer.schedule(() -> workers.execute(() -> send(exchange, step, testRunId)), delayMillis, TimeUnit.MILLISECONDS);
+            } else {
+                send(exchange, step, testRunId);
+            }
+        } catch (IOException | RuntimeException e) {
+            exchange.close();
+            throw e;
+        }
+    }
+
+    private void record(PerfanaStubServer.RecordedCall call) {
+        if (recordCapacity == 0) {
+            return;
+        }
+        synchronized (recorded) {
+            if (recorded.size() == recordCapacity) {
+                recorded.removeFirst();
+            }
+            recorded.addLast(call);
+        }
+    }
+
+    private Step step(String path, String testRunId) {
+        for (Map.Entry<String, Script> entry : scripts.entrySet()) {
+            if (path.startsWith(entry.getKey())) {
+                long callNumber = callCounters.computeIfAbsent(entry.getKey() + " " + testRunId, key -> new AtomicLong()).getAndIncrement();
+                return entry.getValue().step(callNumber);
+            }
+        }
+        return defaultStep(path);
+    }
+
+    private Step defaultStep(String path) {
+        if (path.equals("/api/init")) {
+            return Step.reply(200, "{\"testRunId\":\"simulated-test-run-" + testRunCounter.incrementAndGet() + "\"}");
+        }
+        if (path.equals("/api/test")) {
+            return Step.reply(200, ABORT_FALSE);
+        }
+        if (path.startsWith(BENCHMARK_RESULTS_PATH)) {
+            return Step.reply(200, BENCHMARK_OK);
+        }
+        if (path.equals("/api/events") || path.startsWith("/api/config/")) {
+            return Step.reply(200, "");
+        }
+        return Step.reply(404, "{\"message\":[\"unknown path " + path + "\"]}");
+    }
+
+    private long latencyMillis() {
+        long min = minLatency.toMillis();
+        long max = maxLatency.toMillis();
+        return max <= min ? min : ThreadLocalRandom.current().nextLong(min, max + 1);
+    }
+
+    /**
+     * The test run of the call: the last path segment for the check results, otherwise the
+     * testRunId in the body. Empty when not known.
+     */
+    private static String testRunId(String path, String body) {
+        if (path.startsWith(BENCHMARK_RESULTS_PATH)) {
+            return URLDecoder.decode(path.substring(path.lastIndexOf('/') + 1), StandardCharsets.UTF_8);
+        }
+        Matcher matcher = TEST_RUN_ID.matcher(body);
+        return matcher.find() ? matcher.group(1) : "";
+    }
+
+    private static void send(HttpExchange exchange, Step step, String testRunId) {
+        try (exchange) {
+            if (step.dropConnection) {
+                return;
+            }
+            byte[] bytes = step.body.replace("${testRunId}", testRunId).getBytes(StandardCharsets.UTF_8);
+            step.headers.forEach((name, value) -> exchange.getResponseHeaders().add(name, value));
+            exchange.getResponseHeaders().add("Content-Type", "application/json");
+            boolean noBody = bytes.length == 0 || step.status == 204;
+            exchange.sendResponseHeaders(step.status, noBody ? -1 : bytes.length);
+            if (!noBody) {
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(bytes);
+                }
+            }
+        } catch (IOException e) {
+            // client is gone, e.g. after a timeout
+        }
+    }
+
+    private static java.util.concurrent.ThreadFactory daemon(String name) {
+        AtomicLong count = new AtomicLong();
+        return runnable -> {
+            Thread thread = new Thread(runnable, name + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * One scripted reply. Immutable, the with methods return a copy.
+     */
+    public static final class Step {
+        private final int status;
+        private final String body;
+        private final Map<String, String> headers;
+        private final Duration delay;
+        private final int times;
+        private final boolean dropConnection;
+
+        private Step(int status, String body, Map<String, String> headers, Duration delay, int times, boolean dropConnection) {
+            this.status = status;
+            this.body = body;
+            this.headers = headers;
+            this.delay = delay;
+            this.times = times;
+            this.dropConnection = dropConnection;
+        }
+
+        /**
+         * @param body reply body, ${testRunId} is replaced with the test run id of the call
+         */
+        public static Step reply(int status, String body) {
+            return new Step(status, body, Collections.emptyMap(), Duration.ZERO, 1, false);
+        }
+
+        /**
+         * The connection is closed without a reply, like a reply lost in the network.
+         */
+        public static Step drop() {
+            return new Step(0, "", Collections.emptyMap(), Duration.ZERO, 1, true);
+        }
+
+        /**
+         * @param times number of calls that get this reply (default 1)
+         */
+        public Step times(int times) {
+            if (times < 1) {
+                throw new IllegalArgumentException("times should be at least 1: " + times);
+            }
+            return new Step(status, body, headers, delay, times, dropConnection);
+        }
+
+        public Step delay(Duration delay) {
+            return new Step(status, body, headers, delay, times, dropConnection);
+        }
+
+        public Step header(String name, String value) {
+            Map<String, String> copy = new LinkedHashMap<>(headers);
+            copy.put(name, value);
+            return new Step(status, body, Collections.unmodifiableMap(copy), delay, times, dropConnection);
+        }
+    }
+
+    /**
+     * Replies for the calls of one test run to a path: the steps in order. After the last step,
+     * the last step repeats, or with {@link #cycle()} the script starts again.
+     */
+    public static final class Script {
+        private final List<Step> steps;
+        private final boolean cycle;
+        private final long length;
+
+        private Script(List<Step> steps, boolean cycle) {
+            if (steps.isEmpty()) {
+                throw new IllegalArgumentException("script needs at least one step");
+            }
+            this.steps = List.copyOf(steps);
+            this.cycle = cycle;
+            this.length = steps.stream().mapToLong(step -> step.times).sum();
+        }
+
+        public static Script of(Step... steps) {
+            return new Script(List.of(steps), false);
+        }
+
+        public Script cycle() {
+            return new Script(steps, true);
+        }
+
+        Step step(long callNumber) {
+            long n = cycle ? callNumber % length : callNumber;
+            for (Step step : steps) {
+                if (n < step.times) {
+                    return step;
+                }
+                n -= step.times;
+            }
+            return steps.get(steps.size() - 1);
+        }
+    }
+
+    public static final class Builder {
+        private final Map<String, Script> scripts = new LinkedHashMap<>();
+        private Duration minLatency = Duration.ZERO;
+        private Duration maxLatency = Duration.ZERO;
+        private int recordCapacity = 10_000;
+        private int workers = Math.max(4, Runtime.getRuntime().availableProcessors());
+        private int port = 0;
+        private int backlog = 1024;
+
+        private Builder() {}
+
+        /**
+         * Replies for the paths that start with pathPrefix, the first matching prefix is used.
+         */
+        public Builder script(String pathPrefix, Script script) {
+            scripts.put(pathPrefix, script);
+            return this;
+        }
+
+        /**
+         * Keep alive calls get abort after the given number of calls per test run.
+         */
+        public Builder abortAfter(int keepAliveCalls, String abortMessage) {
+            String abort = "{\"abort\":true,\"abortMessage\":\"" + abortMessage + "\"}";
+            return script("/api/test", keepAliveCalls == 0
+                    ? Script.of(Step.reply(200, abort))
+                    : Script.of(Step.reply(200, ABORT_FALSE).times(keepAliveCalls), Step.reply(200, abort)));
+        }
+
+        /**
+         * The check results are pending (202, with a Retry-After header) for the given number of polls per test run.
+         */
+        public Builder checkResultsPending(int polls, int retryAfterSeconds) {
+            Step pending = Step.reply(202, "{\"message\":\"evaluation in progress\"}")
+                    .header("Retry-After", String.valueOf(retryAfterSeconds));
+            return script(BENCHMARK_RESULTS_PATH, polls == 0
+                    ? Script.of(Step.reply(200, BENCHMARK_OK))
+                    : Script.of(pending.times(polls), Step.reply(200, BENCHMARK_OK)));
+        }
+
+        /**
+         * Calls to the path fail with status in bursts: after every okCalls successful calls, burstCalls fail.
+         */
+        public Builder errorBursts(String path, int okCalls, int burstCalls, int status, String okBody) {
+            return script(path, Script.of(Step.reply(200, okBody).times(okCalls), Step.reply(status, "").times(burstCalls)).cycle());
+        }
+
+        /**
+         * Latency added to each reply, random between min and max.
+         */
+        public Builder latency(Duration min, Duration max) {
+            this.minLatency = min;
+            this.maxLatency = max;
+            return this;
+        }
+
+        /**
+         * @param recordCapacity number of last calls that are kept, 0 to not record calls (default 10000)
+         */
+        public Builder recordCapacity(int recordCapacity) {
+            this.recordCapacity = recordCapacity;
+            return this;
+        }
+
+        public Builder workers(int workers) {
+            this.workers = workers;
+            return this;
+        }
+
+        /**
+         * @param port fixed port, default 0 for a free port
+         */
+        public Builder port(int port) {
+            this.port = port;
+            return this;
+        }
+
+        public PerfanaSimulator start() throws IOException {
+            return new PerfanaSimulator(this);
+        }
+    }
+}
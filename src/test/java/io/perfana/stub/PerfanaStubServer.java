@@ -0,0 +1,308 @@
+/*
+ *    Copyright 2020-2023  Peter Paul Bakker @ perfana.io, Daniel Moll @ perfana.io
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.perfana.stub;
+
+import com.github.luben.zstd.ZstdInputStream;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Minimal local Perfana for tests, on a free port.
+ *
+ * Posts with an Idempotency-Key header are processed once: a repeated key gets the stored reply
+ * (with header Idempotent-Replayed: true) and is not recorded again. Faults can be injected to
+ * test retries: replies with an error status, or replies that are lost after the call is processed.
+ * Request bodies with Content-Encoding gzip or zstd are decoded.
+ */
+public class PerfanaStubServer implements AutoCloseable {
+
+    public static final String IDEMPOTENCY_KEY_HEADER = "Idempotency-Key";
+    public static final String TRACE_PARENT_HEADER = "traceparent";
+
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "perfana-stub");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final Map<String, Reply> repliesByKey = new ConcurrentHashMap<>();
+
+    // guarded by this
+    private final List<RecordedCall> processed = new ArrayList<>();
+    private int received = 0;
+    private int failNextCount = 0;
+    private int failNextStatus = 503;
+    private int dropNextCount = 0;
+    private int delayNextCount = 0;
+    private Duration delay = Duration.ZERO;
+
+    private PerfanaStubServer(HttpServer server) {
+        this.server = server;
+    }
+
+    public static PerfanaStubServer start() throws IOException {
+        HttpServer httpServer = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        PerfanaStubServer stub = new PerfanaStubServer(httpServer);
+        httpServer.setExecutor(stub.executor);
+        httpServer.createContext("/", stub::handle);
+        httpServer.start();
+        return stub;
+    }
+
+    public String getUrl() {
+        return "http://localhost:" + server.getAddress().getPort();
+    }
+
+    /**
+     * The next count requests get this status and are not processed.
+     */
+    public synchronized void failNext(int count, int status) {
+        this.failNextCount = count;
+        this.failNextStatus = status;
+    }
+
+    /**
+     * The next count posts are processed, but the connection is closed without a reply.
+     */
+    public synchronized void dropNextReplies(int count) {
+        this.dropNextCount = count;
+    }
+
+    /**
+     * The replies of the next count requests are delayed, e.g. to test timeouts.
+     */
+    public synchronized void delayNext(int count, Duration delay) {
+        this.delayNextCount = count;
+        this.delay = delay;
+    }
+
+    /**
+     * @return number of requests received, including repeated and failed ones
+     */
+    public synchronized int getReceivedCount() {
+        return received;
+    }
+
+    /**
+     * @return calls processed by the stub, repeated calls with the same idempotency key only once
+     */
+    public synchronized List<RecordedCall> getProcessedCalls() {
+        return List.copyOf(processed);
+    }
+
+    public synchronized List<RecordedCall> getProcessedCalls(String path) {
+        List<RecordedCall> calls = new ArrayList<>();
+        processed.stream().filter(call -> call.getPath().equals(path)).forEach(calls::add);
+        return calls;
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            String method = exchange.getRequestMethod();
+            String path = exchange.getRequestURI().getPath();
+            String contentEncoding = exchange.getRequestHeaders().getFirst("Content-Encoding");
+            String body = new String(decode(contentEncoding, exchange.getRequestBody()), StandardCharsets.UTF_8);
+            String key = exchange.getRequestHeaders().getFirst(IDEMPOTENCY_KEY_HEADER);
+
+            boolean drop;
+            Duration replyDelay = Duration.ZERO;
+            synchronized (this) {
+                received++;
+                if (delayNextCount > 0) {
+                    delayNextCount--;
+                    replyDelay = delay;
+                }
+                if (failNextCount > 0) {
+                    failNextCount--;
+                    reply(exchange, new Reply(failNextStatus, ""), false);
+                    return;
+                }
+                drop = "POST".equals(method) && dropNextCount > 0;
+                if (drop) {
+                    dropNextCount--;
+                }
+            }
+
+            if (!replyDelay.isZero()) {
+                try {
+                    Thread.sleep(replyDelay.toMillis());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+
+            Reply reply;
+            boolean replayed = false;
+            if (key != null && repliesByKey.containsKey(key)) {
+                reply = repliesByKey.get(key);
+                replayed = true;
+            } else {
+                reply = process(new RecordedCall(method, path, key, contentEncoding,
+                        exchange.getRequestHeaders().getFirst(TRACE_PARENT_HEADER), body));
+                if (key != null) {
+                    repliesByKey.put(key, reply);
+                }
+            }
+            if (!drop) {
+                reply(exchange, reply, replayed);
+            }
+            // a dropped reply: the exchange is closed without sending anything
+        }
+    }
+
+    static byte[] decode(String contentEncoding, InputStream in) throws IOException {
+        if (contentEncoding == null || contentEncoding.equals("identity")) {
+            return in.readAllBytes();
+        }
+        if (contentEncoding.equals("gzip")) {
+            try (InputStream gzip = new GZIPInputStream(in)) {
+                return gzip.readAllBytes();
+            }
+        }
+        if (contentEncoding.equals("zstd")) {
+            try (InputStream zstd = new ZstdInputStream(in)) {
+                return zstd.readAllBytes();
+            }
+        }
+        throw new IOException("unsupported Content-Encoding: " + contentEncoding);
+    }
+
+    private Reply process(RecordedCall call) {
+        String path = call.getPath();
+        int callNumber;
+        synchronized (this) {
+            processed.add(call);
+            callNumber = processed.size();
+        }
+        if (path.equals("/api/init")) {
+            return new Reply(200, "{\"testRunId\":\"stub-test-run-" + callNumber + "\"}");
+        }
+        if (path.equals("/api/test")) {
+            return new Reply(200, "{\"abort\":false}");
+        }
+        if (path.startsWith("/api/benchmark-results/")) {
+            return new Reply(204, "");
+        }
+        if (path.equals("/api/events") || path.startsWith("/api/config/")) {
+            return new Reply(200, "");
+        }
+        return new Reply(404, "{\"message\":[\"unknown path " + path + "\"]}");
+    }
+
+    private static void reply(HttpExchange exchange, Reply reply, boolean replayed) throws IOException {
+        byte[] bytes = reply.body.getBytes(StandardCharsets.UTF_8);
+        if (replayed) {
+            exchange.getResponseHeaders().add("Idempotent-Replayed", "true");
+        }
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        boolean noBody = bytes.length == 0 || reply.status == 204;
+        exchange.sendResponseHeaders(reply.status, noBody ? -1 : bytes.length);
+        if (!noBody) {
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(bytes);
+            }
+        }
+    }
+
+    private static final class Reply {
+        private final int status;
+        private final String body;
+
+        private Reply(int status, String body) {
+            this.status = status;
+            this.body = body;
+        }
+    }
+
+    public static final class RecordedCall {
+        private final String method;
+        private final String path;
+        private final String idempotencyKey;
+        private final String contentEncoding;
+        private final String traceParent;
+        private final String body;
+
+        RecordedCall(String method, String path, String idempotencyKey, String contentEncoding, String traceParent, String body) {
+            this.method = method;
+            this.path = path;
+            this.idempotencyKey = idempotencyKey;
+            this.contentEncoding = contentEncoding;
+            this.traceParent = traceParent;
+            this.body = body;
+        }
+
+        public String getMethod() {
+            return method;
+        }
+
+        public String getPath() {
+            return path;
+        }
+
+        public String getIdempotencyKey() {
+            return idempotencyKey;
+        }
+
+        /**
+         * @return Content-Encoding of the request, null when not encoded
+         */
+        public String getContentEncoding() {
+            return contentEncoding;
+        }
+
+        /**
+         * @return W3C traceparent header of the request, null when not traced
+         */
+        public String getTraceParent() {
+            return traceParent;
+        }
+
+        /**
+         * @return the decoded body
+         */
+        public String getBody() {
+            return body;
+        }
+
+        @Override
+        public String toString() {
+            return method + " " + path + " [" + idempotencyKey + "] " + body;
+        }
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ *    Copyright 2020-2023  Peter Paul Bakker @ perfana.io, Daniel Moll @ perfana.io
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.perfana.test;
+
+import io.perfana.client.PerfanaClient;
+import io.perfana.client.PerfanaClientBuilder;
+import io.perfana.client.api.*;
+import io.perfana.client.domain.TestRunConfigJson;
+import io.perfana.stub.PerfanaStubServer;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Request compression, decoded by the stub server.
+ */
+public class PerfanaClientCompressionTest {
+
+    private final PerfanaTestContext testContext = new TestContextBuilder().setTestRunId("testRunId").build();
+
+    private PerfanaClient createPerfanaClient(PerfanaStubServer stub, Compression compression) {
+        PerfanaConnectionSettings settings = new PerfanaConnectionSettingsBuilder()
+                .setPerfanaUrl(stub.getUrl())
+                .setCompression(compression)
+                .setCompressionThreshold(1024)
+                .build();
+
+        return new PerfanaClientBuilder()
+                .setPerfanaConnectionSettings(settings)
+                .setTestContext(testContext)
+                .setLogger(new PerfanaClientLoggerStdOut())
+                .build();
+    }
+
+    private static TestRunConfigJson largeConfig() {
+        String manifest = "{\"items\":[" + String.join(",", Collections.nCopies(500, "{\"kind\":\"Deployment\",\"replicas\":3}")) + "]}";
+        return TestRunConfigJson.builder()
+                .testRunId("testRunId")
+                .tag("kubernetes")
+                .json(manifest)
+                .build();
+    }
+
+    @Test
+    public void largeBodyIsGzipped() throws Exception {
+        try (PerfanaStubServer stub = PerfanaStubServer.start()) {
+            PerfanaClient perfanaClient = createPerfanaClient(stub, Compression.GZIP);
+            perfanaClient.addTestRunConfigJson(largeConfig());
+
+            List<PerfanaStubServer.RecordedCall> calls = stub.getProcessedCalls("/api/config/json");
+            assertEquals(1, calls.size());
+            assertEquals("gzip", calls.get(0).getContentEncoding());
+            assertTrue(calls.get(0).getBody().contains("\"kind\":\"Deployment\""));
+
+            CompressionStatistics statistics = perfanaClient.getCompressionStatistics();
+            assertEquals(1, statistics.getCompressedRequests());
+            assertTrue("compression should save bytes: " + statistics, statistics.getBytesSaved() > 0);
+        }
+    }
+
+    @Test
+    public void largeBodyWithZstd() throws Exception {
+        try (PerfanaStubServer stub = PerfanaStubServer.start()) {
+            createPerfanaClient(stub, Compression.ZSTD).addTestRunConfigJson(largeConfig());
+
+            PerfanaStubServer.RecordedCall call = stub.getProcessedCalls("/api/config/json").get(0);
+            assertEquals("zstd", call.getContentEncoding());
+            assertTrue(call.getBody().contains("\"kind\":\"Deployment\""));
+        }
+    }
+
+    @Test
+    public void smallBodyIsNotCompressed() throws Exception {
+        try (PerfanaStubServer stub = PerfanaStubServer.start()) {
+            PerfanaClient perfanaClient = createPerfanaClient(stub, Compression.GZIP);
+            perfanaClient.callPerfanaEvent(testContext, "title", "description");
+
+            PerfanaStubServer.RecordedCall call = stub.getProcessedCalls("/api/events").get(0);
+            assertNull(call.getContentEncoding());
+            assertTrue(call.getBody().contains("\"description\":\"description\""));
+            assertEquals(0, perfanaClient.getCompressionStatistics().getCompressedRequests());
+        }
+    }
+
+    @Test
+    public void compressionIsOptIn() throws Exception {
+        try (PerfanaStubServer stub = PerfanaStubServer.start()) {
+            createPerfanaClient(stub, null).addTestRunConfigJson(largeConfig());
+
+            assertNull(stub.getProcessedCalls("/api/config/json").get(0).getContentEncoding());
+        }
+    }
+
+    @Test
+    public void compressionDisabled() throws Exception {
+        try (PerfanaStubServer stub = PerfanaStubServer.start()) {
+            createPerfanaClient(stub, Compression.NONE).addTestRunConfigJson(largeConfig());
+
+            PerfanaStubServer.RecordedCall call = stub.getProcessedCalls("/api/config/json").get(0);
+            assertNull(call.getContentEncoding());
+            assertTrue(call.getBody().contains("\"kind\":\"Deployment\""));
+        }
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ *    Copyright 2020-2023  Peter Paul Bakker @ perfana.io, Daniel Moll @ perfana.io
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.perfana.test;
+
+import io.perfana.client.PerfanaClient;
+import io.perfana.client.PerfanaClientBuilder;
+import io.perfana.client.api.*;
+import io.perfana.client.domain.TestRunConfigJson;
+import io.perfana.stub.PerfanaStubServer;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * The PerfanaClient with the java.net.http transport instead of OkHttp.
+ */
+public class PerfanaClientJdkTransportTest {
+
+    private final PerfanaTestContext testContext = new TestContextBuilder().setTestRunId("testRunId").build();
+
+    private PerfanaClient createPerfanaClient(PerfanaConnectionSettingsBuilder settingsBuilder) {
+        PerfanaConnectionSettings settings = settingsBuilder
+                .setTransport("jdk")
+                .setPostRetryPolicy(RetryPolicy.fixed(Duration.ofMillis(10), 3))
+                .setCircuitBreakerFailureRateThreshold(0)
+                .build();
+
+        return new PerfanaClientBuilder()
+                .setPerfanaConnectionSettings(settings)
+                .setTestContext(testContext)
+                .setLogger(new PerfanaClientLoggerStdOut())
+                .build();
+    }
+
+    private PerfanaClient createPerfanaClient(PerfanaStubServer stub) {
+        return createPerfanaClient(new PerfanaConnectionSettingsBuilder().setPerfanaUrl(stub.getUrl()));
+    }
+
+    @Test
+    public void eventsAndKeepAlive() throws Exception {
+        try (PerfanaStubServer stub = PerfanaStubServer.start()) {
+            PerfanaClient perfanaClient = createPerfanaClient(stub);
+            perfanaClient.callPerfanaEvent(testContext, "title", "description");
+            perfanaClient.callPerfanaEventAsync(testContext, "title", "async description").get(10, TimeUnit.SECONDS);
+            perfanaClient.callPerfanaTestEndpoint(testContext, false);
+
+            List<PerfanaStubServer.RecordedCall> events = stub.getProcessedCalls("/api/events");
+            assertEquals(2, events.size());
+            assertEquals("POST", events.get(0).getMethod());
+            assertNotNull(events.get(0).getIdempotencyKey());
+            assertEquals(1, stub.getProcessedCalls("/api/test").size());
+        }
+    }
+
+    @Test
+    public void unavailableIsRetried() throws Exception {
+        try (PerfanaStubServer stub = PerfanaStubServer.start()) {
+            stub.failNext(2, 503);
+
+            createPerfanaClient(stub).callPerfanaEvent(testContext, "title", "description");
+
+            assertEquals(3, stub.getReceivedCount());
+            assertEquals(1, stub.getProcessedCalls("/api/events").size());
+        }
+    }
+
+    @Test
+    public void lostReplyIsRetriedWithSameKey() throws Exception {
+        try (PerfanaStubServer stub = PerfanaStubServer.start()) {
+            stub.dropNextReplies(1);
+
+            createPerfanaClient(stub).callPerfanaEvent(testContext, "title", "description");
+
+            assertTrue("retried", stub.getReceivedCount() >= 2);
+            assertEquals("duplicate is suppressed", 1, stub.getProcessedCalls("/api/events").size());
+        }
+    }
+
+    @Test
+    public void stuckKeepAliveIsCutOffByCallTimeout() throws Exception {
+        try (PerfanaStubServer stub = PerfanaStubServer.start()) {
+            stub.delayNext(1, Duration.ofSeconds(5));
+            PerfanaClient perfanaClient = createPerfanaClient(new PerfanaConnectionSettingsBuilder()
+                    .setPerfanaUrl(stub.getUrl())
+                    .setCallTimeout(PerfanaEndpointGroup.KEEP_ALIVE, Duration.ofMillis(300)));
+
+            long start = System.nanoTime();
+            perfanaClient.callPerfanaTestEndpoint(testContext, false);
+            long durationMillis = (System.nanoTime() - start) / 1_000_000;
+
+            assertTrue("keep alive should stop at the call timeout: " + durationMillis + " ms", durationMillis < 2_000);
+        }
+    }
+
+    @Test
+    public void largeBodyIsGzipped() throws Exception {
+        try (PerfanaStubServer stub = PerfanaStubServer.start()) {
+            String manifest = "{\"items\":[" + String.join(",", Collections.nCopies(500, "{\"kind\":\"Deployment\"}")) + "]}";
+            createPerfanaClient(new PerfanaConnectionSettingsBuilder()
+                    .setPerfanaUrl(stub.getUrl())
+                    .setCompression(Compression.GZIP)).addTestRunConfigJson(TestRunConfigJson.builder()
+                    .testRunId("testRunId")
+                    .tag("kubernetes")
+                    .json(manifest)
+                    .build());
+
+            PerfanaStubServer.RecordedCall call = stub.getProcessedCalls("/api/config/json").get(0);
+            assertEquals("gzip", call.getContentEncoding());
+            assertTrue(call.getBody().contains("\"kind\":\"Deployment\""));
+        }
+    }
+}
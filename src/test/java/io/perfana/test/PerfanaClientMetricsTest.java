@@ -0,0 +1,112 @@
+/*
+ *    Copyright 2020-2023  Peter Paul Bakker @ perfana.io, Daniel Moll @ perfana.io
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.perfana.test;
+
+import io.perfana.client.PerfanaClient;
+import io.perfana.client.PerfanaClientBuilder;
+import io.perfana.client.api.*;
+import io.perfana.client.metrics.HdrHistogramClientMetrics;
+import io.perfana.stub.PerfanaSimulator;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Metrics of the client calls, recorded in histograms.
+ */
+public class PerfanaClientMetricsTest {
+
+    private final PerfanaTestContext testContext = new TestContextBuilder().setTestRunId("testRunId").build();
+
+    private PerfanaClient createPerfanaClient(PerfanaSimulator simulator, PerfanaClientMetrics metrics) {
+        PerfanaConnectionSettings settings = new PerfanaConnectionSettingsBuilder()
+                .setPerfanaUrl(simulator.getUrl())
+                .setRetryMaxCount(10)
+                .setRetryDuration(Duration.ofMillis(10))
+                .setRetryMinDelay(Duration.ofMillis(10))
+                .setPostRetryPolicy(RetryPolicy.fixed(Duration.ofMillis(10), 3))
+                .setCircuitBreakerFailureRateThreshold(0)
+                .build();
+
+        return new PerfanaClientBuilder()
+                .setPerfanaConnectionSettings(settings)
+                .setTestContext(testContext)
+                .setLogger(new PerfanaClientLoggerStdOut())
+                .setMetrics(metrics)
+                .build();
+    }
+
+    @Test
+    public void metricsAreDisabledByDefault() throws Exception {
+        try (PerfanaSimulator simulator = PerfanaSimulator.builder().start()) {
+            assertSame(PerfanaClientMetrics.NONE, createPerfanaClient(simulator, null).getMetrics());
+        }
+    }
+
+    @Test
+    public void repliesPerEndpoint() throws Exception {
+        HdrHistogramClientMetrics metrics = new HdrHistogramClientMetrics();
+        try (PerfanaSimulator simulator = PerfanaSimulator.builder().start();
+             PerfanaClient perfanaClient = createPerfanaClient(simulator, metrics)) {
+            perfanaClient.callPerfanaTestEndpoint(testContext, false);
+            perfanaClient.callPerfanaTestEndpoint(testContext, false);
+            perfanaClient.callPerfanaEvent(testContext, "title", "description");
+        }
+
+        Map<String, HdrHistogramClientMetrics.EndpointStatistics> statistics = metrics.getStatistics();
+        HdrHistogramClientMetrics.EndpointStatistics test = statistics.get("/api/test");
+        assertEquals(2, test.getReplies());
+        assertEquals(Long.valueOf(2), test.getStatusCodes().get(200));
+        assertTrue(test.getRequestBytes() > 0);
+        assertTrue(test.getResponseBytes() > 0);
+        assertTrue(test.getMaxNanos() > 0);
+        assertEquals(2, metrics.getLatencies("/api/test").getTotalCount());
+        assertEquals(1, statistics.get("/api/events").getReplies());
+    }
+
+    @Test
+    public void retriesAndStatusCodes() throws Exception {
+        HdrHistogramClientMetrics metrics = new HdrHistogramClientMetrics();
+        try (PerfanaSimulator simulator = PerfanaSimulator.builder().errorBursts("/api/events", 1, 2, 503, "").start();
+             PerfanaClient perfanaClient = createPerfanaClient(simulator, metrics)) {
+            perfanaClient.callPerfanaEvent(testContext, "title", "description");
+            perfanaClient.callPerfanaEvent(testContext, "title", "description");
+        }
+
+        HdrHistogramClientMetrics.EndpointStatistics events = metrics.getStatistics().get("/api/events");
+        assertEquals(4, events.getReplies());
+        assertEquals(Long.valueOf(2), events.getStatusCodes().get(200));
+        assertEquals(Long.valueOf(2), events.getStatusCodes().get(503));
+        assertEquals(2, events.getRetries());
+    }
+
+    @Test
+    public void pollsAndPollDelay() throws Exception {
+        HdrHistogramClientMetrics metrics = new HdrHistogramClientMetrics();
+        try (PerfanaSimulator simulator = PerfanaSimulator.builder().checkResultsPending(2, 0).start();
+             PerfanaClient perfanaClient = createPerfanaClient(simulator, metrics)) {
+            perfanaClient.assertResults();
+        }
+
+        HdrHistogramClientMetrics.EndpointStatistics results = metrics.getStatistics().get("/api/benchmark-results");
+        assertEquals(3, results.getPolls());
+        assertEquals(3, results.getReplies());
+        assertTrue(results.getPollDelayNanos() > 0);
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ *    Copyright 2020-2023  Peter Paul Bakker @ perfana.io, Daniel Moll @ perfana.io
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.perfana.test;
+
+import io.perfana.client.PerfanaClient;
+import io.perfana.client.PerfanaClientBuilder;
+import io.perfana.client.api.*;
+import io.perfana.stub.PerfanaSimulator;
+import io.perfana.stub.PerfanaStubServer;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
+
+/**
+ * Calls stored in the outbox while Perfana is unavailable, for the blocking and the async calls.
+ */
+public class PerfanaClientOutboxTest {
+
+    private final PerfanaTestContext testContext = new TestContextBuilder().setTestRunId("testRunId").build();
+
+    private PerfanaClient createPerfanaClient(PerfanaSimulator simulator) throws Exception {
+        PerfanaConnectionSettings settings = new PerfanaConnectionSettingsBuilder()
+                .setPerfanaUrl(simulator.getUrl())
+                .setOutboxDirectory(Files.createTempDirectory("perfana-outbox").toString())
+                .setOutboxReplayInterval(Duration.ofMillis(100))
+                .setCircuitBreakerFailureRateThreshold(0)
+                .build();
+
+        return new PerfanaClientBuilder()
+                .setPerfanaConnectionSettings(settings)
+                .setTestContext(testContext)
+                .setLogger(new PerfanaClientLoggerStdOut())
+                .build();
+    }
+
+    private static PerfanaSimulator unavailableOnce() throws IOException {
+        return PerfanaSimulator.builder()
+                .script("/api/events", PerfanaSimulator.Script.of(
+                        PerfanaSimulator.Step.reply(503, "").times(1), PerfanaSimulator.Step.reply(200, "")))
+                .start();
+    }
+
+    private static List<String> eventBodies(PerfanaSimulator simulator) {
+        return simulator.getRecordedCalls().stream()
+                .filter(call -> call.getPath().equals("/api/events"))
+                .map(PerfanaStubServer.RecordedCall::getBody)
+                .collect(Collectors.toList());
+    }
+
+    @Test
+    public void asyncEventIsStoredWhenUnavailable() throws Exception {
+        try (PerfanaSimulator simulator = unavailableOnce();
+             PerfanaClient perfanaClient = createPerfanaClient(simulator)) {
+            perfanaClient.callPerfanaEventAsync(testContext, "one", "description").get(10, TimeUnit.SECONDS);
+
+            assertTrue(perfanaClient.drainOutbox());
+            List<String> events = eventBodies(simulator);
+            assertEquals("unavailable, then replayed from the outbox", 2, events.size());
+            assertTrue(events.get(1), events.get(1).contains("\"title\":\"one\""));
+        }
+    }
+
+    @Test
+    public void asyncEventDoesNotOvertakeStoredCalls() throws Exception {
+        try (PerfanaSimulator simulator = unavailableOnce();
+             PerfanaClient perfanaClient = createPerfanaClient(simulator)) {
+            perfanaClient.callPerfanaEvent(testContext, "one", "description");
+            perfanaClient.callPerfanaEventAsync(testContext, "two", "description").get(10, TimeUnit.SECONDS);
+
+            assertTrue(perfanaClient.drainOutbox());
+            List<String> events = eventBodies(simulator);
+            assertEquals(3, events.size());
+            assertTrue(events.get(1), events.get(1).contains("\"title\":\"one\""));
+            assertTrue(events.get(2), events.get(2).contains("\"title\":\"two\""));
+        }
+    }
+}
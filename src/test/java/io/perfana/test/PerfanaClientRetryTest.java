@@ -0,0 +1,115 @@
+/*
+ *    Copyright 2020-2023  Peter Paul Bakker @ perfana.io, Daniel Moll @ perfana.io
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.perfana.test;
+
+import io.perfana.client.PerfanaClient;
+import io.perfana.client.PerfanaClientBuilder;
+import io.perfana.client.api.*;
+import io.perfana.stub.PerfanaStubServer;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Retries of posts, with duplicate suppression by the idempotency key in the stub server.
+ */
+public class PerfanaClientRetryTest {
+
+    private final PerfanaTestContext testContext = new TestContextBuilder().setTestRunId("testRunId").build();
+
+    private PerfanaClient createPerfanaClient(PerfanaStubServer stub) {
+        PerfanaConnectionSettings settings = new PerfanaConnectionSettingsBuilder()
+                .setPerfanaUrl(stub.getUrl())
+                .setPostRetryPolicy(RetryPolicy.fixed(Duration.ofMillis(10), 3))
+                .setCircuitBreakerFailureRateThreshold(0)
+                .build();
+
+        return new PerfanaClientBuilder()
+                .setPerfanaConnectionSettings(settings)
+                .setTestContext(testContext)
+                .setLogger(new PerfanaClientLoggerStdOut())
+                .build();
+    }
+
+    @Test
+    public void lostReplyIsRetriedWithSameKey() throws Exception {
+        try (PerfanaStubServer stub = PerfanaStubServer.start()) {
+            stub.dropNextReplies(1);
+
+            createPerfanaClient(stub).callPerfanaEvent(testContext, "title", "description");
+
+            assertTrue("retried", stub.getReceivedCount() >= 2);
+            List<PerfanaStubServer.RecordedCall> events = stub.getProcessedCalls("/api/events");
+            assertEquals("duplicate is suppressed", 1, events.size());
+            assertNotNull(events.get(0).getIdempotencyKey());
+        }
+    }
+
+    @Test
+    public void unavailableIsRetried() throws Exception {
+        try (PerfanaStubServer stub = PerfanaStubServer.start()) {
+            stub.failNext(2, 503);
+
+            createPerfanaClient(stub).callPerfanaEvent(testContext, "title", "description");
+
+            assertEquals(3, stub.getReceivedCount());
+            assertEquals(1, stub.getProcessedCalls("/api/events").size());
+        }
+    }
+
+    @Test
+    public void asyncLostReplyIsRetriedWithSameKey() throws Exception {
+        try (PerfanaStubServer stub = PerfanaStubServer.start()) {
+            stub.dropNextReplies(1);
+
+            createPerfanaClient(stub).callPerfanaEventAsync(testContext, "title", "description").get(10, TimeUnit.SECONDS);
+
+            assertTrue("retried", stub.getReceivedCount() >= 2);
+            assertEquals(1, stub.getProcessedCalls("/api/events").size());
+        }
+    }
+
+    @Test
+    public void eachCallHasItsOwnKey() throws Exception {
+        try (PerfanaStubServer stub = PerfanaStubServer.start()) {
+            PerfanaClient perfanaClient = createPerfanaClient(stub);
+            perfanaClient.callPerfanaEvent(testContext, "title", "description");
+            perfanaClient.callPerfanaEvent(testContext, "title", "description");
+            perfanaClient.callPerfanaTestEndpoint(testContext, false);
+
+            List<PerfanaStubServer.RecordedCall> events = stub.getProcessedCalls("/api/events");
+            assertEquals(2, events.size());
+            assertNotEquals(events.get(0).getIdempotencyKey(), events.get(1).getIdempotencyKey());
+            assertEquals(1, stub.getProcessedCalls("/api/test").size());
+        }
+    }
+
+    @Test
+    public void givesUpAfterMaxAttempts() throws Exception {
+        try (PerfanaStubServer stub = PerfanaStubServer.start()) {
+            stub.failNext(10, 502);
+
+            createPerfanaClient(stub).callPerfanaEvent(testContext, "title", "description");
+
+            assertEquals(3, stub.getReceivedCount());
+            assertEquals(0, stub.getProcessedCalls().size());
+        }
+    }
+}
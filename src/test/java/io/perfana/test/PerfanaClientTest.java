@@ -32,7 +32,12 @@ import org.junit.Ignore;
 import org.junit.Rule;
 import org.junit.Test;
 
+import java.net.ServerSocket;
+import java.time.Duration;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 
 import static com.github.tomakehurst.wiremock.client.WireMock.*;
 import static com.github.tomakehurst.wiremock.core.WireMockConfiguration.options;
@@ -213,6 +218,34 @@ public class PerfanaClientTest
         perfanaClient.callPerfanaTestEndpoint(testContext, false);
     }
 
+    @Test
+    public void testPerfanaTestCallWithAbortAfterAlerts() {
+        StringBuilder alerts = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            alerts.append(i == 0 ? "" : ",").append("{ \"message\": \"alert ").append(i).append("\", \"tags\": [\"a\", \"b\"] }");
+        }
+        wireMockRule.stubFor(post(urlEqualTo("/api/test"))
+                .willReturn(aResponse()
+                        .withBody("{ \"alerts\": [" + alerts + "], \"abort\": true, \"abortMessage\": \"Too many alerts\" }")));
+
+        PerfanaClient perfanaClient = createPerfanaClient();
+        PerfanaTestContext testContext = new TestContextBuilder().build();
+        KillSwitchException thrown = Assert.assertThrows(KillSwitchException.class, () -> perfanaClient.callPerfanaTestEndpoint(testContext, false));
+        assertEquals("Too many alerts", thrown.getMessage());
+    }
+
+    @Test
+    public void testPerfanaAssertResultsCallWithHtml() {
+        wireMockRule.stubFor(get(urlEqualTo("/api/benchmark-results/unknown/testRunId"))
+                .willReturn(aResponse()
+                        .withBody("<!DOCTYPE html><html><body>" + String.join("", Collections.nCopies(100_000, "proxy page ")) + "</body></html>")));
+
+        PerfanaClient perfanaClient = createPerfanaClient();
+        PerfanaAssertResultsException thrown = Assert.assertThrows(PerfanaAssertResultsException.class, perfanaClient::assertResults);
+        assertTrue(thrown.getMessage().contains("Got html instead of json"));
+        assertTrue("html in message should be bounded", thrown.getMessage().length() < 20_000);
+    }
+
     @Test
     public void testPerfanaTestCallWithResultCompletedTrue() {
         UrlPattern urlPattern = urlEqualTo("/api/test");
@@ -228,6 +261,63 @@ public class PerfanaClientTest
         verify(postRequestedFor(urlPattern));
     }
 
+    @Test
+    public void testFailOverToNextReplica() throws Exception {
+        UrlPattern urlPattern = urlEqualTo("/api/events");
+        wireMockRule.stubFor(post(urlPattern).willReturn(aResponse().withStatus(200)));
+
+        String downUrl;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            downUrl = "http://localhost:" + socket.getLocalPort();
+        }
+        PerfanaConnectionSettings settings = new PerfanaConnectionSettingsBuilder()
+                .setPerfanaUrls(List.of(downUrl, "http://localhost:" + wireMockRule.port()))
+                .setHealthCheckInterval(Duration.ZERO)
+                .build();
+
+        PerfanaTestContext testContext = new TestContextBuilder().build();
+        PerfanaClient perfanaClient = new PerfanaClientBuilder()
+                .setPerfanaConnectionSettings(settings)
+                .setTestContext(testContext)
+                .setLogger(new PerfanaClientLoggerStdOut())
+                .build();
+
+        for (int i = 0; i < 4; i++) {
+            perfanaClient.callPerfanaEvent(testContext, "title", "description");
+        }
+        perfanaClient.callPerfanaEventAsync(testContext, "title", "description").get(10, TimeUnit.SECONDS);
+
+        verify(5, postRequestedFor(urlPattern));
+    }
+
+    @Test
+    public void testPerfanaTestCallAsyncWithResult() throws Exception {
+        wireMockRule.stubFor(post(urlEqualTo("/api/test"))
+                .willReturn(aResponse()
+                        .withBody("{ \"abort\": true, \"abortMessage\": \"What is wrong?\" }")));
+
+        PerfanaClient perfanaClient = createPerfanaClient();
+        PerfanaTestContext testContext = new TestContextBuilder().build();
+        CompletableFuture<Void> future = perfanaClient.callPerfanaTestEndpointAsync(testContext, false);
+        ExecutionException thrown = Assert.assertThrows(ExecutionException.class, () -> future.get(10, TimeUnit.SECONDS));
+        assertTrue(thrown.getCause() instanceof KillSwitchException);
+        assertEquals("What is wrong?", thrown.getCause().getMessage());
+    }
+
+    @Test
+    public void testPerfanaTestCallAsyncWithoutAuth() {
+        wireMockRule.stubFor(post(urlEqualTo("/api/test"))
+                .willReturn(aResponse()
+                        .withStatus(401)
+                        .withBody("Unauthorized")));
+
+        PerfanaClient perfanaClient = createPerfanaClient();
+        PerfanaTestContext testContext = new TestContextBuilder().build();
+        CompletableFuture<Void> future = perfanaClient.callPerfanaTestEndpointAsync(testContext, false);
+        ExecutionException thrown = Assert.assertThrows(ExecutionException.class, () -> future.get(10, TimeUnit.SECONDS));
+        assertTrue(thrown.getCause() instanceof AbortSchedulerException);
+    }
+
     @Test
     public void testPerfanaAssertResultsCall() throws Exception {
 
@@ -294,6 +384,105 @@ public class PerfanaClientTest
         assertEquals(expectReply, assertResults);
     }
 
+    @Test
+    public void testPerfanaAssertResultsCall202WithRetryAfterHint() throws Exception {
+
+        Benchmark benchmark = Benchmark.builder()
+                .requirements(Result.builder().result(true).deeplink("https://perfana:4000/requirements/123").build())
+                .build();
+
+        wireMockRule.stubFor(get(urlEqualTo("/api/benchmark-results/unknown/testRunId"))
+                .inScenario("testPerfanaAssertResultsCall202WithRetryAfterHint")
+                .whenScenarioStateIs(Scenario.STARTED)
+                .willReturn(aResponse()
+                        .withBody("{\"message\":\"Test run evaluation in progress ...\",\"retryAfterSeconds\":0}")
+                        .withStatus(202))
+                .willSetStateTo("503"));
+
+        wireMockRule.stubFor(get(urlEqualTo("/api/benchmark-results/unknown/testRunId"))
+                .inScenario("testPerfanaAssertResultsCall202WithRetryAfterHint")
+                .whenScenarioStateIs("503")
+                .willReturn(aResponse()
+                        .withHeader("Retry-After", "0")
+                        .withStatus(503))
+                .willSetStateTo("200"));
+
+        wireMockRule.stubFor(get(urlEqualTo("/api/benchmark-results/unknown/testRunId"))
+                .inScenario("testPerfanaAssertResultsCall202WithRetryAfterHint")
+                .whenScenarioStateIs("200")
+                .willReturn(aResponse()
+                        .withBody(OBJECT_MAPPER.writeValueAsString(benchmark))
+                        .withStatus(200)));
+
+        // without the hints, this would take two times 30 seconds
+        PerfanaConnectionSettings settings = new PerfanaConnectionSettingsBuilder()
+                .setPerfanaUrl("http://localhost:" + wireMockRule.port())
+                .setRetryMaxCount(3)
+                .setRetryDuration(Duration.ofSeconds(30))
+                .setRetryMinDelay(Duration.ofMillis(10))
+                .build();
+
+        PerfanaClient perfanaClient = new PerfanaClientBuilder()
+                .setPerfanaConnectionSettings(settings)
+                .setTestContext(new TestContextBuilder().setTestRunId("testRunId").build())
+                .setAssertResultsEnabled(true)
+                .setLogger(new PerfanaClientLoggerStdOut())
+                .build();
+
+        long start = System.nanoTime();
+        String assertResults = perfanaClient.assertResults();
+        long durationMillis = (System.nanoTime() - start) / 1_000_000;
+
+        assertTrue(assertResults.startsWith("All configured checks are OK"));
+        assertTrue("retry hints are used, took " + durationMillis + " ms", durationMillis < 10_000);
+    }
+
+    @Test
+    public void testPerfanaAssertResultsCallHedged() throws Exception {
+
+        Benchmark benchmark = Benchmark.builder()
+                .requirements(Result.builder().result(true).deeplink("https://perfana:4000/requirements/123").build())
+                .build();
+
+        // first request is slow, the hedge request gets a fast reply
+        wireMockRule.stubFor(get(urlEqualTo("/api/benchmark-results/unknown/testRunId"))
+                .inScenario("testPerfanaAssertResultsCallHedged")
+                .whenScenarioStateIs(Scenario.STARTED)
+                .willReturn(aResponse()
+                        .withBody(OBJECT_MAPPER.writeValueAsString(benchmark))
+                        .withFixedDelay(5000)
+                        .withStatus(200))
+                .willSetStateTo("fast"));
+
+        wireMockRule.stubFor(get(urlEqualTo("/api/benchmark-results/unknown/testRunId"))
+                .inScenario("testPerfanaAssertResultsCallHedged")
+                .whenScenarioStateIs("fast")
+                .willReturn(aResponse()
+                        .withBody(OBJECT_MAPPER.writeValueAsString(benchmark))
+                        .withStatus(200)));
+
+        PerfanaConnectionSettings settings = new PerfanaConnectionSettingsBuilder()
+                .setPerfanaUrl("http://localhost:" + wireMockRule.port())
+                .setHedgePercentile(95)
+                .setHedgeInitialDelay(Duration.ofMillis(100))
+                .build();
+
+        PerfanaClient perfanaClient = new PerfanaClientBuilder()
+                .setPerfanaConnectionSettings(settings)
+                .setTestContext(new TestContextBuilder().setTestRunId("testRunId").build())
+                .setAssertResultsEnabled(true)
+                .setLogger(new PerfanaClientLoggerStdOut())
+                .build();
+
+        long start = System.nanoTime();
+        String assertResults = perfanaClient.assertResults();
+        long durationMillis = (System.nanoTime() - start) / 1_000_000;
+
+        assertTrue(assertResults.startsWith("All configured checks are OK"));
+        assertTrue("hedge request wins, took " + durationMillis + " ms", durationMillis < 4_000);
+        assertEquals(new HedgeStatistics(1, 1, 1), perfanaClient.getHedgeStatistics());
+    }
+
     @Test(expected = PerfanaAssertionsAreFalse.class)
     public void testPerfanaAssertResultsFailedCall() throws Exception {
 
@@ -329,6 +518,18 @@ public class PerfanaClientTest
         assertTrue(thrown.getMessage().contains("Invalid or expired API key"));
     }
 
+    @Test
+    public void testPerfanaTestCallErrorWithoutBody() {
+        wireMockRule.stubFor(post(urlEqualTo("/api/test"))
+            .willReturn(aResponse()
+                .withStatus(400)));
+
+        PerfanaClient perfanaClient = createPerfanaClient();
+        PerfanaTestContext testContext = new TestContextBuilder().build();
+        AbortSchedulerException thrown = Assert.assertThrows(AbortSchedulerException.class, () -> perfanaClient.callPerfanaTestEndpoint(testContext, false));
+        assertTrue(thrown.getMessage().contains("Perfana error reply (400)"));
+    }
+
     @Test
     @Ignore("takes too long to test timeouts, ignore test, enable to test manually")
     public void testPerfanaTestCallWithoutTimeout() {
@@ -423,6 +624,25 @@ public class PerfanaClientTest
 
     }
 
+    @Test
+    public void testRunConfigJsonIsStreamedAsJson() {
+        UrlPattern urlPattern = urlEqualTo("/api/config/json");
+
+        wireMockRule.stubFor(post(urlPattern)
+            .willReturn(aResponse()
+                .withStatus(200)));
+
+        PerfanaClient perfanaClient = createPerfanaClient();
+
+        perfanaClient.addTestRunConfigJson(new TestRunConfigJson("app", "env", "loadTest", "test-123",
+                Collections.singletonList("tag1"), Collections.emptyList(), Collections.singletonList("exclude1"), "{ \"hello\": [1, 2, 3] }"));
+
+        verify(postRequestedFor(urlPattern)
+                .withHeader("Content-Type", containing("application/json"))
+                .withRequestBody(equalToJson("{\"application\":\"app\",\"testEnvironment\":\"env\",\"testType\":\"loadTest\",\"testRunId\":\"test-123\"," +
+                        "\"tags\":[\"tag1\"],\"include\":[],\"exclude\":[\"exclude1\"],\"json\":{\"hello\":[1,2,3]}}")));
+    }
+
     @Test
     public void testRunConfigKeyValue() {
         UrlPattern urlPattern = urlEqualTo("/api/config/key");
@@ -481,6 +701,22 @@ public class PerfanaClientTest
         assertEquals(expectedTestRunId, testRunId);
     }
 
+    @Test
+    public void testInitTestAsync() throws Exception {
+        UrlPattern urlPattern = urlEqualTo("/api/init");
+
+        String expectedTestRunId = "OptimusPrime-acme-loadTest-00002";
+        String returnJson = "{ \"testRunId\" : \"" + expectedTestRunId + "\" }";
+        wireMockRule.stubFor(post(urlPattern)
+                .willReturn(aResponse()
+                        .withStatus(200).withBody(returnJson)));
+
+        PerfanaClient perfanaClient = createPerfanaClient();
+        PerfanaTestContext testContext = new TestContextBuilder().build();
+        String testRunId = perfanaClient.callInitTestAsync(testContext).get(10, TimeUnit.SECONDS);
+        assertEquals(expectedTestRunId, testRunId);
+    }
+
     @Test
     public void testInitTest500() {
         UrlPattern urlPattern = urlEqualTo("/api/init");
@@ -0,0 +1,135 @@
+/*
+ *    Copyright 2020-2023  Peter Paul Bakker @ perfana.io, Daniel Moll @ perfana.io
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.perfana.test;
+
+import io.perfana.client.PerfanaClient;
+import io.perfana.client.PerfanaClientBuilder;
+import io.perfana.client.api.*;
+import io.perfana.client.exception.PerfanaAssertResultsException;
+import io.perfana.stub.PerfanaStubServer;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.time.Duration;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Timeout profiles and deadlines, against the stub server.
+ */
+public class PerfanaClientTimeoutTest {
+
+    private final PerfanaTestContext testContext = new TestContextBuilder().setTestRunId("testRunId").build();
+
+    private PerfanaClient createPerfanaClient(PerfanaConnectionSettingsBuilder settingsBuilder) {
+        return new PerfanaClientBuilder()
+                .setPerfanaConnectionSettings(settingsBuilder.setCircuitBreakerFailureRateThreshold(0).build())
+                .setTestContext(testContext)
+                .setAssertResultsEnabled(true)
+                .setLogger(new PerfanaClientLoggerStdOut())
+                .build();
+    }
+
+    @Test
+    public void defaultTimeoutProfiles() {
+        PerfanaConnectionSettings settings = new PerfanaConnectionSettingsBuilder()
+                .setReadTimeout(Duration.ofSeconds(5))
+                .setCallTimeout(PerfanaEndpointGroup.EVENTS, Duration.ofSeconds(3))
+                .build();
+
+        TimeoutProfile keepAlive = settings.getTimeoutProfile(PerfanaEndpointGroup.KEEP_ALIVE);
+        assertEquals(Duration.ofSeconds(5), keepAlive.getReadTimeout());
+        assertEquals(Duration.ofSeconds(PerfanaConnectionSettingsBuilder.DEFAULT_KEEP_ALIVE_CALL_TIMEOUT_SECONDS), keepAlive.getCallTimeout());
+
+        TimeoutProfile config = settings.getTimeoutProfile(PerfanaEndpointGroup.CONFIG);
+        assertEquals(Duration.ofSeconds(PerfanaConnectionSettingsBuilder.DEFAULT_CONFIG_TIMEOUT_SECONDS), config.getWriteTimeout());
+        assertEquals(Duration.ofSeconds(PerfanaConnectionSettingsBuilder.DEFAULT_CONFIG_CALL_TIMEOUT_SECONDS), config.getCallTimeout());
+
+        assertEquals(Duration.ofSeconds(3), settings.getTimeoutProfile(PerfanaEndpointGroup.EVENTS).getCallTimeout());
+    }
+
+    @Test
+    public void stuckKeepAliveIsCutOffByCallTimeout() throws Exception {
+        try (PerfanaStubServer stub = PerfanaStubServer.start()) {
+            stub.delayNext(1, Duration.ofSeconds(5));
+            PerfanaClient perfanaClient = createPerfanaClient(new PerfanaConnectionSettingsBuilder()
+                    .setPerfanaUrl(stub.getUrl())
+                    .setCallTimeout(PerfanaEndpointGroup.KEEP_ALIVE, Duration.ofMillis(300)));
+
+            long start = System.nanoTime();
+            perfanaClient.callPerfanaTestEndpoint(testContext, false);
+            long durationMillis = (System.nanoTime() - start) / 1_000_000;
+
+            assertTrue("keep alive should stop at the call timeout: " + durationMillis + " ms", durationMillis < 2_000);
+        }
+    }
+
+    @Test
+    public void callTimeoutCoversRetries() throws Exception {
+        try (PerfanaStubServer stub = PerfanaStubServer.start()) {
+            stub.failNext(100, 503);
+            PerfanaClient perfanaClient = createPerfanaClient(new PerfanaConnectionSettingsBuilder()
+                    .setPerfanaUrl(stub.getUrl())
+                    .setPostRetryPolicy(RetryPolicy.fixed(Duration.ofMillis(200), 100))
+                    .setCallTimeout(PerfanaEndpointGroup.EVENTS, Duration.ofMillis(700)));
+
+            long start = System.nanoTime();
+            perfanaClient.callPerfanaEvent(testContext, "title", "description");
+            long durationMillis = (System.nanoTime() - start) / 1_000_000;
+
+            assertTrue("no retries after the call timeout: " + durationMillis + " ms", durationMillis < 2_000);
+            assertTrue("retried within the call timeout: " + stub.getReceivedCount(), stub.getReceivedCount() >= 2);
+            assertTrue("stops retrying: " + stub.getReceivedCount(), stub.getReceivedCount() <= 4);
+        }
+    }
+
+    @Test
+    public void assertResultsStopsAtDeadline() throws Exception {
+        try (PerfanaStubServer stub = PerfanaStubServer.start()) {
+            stub.failNext(1000, 503);
+            PerfanaClient perfanaClient = createPerfanaClient(new PerfanaConnectionSettingsBuilder()
+                    .setPerfanaUrl(stub.getUrl())
+                    .setRetryPolicy(RetryPolicy.fixed(Duration.ofMillis(100), 1000))
+                    .setAssertResultsDeadline(Duration.ofSeconds(1)));
+
+            long start = System.nanoTime();
+            PerfanaAssertResultsException thrown = Assert.assertThrows(PerfanaAssertResultsException.class, perfanaClient::assertResults);
+            long durationMillis = (System.nanoTime() - start) / 1_000_000;
+
+            assertTrue(thrown.getMessage().contains("deadline"));
+            assertTrue("assert results should stop at the deadline: " + durationMillis + " ms", durationMillis < 3_000);
+        }
+    }
+
+    @Test
+    public void slowPollIsBoundedByAssertResultsDeadline() throws Exception {
+        try (PerfanaStubServer stub = PerfanaStubServer.start()) {
+            stub.delayNext(10, Duration.ofSeconds(5));
+            PerfanaClient perfanaClient = createPerfanaClient(new PerfanaConnectionSettingsBuilder()
+                    .setPerfanaUrl(stub.getUrl())
+                    .setReadTimeout(Duration.ofSeconds(30))
+                    .setRetryPolicy(RetryPolicy.fixed(Duration.ofMillis(100), 1000))
+                    .setAssertResultsDeadline(Duration.ofMillis(800)));
+
+            long start = System.nanoTime();
+            Assert.assertThrows(PerfanaAssertResultsException.class, perfanaClient::assertResults);
+            long durationMillis = (System.nanoTime() - start) / 1_000_000;
+
+            assertTrue("a slow poll should be cut off at the deadline: " + durationMillis + " ms", durationMillis < 3_000);
+        }
+    }
+}
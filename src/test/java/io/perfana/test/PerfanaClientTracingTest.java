@@ -0,0 +1,227 @@
+/*
+ *    Copyright 2020-2023  Peter Paul Bakker @ perfana.io, Daniel Moll @ perfana.io
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.perfana.test;
+
+import io.perfana.client.PerfanaClient;
+import io.perfana.client.PerfanaClientBuilder;
+import io.perfana.client.api.*;
+import io.perfana.client.domain.ConfigItem;
+import io.perfana.client.domain.TestRunConfigKeys;
+import io.perfana.stub.PerfanaSimulator;
+import io.perfana.stub.PerfanaStubServer;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
+
+/**
+ * Spans of the client calls and the trace headers of the requests, with a recording tracing.
+ */
+public class PerfanaClientTracingTest {
+
+    private final PerfanaTestContext testContext = new TestContextBuilder().setTestRunId("testRunId").build();
+
+    private PerfanaClient createPerfanaClient(PerfanaSimulator simulator, PerfanaTracing tracing) {
+        PerfanaConnectionSettings settings = new PerfanaConnectionSettingsBuilder()
+                .setPerfanaUrl(simulator.getUrl())
+                .setRetryMaxCount(10)
+                .setRetryDuration(Duration.ofMillis(10))
+                .setRetryMinDelay(Duration.ofMillis(10))
+                .setPostRetryPolicy(RetryPolicy.fixed(Duration.ofMillis(10), 3))
+                .setCircuitBreakerFailureRateThreshold(0)
+                .build();
+
+        return new PerfanaClientBuilder()
+                .setPerfanaConnectionSettings(settings)
+                .setTestContext(testContext)
+                .setLogger(new PerfanaClientLoggerStdOut())
+                .setTracing(tracing)
+                .build();
+    }
+
+    @Test
+    public void spansWithTraceHeaders() throws Exception {
+        RecordingTracing tracing = new RecordingTracing();
+        try (PerfanaSimulator simulator = PerfanaSimulator.builder().start();
+             PerfanaClient perfanaClient = createPerfanaClient(simulator, tracing)) {
+            perfanaClient.callInitTest(testContext);
+            perfanaClient.callPerfanaTestEndpoint(testContext, false);
+            perfanaClient.callPerfanaEvent(testContext, "title", "description");
+            perfanaClient.callPerfanaEventAsync(testContext, "title", "description").get(10, TimeUnit.SECONDS);
+
+            assertEquals(List.of("perfana.init", "perfana.test", "perfana.event", "perfana.event"),
+                    tracing.spans.stream().map(span -> span.name).collect(Collectors.toList()));
+            for (RecordingSpan span : tracing.spans) {
+                assertTrue(span.name, span.ended);
+                assertEquals(span.name, 200L, span.attributes.get(PerfanaSpan.STATUS_CODE));
+                assertTrue(span.name, (Long) span.attributes.get(PerfanaSpan.REQUEST_BODY_SIZE) > 0);
+            }
+            assertEquals("/api/test", tracing.spans.get(1).attributes.get(PerfanaSpan.ENDPOINT));
+
+            List<String> traceParents = simulator.getRecordedCalls().stream()
+                    .map(PerfanaStubServer.RecordedCall::getTraceParent)
+                    .collect(Collectors.toList());
+            assertEquals(tracing.spans.stream().map(RecordingSpan::traceParent).collect(Collectors.toList()), traceParents);
+        }
+    }
+
+    @Test
+    public void retryAttemptOfConfigUpload() throws Exception {
+        RecordingTracing tracing = new RecordingTracing();
+        try (PerfanaSimulator simulator = PerfanaSimulator.builder().errorBursts("/api/config/keys", 1, 2, 503, "").start();
+             PerfanaClient perfanaClient = createPerfanaClient(simulator, tracing)) {
+            TestRunConfigKeys keys = TestRunConfigKeys.builder()
+                    .testRunId("testRunId").configItem(ConfigItem.builder().key("k").value("v").build()).build();
+            perfanaClient.addTestRunConfigKeys(keys);
+            perfanaClient.addTestRunConfigKeys(keys);
+
+            assertNull(tracing.spans.get(0).attributes.get(PerfanaSpan.RETRY_ATTEMPT));
+            RecordingSpan span = tracing.spans.get(1);
+            assertEquals("perfana.config", span.name);
+            // ok, then 503, 503 and ok for the second retry
+            assertEquals(2L, span.attributes.get(PerfanaSpan.RETRY_ATTEMPT));
+            assertEquals(200L, span.attributes.get(PerfanaSpan.STATUS_CODE));
+            assertEquals(4, simulator.getReceivedCount("/api/config/keys"));
+        }
+    }
+
+    @Test
+    public void spanPerPoll() throws Exception {
+        RecordingTracing tracing = new RecordingTracing();
+        try (PerfanaSimulator simulator = PerfanaSimulator.builder().checkResultsPending(2, 0).start();
+             PerfanaClient perfanaClient = createPerfanaClient(simulator, tracing)) {
+            perfanaClient.assertResults();
+
+            assertEquals(3, tracing.spans.size());
+            for (int i = 0; i < 3; i++) {
+                RecordingSpan span = tracing.spans.get(i);
+                assertEquals("perfana.check-results.poll", span.name);
+                assertEquals((long) i + 1, span.attributes.get(PerfanaSpan.POLL_ATTEMPT));
+                assertTrue(span.ended);
+            }
+            assertEquals(200L, tracing.spans.get(2).attributes.get(PerfanaSpan.STATUS_CODE));
+        }
+    }
+
+    @Test
+    public void failedCallIsAnError() throws Exception {
+        RecordingTracing tracing = new RecordingTracing();
+        PerfanaSimulator simulator = PerfanaSimulator.builder().start();
+        simulator.close();
+        try (PerfanaClient perfanaClient = createPerfanaClient(simulator, tracing)) {
+            perfanaClient.callPerfanaEvent(testContext, "title", "description");
+        }
+
+        RecordingSpan span = tracing.spans.get(0);
+        assertNotNull(span.error);
+        assertTrue(span.ended);
+    }
+
+    @Test
+    public void cancelledCallEndsSpanOnce() throws Exception {
+        RecordingTracing tracing = new RecordingTracing();
+        PerfanaSimulator.Script slowReply = PerfanaSimulator.Script.of(PerfanaSimulator.Step.reply(200, "").delay(Duration.ofSeconds(2)));
+        try (PerfanaSimulator simulator = PerfanaSimulator.builder().script("/api/test", slowReply).start();
+             PerfanaClient perfanaClient = createPerfanaClient(simulator, tracing)) {
+            CompletableFuture<Void> future = perfanaClient.callPerfanaTestEndpointAsync(testContext, false);
+            assertTrue(waitForReceived(simulator, "/api/test"));
+            future.cancel(true);
+
+            RecordingSpan span = tracing.spans.get(0);
+            assertTrue(span.ended);
+            // give the transport time to report the failure of the cancelled call
+            Thread.sleep(500);
+            assertEquals(1, span.endCount.get());
+            assertNull(span.error);
+        }
+    }
+
+    private static boolean waitForReceived(PerfanaSimulator simulator, String path) throws InterruptedException {
+        for (int i = 0; i < 100; i++) {
+            if (simulator.getReceivedCount(path) > 0) {
+                return true;
+            }
+            Thread.sleep(20);
+        }
+        return false;
+    }
+
+    private static class RecordingTracing implements PerfanaTracing {
+        private final AtomicInteger ids = new AtomicInteger();
+        private final List<RecordingSpan> spans = new CopyOnWriteArrayList<>();
+
+        @Override
+        public PerfanaSpan startSpan(String name) {
+            RecordingSpan span = new RecordingSpan(name, ids.incrementAndGet());
+            spans.add(span);
+            return span;
+        }
+    }
+
+    private static class RecordingSpan implements PerfanaSpan {
+        private final String name;
+        private final int id;
+        private final Map<String, Object> attributes = new ConcurrentHashMap<>();
+        private volatile Throwable error;
+        private volatile boolean ended;
+        private final AtomicInteger endCount = new AtomicInteger();
+
+        private RecordingSpan(String name, int id) {
+            this.name = name;
+            this.id = id;
+        }
+
+        @Override
+        public void setAttribute(String key, long value) {
+            attributes.put(key, value);
+        }
+
+        @Override
+        public void setAttribute(String key, String value) {
+            attributes.put(key, value);
+        }
+
+        @Override
+        public void setError(Throwable error) {
+            this.error = error;
+        }
+
+        @Override
+        public void injectHeaders(BiConsumer<String, String> header) {
+            header.accept("traceparent", traceParent());
+        }
+
+        @Override
+        public void end() {
+            ended = true;
+            endCount.incrementAndGet();
+        }
+
+        private String traceParent() {
+            return String.format("00-%032x-%016x-01", 1, id);
+        }
+    }
+}
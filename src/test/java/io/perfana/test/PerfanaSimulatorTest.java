@@ -0,0 +1,140 @@
+/*
+ *    Copyright 2020-2023  Peter Paul Bakker @ perfana.io, Daniel Moll @ perfana.io
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.perfana.test;
+
+import io.perfana.client.PerfanaClient;
+import io.perfana.client.PerfanaClientBuilder;
+import io.perfana.client.api.*;
+import io.perfana.eventscheduler.exception.handler.KillSwitchException;
+import io.perfana.stub.PerfanaSimulator;
+import io.perfana.stub.PerfanaStubServer;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * The client against scripted Perfana behaviour of the simulator.
+ */
+public class PerfanaSimulatorTest {
+
+    private final PerfanaTestContext testContext = new TestContextBuilder().setTestRunId("testRunId").build();
+
+    private PerfanaClient createPerfanaClient(PerfanaSimulator simulator) {
+        PerfanaConnectionSettings settings = new PerfanaConnectionSettingsBuilder()
+                .setPerfanaUrl(simulator.getUrl())
+                .setRetryMaxCount(10)
+                .setRetryDuration(Duration.ofMillis(10))
+                .setRetryMinDelay(Duration.ofMillis(10))
+                .setPostRetryPolicy(RetryPolicy.fixed(Duration.ofMillis(10), 3))
+                .setCircuitBreakerFailureRateThreshold(0)
+                .build();
+
+        return new PerfanaClientBuilder()
+                .setPerfanaConnectionSettings(settings)
+                .setTestContext(testContext)
+                .setLogger(new PerfanaClientLoggerStdOut())
+                .build();
+    }
+
+    @Test
+    public void abortAfterKeepAlives() throws Exception {
+        try (PerfanaSimulator simulator = PerfanaSimulator.builder().abortAfter(3, "stop now").start()) {
+            PerfanaClient perfanaClient = createPerfanaClient(simulator);
+            for (int i = 0; i < 3; i++) {
+                perfanaClient.callPerfanaTestEndpoint(testContext, false);
+            }
+            KillSwitchException exception = assertThrows(KillSwitchException.class,
+                    () -> perfanaClient.callPerfanaTestEndpoint(testContext, false));
+            assertEquals("stop now", exception.getMessage());
+            assertEquals(4, simulator.getReceivedCount("/api/test"));
+        }
+    }
+
+    @Test
+    public void checkResultsPendingThenAvailable() throws Exception {
+        try (PerfanaSimulator simulator = PerfanaSimulator.builder().checkResultsPending(3, 0).start()) {
+            String text = createPerfanaClient(simulator).assertResults();
+
+            assertTrue(text, text.startsWith("All configured checks are OK"));
+            assertEquals(4, simulator.getReceivedCount("/api/benchmark-results/unknown/testRunId"));
+        }
+    }
+
+    @Test
+    public void errorBurstsAreRetried() throws Exception {
+        try (PerfanaSimulator simulator = PerfanaSimulator.builder().errorBursts("/api/events", 2, 2, 503, "").start()) {
+            PerfanaClient perfanaClient = createPerfanaClient(simulator);
+            for (int i = 0; i < 4; i++) {
+                perfanaClient.callPerfanaEvent(testContext, "title", "description");
+            }
+            // ok, ok, 503, 503 and ok for the retry, ok
+            assertEquals(6, simulator.getReceivedCount("/api/events"));
+        }
+    }
+
+    @Test
+    public void recordsLastCalls() throws Exception {
+        try (PerfanaSimulator simulator = PerfanaSimulator.builder().recordCapacity(2).start()) {
+            PerfanaClient perfanaClient = createPerfanaClient(simulator);
+            perfanaClient.callPerfanaEvent(testContext, "first", "description");
+            perfanaClient.callPerfanaEvent(testContext, "second", "description");
+            perfanaClient.callPerfanaTestEndpoint(testContext, false);
+
+            List<PerfanaStubServer.RecordedCall> calls = simulator.getRecordedCalls();
+            assertEquals(2, calls.size());
+            assertTrue(calls.get(0).getBody().contains("second"));
+            assertEquals("/api/test", calls.get(1).getPath());
+            assertEquals(3, simulator.getReceivedCount());
+        }
+    }
+
+    @Test
+    public void scriptIsPerTestRun() throws Exception {
+        try (PerfanaSimulator simulator = PerfanaSimulator.builder().abortAfter(1, "stop").start()) {
+            PerfanaClient perfanaClient = createPerfanaClient(simulator);
+            PerfanaTestContext other = new TestContextBuilder().setTestRunId("otherTestRunId").build();
+            perfanaClient.callPerfanaTestEndpoint(testContext, false);
+            perfanaClient.callPerfanaTestEndpoint(other, false);
+            assertThrows(KillSwitchException.class, () -> perfanaClient.callPerfanaTestEndpoint(testContext, false));
+        }
+    }
+
+    @Test
+    public void latencyDoesNotBlockOtherCalls() throws Exception {
+        try (PerfanaSimulator simulator = PerfanaSimulator.builder()
+                .latency(Duration.ofMillis(200), Duration.ofMillis(200))
+                .workers(1)
+                .start()) {
+            PerfanaClient perfanaClient = createPerfanaClient(simulator);
+            long start = System.nanoTime();
+            List<CompletableFuture<Void>> calls = new ArrayList<>();
+            for (int i = 0; i < 20; i++) {
+                calls.add(perfanaClient.callPerfanaEventAsync(testContext, "title", "description"));
+            }
+            CompletableFuture.allOf(calls.toArray(new CompletableFuture[0])).get(10, TimeUnit.SECONDS);
+            long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+            assertTrue("delayed replies run in parallel: " + millis + " ms", millis < 20 * 200);
+            assertEquals(20, simulator.getReceivedCount("/api/events"));
+        }
+    }
+}